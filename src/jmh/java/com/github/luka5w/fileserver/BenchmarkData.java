@@ -0,0 +1,163 @@
+package com.github.luka5w.fileserver;
+
+import com.github.luka5w.fileserver.api.HttpException;
+import com.github.luka5w.fileserver.data.FileDB;
+import com.github.luka5w.fileserver.data.PasswordVerifier;
+import com.github.luka5w.fileserver.data.UserDB;
+import com.github.luka5w.fileserver.data.datatypes.User;
+import com.github.luka5w.fileserver.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Creates the databases used by the benchmarks in a temporary directory.
+ *
+ * <p>
+ *     The sizes resemble a small production instance: {@link #USERS} users with {@link #FILES_PER_USER} files each,
+ *     every file containing about {@link #FILE_SIZE} bytes of JSON.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class BenchmarkData {
+
+    public static final int USERS = 1000;
+    public static final int FILES_PER_USER = 20;
+    public static final int FILE_SIZE = 4096;
+    public static final String ADMIN = "admin";
+    public static final String PASSWORD = "password";
+
+    private final Path dir;
+    private final UserDB userDB;
+    private final List<String> users = new ArrayList<>();
+
+    /**
+     * Creates a new temporary directory containing a user database with {@link #USERS} users (including the admin).
+     *
+     * @throws IOException When the database can't be created.
+     * @throws HttpException When a user can't be added.
+     *
+     * @since 1.0.0
+     */
+    public BenchmarkData() throws IOException, HttpException {
+        // Logging would measure the console, not the code.
+        Log.setLevel(Log.ERROR);
+        this.dir = Files.createTempDirectory("fileserver-jmh");
+        // Hashing 1000 passwords with the default cost would take minutes, the benchmarks measure the server, not the hash function.
+        UserDB.setPasswordVerifier(new PasswordVerifier(Runtime.getRuntime().availableProcessors(), 1024, 1000));
+        this.userDB = new UserDB(this.dir.resolve("users.json").toString());
+        this.users.add(ADMIN);
+        for (int i = 1; i < USERS; i++) {
+            String user = "user" + i;
+            this.userDB.addUser(ADMIN, user, PASSWORD + i, User.Type.USER, true);
+            this.users.add(user);
+        }
+    }
+
+    /**
+     * Returns the user database.
+     *
+     * @return The user database.
+     *
+     * @since 1.0.0
+     */
+    public UserDB getUserDB() {
+        return this.userDB;
+    }
+
+    /**
+     * Returns the IDs of all users.
+     *
+     * @return The IDs (the first one is the admin).
+     *
+     * @since 1.0.0
+     */
+    public List<String> getUsers() {
+        return this.users;
+    }
+
+    /**
+     * Returns the password of a user.
+     *
+     * @param index The index of the user in {@link #getUsers()}.
+     * @return The password.
+     *
+     * @since 1.0.0
+     */
+    public String getPassword(int index) {
+        return (index == 0 ? PASSWORD : PASSWORD + index);
+    }
+
+    /**
+     * Creates a file database with {@link #FILES_PER_USER} files for each user.
+     *
+     * @param engine The name of the storage engine.
+     * @param ids Receives the IDs of the files of each user (in the order of {@link #getUsers()}).
+     * @return The file database.
+     *
+     * @throws IOException When the database can't be created.
+     * @throws HttpException When a file can't be created.
+     *
+     * @since 1.0.0
+     */
+    public FileDB createFileDB(String engine, List<long[]> ids) throws IOException, HttpException {
+        FileDB fileDB = new FileDB(engine, this.dir.resolve("files").toString(), Collections.emptyMap(), 4, 1024);
+        JSONObject content = createContent(FILE_SIZE);
+        for (String user : this.users) {
+            long[] userIds = new long[FILES_PER_USER];
+            for (int i = 0; i < FILES_PER_USER; i++) userIds[i] = fileDB.createFile(user, content);
+            ids.add(userIds);
+        }
+        return fileDB;
+    }
+
+    /**
+     * Creates the content of a file: an object with some scalar values and a list of nested objects.
+     *
+     * @param size The approximate size of the serialized content in bytes.
+     * @return The content.
+     *
+     * @since 1.0.0
+     */
+    public static JSONObject createContent(int size) {
+        JSONObject content = new JSONObject();
+        content.put("title", "Benchmark file");
+        content.put("version", 3);
+        content.put("shared", false);
+        JSONArray items = new JSONArray();
+        content.put("items", items);
+        for (int i = 0; content.toString().length() < size; i++) {
+            JSONObject item = new JSONObject();
+            item.put("id", i);
+            item.put("name", "item-" + i);
+            item.put("done", i % 3 == 0);
+            item.put("note", "Lorem ipsum dolor sit amet, \"consectetur\" adipiscing elit.\n");
+            items.put(item);
+        }
+        return content;
+    }
+
+    /**
+     * Deletes the temporary directory.
+     *
+     * @throws IOException When a file can't be deleted.
+     *
+     * @since 1.0.0
+     */
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
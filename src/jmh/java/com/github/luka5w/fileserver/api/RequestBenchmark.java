@@ -0,0 +1,104 @@
+package com.github.luka5w.fileserver.api;
+
+import com.github.luka5w.fileserver.BenchmarkData;
+import com.sun.net.httpserver.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the steps every API request passes before its endpoint is called:
+ * parsing the query, resolving the endpoint and the authentication (including {@link com.github.luka5w.fileserver.data.UserDB#checkAuthorization(String, String)}).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final String QUERY = "id=4611686018427387904&metadata=true&since=1234&wait=30&user=user42";
+    private static final String PATH = "/1.0/file/file";
+
+    private BenchmarkData data;
+    private APIVersion version;
+    private Headers[] headers;
+
+    /**
+     * Creates the user database, the API and the Authorization headers of all users.
+     *
+     * @throws Exception When the database can't be created.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.data = new BenchmarkData();
+        this.version = new API(0, 0, "", "FileServer", null, null).getVersions().get(0);
+        this.headers = new Headers[this.data.getUsers().size()];
+        for (int i = 0; i < this.headers.length; i++) {
+            String credentials = this.data.getUsers().get(i) + ":" + this.data.getPassword(i);
+            this.headers[i] = new Headers();
+            this.headers[i].set("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Deletes the user database.
+     *
+     * @throws Exception When a file can't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.data.delete();
+    }
+
+    /**
+     * Parses a query with five parameters.
+     *
+     * @return The parameters.
+     */
+    @Benchmark
+    public HashMap<String, String> getQueryParams() {
+        return API.getQueryParams(QUERY);
+    }
+
+    /**
+     * Resolves the endpoint of a request path.
+     *
+     * @return The endpoint.
+     */
+    @Benchmark
+    public String getEndpoint() {
+        return this.version.getEndpointName(PATH);
+    }
+
+    /**
+     * Decodes the Authorization header of a random user and verifies the credentials.
+     *
+     * @return The user.
+     *
+     * @throws HttpException Never.
+     */
+    @Benchmark
+    public String checkAuthentication() throws HttpException {
+        return API.checkAuthentication(this.headers[ThreadLocalRandom.current().nextInt(this.headers.length)]);
+    }
+}
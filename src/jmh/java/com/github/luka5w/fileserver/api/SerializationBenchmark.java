@@ -0,0 +1,98 @@
+package com.github.luka5w.fileserver.api;
+
+import com.github.luka5w.fileserver.BenchmarkData;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the serialization of responses with {@link JSONEnvelope} (i.e. what the API writes to the response buffer).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * The size of the file content in bytes.
+     */
+    @Param({"512", "4096", "65536"})
+    public int size;
+
+    private final CharArrayWriter writer = new CharArrayWriter(128 * 1024);
+    private JSONObject content;
+    private JSONArray list;
+
+    /**
+     * Creates the responses.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        this.content = BenchmarkData.createContent(this.size);
+        this.list = new JSONArray();
+        for (int i = 0; i < BenchmarkData.FILES_PER_USER; i++) this.list.put(4611686018427387904L + i);
+    }
+
+    /**
+     * Serializes the content of a file.
+     *
+     * @return The writer.
+     *
+     * @throws IOException Never.
+     */
+    @Benchmark
+    public CharArrayWriter fileContent() throws IOException {
+        this.writer.reset();
+        JSONEnvelope.writeSuccess(this.writer, System.currentTimeMillis(), 200, this.content);
+        return this.writer;
+    }
+
+    /**
+     * Serializes the list of the files of a user.
+     *
+     * @return The writer.
+     *
+     * @throws IOException Never.
+     */
+    @Benchmark
+    public CharArrayWriter fileList() throws IOException {
+        this.writer.reset();
+        JSONEnvelope.writeSuccess(this.writer, System.currentTimeMillis(), 200, this.list);
+        return this.writer;
+    }
+
+    /**
+     * Serializes an error.
+     *
+     * @return The writer.
+     *
+     * @throws IOException Never.
+     */
+    @Benchmark
+    public CharArrayWriter error() throws IOException {
+        this.writer.reset();
+        JSONEnvelope.writeError(this.writer, System.currentTimeMillis(), 404, "File Not Found Or Access Denied");
+        return this.writer;
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.luka5w.fileserver.data;
+
+import com.github.luka5w.fileserver.BenchmarkData;
+import com.github.luka5w.fileserver.api.HttpException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the read path of the {@link FileDB}: the access check (via {@link FileDB#getMetadata(String, long)}) and {@link FileDB#getFile(String, long, boolean)}.
+ *
+ * <p>
+ *     Every operation accesses a random file of a random user, see {@link BenchmarkData} for the sizes.
+ *     The benchmarks run with each {@link com.github.luka5w.fileserver.data.storage.StorageEngine}.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileDBBenchmark {
+
+    /**
+     * The name of the storage engine.
+     */
+    @Param({"file", "memory", "segment"})
+    public String engine;
+
+    private BenchmarkData data;
+    private FileDB fileDB;
+    private String[] users;
+    private long[][] ids;
+
+    /**
+     * Creates the databases.
+     *
+     * @throws Exception When a database can't be created.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.data = new BenchmarkData();
+        List<long[]> ids = new ArrayList<>();
+        this.fileDB = this.data.createFileDB(this.engine, ids);
+        this.users = this.data.getUsers().toArray(new String[0]);
+        this.ids = ids.toArray(new long[0][]);
+    }
+
+    /**
+     * Deletes the databases.
+     *
+     * @throws Exception When a file can't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.data.delete();
+    }
+
+    /**
+     * Checks the access to a file the user owns and returns its metadata.
+     *
+     * @return The metadata.
+     *
+     * @throws HttpException Never.
+     */
+    @Benchmark
+    public Object checkAccess() throws HttpException {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        return this.fileDB.getMetadata(this.users[user], this.ids[user][ThreadLocalRandom.current().nextInt(BenchmarkData.FILES_PER_USER)]);
+    }
+
+    /**
+     * Checks the access to a file of another user (i.e. the access is denied).
+     *
+     * @return The exception.
+     */
+    @Benchmark
+    public Object checkAccessDenied() {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        try {
+            return this.fileDB.getMetadata(this.users[user], this.ids[(user + 1) % this.users.length][0]);
+        }
+        catch (HttpException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Returns the metadata of a file as JSON.
+     *
+     * @return The metadata.
+     *
+     * @throws HttpException Never.
+     */
+    @Benchmark
+    public JSONObject getFileMetadata() throws HttpException {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        return this.fileDB.getFile(this.users[user], this.ids[user][ThreadLocalRandom.current().nextInt(BenchmarkData.FILES_PER_USER)], true);
+    }
+
+    /**
+     * Reads and parses the content of a file.
+     *
+     * @return The content.
+     *
+     * @throws HttpException When the file can't be read.
+     */
+    @Benchmark
+    public JSONObject getFileContent() throws HttpException {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        return this.fileDB.getFile(this.users[user], this.ids[user][ThreadLocalRandom.current().nextInt(BenchmarkData.FILES_PER_USER)], false);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.luka5w.fileserver.data;
+
+import com.github.luka5w.fileserver.BenchmarkData;
+import com.github.luka5w.fileserver.api.HttpException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link UserDB}: the verification of credentials ({@link UserDB#checkAuthorization(String, String)})
+ * and saving the database (via {@link UserDB#setUserEnabled(String, String, boolean)}, which saves after modifying the user).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserDBBenchmark {
+
+    private BenchmarkData data;
+    private UserDB userDB;
+    private String[] users;
+    private String[] passwords;
+
+    /**
+     * Creates the database.
+     *
+     * @throws Exception When the database can't be created.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.data = new BenchmarkData();
+        this.userDB = this.data.getUserDB();
+        this.users = this.data.getUsers().toArray(new String[0]);
+        this.passwords = new String[this.users.length];
+        for (int i = 0; i < this.users.length; i++) this.passwords[i] = this.data.getPassword(i);
+    }
+
+    /**
+     * Deletes the database.
+     *
+     * @throws Exception When a file can't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.data.delete();
+    }
+
+    /**
+     * Verifies valid credentials of a random user.
+     *
+     * @throws HttpException Never.
+     */
+    @Benchmark
+    public void checkAuthorization() throws HttpException {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        this.userDB.checkAuthorization(this.users[user], this.passwords[user]);
+    }
+
+    /**
+     * Verifies a wrong password of a random user.
+     *
+     * @return The exception.
+     */
+    @Benchmark
+    public Object checkAuthorizationInvalid() {
+        int user = ThreadLocalRandom.current().nextInt(this.users.length);
+        try {
+            this.userDB.checkAuthorization(this.users[user], "wrong-password");
+            return null;
+        }
+        catch (HttpException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Modifies a user and saves the database with all {@link BenchmarkData#USERS} users.
+     *
+     * @throws HttpException When the database can't be saved.
+     */
+    @Benchmark
+    public void save() throws HttpException {
+        this.userDB.setUserEnabled(BenchmarkData.ADMIN, this.users[1 + ThreadLocalRandom.current().nextInt(this.users.length - 1)], true);
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.luka5w.fileserver.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal HTTP/1.1 client using one persistent (keep-alive) connection.
+ *
+ * <p>
+ *     The response body is read and discarded (fixed length or chunked), so the connection can be reused for the next request.
+ *     When the server closes the connection, it is reopened on the next request.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class HttpConnection implements AutoCloseable {
+
+    private final InetSocketAddress address;
+    private final String host;
+    private final byte[] buffer = new byte[8192];
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private boolean keepAlive;
+
+    /**
+     * Creates a new connection, the socket is opened with the first request.
+     *
+     * @param address The address of the server.
+     */
+    HttpConnection(InetSocketAddress address) {
+        this.address = address;
+        this.host = address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * Sends a request and reads the response.
+     *
+     * @param method The request method.
+     * @param target The request target (path and query).
+     * @param authorization The value of the Authorization header.
+     * @param contentType The content type of the body or null when there is no body.
+     * @param body The body or null.
+     * @return The status code of the response.
+     *
+     * @throws IOException When the request fails (the connection is closed).
+     */
+    int request(String method, String target, String authorization, String contentType, byte[] body) throws IOException {
+        try {
+            if (this.socket == null) this.open();
+            StringBuilder head = new StringBuilder(256)
+                    .append(method).append(' ').append(target).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(this.host).append("\r\n")
+                    .append("Authorization: ").append(authorization).append("\r\n");
+            if (body != null) {
+                head.append("Content-Type: ").append(contentType).append("\r\n")
+                        .append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            head.append("\r\n");
+            this.out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null) this.out.write(body);
+            this.out.flush();
+            int status = this.readResponse();
+            if (!this.keepAlive) this.close();
+            return status;
+        }
+        catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.socket == null) return;
+        try {
+            this.socket.close();
+        }
+        catch (IOException e) {
+            // The connection is discarded anyway.
+        }
+        this.socket = null;
+    }
+
+    /**
+     * Opens the socket.
+     *
+     * @throws IOException When the server is not reachable.
+     */
+    private void open() throws IOException {
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(this.address, 10_000);
+        this.socket.setSoTimeout(60_000);
+        this.in = new BufferedInputStream(this.socket.getInputStream(), 16384);
+        this.out = new BufferedOutputStream(this.socket.getOutputStream(), 4096);
+    }
+
+    /**
+     * Reads the status line, the headers and the body of a response.
+     *
+     * @return The status code.
+     *
+     * @throws IOException When the response is malformed or the connection was closed.
+     */
+    private int readResponse() throws IOException {
+        String statusLine = this.readLine();
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) throw new IOException("Malformed status line: " + statusLine);
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        this.keepAlive = statusLine.startsWith("HTTP/1.1");
+        long length = -1;
+        boolean chunked = false;
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) length = Long.parseLong(value);
+            else if (name.equalsIgnoreCase("Transfer-Encoding")) chunked = value.equalsIgnoreCase("chunked");
+            else if (name.equalsIgnoreCase("Connection")) this.keepAlive = !value.equalsIgnoreCase("close");
+        }
+        if (status == 204 || status == 304 || status < 200) return status;
+        if (chunked) {
+            long size;
+            while ((size = Long.parseLong(this.readLine().split(";", 2)[0].trim(), 16)) > 0) {
+                this.skip(size);
+                this.readLine();
+            }
+            // Trailers
+            while (!this.readLine().isEmpty()) {
+                // Ignored.
+            }
+        }
+        else if (length >= 0) {
+            this.skip(length);
+        }
+        else {
+            // The body ends with the connection.
+            while (this.in.read(this.buffer) != -1) {
+                // Discarded.
+            }
+            this.keepAlive = false;
+        }
+        return status;
+    }
+
+    /**
+     * Reads a line terminated by CRLF.
+     *
+     * @return The line without CRLF.
+     *
+     * @throws IOException When the connection was closed.
+     */
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int b;
+        while ((b = this.in.read()) != '\n') {
+            if (b == -1) throw new EOFException("Connection closed by server");
+            if (b != '\r') sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads and discards bytes.
+     *
+     * @param n The amount of bytes.
+     *
+     * @throws IOException When the connection was closed.
+     */
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            int read = this.in.read(this.buffer, 0, (int) Math.min(n, this.buffer.length));
+            if (read == -1) throw new EOFException("Connection closed by server");
+            n -= read;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.github.luka5w.fileserver.loadtest;
+
+import com.github.luka5w.fileserver.api.API;
+import com.github.luka5w.fileserver.api.ChangeHub;
+import com.github.luka5w.fileserver.api.FairScheduler;
+import com.github.luka5w.fileserver.api.HttpException;
+import com.github.luka5w.fileserver.data.FileDB;
+import com.github.luka5w.fileserver.data.PasswordVerifier;
+import com.github.luka5w.fileserver.data.UserDB;
+import com.github.luka5w.fileserver.data.datatypes.User;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.server.Server;
+import com.github.luka5w.fileserver.server.nio.NioConfig;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput and the latency a single node sustains.
+ *
+ * <p>
+ *     An in-process {@link Server} is started on a temporary data directory, seeded with users and files
+ *     and driven by a mixed read/write/list workload over many concurrent keep-alive connections (see {@link Worker}).
+ *     <br>
+ *     The report contains the throughput and the p50/p99/p99.9 latencies of each operation.
+ *     In the closed loop model, the latencies are additionally corrected for coordinated omission with the mean latency as expected interval.
+ *     <br>
+ *     Optionally, an additional user sends back-to-back requests over many connections (like a client syncing thousands of files),
+ *     its latencies are reported separately, so the impact on the other users (and of the {@link FairScheduler}) can be measured.
+ * </p>
+ * <p>
+ *     Usage: <code>gradlew loadTest -Pargs="--model open --rate 5000 --connections 128"</code>
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class LoadTest {
+
+    private static final String PASSWORD = "password";
+
+    private final int users;
+    private final int files;
+    private final int fileSize;
+    private final int connections;
+    private final int duration;
+    private final int warmup;
+    private final boolean open;
+    private final int rate;
+    private final int[] mix;
+    private final int threads;
+    private final String engine;
+    private final int heavy;
+    private final boolean fair;
+    private final boolean nio;
+
+    /**
+     * Creates a new load test.
+     *
+     * @param cmd The parsed command line.
+     *
+     * @throws IllegalArgumentException When an option is invalid.
+     */
+    private LoadTest(CommandLine cmd) {
+        this.users = Integer.parseInt(cmd.getOptionValue("users", "100"));
+        this.files = Integer.parseInt(cmd.getOptionValue("files", "20"));
+        this.fileSize = Integer.parseInt(cmd.getOptionValue("file-size", "4096"));
+        this.connections = Integer.parseInt(cmd.getOptionValue("connections", "64"));
+        this.duration = Integer.parseInt(cmd.getOptionValue("duration", "30"));
+        this.warmup = Integer.parseInt(cmd.getOptionValue("warmup", "10"));
+        this.rate = Integer.parseInt(cmd.getOptionValue("rate", "1000"));
+        this.threads = Integer.parseInt(cmd.getOptionValue("threads", Integer.toString(Runtime.getRuntime().availableProcessors() * 2)));
+        this.engine = cmd.getOptionValue("engine", "file");
+        this.heavy = Integer.parseInt(cmd.getOptionValue("heavy", "0"));
+        this.fair = cmd.hasOption("fair");
+        this.nio = cmd.hasOption("nio");
+        String model = cmd.getOptionValue("model", "closed");
+        if (!model.equals("closed") && !model.equals("open")) throw new IllegalArgumentException("Unknown model: " + model);
+        this.open = model.equals("open");
+        String[] weights = cmd.getOptionValue("mix", "80:10:10").split(":");
+        if (weights.length != Operation.values().length) throw new IllegalArgumentException("The mix needs a weight for each operation (read:write:list)");
+        this.mix = new int[weights.length];
+        for (int i = 0, sum = 0; i < weights.length; i++) this.mix[i] = (sum += Integer.parseInt(weights[i]));
+        if (this.users < 1 || this.files < 1 || this.connections < 1 || this.duration < 1 || this.warmup < 0 || this.rate < 1 || this.heavy < 0 || this.mix[this.mix.length - 1] < 1) {
+            throw new IllegalArgumentException("Invalid options");
+        }
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args See <code>--help</code>.
+     *
+     * @throws Exception When the server can't be started.
+     *
+     * @since 1.0.0
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(new Option("u", "users", true, "amount of seeded users (default 100)"));
+        options.addOption(new Option("f", "files", true, "amount of seeded files per user (default 20)"));
+        options.addOption(new Option("s", "file-size", true, "size of a seeded file in bytes (default 4096)"));
+        options.addOption(new Option("c", "connections", true, "amount of concurrent keep-alive connections (default 64)"));
+        options.addOption(new Option("d", "duration", true, "measured duration in seconds (default 30)"));
+        options.addOption(new Option("w", "warmup", true, "unmeasured warmup in seconds (default 10)"));
+        options.addOption(new Option("m", "model", true, "closed (back-to-back requests) or open (constant rate) (default closed)"));
+        options.addOption(new Option("r", "rate", true, "total requests per second of the open model (default 1000)"));
+        options.addOption(new Option("x", "mix", true, "weights of read:write:list (default 80:10:10)"));
+        options.addOption(new Option("t", "threads", true, "worker threads of the server (default 2 * CPUs)"));
+        options.addOption(new Option("e", "engine", true, "storage engine of the file database (default file)"));
+        options.addOption(new Option("H", "heavy", true, "connections of an additional user sending back-to-back requests (default 0)"));
+        options.addOption(new Option("F", "fair", false, "schedule the requests fairly across the users"));
+        options.addOption(new Option("N", "nio", false, "serve the requests with the NIO engine instead of the HttpServer of the JDK"));
+        options.addOption(new Option("h", "help", false, "print this help"));
+        LoadTest loadTest;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption("help")) {
+                new HelpFormatter().printHelp("loadTest", options);
+                return;
+            }
+            loadTest = new LoadTest(cmd);
+        }
+        catch (ParseException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("loadTest", options);
+            System.exit(1);
+            return;
+        }
+        loadTest.run();
+    }
+
+    /**
+     * Seeds the databases, starts the server, runs the workload and prints the report.
+     *
+     * @throws Exception When the server can't be started.
+     */
+    private void run() throws Exception {
+        Log.setLevel(Log.WARN);
+        Path dir = Files.createTempDirectory("fileserver-loadtest");
+        Server server = null;
+        try {
+            System.out.println("Seeding " + this.users + " users with " + this.files + " files of " + this.fileSize + " bytes (" + this.engine + " engine)...");
+            long[][] ids = this.seed(dir);
+            ChangeHub changeHub = new ChangeHub(2, 15, 60, 16);
+            FileDB.getInstance().addChangeListener(changeHub);
+            FairScheduler scheduler = (this.fair ? new FairScheduler(this.threads, Collections.emptyMap(), 1000, Integer.MAX_VALUE) : null);
+            if (this.nio) Server.setNioEngine(new NioConfig(Runtime.getRuntime().availableProcessors(), 10000, 60, 30, 16384, 8192, 16777216, true, 100));
+            server = new Server(new API(0, 0, "", "FileServer-LoadTest", changeHub, scheduler), "127.0.0.1", 0, 1024, this.threads);
+            server.start();
+
+            System.out.println("Running " + (this.open ? "open loop at " + this.rate + " req/s" : "closed loop") + " over " + this.connections + " connections"
+                    + (this.heavy > 0 ? " and " + this.heavy + " connections of a heavy user" : "") + (this.fair ? " with fair scheduling" : "") + (this.nio ? " on the NIO engine" : "")
+                + " (warmup " + this.warmup + " s, duration " + this.duration + " s)...");
+            long start = System.nanoTime();
+            long measureStart = start + TimeUnit.SECONDS.toNanos(this.warmup);
+            long end = measureStart + TimeUnit.SECONDS.toNanos(this.duration);
+            long interval = (this.open ? TimeUnit.SECONDS.toNanos(1) * this.connections / this.rate : 0);
+            Worker[] workers = new Worker[this.connections + this.heavy];
+            Thread[] threads = new Thread[workers.length];
+            for (int i = 0; i < workers.length; i++) {
+                // The heavy user is the last seeded user, it sends back-to-back requests in both models.
+                boolean heavy = (i >= this.connections);
+                int user = (heavy ? this.users : i % this.users);
+                String authorization = "Basic " + Base64.getEncoder().encodeToString((getUser(user) + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+                workers[i] = new Worker(new HttpConnection(server.getAddress()), authorization, ids[user], this.mix, (heavy ? 0 : interval), measureStart, end);
+                threads[i] = new Thread(workers[i], "LoadTest-Worker-" + (i + 1));
+                threads[i].start();
+            }
+            for (Thread thread : threads) thread.join();
+            this.report(Arrays.copyOfRange(workers, 0, this.connections), Arrays.copyOfRange(workers, this.connections, workers.length));
+        }
+        finally {
+            if (server != null) server.stop();
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Creates the databases in a directory and seeds them with users and files.
+     *
+     * @param dir The directory.
+     * @return The IDs of the files of each user (including the heavy user).
+     *
+     * @throws IOException When a database can't be created.
+     * @throws HttpException When a user or a file can't be created.
+     */
+    private long[][] seed(Path dir) throws IOException, HttpException {
+        // Only the first request of each worker verifies the password, a low cost keeps seeding fast without changing the measured requests.
+        UserDB.setPasswordVerifier(new PasswordVerifier(Runtime.getRuntime().availableProcessors(), 1024, 1000));
+        UserDB userDB = new UserDB(dir.resolve("users.json").toString());
+        int users = this.users + (this.heavy > 0 ? 1 : 0);
+        for (int i = 1; i < users; i++) userDB.addUser("admin", getUser(i), PASSWORD, User.Type.USER, true);
+        FileDB fileDB = new FileDB(this.engine, dir.resolve("files").toString(), Collections.emptyMap(), 4, 1024);
+        JSONObject content = createContent(this.fileSize);
+        long[][] ids = new long[users][this.files];
+        for (int i = 0; i < users; i++) {
+            for (int j = 0; j < this.files; j++) ids[i][j] = fileDB.createFile(getUser(i), content);
+        }
+        return ids;
+    }
+
+    /**
+     * Prints the throughput and the latencies of each operation and of all operations.
+     *
+     * @param workers The finished workers.
+     * @param heavyWorkers The finished workers of the heavy user (reported as a single row).
+     */
+    private void report(Worker[] workers, Worker[] heavyWorkers) {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-10s %10s %8s %10s %10s %10s %10s %10s", "operation", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        Histogram total = new Histogram(Worker.MAX_LATENCY, 3);
+        long totalErrors = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = new Histogram(Worker.MAX_LATENCY, 3);
+            long errors = 0;
+            for (Worker worker : workers) {
+                histogram.add(worker.getHistogram(operation));
+                errors += worker.getErrors(operation);
+            }
+            this.printRow(operation.name().toLowerCase(Locale.ROOT), histogram, errors);
+            total.add(histogram);
+            totalErrors += errors;
+        }
+        this.printRow("total", total, totalErrors);
+        if (!this.open && total.getTotalCount() > 0) {
+            // A closed loop sends no requests while waiting for a slow response, so the stall is hidden in a single sample.
+            // The corrected histogram adds the requests which would have been sent at the mean interval.
+            long expectedInterval = Math.max(1, (long) total.getMean());
+            this.printRow("corrected", total.copyCorrectedForCoordinatedOmission(expectedInterval), totalErrors);
+            System.out.println("(corrected for coordinated omission with an expected interval of " + expectedInterval + " us)");
+        }
+        if (heavyWorkers.length > 0) {
+            Histogram heavy = new Histogram(Worker.MAX_LATENCY, 3);
+            long heavyErrors = 0;
+            for (Worker worker : heavyWorkers) {
+                for (Operation operation : Operation.values()) {
+                    heavy.add(worker.getHistogram(operation));
+                    heavyErrors += worker.getErrors(operation);
+                }
+            }
+            this.printRow("heavy", heavy, heavyErrors);
+        }
+    }
+
+    /**
+     * Prints a row of the report.
+     *
+     * @param name The name of the row.
+     * @param histogram The latencies in microseconds.
+     * @param errors The amount of failed requests.
+     */
+    private void printRow(String name, Histogram histogram, long errors) {
+        System.out.println(String.format(Locale.ROOT, "%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+                name, histogram.getTotalCount(), errors, (double) histogram.getTotalCount() / this.duration,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0));
+    }
+
+    /**
+     * Returns the ID of a seeded user.
+     *
+     * @param index The index of the user.
+     * @return The ID (the first user is the admin).
+     */
+    private static String getUser(int index) {
+        return (index == 0 ? "admin" : "user" + index);
+    }
+
+    /**
+     * Creates the content of a seeded file: an object with some scalar values and a list of nested objects.
+     *
+     * @param size The approximate size of the serialized content in bytes.
+     * @return The content.
+     */
+    private static JSONObject createContent(int size) {
+        JSONObject content = new JSONObject();
+        content.put("title", "Load test file");
+        content.put("version", 0);
+        content.put("shared", false);
+        JSONArray items = new JSONArray();
+        content.put("items", items);
+        for (int i = 0; content.toString().length() < size; i++) {
+            JSONObject item = new JSONObject();
+            item.put("id", i);
+            item.put("name", "item-" + i);
+            item.put("done", i % 3 == 0);
+            item.put("note", "Lorem ipsum dolor sit amet, \"consectetur\" adipiscing elit.\n");
+            items.put(item);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.luka5w.fileserver.loadtest;
+
+import com.github.luka5w.json.JSONMergePatch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The requests of the workload.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+enum Operation {
+    /**
+     * Reads the content of a random file of the user (<code>GET file/file</code>).
+     */
+    READ {
+        @Override
+        int execute(HttpConnection connection, String authorization, long[] files) throws IOException {
+            return connection.request("GET", "/1.0/file/file?id=" + randomFile(files), authorization, null, null);
+        }
+    },
+    /**
+     * Modifies a random file of the user with a JSON Merge Patch (<code>PATCH file/file</code>).
+     */
+    WRITE {
+        @Override
+        int execute(HttpConnection connection, String authorization, long[] files) throws IOException {
+            byte[] patch = ("{\"version\":" + ThreadLocalRandom.current().nextInt() + ",\"shared\":true}").getBytes(StandardCharsets.UTF_8);
+            return connection.request("PATCH", "/1.0/file/file?id=" + randomFile(files), authorization, JSONMergePatch.CONTENT_TYPE, patch);
+        }
+    },
+    /**
+     * Lists the files of the user (<code>GET file/list</code>).
+     */
+    LIST {
+        @Override
+        int execute(HttpConnection connection, String authorization, long[] files) throws IOException {
+            return connection.request("GET", "/1.0/file/list", authorization, null, null);
+        }
+    };
+
+    /**
+     * Sends the request of the operation.
+     *
+     * @param connection The connection.
+     * @param authorization The value of the Authorization header.
+     * @param files The IDs of the files of the user.
+     * @return The status code of the response.
+     *
+     * @throws IOException When the request failed.
+     */
+    abstract int execute(HttpConnection connection, String authorization, long[] files) throws IOException;
+
+    /**
+     * Selects a random file.
+     *
+     * @param files The IDs of the files.
+     * @return The ID of the selected file.
+     */
+    private static long randomFile(long[] files) {
+        return files[ThreadLocalRandom.current().nextInt(files.length)];
+    }
+}
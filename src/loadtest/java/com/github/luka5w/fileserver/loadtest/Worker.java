@@ -0,0 +1,129 @@
+package com.github.luka5w.fileserver.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests over one keep-alive connection and records their latencies.
+ *
+ * <p>
+ *     Closed loop: the next request is sent as soon as the response of the previous one was read.
+ *     <br>
+ *     Open loop: requests are scheduled at a constant rate, independent of the responses.
+ *     The latency is measured from the scheduled (not the actual) send time, so requests which are delayed by a slow response
+ *     are recorded with the time they waited (i.e. the results are corrected for coordinated omission).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Worker implements Runnable {
+
+    static final long MAX_LATENCY = TimeUnit.SECONDS.toMicros(60);
+
+    private final HttpConnection connection;
+    private final String authorization;
+    private final long[] files;
+    private final int[] mix;
+    private final long interval;
+    private final long measureStart;
+    private final long end;
+    private final Histogram[] histograms = new Histogram[Operation.values().length];
+    private final long[] errors = new long[Operation.values().length];
+
+    /**
+     * Creates a new worker.
+     *
+     * @param connection The connection.
+     * @param authorization The value of the Authorization header.
+     * @param files The IDs of the files of the user.
+     * @param mix The cumulative weights of the operations (in the order of {@link Operation#values()}).
+     * @param interval The time between two requests in nanoseconds (open loop) or 0 (closed loop).
+     * @param measureStart The end of the warmup ({@link System#nanoTime()}), earlier requests are not recorded.
+     * @param end The end of the test ({@link System#nanoTime()}).
+     */
+    Worker(HttpConnection connection, String authorization, long[] files, int[] mix, long interval, long measureStart, long end) {
+        this.connection = connection;
+        this.authorization = authorization;
+        this.files = files;
+        this.mix = mix;
+        this.interval = interval;
+        this.measureStart = measureStart;
+        this.end = end;
+        for (int i = 0; i < this.histograms.length; i++) this.histograms[i] = new Histogram(MAX_LATENCY, 3);
+    }
+
+    @Override
+    public void run() {
+        Operation[] operations = Operation.values();
+        // Spreads the schedules of the workers over one interval.
+        long next = System.nanoTime() + (this.interval > 0 ? ThreadLocalRandom.current().nextLong(this.interval) : 0);
+        try {
+            while (true) {
+                long intended;
+                if (this.interval > 0) {
+                    intended = next;
+                    next += this.interval;
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                }
+                else {
+                    intended = System.nanoTime();
+                }
+                if (intended - this.end >= 0) break;
+                Operation operation = operations[this.pick()];
+                int status;
+                try {
+                    status = operation.execute(this.connection, this.authorization, this.files);
+                }
+                catch (IOException e) {
+                    status = -1;
+                }
+                long latency = System.nanoTime() - intended;
+                if (intended - this.measureStart < 0) continue;
+                this.histograms[operation.ordinal()].recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latency), MAX_LATENCY));
+                if (status < 200 || status >= 400) this.errors[operation.ordinal()]++;
+            }
+        }
+        finally {
+            this.connection.close();
+        }
+    }
+
+    /**
+     * Returns the recorded latencies of an operation.
+     *
+     * @param operation The operation.
+     * @return The latencies in microseconds.
+     */
+    Histogram getHistogram(Operation operation) {
+        return this.histograms[operation.ordinal()];
+    }
+
+    /**
+     * Returns the amount of failed requests of an operation.
+     *
+     * @param operation The operation.
+     * @return The amount of requests which failed or were answered with an error status.
+     */
+    long getErrors(Operation operation) {
+        return this.errors[operation.ordinal()];
+    }
+
+    /**
+     * Selects an operation according to the mix.
+     *
+     * @return The index of the operation.
+     */
+    private int pick() {
+        int r = ThreadLocalRandom.current().nextInt(this.mix[this.mix.length - 1]);
+        for (int i = 0; i < this.mix.length; i++) {
+            if (r < this.mix[i]) return i;
+        }
+        return this.mix.length - 1;
+    }
+}
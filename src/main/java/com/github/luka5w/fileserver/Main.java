@@ -1,10 +1,20 @@
 package com.github.luka5w.fileserver;
 
 import com.github.luka5w.fileserver.api.API;
+import com.github.luka5w.fileserver.api.ChangeHub;
+import com.github.luka5w.fileserver.api.FairScheduler;
 import com.github.luka5w.fileserver.data.FileDB;
+import com.github.luka5w.fileserver.data.PasswordVerifier;
 import com.github.luka5w.fileserver.data.UserDB;
+import com.github.luka5w.fileserver.data.datatypes.User;
+import com.github.luka5w.fileserver.logging.AccessLog;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.server.AdmissionControl;
+import com.github.luka5w.fileserver.server.Compression;
 import com.github.luka5w.fileserver.server.Server;
-import com.github.luka5w.util.cli.Logger;
+import com.github.luka5w.fileserver.server.SlowRequestLog;
+import com.github.luka5w.fileserver.server.TlsConfig;
+import com.github.luka5w.fileserver.server.nio.NioConfig;
 import com.github.luka5w.util.data.Utils;
 import com.github.luka5w.util.program.MainClass;
 import com.github.luka5w.util.program.Program;
@@ -16,6 +26,7 @@ import org.ini4j.Ini;
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.EnumMap;
 
 /**
  * FileServer
@@ -28,7 +39,7 @@ import java.security.GeneralSecurityException;
 public class Main implements MainClass {
 
     private static int LOG_LEVEL = 0;
-    private static Logger LOGGER = new Logger(Constants.PROGRAM_NAME, LOG_LEVEL);
+    private static final Log LOGGER = new Log(Constants.PROGRAM_NAME);
 
     private Ini ini;
     private API api;
@@ -45,13 +56,16 @@ public class Main implements MainClass {
 
     /**
      * Returns the logger for the specific part of the program.
+     * <p>
+     *     Loggers are created once per name, the level of all loggers is updated when the config is read.
+     * </p>
      *
      * @param subLogger The name of the part of the program.
      *
      * @return The logger for the part of the program.
      */
-    public static Logger getLogger(String subLogger) {
-        return new Logger(subLogger, LOGGER);
+    public static Log getLogger(String subLogger) {
+        return LOGGER.getChild(subLogger);
     }
 
     @Override
@@ -83,7 +97,7 @@ public class Main implements MainClass {
         LOGGER.log("Updating log level...");
         try {
             LOG_LEVEL = Integer.parseInt(this.ini.get("main", "log-level"));
-            LOGGER = new Logger(Constants.PROGRAM_NAME, LOG_LEVEL);
+            Log.setLevel(LOG_LEVEL);
         }
         catch (NumberFormatException e) {
             LOGGER.warn("Can't update log level: " + e.getMessage() + " Keeping default level (" + LOG_LEVEL + ").");
@@ -91,29 +105,169 @@ public class Main implements MainClass {
         LOGGER.debug("Done.");
 
         LOGGER.log("Initializing databases...");
+        try {
+            UserDB.setPasswordVerifier(new PasswordVerifier(
+                    Integer.parseInt(this.getConfig("passwords", "threads", Integer.toString(PasswordVerifier.getDefaultThreads()))),
+                    Integer.parseInt(this.getConfig("passwords", "queue-size", Integer.toString(PasswordVerifier.getDefaultThreads()))),
+                    Integer.parseInt(this.getConfig("passwords", "iterations", Integer.toString(PasswordVerifier.DEFAULT_ITERATIONS)))));
+        }
+        catch (IllegalArgumentException e) {
+            LOGGER.exception("Invalid password config: ", e, true);
+        }
         try {
             this.userDB = new UserDB(this.ini.get("database", "users"));
         } catch (IOException e) {
             LOGGER.exception("Can't initiate user database: ", e, true);
         }
         try {
-            this.fileDB = new FileDB(this.ini.get("database", "dir"));
-        } catch (IOException e) {
+            this.fileDB = new FileDB(this.getConfig("database", "engine", "file"), this.ini.get("database", "dir"), this.ini.get("database"), Integer.parseInt(this.getConfig("database", "io-threads", "4")), Integer.parseInt(this.getConfig("database", "change-log-size", "1024")));
+        } catch (IOException | IllegalArgumentException e) {
             LOGGER.exception("Can't initiate file database: ", e, true);
         }
         LOGGER.debug("Done.");
 
-        this.api = new API(Integer.parseInt(this.ini.get("api", "rate-limit")), Integer.parseInt(this.ini.get("api", "rate-limit-vanish-time")), this.ini.get("api", "access-control-allow-origin"), Constants.PROGRAM_NAME + "@" + Constants.PROGRAM_VERSION);
+        if (Utils.isTrue(this.getConfig("compression", "enabled", "true"))) {
+            Server.setCompression(new Compression(
+                    Integer.parseInt(this.getConfig("compression", "threshold", "1024")),
+                    Integer.parseInt(this.getConfig("compression", "level", "6")),
+                    Integer.parseInt(this.getConfig("compression", "pool-size", "32"))));
+        }
+
+        Server.setServerTiming(Utils.isTrue(this.getConfig("timing", "server-timing", "false")));
+        int slowThreshold = Integer.parseInt(this.getConfig("timing", "slow-threshold", "1000"));
+        if (slowThreshold > 0) {
+            try {
+                Server.setSlowRequestLog(new SlowRequestLog(slowThreshold, this.getConfig("timing", "slow-log", "")));
+            }
+            catch (IOException e) {
+                LOGGER.exception("Can't open slow request log: ", e, true);
+            }
+        }
+
+        if (Utils.isTrue(this.getConfig("access-log", "enabled", "false"))) {
+            try {
+                Server.setAccessLog(new AccessLog(
+                        this.getConfig("access-log", "file", "access.log"),
+                        this.getConfig("access-log", "format", "line"),
+                        Long.parseLong(this.getConfig("access-log", "max-size", "10485760")),
+                        Integer.parseInt(this.getConfig("access-log", "max-files", "5")),
+                        Integer.parseInt(this.getConfig("access-log", "buffer-size", "8192"))));
+            }
+            catch (IOException | IllegalArgumentException e) {
+                LOGGER.exception("Can't open access log: ", e, true);
+            }
+        }
+
+        ChangeHub changeHub = new ChangeHub(
+                Integer.parseInt(this.getConfig("push", "threads", "2")),
+                Integer.parseInt(this.getConfig("push", "heartbeat", "15")),
+                Integer.parseInt(this.getConfig("push", "max-wait", "60")),
+                Integer.parseInt(this.getConfig("push", "max-subscriptions", "16")));
+        this.fileDB.addChangeListener(changeHub);
+
+        int threads = Integer.parseInt(this.getConfig("server", "threads", Integer.toString(Runtime.getRuntime().availableProcessors() * 2)));
+        FairScheduler scheduler = null;
+        if (Utils.isTrue(this.getConfig("scheduler", "enabled", "false"))) {
+            EnumMap<User.Type, Integer> weights = new EnumMap<>(User.Type.class);
+            for (User.Type type : User.Type.values()) {
+                weights.put(type, Integer.parseInt(this.getConfig("scheduler", "weight-" + type.toString().toLowerCase(), (type == User.Type.ADMIN ? "4" : "1"))));
+            }
+            try {
+                scheduler = new FairScheduler(
+                        Integer.parseInt(this.getConfig("scheduler", "threads", Integer.toString(threads))),
+                        weights,
+                        Integer.parseInt(this.getConfig("scheduler", "max-queued", "1000")),
+                        Integer.parseInt(this.getConfig("scheduler", "max-queued-total", Integer.toString(threads * 64))));
+            }
+            catch (IllegalArgumentException e) {
+                LOGGER.exception("Invalid scheduler config: ", e, true);
+            }
+        }
+
+        this.api = new API(Integer.parseInt(this.ini.get("api", "rate-limit")), Integer.parseInt(this.ini.get("api", "rate-limit-vanish-time")), this.ini.get("api", "access-control-allow-origin"), Constants.PROGRAM_NAME + "@" + Constants.PROGRAM_VERSION, changeHub, scheduler);
+        int backlog = Integer.parseInt(this.getConfig("server", "backlog", "50"));
+        String engine = this.getConfig("server", "engine", "jdk");
+        try {
+            switch (engine) {
+                case "jdk":
+                    break;
+                case "nio":
+                    Server.setNioEngine(new NioConfig(
+                            Integer.parseInt(this.getConfig("nio", "event-loops", Integer.toString(Runtime.getRuntime().availableProcessors()))),
+                            Integer.parseInt(this.getConfig("nio", "max-connections", "10000")),
+                            Integer.parseInt(this.getConfig("nio", "idle-timeout", "60")),
+                            Integer.parseInt(this.getConfig("nio", "request-timeout", "30")),
+                            Integer.parseInt(this.getConfig("nio", "buffer-size", "16384")),
+                            Integer.parseInt(this.getConfig("nio", "max-header-size", "8192")),
+                            Integer.parseInt(this.getConfig("nio", "max-body-size", "16777216")),
+                            Utils.isTrue(this.getConfig("nio", "http2", "true")),
+                            Integer.parseInt(this.getConfig("nio", "max-concurrent-streams", "100"))));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown engine: " + engine);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            LOGGER.exception("Invalid server config: ", e, true);
+        }
+        if (Utils.isTrue(this.getConfig("admission", "enabled", "false"))) {
+            try {
+                Server.setAdmissionControl(new AdmissionControl(
+                        Integer.parseInt(this.getConfig("admission", "min-limit", Integer.toString(threads))),
+                        Integer.parseInt(this.getConfig("admission", "max-in-flight", Integer.toString(threads * 4))),
+                        Utils.isTrue(this.getConfig("admission", "adaptive", "false")),
+                        Integer.parseInt(this.getConfig("admission", "queue-size", Integer.toString(threads * 8))),
+                        Integer.parseInt(this.getConfig("admission", "retry-after", "1"))));
+            }
+            catch (IllegalArgumentException e) {
+                LOGGER.exception("Invalid admission control config: ", e, true);
+            }
+        }
         try {
             if (Utils.isTrue(this.ini.get("tls", "enabled"))) {
-                this.server = new Server(this.api, this.ini.get("server", "address"), Integer.parseInt(this.ini.get("server", "port")), 50, this.ini.get("tls", "keystore-path"), this.ini.get("tls", "keystore-password"));
+                String cipherSuites = this.getConfig("tls", "cipher-suites", "");
+                TlsConfig tls = new TlsConfig(this.ini.get("tls", "keystore-path"), this.ini.get("tls", "keystore-password"),
+                        this.getConfig("tls", "protocols", "TLSv1.3,TLSv1.2").split("\\s*,\\s*"),
+                        cipherSuites.isEmpty() ? null : cipherSuites.split("\\s*,\\s*"),
+                        Integer.parseInt(this.getConfig("tls", "session-cache-size", "20480")),
+                        Integer.parseInt(this.getConfig("tls", "session-timeout", "86400")),
+                        Utils.isTrue(this.getConfig("tls", "session-tickets", "true")));
+                this.server = new Server(this.api, this.ini.get("server", "address"), Integer.parseInt(this.ini.get("server", "port")), backlog, threads, tls);
+                if (Utils.isTrue(this.getConfig("tls", "watch-keystore", "true"))) {
+                    try {
+                        tls.watchKeystore();
+                    }
+                    catch (IOException e) {
+                        LOGGER.exception("Can't watch keystore, it is not reloaded when it changes: ", e);
+                    }
+                }
             }
             else {
-                this.server = new Server(this.api, this.ini.get("server", "address"), Integer.parseInt(this.ini.get("server", "port")), 50);
+                this.server = new Server(this.api, this.ini.get("server", "address"), Integer.parseInt(this.ini.get("server", "port")), backlog, threads);
             }
         } catch (IOException | GeneralSecurityException e) {
             LOGGER.exception("Can't initialize server: ", e, true);
+        } catch (IllegalArgumentException e) {
+            LOGGER.exception("Invalid server config: ", e, true);
+        }
+        if (Utils.isTrue(this.getConfig("metrics", "enabled", "false"))) {
+            String token = this.getConfig("metrics", "token", "");
+            if (token.isEmpty()) LOGGER.warn("The metrics are exposed without authentication, set [metrics] token to require it.");
+            this.server.enableMetrics(token);
         }
         this.server.start();
     }
+
+    /**
+     * Returns an optional value of the config.
+     *
+     * @param section The section of the value.
+     * @param key The key of the value.
+     * @param defaultValue The value which is returned when the key is missing or empty.
+     * @return The value of the config or the default value.
+     */
+    private String getConfig(String section, String key, String defaultValue) {
+        String value = this.ini.get(section, key);
+        return (value == null || value.isEmpty() ? defaultValue : value);
+    }
 }
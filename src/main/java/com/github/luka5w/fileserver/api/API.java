@@ -3,9 +3,16 @@ package com.github.luka5w.fileserver.api;
 import com.github.luka5w.fileserver.Main;
 import com.github.luka5w.fileserver.data.FileDB;
 import com.github.luka5w.fileserver.data.UserDB;
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
 import com.github.luka5w.fileserver.data.datatypes.User;
+import com.github.luka5w.fileserver.data.storage.DeflateCodec;
+import com.github.luka5w.fileserver.data.storage.EncodedContent;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import com.github.luka5w.fileserver.server.ResponseStream;
 import com.github.luka5w.fileserver.server.Server;
-import com.github.luka5w.util.cli.Logger;
+import com.github.luka5w.json.JSONMergePatch;
+import com.github.luka5w.json.JSONPatch;
 import com.github.luka5w.util.data.Utils;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
@@ -13,6 +20,17 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -23,7 +41,9 @@ import java.util.stream.Collectors;
  * @version 1.0.0
  */
 public class API {
-    private static final Logger LOGGER = Main.getLogger("API");
+    private static final Log LOGGER = Main.getLogger("API");
+    private static final int MAX_BODY_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_BATCH_SIZE = 1000;
 
     private final int ratelimit;
     private final int ratetime;
@@ -31,6 +51,8 @@ public class API {
     private final boolean sendCors;
     private final String cors;
     private final String serverName;
+    private final ChangeHub changeHub;
+    private final FairScheduler scheduler;
 
     /**
      * Creates a new API for an {@link com.sun.net.httpserver.HttpServer}.
@@ -39,16 +61,20 @@ public class API {
      * @param ratelimitVanishTime The time, a request takes to "vanish" and reduces the amount of requests in this time.
      * @param cors When this argument is not empty (""), The 'Access-Control-Allow-Origin' header will be passed on response with the parameter as value.
      * @param serverName The name of the server, (probably - depending on API version) passed in the response headers.
+     * @param changeHub The hub pushing the changes of files to subscribed clients.
+     * @param scheduler The scheduler of the authenticated requests or null to handle them on the threads of the server.
      *
      * @since 1.0.0
      */
-    public API(int ratelimit, int ratelimitVanishTime, String cors, String serverName) {
+    public API(int ratelimit, int ratelimitVanishTime, String cors, String serverName, ChangeHub changeHub, FairScheduler scheduler) {
         this.ratelimit = ratelimit;
         this.ratetime = ratelimitVanishTime;
         this.versions = new ArrayList<>();
         this.sendCors = !(cors == null || cors.isEmpty());
         this.cors = cors;
         this.serverName = serverName;
+        this.changeHub = changeHub;
+        this.scheduler = scheduler;
         this.addVersions();
     }
 
@@ -99,11 +125,10 @@ public class API {
         this.versions.add(new APIVersion("1.0") {
 
             private HashMap<String, Endpoint> endpoints;
-            private String endpoint;
-            private String authUser;
 
             @Override
             protected void init() {
+                super.LOGGER.warn("[TODO 20.12.2020] Remote check is not implemented in API/Anonymous(1.0)::checkRemote(InetAddress)");
                 this.endpoints = new HashMap<>();
                 this.registerEndpoint("user/self", (httpExchange, method, query, user) -> {
                     switch (method.toUpperCase()) {
@@ -233,6 +258,53 @@ public class API {
                             throw new HttpException(400);
                     }
                 }));
+                this.registerEndpoint("file/changes", ((httpExchange, method, query, user) -> {
+                    switch (method.toUpperCase()) {
+                        case "GET":
+                            // Obtains the changes since a sequence number (without 'since': the current sequence number)
+                            String targetUser = user;
+                            if (query.containsKey("user")) {
+                                targetUser = query.get("user");
+                                if (targetUser == null || targetUser.isEmpty()) throw new HttpException(400, "Invalid Parameters");
+                            }
+                            long since = (query.containsKey("since") ? this.parseLong(query.get("since")) : -1);
+                            long wait = (query.containsKey("wait") ? this.parseLong(query.get("wait")) : 0);
+                            if (wait <= 0 || since < 0) {
+                                this.sendResponse(httpExchange, 200, FileDB.getInstance().getChanges(user, targetUser, since));
+                                break;
+                            }
+                            // Long-poll: the response is sent when a change arrives or the time is up.
+                            RequestContext.current().setStreaming();
+                            API.this.changeHub.poll(user, targetUser, since, wait, (changes, error) -> {
+                                if (error == null) this.sendResponse(httpExchange, 200, changes);
+                                else this.sendError(httpExchange, error.getStatus(), error.getMessage());
+                            });
+                            break;
+                        default:
+                            throw new HttpException(400);
+                    }
+                }));
+                this.registerEndpoint("file/subscribe", ((httpExchange, method, query, user) -> {
+                    switch (method.toUpperCase()) {
+                        case "GET":
+                            // Pushes the changes as Server-Sent Events, a reconnecting client resumes with 'Last-Event-ID' (or 'since')
+                            String targetUser = user;
+                            if (query.containsKey("user")) {
+                                targetUser = query.get("user");
+                                if (targetUser == null || targetUser.isEmpty()) throw new HttpException(400, "Invalid Parameters");
+                            }
+                            String lastEventId = httpExchange.getRequestHeaders().getFirst("Last-Event-ID");
+                            long since = -1;
+                            if (lastEventId != null && !lastEventId.isEmpty()) since = this.parseLong(lastEventId);
+                            else if (query.containsKey("since")) since = this.parseLong(query.get("since"));
+                            modResponse(httpExchange);
+                            RequestContext.current().setStreaming();
+                            API.this.changeHub.stream(httpExchange, user, targetUser, since);
+                            break;
+                        default:
+                            throw new HttpException(400);
+                    }
+                }));
                 this.registerEndpoint("file/file", ((httpExchange, method, query, user) -> {
                     String file = query.get("id");
                     String content = query.get("content");
@@ -241,8 +313,26 @@ public class API {
                         case "GET":
                             if (file == null || file.isEmpty()) throw new HttpException(400, "Missing Parameters");
                             boolean metadataOnly = query.containsKey("meta");
-                            json = FileDB.getInstance().getFile(user, Long.parseLong(file), metadataOnly);
-                            if (json == null) throw new HttpException(500);
+                            // Validators are served from the in-memory index, the file is only read when it has changed.
+                            FileMetadata meta = FileDB.getInstance().getMetadata(user, this.parseLong(file));
+                            String etag = meta.getETag(metadataOnly);
+                            httpExchange.getResponseHeaders().set("ETag", etag);
+                            httpExchange.getResponseHeaders().set("Last-Modified", this.formatHttpDate(meta.getModified()));
+                            httpExchange.getResponseHeaders().set("Cache-Control", "private, no-cache");
+                            if (this.isNotModified(httpExchange.getRequestHeaders(), etag, meta.getModified())) {
+                                modResponse(httpExchange);
+                                Server.sendResponse(httpExchange, 304);
+                                break;
+                            }
+                            if (!metadataOnly && Server.acceptsDeflated(httpExchange)) {
+                                // Contents stored with deflate are passed through to the gzip-compressed response without decoding them.
+                                EncodedContent encoded = FileDB.getInstance().getEncodedFile(user, meta.getId());
+                                if (encoded != null && encoded.getCodec().getId() == DeflateCodec.ID) {
+                                    this.sendDeflatedResponse(httpExchange, 200, encoded);
+                                    break;
+                                }
+                            }
+                            json = (metadataOnly ? meta.toJSON() : FileDB.getInstance().getFile(user, meta.getId(), false));
                             this.sendResponse(httpExchange, 200, json);
                             break;
                         case "POST":
@@ -261,6 +351,31 @@ public class API {
                             this.sendResponse(httpExchange, 200, id);
                             break;
                         case "PATCH":
+                            String patchType = this.getContentType(httpExchange.getRequestHeaders());
+                            if (JSONMergePatch.CONTENT_TYPE.equals(patchType)) {
+                                // RFC 7396, the patch is applied to the stored content
+                                JSONObject mergePatch = this.getJSONBody(httpExchange);
+                                FileDB.getInstance().patchFileContent(user, this.parseLong(file), doc -> (JSONObject) JSONMergePatch.apply(doc, mergePatch));
+                                this.sendResponse(httpExchange, 200);
+                                break;
+                            }
+                            if (JSONPatch.CONTENT_TYPE.equals(patchType)) {
+                                // RFC 6902, the patch is applied to the stored content
+                                JSONArray patch;
+                                try {
+                                    patch = new JSONArray(this.getBody(httpExchange));
+                                }
+                                catch (JSONException e) {
+                                    throw new HttpException(400, "Malformed Input");
+                                }
+                                FileDB.getInstance().patchFileContent(user, this.parseLong(file), doc -> {
+                                    Object patched = JSONPatch.apply(doc, patch);
+                                    if (!(patched instanceof JSONObject)) throw new JSONException("The content must be an object");
+                                    return (JSONObject) patched;
+                                });
+                                this.sendResponse(httpExchange, 200);
+                                break;
+                            }
                             if (content == null || content.isEmpty()) throw new HttpException(400, "Missing Parameters");
                             try {
                                 json = new JSONObject(content);
@@ -268,17 +383,82 @@ public class API {
                             catch (JSONException e) {
                                 throw new HttpException(400, "Malformed Input");
                             }
-                            FileDB.getInstance().modFileContent(user, Long.parseLong(file), json);
+                            FileDB.getInstance().modFileContent(user, this.parseLong(file), json);
                             this.sendResponse(httpExchange, 200);
                             break;
                         case "DELETE":
-                            FileDB.getInstance().deleteFile(user, Long.parseLong(file));
+                            FileDB.getInstance().deleteFile(user, this.parseLong(file));
                             this.sendResponse(httpExchange, 200);
                             break;
                         default:
                             throw new HttpException(400);
                     }
                 }));
+                this.registerEndpoint("file/batch", ((httpExchange, method, query, user) -> {
+                    switch (method.toUpperCase()) {
+                        case "POST":
+                            // Obtains the metadata or the content of multiple files: {"ids":[long],"meta":boolean}
+                            JSONObject body = this.getJSONBody(httpExchange);
+                            JSONArray rawIds = body.optJSONArray("ids");
+                            if (rawIds == null) throw new HttpException(400, "Missing Parameters");
+                            if (rawIds.length() > MAX_BATCH_SIZE) throw new HttpException(413, "Too Many IDs");
+                            Set<Long> ids = new LinkedHashSet<>();
+                            for (int i = 0; i < rawIds.length(); i++) {
+                                long id = rawIds.optLong(i, -1);
+                                if (id < 0) throw new HttpException(400, "Invalid Parameter");
+                                ids.add(id);
+                            }
+                            this.sendBatch(httpExchange, user, ids, body.optBoolean("meta", false));
+                            break;
+                        default:
+                            throw new HttpException(400);
+                    }
+                }));
+                this.registerEndpoint("file/bulk", ((httpExchange, method, query, user) -> {
+                    switch (method.toUpperCase()) {
+                        case "POST":
+                            // Applies multiple operations as one batch: {"ops":[{"op":"create|update|delete","id":long,"content":object}],"atomic":boolean}
+                            JSONObject body = this.getJSONBody(httpExchange);
+                            JSONArray rawOps = body.optJSONArray("ops");
+                            if (rawOps == null) throw new HttpException(400, "Missing Parameters");
+                            if (rawOps.length() > MAX_BATCH_SIZE) throw new HttpException(413, "Too Many Operations");
+                            List<FileDB.Operation> ops = new ArrayList<>();
+                            for (int i = 0; i < rawOps.length(); i++) {
+                                JSONObject rawOp = rawOps.optJSONObject(i);
+                                if (rawOp == null) throw new HttpException(400, "Invalid Operation At Index " + i);
+                                JSONObject opContent = rawOp.optJSONObject("content");
+                                long opId = rawOp.optLong("id", -1);
+                                switch (rawOp.optString("op").toLowerCase()) {
+                                    case "create":
+                                        ops.add(FileDB.Operation.create(opContent == null ? new JSONObject() : opContent));
+                                        break;
+                                    case "update":
+                                        if (opId < 0 || opContent == null) throw new HttpException(400, "Invalid Operation At Index " + i);
+                                        ops.add(FileDB.Operation.update(opId, opContent));
+                                        break;
+                                    case "delete":
+                                        if (opId < 0) throw new HttpException(400, "Invalid Operation At Index " + i);
+                                        ops.add(FileDB.Operation.delete(opId));
+                                        break;
+                                    default:
+                                        throw new HttpException(400, "Invalid Operation At Index " + i);
+                                }
+                            }
+                            FileDB.getInstance().applyBatch(user, ops, body.optBoolean("atomic", false));
+                            JSONArray results = new JSONArray();
+                            for (FileDB.Operation op : ops) {
+                                JSONObject result = new JSONObject();
+                                if (op.getId() >= 0) result.put("id", op.getId());
+                                if (op.getError() == null) result.put("status", 200);
+                                else result.put("status", new JSONObject().put("code", op.getError().getStatus()).put("message", op.getError().getMessage()));
+                                results.put(result);
+                            }
+                            this.sendResponse(httpExchange, 200, results);
+                            break;
+                        default:
+                            throw new HttpException(400);
+                    }
+                }));
             }
 
             @Override
@@ -290,13 +470,27 @@ public class API {
                 }
                 else {
                     try {
-                        this.checkRemote(httpExchange.getRemoteAddress().getHostName());
-                        this.checkAuthentication(httpExchange.getRequestHeaders());
-                        this.getEndpoint(httpExchange.getRequestURI().getPath());
+                        RequestContext context = RequestContext.current();
+                        // The address, not the host name, since resolving it would look up the reverse DNS on every request.
+                        this.checkRemote(httpExchange.getRemoteAddress().getAddress());
+                        long start = System.nanoTime();
+                        String user;
+                        try {
+                            user = API.checkAuthentication(httpExchange.getRequestHeaders());
+                            context.setUser(user);
+                        }
+                        finally {
+                            context.record("auth", start);
+                        }
+                        start = System.nanoTime();
+                        String endpoint = this.getEndpoint(httpExchange.getRequestURI().getPath());
 
                         if (endpoint.isEmpty() || !this.endpoints.containsKey(endpoint)) throw new HttpException(404);
-                        HashMap<String, String> query = this.getQueryParams(httpExchange);
-                        this.endpoints.get(endpoint).handle(httpExchange, httpExchange.getRequestMethod(), query, this.authUser);
+                        HashMap<String, String> query = API.getQueryParams(httpExchange.getRequestURI().getQuery());
+                        context.record("route", start);
+                        Endpoint handler = this.endpoints.get(endpoint);
+                        if (API.this.scheduler == null) this.dispatch(httpExchange, handler, query, user);
+                        else API.this.scheduler.submit(user, UserDB.getInstance().getUser(user).getType(), httpExchange, () -> this.dispatch(httpExchange, handler, query, user));
                     } catch (HttpException e) {
                         this.sendError(httpExchange, e.getStatus(), e.getMessage());
                     }
@@ -304,25 +498,25 @@ public class API {
             }
 
             /**
-             * Returns the query parameters of the request (http://localhost:443?[parameters]) as an HashMap.
-             * <p>
-             *     When a key has no value, the value is an empty {@link String}.
-             * </p>
+             * Passes an authenticated request to its endpoint.
              *
              * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
-             * @return An empty HashMap when no query parameters are passed
+             * @param endpoint The endpoint.
+             * @param query The query parameters.
+             * @param user The authenticated user.
              */
-            private HashMap<String, String> getQueryParams(HttpExchange httpExchange) {
-                HashMap<String, String> query = new HashMap<>();
-                String queryString = httpExchange.getRequestURI().getQuery();
-                if (queryString != null && !queryString.isEmpty()) {
-                    String[] params = httpExchange.getRequestURI().getQuery().split("&");
-                    for (String param : params) {
-                        String[] param1 = param.split("=");
-                        query.put(param1[0], (param1.length == 1 ? "" : param1[1]));
-                    }
+            private void dispatch(HttpExchange httpExchange, Endpoint endpoint, HashMap<String, String> query, String user) {
+                try {
+                    endpoint.handle(httpExchange, httpExchange.getRequestMethod(), query, user);
+                } catch (HttpException e) {
+                    this.sendError(httpExchange, e.getStatus(), e.getMessage());
                 }
-                return query;
+            }
+
+            @Override
+            public String getEndpointName(String requestPath) {
+                String endpoint = this.getEndpoint(requestPath);
+                return (this.endpoints.containsKey(endpoint) ? endpoint : null);
             }
 
             /**
@@ -330,97 +524,277 @@ public class API {
              *
              * @param remote The IP of the remote.
              */
-            private void checkRemote(String remote) {
+            private void checkRemote(InetAddress remote) {
                 // TODO: 20.12.2020 @pre0.0.2 [impl feats] Remote check is not implemented
                 //  - Is remote blacklisted?
-                super.LOGGER.warn("[TODO 20.12.2020] Remote check is not implemented in API/Anonymous(1.0)::checkRemote(String)");
-            }
-
-            /**
-             * Checks whether the remote is authenticated via basic authentication and the passed credentials are valid.
-             *
-             * @param headers The Headers retrieved from {@link HttpExchange#getRequestHeaders()}.
-             *
-             * @throws HttpException With an HTTP status code and a message when anything went wrong (expected and unexpected).
-             */
-            private void checkAuthentication(Headers headers) throws HttpException {
-                if (!headers.containsKey("authorization")) throw new HttpException(401, "Unauthorized");
-                String[] rawAuth = headers.getFirst("authorization").split(" ");
-                if (rawAuth.length != 2) throw new HttpException(400, "Invalid Authorization");
-                if (!rawAuth[0].equalsIgnoreCase("basic")) throw new HttpException(400, "Invalid Authorization Method");
-                String[] decAuth;
-                try {
-                    decAuth = new String(Base64.getDecoder().decode(rawAuth[1])).split(":");
-                    if (decAuth.length != 2) throw new IllegalArgumentException();
-                }
-                catch(IllegalArgumentException e) {
-                    throw new HttpException(400, "Invalid Authorization");
-                }
-                UserDB.getInstance().checkAuthorization(decAuth[0], decAuth[1]);
-                this.authUser = decAuth[0];
+                //  The warning is logged once in init(), not on every request.
             }
 
             /**
              * Retrieves the requested endpoint using the path of the URL.
              *
              * @param requestPath The path retrieved from {@link HttpExchange#getRequestURI()} {@link java.net.URI#getPath()}.
+             * @return The path of the endpoint without leading/ ending '/' (empty when the path contains no endpoint).
              */
-            private void getEndpoint(String requestPath) {
+            private String getEndpoint(String requestPath) {
                 List<String> requestPathParts = new LinkedList<>(Arrays.asList(requestPath.split("/")));
                 if (requestPathParts.size() < 2) throw new IllegalArgumentException("Internal: Illegal State: path must have a size of 2 at least");
-                if (requestPathParts.size() == 2) {
-                    this.endpoint = "";
-                    return;
-                }
+                if (requestPathParts.size() == 2) return "";
                 if (requestPathParts.get(0).isEmpty()) requestPathParts.remove(0);
                 if (requestPathParts.get(0).equals(this.getVersion())) requestPathParts.remove(0);
                 int lastIndex = requestPathParts.size() - 1;
                 if (requestPathParts.get(lastIndex).isEmpty()) requestPathParts.remove(lastIndex);
-                this.endpoint = String.join("/", requestPathParts);
+                return String.join("/", requestPathParts);
             }
 
             /**
-             * Sends a successful response to the client with a {@link JSONObject} containing the timestamp and status code.
+             * Sends a successful response to the client with a JSON object containing the timestamp and status code.
              *
              * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
              * @param code The HTTP status code.
              */
             private void sendResponse(HttpExchange httpExchange, int code) {
-                long ts = (new Date()).getTime();
-                String json = "{\"ts\":" + ts + ",\"status\":" + code + "}";
                 modResponse(httpExchange);
-                Server.sendResponse(httpExchange, code, json, "application/json");
+                try (ResponseStream rs = Server.openResponse(httpExchange, code, "application/json")) {
+                    long start = System.nanoTime();
+                    JSONEnvelope.writeSuccess(rs.getWriter(), System.currentTimeMillis(), code);
+                    RequestContext.current().record("serialize", start);
+                }
+                catch (IOException | JSONException e) {
+                    LOGGER.exception("Failed to respond: ", e);
+                }
             }
 
             /**
-             * Sends a successful response to the client with a {@link JSONObject} containing the timestamp, status code and a content key containing the response.
+             * Sends a successful response to the client with a JSON object containing the timestamp, status code and a content key containing the response.
+             * <p>
+             *     The response is written directly to the (pooled) response buffer, see {@link JSONEnvelope#writeValue(java.io.Writer, Object)}.
+             * </p>
              *
              * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
              * @param code The HTTP status code.
              * @param content The response.
              */
             private void sendResponse(HttpExchange httpExchange, int code, Object content) {
-                long ts = (new Date()).getTime();
-                JSONObject json = new JSONObject();
-                json.put("ts", ts);
-                json.put("status", code);
-                json.put("content", content);
                 modResponse(httpExchange);
-                Server.sendResponse(httpExchange, code, json.toString(), "application/json");
+                try (ResponseStream rs = Server.openResponse(httpExchange, code, "application/json")) {
+                    long start = System.nanoTime();
+                    JSONEnvelope.writeSuccess(rs.getWriter(), System.currentTimeMillis(), code, content);
+                    RequestContext.current().record("serialize", start);
+                }
+                catch (IOException | JSONException e) {
+                    LOGGER.exception("Failed to respond: ", e);
+                }
             }
 
             /**
-             * Sends a error response to the client with a {@link JSONObject} containing the timestamp, status code and a status message, describing what went wrong.
+             * Sends a successful response to the client like {@link #sendResponse(HttpExchange, int, Object)}, with a content which is already compressed.
+             *
+             * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+             * @param code The HTTP status code.
+             * @param content The content encoded with {@link DeflateCodec}.
+             */
+            private void sendDeflatedResponse(HttpExchange httpExchange, int code, EncodedContent content) {
+                modResponse(httpExchange);
+                try (ResponseStream rs = Server.openResponse(httpExchange, code, "application/json")) {
+                    long start = System.nanoTime();
+                    Writer writer = rs.getWriter();
+                    JSONEnvelope.writeContentHead(writer, System.currentTimeMillis(), code);
+                    rs.writeDeflated(content.getData(), content.getLength(), content.getCrc());
+                    JSONEnvelope.writeTail(writer);
+                    RequestContext.current().record("serialize", start);
+                }
+                catch (IOException e) {
+                    LOGGER.exception("Failed to respond: ", e);
+                }
+            }
+
+            /**
+             * Sends a error response to the client with a JSON object containing the timestamp, status code and a status message, describing what went wrong.
              *
              * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
              * @param code The HTTP status code.
              * @param message The status message.
              */
             private void sendError(HttpExchange httpExchange, int code, String message) {
-                long ts = (new Date()).getTime();
-                String json = "{\"ts\":" + ts + ",\"status\":{\"code\":" + code + ",\"message\":\"" + message + "\"}}";
                 modResponse(httpExchange);
-                Server.sendResponse(httpExchange, code, json, "application/json");
+                try (ResponseStream rs = Server.openResponse(httpExchange, code, "application/json")) {
+                    long start = System.nanoTime();
+                    JSONEnvelope.writeError(rs.getWriter(), System.currentTimeMillis(), code, message);
+                    RequestContext.current().record("serialize", start);
+                }
+                catch (IOException | JSONException e) {
+                    LOGGER.exception("Failed to respond: ", e);
+                }
+            }
+
+            /**
+             * Sends the files of a batch request as they are read.
+             * <p>
+             *     The content of the response is an array containing an object for each ID:
+             *     <code>{"id":long,"status":200,"content":object}</code> or <code>{"id":long,"status":{"code":int,"message":String}}</code> when the file could not be read.
+             *     <br>
+             *     The objects are flushed to the client when they are available, so the order may differ from the order of the requested IDs.
+             * </p>
+             *
+             * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+             * @param user The authenticated user.
+             * @param ids The IDs of the files.
+             * @param metadataOnly Request metadata only when true.
+             */
+            private void sendBatch(HttpExchange httpExchange, String user, Set<Long> ids, boolean metadataOnly) {
+                modResponse(httpExchange);
+                try (ResponseStream rs = Server.openResponse(httpExchange, 200, "application/json")) {
+                    Writer writer = rs.getWriter();
+                    JSONEnvelope.writeContentHead(writer, System.currentTimeMillis(), 200);
+                    writer.write('[');
+                    boolean[] first = {true};
+                    FileDB.getInstance().getFiles(user, ids, metadataOnly, (id, file, error) -> {
+                        if (!first[0]) writer.write(',');
+                        first[0] = false;
+                        writer.write("{\"id\":");
+                        writer.write(Long.toString(id));
+                        writer.write(",\"status\":");
+                        if (error == null) {
+                            writer.write("200,\"content\":");
+                            JSONEnvelope.writeValue(writer, file);
+                            writer.write('}');
+                            // Content reads are streamed as soon as they complete.
+                            if (!metadataOnly) rs.flush();
+                        }
+                        else {
+                            JSONEnvelope.writeStatus(writer, error.getStatus(), error.getMessage());
+                            writer.write('}');
+                        }
+                    });
+                    writer.write(']');
+                    JSONEnvelope.writeTail(writer);
+                }
+                catch (IOException | JSONException e) {
+                    LOGGER.exception("Failed to respond: ", e);
+                }
+                catch (InterruptedException e) {
+                    LOGGER.exception("Interrupted while reading files: ", e);
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            /**
+             * Reads the request body and parses it as {@link JSONObject}.
+             *
+             * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+             * @return The parsed body.
+             *
+             * @throws HttpException When the body is too large, can't be read or is not a JSON object.
+             */
+            private JSONObject getJSONBody(HttpExchange httpExchange) throws HttpException {
+                try {
+                    return new JSONObject(this.getBody(httpExchange));
+                }
+                catch (JSONException e) {
+                    throw new HttpException(400, "Malformed Input");
+                }
+            }
+
+            /**
+             * Reads the request body (UTF-8).
+             *
+             * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+             * @return The body.
+             *
+             * @throws HttpException When the body is too large or can't be read.
+             */
+            private String getBody(HttpExchange httpExchange) throws HttpException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                try (InputStream in = httpExchange.getRequestBody()) {
+                    int read;
+                    while ((read = in.read(buf)) != -1) {
+                        if (body.size() + read > MAX_BODY_SIZE) throw new HttpException(413, "Payload Too Large");
+                        body.write(buf, 0, read);
+                    }
+                }
+                catch (IOException e) {
+                    throw new HttpException(400, "Can't Read Request Body");
+                }
+                return new String(body.toByteArray(), StandardCharsets.UTF_8);
+            }
+
+            /**
+             * Returns the media type of the request body (without parameters like the charset).
+             *
+             * @param headers The Headers retrieved from {@link HttpExchange#getRequestHeaders()}.
+             * @return The lower case media type or null when the header is missing.
+             */
+            private String getContentType(Headers headers) {
+                String contentType = headers.getFirst("Content-Type");
+                if (contentType == null) return null;
+                int paramsStart = contentType.indexOf(';');
+                return (paramsStart == -1 ? contentType : contentType.substring(0, paramsStart)).trim().toLowerCase();
+            }
+
+            /**
+             * Parses a numeric parameter (e.g. the ID of a file).
+             *
+             * @param s The string to parse the number from.
+             * @return The number.
+             *
+             * @throws HttpException When the parameter is missing or not a number.
+             */
+            private long parseLong(String s) throws HttpException {
+                if (s == null || s.isEmpty()) throw new HttpException(400, "Missing Parameters");
+                try {
+                    return Long.parseLong(s);
+                }
+                catch (NumberFormatException e) {
+                    throw new HttpException(400, "Invalid Parameter");
+                }
+            }
+
+            /**
+             * Formats a timestamp as HTTP date (RFC 7231, e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>).
+             *
+             * @param ts The timestamp in milliseconds.
+             * @return The formatted date.
+             */
+            private String formatHttpDate(long ts) {
+                return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(ts).atZone(ZoneOffset.UTC));
+            }
+
+            /**
+             * Evaluates the preconditions of a conditional GET request (RFC 7232).
+             * <p>
+             *     'If-None-Match' takes precedence over 'If-Modified-Since', which is ignored when it is malformed.
+             *     The entity tags are compared with the weak comparison.
+             * </p>
+             *
+             * @param headers The Headers retrieved from {@link HttpExchange#getRequestHeaders()}.
+             * @param etag The current entity tag of the requested representation.
+             * @param modified The timestamp of the last modification in milliseconds.
+             * @return true when the client has a valid copy of the representation (i.e. 304 should be sent).
+             */
+            private boolean isNotModified(Headers headers, String etag, long modified) {
+                if (etag.startsWith("W/")) etag = etag.substring(2);
+                List<String> ifNoneMatch = headers.get("If-None-Match");
+                if (ifNoneMatch != null) {
+                    for (String header : ifNoneMatch) {
+                        for (String tag : header.split(",")) {
+                            tag = tag.trim();
+                            if (tag.startsWith("W/")) tag = tag.substring(2);
+                            if (tag.equals("*") || tag.equals(etag)) return true;
+                        }
+                    }
+                    return false;
+                }
+                String ifModifiedSince = headers.getFirst("If-Modified-Since");
+                if (ifModifiedSince == null) return false;
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().getEpochSecond();
+                    return modified / 1000 <= since;
+                }
+                catch (DateTimeParseException e) {
+                    return false;
+                }
             }
 
             /**
@@ -472,6 +846,52 @@ public class API {
         LOGGER.debug("Registered APIs.");
     }
 
+    /**
+     * Returns the query parameters of the request (http://localhost:443?[parameters]) as an HashMap.
+     * <p>
+     *     When a key has no value, the value is an empty {@link String}.
+     * </p>
+     *
+     * @param queryString The query retrieved from {@link HttpExchange#getRequestURI()} {@link java.net.URI#getQuery()} (may be null).
+     * @return An empty HashMap when no query parameters are passed
+     */
+    static HashMap<String, String> getQueryParams(String queryString) {
+        HashMap<String, String> query = new HashMap<>();
+        if (queryString != null && !queryString.isEmpty()) {
+            String[] params = queryString.split("&");
+            for (String param : params) {
+                String[] param1 = param.split("=");
+                query.put(param1[0], (param1.length == 1 ? "" : param1[1]));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Checks whether the remote is authenticated via basic authentication and the passed credentials are valid.
+     *
+     * @param headers The Headers retrieved from {@link HttpExchange#getRequestHeaders()}.
+     * @return The ID of the authenticated user.
+     *
+     * @throws HttpException With an HTTP status code and a message when anything went wrong (expected and unexpected).
+     */
+    static String checkAuthentication(Headers headers) throws HttpException {
+        if (!headers.containsKey("authorization")) throw new HttpException(401, "Unauthorized");
+        String[] rawAuth = headers.getFirst("authorization").split(" ");
+        if (rawAuth.length != 2) throw new HttpException(400, "Invalid Authorization");
+        if (!rawAuth[0].equalsIgnoreCase("basic")) throw new HttpException(400, "Invalid Authorization Method");
+        String[] decAuth;
+        try {
+            decAuth = new String(Base64.getDecoder().decode(rawAuth[1])).split(":");
+            if (decAuth.length != 2) throw new IllegalArgumentException();
+        }
+        catch(IllegalArgumentException e) {
+            throw new HttpException(400, "Invalid Authorization");
+        }
+        UserDB.getInstance().checkAuthorization(decAuth[0], decAuth[1]);
+        return decAuth[0];
+    }
+
     /**
      * This method adds some important response headers to the response.
      *
@@ -481,7 +901,11 @@ public class API {
         // Send CORS header with its value when required.
         if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Allow-Origin", this.cors);
         if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Allow-Credentials", "true");
-        if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Authorization");
+        // The JSON bodies (file/batch, file/bulk, the patch formats), the conditional requests and the resumed subscriptions need their headers.
+        if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Authorization, Content-Type, If-None-Match, If-Modified-Since, Last-Event-ID");
+        if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, PATCH, DELETE");
+        // Lets scripts read the validators for conditional requests.
+        if (this.sendCors) httpExchange.getResponseHeaders().set("Access-Control-Expose-Headers", "ETag, Last-Modified");
         // Send Server Name
         httpExchange.getResponseHeaders().set("Server", this.serverName);
     }
@@ -494,7 +918,7 @@ public class API {
      *
      * @since 1.0.0
      */
-    protected static Logger getLogger(String version) {
-        return new Logger(version, LOGGER);
+    protected static Log getLogger(String version) {
+        return LOGGER.getChild(version);
     }
 }
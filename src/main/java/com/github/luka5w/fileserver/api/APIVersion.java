@@ -1,6 +1,6 @@
 package com.github.luka5w.fileserver.api;
 
-import com.github.luka5w.util.cli.Logger;
+import com.github.luka5w.fileserver.logging.Log;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
@@ -13,7 +13,7 @@ import java.util.HashMap;
  * @version 1.0.0
  */
 public abstract class APIVersion implements HttpHandler {
-    protected final Logger LOGGER;
+    protected final Log LOGGER;
     private final String version;
 
     /**
@@ -53,6 +53,14 @@ public abstract class APIVersion implements HttpHandler {
      */
     public abstract void handle(HttpExchange httpExchange);
 
+    /**
+     * Returns the registered endpoint a request path is routed to.
+     *
+     * @param requestPath The path retrieved from {@link HttpExchange#getRequestURI()} {@link java.net.URI#getPath()}.
+     * @return The path of the endpoint without leading/ ending '/' or null when no endpoint is registered for the path.
+     */
+    public abstract String getEndpointName(String requestPath);
+
     /**
      * An API endpoint (e.g. path).
      * (No need to use this...)
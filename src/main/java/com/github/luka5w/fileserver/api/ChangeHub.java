@@ -0,0 +1,483 @@
+package com.github.luka5w.fileserver.api;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.data.ChangeLog;
+import com.github.luka5w.fileserver.data.FileDB;
+import com.github.luka5w.fileserver.data.UserDB;
+import com.github.luka5w.fileserver.logging.Log;
+import com.sun.net.httpserver.HttpExchange;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the changes of files (see {@link FileDB#getChanges(String, String, long)}) to subscribed clients,
+ * either as Server-Sent Events or as answer of a long-poll request.
+ *
+ * <p>
+ *     Idle subscriptions don't occupy a thread: the {@link HttpExchange} is parked until a change arrives,
+ *     which is then written by one of the (few) push threads. A single timer thread sends the heartbeats of the event streams
+ *     (which also detect disconnected clients) and completes the long-poll requests which timed out.
+ *     <br>
+ *     A subscription is registered before its backlog is read, so no change is lost between the backlog and the first pushed change.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class ChangeHub implements FileDB.ChangeListener {
+
+    private static final Log LOGGER = Main.getLogger("ChangeHub");
+    private static final int MAX_PENDING = 256;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentHashMap<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService pushExecutor;
+    private final long heartbeatInterval;
+    private final long maxWait;
+    private final int maxSubscriptions;
+
+    /**
+     * Creates a new hub.
+     *
+     * @param threads The amount of threads writing the changes to the clients.
+     * @param heartbeatInterval The interval of the heartbeats of event streams in seconds.
+     * @param maxWait The maximal time a long-poll request waits for changes in seconds.
+     * @param maxSubscriptions The maximal amount of subscriptions per user.
+     *
+     * @since 1.0.0
+     */
+    public ChangeHub(int threads, int heartbeatInterval, int maxWait, int maxSubscriptions) {
+        this.heartbeatInterval = TimeUnit.SECONDS.toMillis(heartbeatInterval);
+        this.maxWait = TimeUnit.SECONDS.toMillis(maxWait);
+        this.maxSubscriptions = maxSubscriptions;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pushExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ChangeHub-Push-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ChangeHub-Timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Most long-poll timeouts are cancelled, they must not pile up in the queue of the timer.
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timer.scheduleAtFixedRate(this::heartbeat, this.heartbeatInterval, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens an event stream (<code>text/event-stream</code>) which pushes the changes of the files of a user.
+     * <p>
+     *     Each change is sent as <code>change</code> event with the sequence number as ID, so a reconnecting client resumes via <code>Last-Event-ID</code>.
+     *     The stream starts with a <code>ready</code> event (without a sequence number) or a <code>reset</code> event (when the changes since the sequence number are not available anymore),
+     *     both containing the current sequence number: <code>{"seq":long}</code>.
+     *     <br>
+     *     The response stays open after this method returns.
+     * </p>
+     *
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @param executingUser The ID of the executing user.
+     * @param targetUser The ID of the user whose changes are pushed.
+     * @param since The sequence number of the last change known by the client or -1.
+     *
+     * @throws HttpException When the executing user has insufficient permission, the user has too many subscriptions or see {@link FileDB#getChanges(String, String, long)}.
+     *
+     * @since 1.0.0
+     */
+    public void stream(HttpExchange httpExchange, String executingUser, String targetUser, long since) throws HttpException {
+        // Checked before registering, so a denied request does not count against the subscriptions of the target user.
+        UserDB.getInstance().checkAPIPermission(executingUser, targetUser);
+        EventStream stream = new EventStream(targetUser, httpExchange);
+        this.register(stream);
+        JSONObject backlog;
+        try {
+            backlog = FileDB.getInstance().getChanges(executingUser, targetUser, since);
+        }
+        catch (HttpException e) {
+            this.unregister(stream);
+            throw e;
+        }
+        stream.start(backlog, since >= 0);
+    }
+
+    /**
+     * Waits until the files of a user have changed (long-poll).
+     * <p>
+     *     The changes are passed to the consumer immediately (on the calling thread) when there are changes since the sequence number,
+     *     otherwise when the next change arrives or the time is up (on a push thread).
+     * </p>
+     *
+     * @param executingUser The ID of the executing user.
+     * @param targetUser The ID of the user whose changes are awaited.
+     * @param since The sequence number of the last change known by the client.
+     * @param wait The maximal time to wait in seconds (limited to the configured maximum).
+     * @param consumer Receives the changes, see {@link FileDB#getChanges(String, String, long)}.
+     *
+     * @throws HttpException When the executing user has insufficient permission, the user has too many subscriptions or see {@link FileDB#getChanges(String, String, long)}.
+     *
+     * @since 1.0.0
+     */
+    public void poll(String executingUser, String targetUser, long since, long wait, ChangesConsumer consumer) throws HttpException {
+        UserDB.getInstance().checkAPIPermission(executingUser, targetUser);
+        Poll poll = new Poll(targetUser, executingUser, since, consumer);
+        this.register(poll);
+        JSONObject backlog;
+        try {
+            backlog = FileDB.getInstance().getChanges(executingUser, targetUser, since);
+        }
+        catch (HttpException e) {
+            this.unregister(poll);
+            // A change may have completed the poll already, which then passes the error to the consumer.
+            if (poll.done.compareAndSet(false, true)) throw e;
+            return;
+        }
+        if (backlog.getBoolean("reset") || backlog.getJSONArray("changes").length() > 0) {
+            if (poll.done.compareAndSet(false, true)) {
+                this.unregister(poll);
+                consumer.accept(backlog, null);
+            }
+            return;
+        }
+        poll.timeout = this.timer.schedule(() -> this.pushExecutor.execute(poll::complete), Math.min(TimeUnit.SECONDS.toMillis(wait), this.maxWait), TimeUnit.MILLISECONDS);
+        // The poll may have been completed by a change before the timeout was set.
+        if (poll.done.get()) poll.timeout.cancel(false);
+    }
+
+    /**
+     * Hands a change over to the subscriptions of the user.
+     *
+     * @param user The owner of the file.
+     * @param change The change.
+     *
+     * @since 1.0.0
+     */
+    @Override
+    public void onChange(String user, ChangeLog.Change change) {
+        Set<Subscription> subscriptions = this.subscriptions.get(user);
+        if (subscriptions == null) return;
+        for (Subscription subscription : subscriptions) subscription.offer(change);
+    }
+
+    /**
+     * Adds a subscription.
+     *
+     * @param subscription The subscription.
+     *
+     * @throws HttpException When the user has too many subscriptions.
+     */
+    private void register(Subscription subscription) throws HttpException {
+        boolean[] added = {false};
+        this.subscriptions.compute(subscription.user, (user, subscriptions) -> {
+            if (subscriptions == null) subscriptions = ConcurrentHashMap.newKeySet();
+            if (subscriptions.size() < this.maxSubscriptions) added[0] = subscriptions.add(subscription);
+            return (subscriptions.isEmpty() ? null : subscriptions);
+        });
+        if (!added[0]) throw new HttpException(429, "Too Many Subscriptions");
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param subscription The subscription.
+     */
+    private void unregister(Subscription subscription) {
+        this.subscriptions.computeIfPresent(subscription.user, (user, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return (subscriptions.isEmpty() ? null : subscriptions);
+        });
+    }
+
+    /**
+     * Sends a heartbeat to all event streams.
+     */
+    private void heartbeat() {
+        for (Set<Subscription> subscriptions : this.subscriptions.values()) {
+            for (Subscription subscription : subscriptions) subscription.heartbeat();
+        }
+    }
+
+    /**
+     * Receives the result of {@link #poll(String, String, long, long, ChangesConsumer)}.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    public interface ChangesConsumer {
+
+        /**
+         * Called once when the poll is completed.
+         *
+         * @param changes The changes or null when they could not be read.
+         * @param error The error or null when the changes have been read.
+         *
+         * @since 1.0.0
+         */
+        void accept(JSONObject changes, HttpException error);
+    }
+
+    /**
+     * A subscription to the changes of a user.
+     */
+    private abstract static class Subscription {
+        protected final String user;
+
+        /**
+         * Creates a new subscription.
+         *
+         * @param user The user whose changes are subscribed.
+         */
+        protected Subscription(String user) {
+            this.user = user;
+        }
+
+        /**
+         * Called for each change of the user, must not block.
+         *
+         * @param change The change.
+         */
+        protected abstract void offer(ChangeLog.Change change);
+
+        /**
+         * Called periodically by the timer, must not block.
+         */
+        protected abstract void heartbeat();
+    }
+
+    /**
+     * An event stream.
+     * <p>
+     *     Only one thread writes to the stream at a time: the thread which sets {@link #writing}.
+     *     The changes are queued while the stream is written, a client which falls behind by more than {@link #MAX_PENDING} changes is disconnected
+     *     (it resumes via <code>Last-Event-ID</code> after reconnecting).
+     * </p>
+     */
+    private final class EventStream extends Subscription {
+        private final HttpExchange httpExchange;
+        private final ArrayDeque<ChangeLog.Change> pending = new ArrayDeque<>();
+        private OutputStream out;
+        private long lastSeq;
+        private boolean writing = true;
+        private boolean heartbeatDue = false;
+        private boolean closed = false;
+
+        /**
+         * Creates a new event stream.
+         *
+         * @param user The user whose changes are pushed.
+         * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+         */
+        private EventStream(String user, HttpExchange httpExchange) {
+            super(user);
+            this.httpExchange = httpExchange;
+        }
+
+        /**
+         * Sends the response headers and the backlog, then hands the stream over to the push threads.
+         *
+         * @param backlog The changes since the sequence number requested by the client.
+         * @param resume Whether the client requested the changes since a sequence number.
+         */
+        private void start(JSONObject backlog, boolean resume) {
+            this.httpExchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            this.httpExchange.getResponseHeaders().set("Cache-Control", "no-cache, no-transform");
+            this.httpExchange.getResponseHeaders().set("X-Accel-Buffering", "no");
+            StringBuilder sb = new StringBuilder("retry: ").append(heartbeatInterval).append("\n\n");
+            this.lastSeq = backlog.getLong("seq");
+            if (!resume || backlog.getBoolean("reset")) {
+                sb.append("id: ").append(this.lastSeq).append('\n')
+                        .append("event: ").append(resume ? "reset" : "ready").append('\n')
+                        .append("data: ").append(new JSONObject().put("seq", this.lastSeq)).append("\n\n");
+            }
+            else {
+                for (Object change : backlog.getJSONArray("changes")) {
+                    this.appendEvent(sb, ((JSONObject) change).getLong("seq"), change.toString());
+                }
+            }
+            try {
+                this.httpExchange.sendResponseHeaders(200, 0);
+                this.out = this.httpExchange.getResponseBody();
+                this.out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                this.out.flush();
+            }
+            catch (IOException e) {
+                LOGGER.debug(() -> "Event stream closed: " + e.getMessage());
+                this.close();
+            }
+            this.release();
+        }
+
+        @Override
+        protected synchronized void offer(ChangeLog.Change change) {
+            if (this.closed) return;
+            if (this.pending.size() >= MAX_PENDING) {
+                this.closed = true;
+                unregister(this);
+            }
+            else {
+                this.pending.add(change);
+            }
+            this.schedule();
+        }
+
+        @Override
+        protected synchronized void heartbeat() {
+            if (this.closed) return;
+            this.heartbeatDue = true;
+            this.schedule();
+        }
+
+        /**
+         * Starts a push thread writing to the stream when no thread writes to it.
+         * <p>
+         *     The caller must hold the monitor of this stream.
+         * </p>
+         */
+        private void schedule() {
+            if (this.writing) return;
+            this.writing = true;
+            pushExecutor.execute(this::drain);
+        }
+
+        /**
+         * Releases the stream after writing, a push thread is started when there is something left to write.
+         */
+        private synchronized void release() {
+            this.writing = false;
+            if (this.closed || this.heartbeatDue || !this.pending.isEmpty()) this.schedule();
+        }
+
+        /**
+         * Writes the pending changes (or a heartbeat) to the client.
+         */
+        private void drain() {
+            List<ChangeLog.Change> changes = null;
+            boolean heartbeat = false;
+            boolean closed;
+            synchronized (this) {
+                closed = this.closed;
+                if (!closed) {
+                    changes = new ArrayList<>(this.pending);
+                    this.pending.clear();
+                    heartbeat = this.heartbeatDue;
+                    this.heartbeatDue = false;
+                }
+            }
+            if (closed) {
+                // The stream is never released, so no other thread writes to it anymore.
+                this.httpExchange.close();
+                return;
+            }
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (ChangeLog.Change change : changes) {
+                    // Changes which were already part of the backlog are skipped.
+                    if (change.getSeq() <= this.lastSeq) continue;
+                    this.lastSeq = change.getSeq();
+                    this.appendEvent(sb, change.getSeq(), change.toJSON().toString());
+                }
+                if (sb.length() > 0) this.out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                else if (heartbeat) this.out.write(HEARTBEAT);
+                this.out.flush();
+            }
+            catch (IOException e) {
+                LOGGER.debug(() -> "Event stream closed: " + e.getMessage());
+                this.close();
+            }
+            this.release();
+        }
+
+        /**
+         * Appends a change event.
+         *
+         * @param sb The StringBuilder.
+         * @param seq The sequence number of the change.
+         * @param data The change as JSON.
+         */
+        private void appendEvent(StringBuilder sb, long seq, String data) {
+            sb.append("id: ").append(seq).append('\n')
+                    .append("event: change\n")
+                    .append("data: ").append(data).append("\n\n");
+        }
+
+        /**
+         * Marks the stream as closed and removes the subscription, the exchange is closed by the next push thread.
+         */
+        private synchronized void close() {
+            this.closed = true;
+            unregister(this);
+        }
+    }
+
+    /**
+     * A long-poll request, which is completed once by the first change, the timeout or the backlog.
+     */
+    private final class Poll extends Subscription {
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final String executingUser;
+        private final long since;
+        private final ChangesConsumer consumer;
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * Creates a new long-poll request.
+         *
+         * @param user The user whose changes are awaited.
+         * @param executingUser The ID of the executing user.
+         * @param since The sequence number of the last change known by the client.
+         * @param consumer Receives the changes.
+         */
+        private Poll(String user, String executingUser, long since, ChangesConsumer consumer) {
+            super(user);
+            this.executingUser = executingUser;
+            this.since = since;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void offer(ChangeLog.Change change) {
+            if (this.done.get()) return;
+            // The changes are read by a push thread, the index of the database is locked while the listeners are called.
+            pushExecutor.execute(this::complete);
+        }
+
+        @Override
+        protected void heartbeat() {
+        }
+
+        /**
+         * Passes the current changes to the consumer (once).
+         */
+        private void complete() {
+            if (!this.done.compareAndSet(false, true)) return;
+            unregister(this);
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) timeout.cancel(false);
+            try {
+                this.consumer.accept(FileDB.getInstance().getChanges(this.executingUser, this.user, this.since), null);
+            }
+            catch (HttpException e) {
+                this.consumer.accept(null, e);
+            }
+            catch (RuntimeException e) {
+                LOGGER.exception("Failed to complete poll: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.luka5w.fileserver.api;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.data.datatypes.User;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Histogram;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import com.github.luka5w.fileserver.server.AdmissionControl;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules the authenticated requests fairly across the users, so a single user (e.g. a client syncing thousands of files)
+ * can't monopolize the server and starve the requests of the other users.
+ *
+ * <p>
+ *     The requests are queued per user and handled by a fixed amount of dispatcher threads,
+ *     which serve the queues with deficit round-robin (each request costs one unit):
+ *     a user receives a quantum of its weight (configured per {@link User.Type}) when its queue is visited,
+ *     so with weights of 4 (admins) and 1 (users), an admin is served four times as often as a user while both have queued requests.
+ *     Users without queued requests receive no quantum, so they can't save up for a burst.
+ *     <br>
+ *     The threads of the HttpServer only parse and authenticate the requests, so the requests of a user with a short queue
+ *     don't wait behind the requests of a user with a long queue. The exchanges are answered asynchronously by the dispatcher threads.
+ * </p>
+ * <p>
+ *     The queues are bounded per user (429, Too Many Requests) and in total (503, Service Unavailable),
+ *     since the requests handed over by the threads of the HttpServer would otherwise queue up without bounds.
+ *     <br>
+ *     When the {@link AdmissionControl} is enabled, it admits the requests before they are parsed and the scheduler orders the admitted requests.
+ *     A queued request keeps its permit until it has been handled by a dispatcher thread (see {@link AdmissionControl#takePermit()}),
+ *     so the limit of the admission control bounds the requests queued here as well and its latency includes the time they are queued.
+ *     The total bound of the scheduler then only matters when it is lower than the limit of the admission control.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class FairScheduler {
+
+    private static final Log LOGGER = Main.getLogger("Scheduler");
+
+    private final EnumMap<User.Type, Integer> weights = new EnumMap<>(User.Type.class);
+    private final int maxQueued;
+    private final int maxQueuedTotal;
+    private final HashMap<String, Flow> flows = new HashMap<>();
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = this.lock.newCondition();
+    private final EnumMap<User.Type, Histogram> waitTimes = new EnumMap<>(User.Type.class);
+    private volatile int queued = 0;
+
+    /**
+     * Creates a new scheduler and starts its dispatcher threads.
+     *
+     * @param threads The amount of threads handling the requests.
+     * @param weights The weights of the types of users (1 for missing types).
+     * @param maxQueued The maximal amount of queued requests per user, further requests are answered with 429 (Too Many Requests).
+     * @param maxQueuedTotal The maximal amount of queued requests of all users, further requests are answered with 503 (Service Unavailable).
+     *
+     * @throws IllegalArgumentException When the amount of threads or a weight is less than 1.
+     *
+     * @since 1.0.0
+     */
+    public FairScheduler(int threads, Map<User.Type, Integer> weights, int maxQueued, int maxQueuedTotal) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+        Metrics metrics = Metrics.getInstance();
+        for (User.Type type : User.Type.values()) {
+            int weight = weights.getOrDefault(type, 1);
+            if (weight < 1) throw new IllegalArgumentException("weight of " + type + " must be at least 1");
+            this.weights.put(type, weight);
+            this.waitTimes.put(type, metrics.histogram("fileserver_scheduler_wait_seconds", "The time requests are queued by the fair scheduler.", "type", type.toString()));
+        }
+        this.maxQueued = maxQueued;
+        this.maxQueuedTotal = maxQueuedTotal;
+        metrics.gauge("fileserver_scheduler_queued", "The requests queued by the fair scheduler.", () -> this.queued);
+        for (int i = 1; i <= threads; i++) {
+            Thread t = new Thread(this::dispatch, "API-Dispatcher-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Queues a request, which is handled by a dispatcher thread when it's the turn of the user.
+     * <p>
+     *     The {@link RequestContext} and the permit of the {@link AdmissionControl} of the current thread are passed to the dispatcher thread,
+     *     which releases the permit when the request has been handled.
+     *     When the task throws a RuntimeException, the exchange is closed (like the HttpServer does).
+     * </p>
+     *
+     * @param user The authenticated user.
+     * @param type The type of the user.
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @param task Handles the request.
+     *
+     * @throws HttpException When the user has too many queued requests (429) or the scheduler has too many queued requests (503).
+     *
+     * @since 1.0.0
+     */
+    public void submit(String user, User.Type type, HttpExchange httpExchange, Runnable task) throws HttpException {
+        Task t = new Task(type, httpExchange, task, RequestContext.current());
+        this.lock.lock();
+        try {
+            if (this.queued >= this.maxQueuedTotal) throw new HttpException(503, "Service Unavailable");
+            Flow flow = this.flows.get(user);
+            if (flow == null) {
+                flow = new Flow(user, this.weights.get(type));
+                this.flows.put(user, flow);
+            }
+            if (flow.tasks.size() >= this.maxQueued) throw new HttpException(429, "Too Many Requests");
+            t.permit = AdmissionControl.takePermit();
+            flow.tasks.add(t);
+            if (flow.tasks.size() == 1) this.active.add(flow);
+            this.queued++;
+            this.available.signal();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Handles the queued requests (the loop of a dispatcher thread).
+     */
+    private void dispatch() {
+        while (true) {
+            Task task;
+            this.lock.lock();
+            try {
+                while (this.active.isEmpty()) this.available.await();
+                task = this.next();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            finally {
+                this.lock.unlock();
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * Removes the next request from the queues (must be called while holding the lock and when a request is queued).
+     * <p>
+     *     The user at the head of the round receives its quantum when it has spent the previous one
+     *     and moves to the end of the round when it has spent the quantum again.
+     *     A user whose queue is empty leaves the round and loses its remaining quantum.
+     * </p>
+     *
+     * @return The request.
+     */
+    private Task next() {
+        Flow flow = this.active.peek();
+        if (flow.deficit == 0) flow.deficit = flow.weight;
+        Task task = flow.tasks.poll();
+        flow.deficit--;
+        if (flow.tasks.isEmpty()) {
+            this.active.poll();
+            this.flows.remove(flow.user);
+        }
+        else if (flow.deficit == 0) {
+            this.active.add(this.active.poll());
+        }
+        this.queued--;
+        return task;
+    }
+
+    /**
+     * The queued requests of a user.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    private static class Flow {
+
+        private final String user;
+        private final int weight;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private int deficit = 0;
+
+        /**
+         * Creates a new (empty) queue.
+         *
+         * @param user The user.
+         * @param weight The quantum the user receives per round.
+         */
+        private Flow(String user, int weight) {
+            this.user = user;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A queued request.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    private class Task {
+
+        private final User.Type type;
+        private final HttpExchange httpExchange;
+        private final Runnable task;
+        private final RequestContext context;
+        private final long queued = System.nanoTime();
+        private Runnable permit = null;
+
+        /**
+         * Creates a new request.
+         *
+         * @param type The type of the user.
+         * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+         * @param task Handles the request.
+         * @param context The context of the request.
+         */
+        private Task(User.Type type, HttpExchange httpExchange, Runnable task, RequestContext context) {
+            this.type = type;
+            this.httpExchange = httpExchange;
+            this.task = task;
+            this.context = context;
+        }
+
+        /**
+         * Handles the request on the current thread.
+         */
+        private void run() {
+            FairScheduler.this.waitTimes.get(this.type).record(System.nanoTime() - this.queued);
+            this.context.record("queue", this.queued);
+            RequestContext.setCurrent(this.context);
+            try {
+                this.task.run();
+            }
+            catch (RuntimeException e) {
+                LOGGER.exception("Failed to handle request: ", e);
+                this.httpExchange.close();
+            }
+            finally {
+                RequestContext.setCurrent(null);
+                if (this.permit != null) this.permit.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.luka5w.fileserver.api;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes the JSON envelope of the API responses directly to a {@link Writer} (i.e. without building a {@link JSONObject} and a String first).
+ *
+ * <p>
+ *     Success: <code>{"ts":long,"status":int,"content":any}</code> (content is optional)
+ *     <br>
+ *     Error: <code>{"ts":long,"status":{"code":int,"message":String}}</code>
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class JSONEnvelope {
+
+    private JSONEnvelope() {
+    }
+
+    /**
+     * Writes a success envelope without content.
+     *
+     * @param writer The writer.
+     * @param ts The timestamp.
+     * @param status The HTTP status code.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeSuccess(Writer writer, long ts, int status) throws IOException {
+        writeHead(writer, ts, status);
+        writer.write('}');
+    }
+
+    /**
+     * Writes a success envelope with content.
+     *
+     * @param writer The writer.
+     * @param ts The timestamp.
+     * @param status The HTTP status code.
+     * @param content The content, see {@link #writeValue(Writer, Object)}.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeSuccess(Writer writer, long ts, int status, Object content) throws IOException {
+        writeHead(writer, ts, status);
+        writer.write(",\"content\":");
+        writeValue(writer, content);
+        writer.write('}');
+    }
+
+    /**
+     * Writes the beginning of a success envelope whose content is streamed afterwards.
+     * <p>
+     *     The envelope must be completed with {@link #writeTail(Writer)} after the content has been written.
+     * </p>
+     *
+     * @param writer The writer.
+     * @param ts The timestamp.
+     * @param status The HTTP status code.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeContentHead(Writer writer, long ts, int status) throws IOException {
+        writeHead(writer, ts, status);
+        writer.write(",\"content\":");
+    }
+
+    /**
+     * Completes an envelope started with {@link #writeContentHead(Writer, long, int)}.
+     *
+     * @param writer The writer.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeTail(Writer writer) throws IOException {
+        writer.write('}');
+    }
+
+    /**
+     * Writes an error envelope.
+     *
+     * @param writer The writer.
+     * @param ts The timestamp.
+     * @param code The HTTP status code.
+     * @param message The status message (which is escaped).
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeError(Writer writer, long ts, int code, String message) throws IOException {
+        writer.write("{\"ts\":");
+        writer.write(Long.toString(ts));
+        writer.write(",\"status\":");
+        writeStatus(writer, code, message);
+        writer.write('}');
+    }
+
+    /**
+     * Writes a status object (<code>{"code":int,"message":String}</code>), as used in error envelopes.
+     *
+     * @param writer The writer.
+     * @param code The HTTP status code.
+     * @param message The status message (which is escaped).
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeStatus(Writer writer, int code, String message) throws IOException {
+        writer.write("{\"code\":");
+        writer.write(Integer.toString(code));
+        writer.write(",\"message\":");
+        writeString(writer, message);
+        writer.write('}');
+    }
+
+    /**
+     * Writes a value as JSON.
+     * <p>
+     *     {@link JSONObject}s and {@link JSONArray}s are written directly, {@link Collection}s, {@link Map}s and arrays are wrapped first.
+     * </p>
+     *
+     * @param writer The writer.
+     * @param value The value.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeValue(Writer writer, Object value) throws IOException {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            writer.write("null");
+        }
+        else if (value instanceof String) {
+            writeString(writer, (String) value);
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(JSONObject.valueToString(value));
+        }
+        else if (value instanceof JSONObject) {
+            ((JSONObject) value).write(writer);
+        }
+        else if (value instanceof JSONArray) {
+            ((JSONArray) value).write(writer);
+        }
+        else if (value instanceof Collection) {
+            new JSONArray((Collection<?>) value).write(writer);
+        }
+        else if (value instanceof Map) {
+            new JSONObject((Map<?, ?>) value).write(writer);
+        }
+        else if (value.getClass().isArray()) {
+            new JSONArray(value).write(writer);
+        }
+        else if (value instanceof JSONString) {
+            writer.write(((JSONString) value).toJSONString());
+        }
+        else {
+            writeString(writer, value.toString());
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped string.
+     *
+     * @param writer The writer.
+     * @param s The string (null is written as empty string).
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public static void writeString(Writer writer, String s) throws IOException {
+        JSONObject.quote(s, writer);
+    }
+
+    /**
+     * Writes the beginning of a success envelope (timestamp and status code) without closing it.
+     *
+     * @param writer The writer.
+     * @param ts The timestamp.
+     * @param status The HTTP status code.
+     *
+     * @throws IOException When writing failed.
+     */
+    private static void writeHead(Writer writer, long ts, int status) throws IOException {
+        writer.write("{\"ts\":");
+        writer.write(Long.toString(ts));
+        writer.write(",\"status\":");
+        writer.write(Integer.toString(status));
+    }
+}
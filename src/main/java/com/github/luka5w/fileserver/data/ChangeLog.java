@@ -0,0 +1,210 @@
+package com.github.luka5w.fileserver.data;
+
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The recent changes (creations, modifications and deletions) of the files of one user.
+ *
+ * <p>
+ *     Each change gets a monotonically increasing sequence number. The changes are kept in a ring buffer,
+ *     so only the most recent changes are available. A client which asks for changes since a sequence number
+ *     which is not covered by the ring anymore must reload the whole file list.
+ *     <br>
+ *     The sequence numbers start at the (microsecond) timestamp of the server start, so they keep increasing across restarts,
+ *     while the (in-memory) ring starts empty after a restart.
+ * </p>
+ *
+ * <p>
+ *     This class is not thread-safe, the {@link FileDB} guards it with the lock of its index.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class ChangeLog {
+
+    private final Change[] ring;
+    private int head = 0;
+    private int size = 0;
+    private long seq;
+    private long floor;
+
+    /**
+     * Creates a new (empty) change log.
+     *
+     * @param capacity The maximal amount of changes kept.
+     * @param initialSeq The sequence number before the first change.
+     *
+     * @since 1.0.0
+     */
+    public ChangeLog(int capacity, long initialSeq) {
+        this.ring = new Change[capacity];
+        this.seq = initialSeq;
+        this.floor = initialSeq;
+    }
+
+    /**
+     * Returns the sequence number of the latest change.
+     *
+     * @return The sequence number.
+     *
+     * @since 1.0.0
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * Records the creation or modification of a file.
+     *
+     * @param meta The (new) metadata of the file.
+     * @return The change.
+     *
+     * @since 1.0.0
+     */
+    public Change modified(FileMetadata meta) {
+        return this.add(new Change(++this.seq, meta.getId(), meta));
+    }
+
+    /**
+     * Records the deletion of a file (i.e. adds a tombstone).
+     *
+     * @param id The ID of the file.
+     * @return The change.
+     *
+     * @since 1.0.0
+     */
+    public Change deleted(long id) {
+        return this.add(new Change(++this.seq, id, null));
+    }
+
+    /**
+     * Returns the changes after a sequence number.
+     * <p>
+     *     Only the latest change of each file is returned, ordered by the sequence number.
+     * </p>
+     *
+     * @param since The sequence number of the last change known by the client.
+     * @return The changes, or null when the changes since this sequence number are not available anymore (the client must reload all files).
+     *
+     * @since 1.0.0
+     */
+    public List<Change> since(long since) {
+        if (since < this.floor || since > this.seq) return null;
+        List<Change> changes = new ArrayList<>();
+        HashSet<Long> seen = new HashSet<>();
+        // Newest first, so older changes of the same file are skipped.
+        for (int i = 0; i < this.size; i++) {
+            Change change = this.ring[(this.head - 1 - i + this.ring.length) % this.ring.length];
+            if (change.seq <= since) break;
+            if (seen.add(change.id)) changes.add(change);
+        }
+        Collections.reverse(changes);
+        return changes;
+    }
+
+    /**
+     * Adds a change to the ring, the oldest change is dropped when the ring is full.
+     *
+     * @param change The change.
+     * @return The change.
+     */
+    private Change add(Change change) {
+        if (this.size == this.ring.length) {
+            this.floor = this.ring[this.head].seq;
+        }
+        else {
+            this.size++;
+        }
+        this.ring[this.head] = change;
+        this.head = (this.head + 1) % this.ring.length;
+        return change;
+    }
+
+    /**
+     * A change of a file.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    public static final class Change {
+        private final long seq;
+        private final long id;
+        private final FileMetadata meta;
+
+        private Change(long seq, long id, FileMetadata meta) {
+            this.seq = seq;
+            this.id = id;
+            this.meta = meta;
+        }
+
+        /**
+         * Returns the sequence number of the change.
+         *
+         * @return The sequence number.
+         *
+         * @since 1.0.0
+         */
+        public long getSeq() {
+            return this.seq;
+        }
+
+        /**
+         * Returns the ID of the changed file.
+         *
+         * @return The ID.
+         *
+         * @since 1.0.0
+         */
+        public long getId() {
+            return this.id;
+        }
+
+        /**
+         * Returns whether the file was deleted.
+         *
+         * @return true when this change is a tombstone.
+         *
+         * @since 1.0.0
+         */
+        public boolean isDeleted() {
+            return this.meta == null;
+        }
+
+        /**
+         * Returns the metadata of the file after the change.
+         *
+         * @return The metadata or null when the file was deleted.
+         *
+         * @since 1.0.0
+         */
+        public FileMetadata getMetadata() {
+            return this.meta;
+        }
+
+        /**
+         * Creates a new JSONObject containing the change.
+         * <p>
+         *     <code>{"seq":long,"id":long,"deleted":boolean,"meta":object}</code> (meta is missing for deletions)
+         * </p>
+         *
+         * @return The JSONObject.
+         *
+         * @since 1.0.0
+         */
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject()
+                    .put("seq", this.seq)
+                    .put("id", this.id)
+                    .put("deleted", this.isDeleted());
+            if (this.meta != null) json.put("meta", this.meta.toJSON());
+            return json;
+        }
+    }
+}
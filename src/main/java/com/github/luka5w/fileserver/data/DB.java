@@ -1,7 +1,7 @@
 package com.github.luka5w.fileserver.data;
 
 import com.github.luka5w.fileserver.Main;
-import com.github.luka5w.util.cli.Logger;
+import com.github.luka5w.fileserver.logging.Log;
 import com.github.luka5w.util.data.FileUtils;
 
 import java.io.File;
@@ -11,7 +11,7 @@ import java.io.IOException;
 public abstract class DB {
 
     private final File file;
-    protected final Logger LOGGER;
+    protected final Log LOGGER;
 
     public DB(String file, String dbName) throws IOException {
         LOGGER = Main.getLogger(dbName);
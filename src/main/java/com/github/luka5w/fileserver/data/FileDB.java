@@ -2,21 +2,38 @@ package com.github.luka5w.fileserver.data;
 
 import com.github.luka5w.fileserver.Main;
 import com.github.luka5w.fileserver.api.HttpException;
-import com.github.luka5w.util.cli.Logger;
-import com.github.luka5w.util.data.FileUtils;
-import org.ini4j.InvalidFileFormatException;
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import com.github.luka5w.fileserver.data.storage.EncodedContent;
+import com.github.luka5w.fileserver.data.storage.StorageEngine;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.attribute.FileAttribute;
-import java.security.InvalidParameterException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
 
 /**
  * The internal API for the file database
@@ -26,12 +43,22 @@ import java.util.HashMap;
  */
 public class FileDB {
 
-    private static final String EXTENSION = "db";
-    private static final String FILE_REGEX = "[0-9A-Za-z]{1,32}\\.[0-9]{13}\\." + EXTENSION;
-    private final Logger LOGGER = Main.getLogger("UserDB");
+    private static final String DEFAULT_ENGINE = "file";
+    private static final int DEFAULT_IO_THREADS = 4;
+    private static final int DEFAULT_CHANGE_LOG_SIZE = 1024;
+    private static final int FILE_LOCK_STRIPES = 64;
+    private final Log LOGGER = Main.getLogger("UserDB");
     private static FileDB INSTANCE;
-    private final Path dir;
-    private HashMap<String, ArrayList<Long>> files;
+    private final StorageEngine engine;
+    private final ExecutorService ioExecutor;
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] fileLocks = new ReentrantLock[FILE_LOCK_STRIPES];
+    private final AtomicLong lastId = new AtomicLong();
+    private final HashMap<String, ChangeLog> changes = new HashMap<>();
+    private final int changeLogSize;
+    private final long initialSeq = System.currentTimeMillis() * 1000;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private HashMap<String, LinkedHashMap<Long, FileMetadata>> files;
 
     /**
      * Initiates the user database.
@@ -43,8 +70,63 @@ public class FileDB {
      * @since 1.0.0
      */
     public FileDB(String dir) throws IOException {
+        this(dir, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Initiates the user database.
+     *
+     * @param dir The database root directory.
+     * @param ioThreads The amount of threads used to read (and write) files in parallel.
+     *
+     * @throws IOException When a file can't be read.
+     *
+     * @since 1.0.0
+     */
+    public FileDB(String dir, int ioThreads) throws IOException {
+        this(dir, ioThreads, DEFAULT_CHANGE_LOG_SIZE);
+    }
+
+    /**
+     * Initiates the user database.
+     *
+     * @param dir The database root directory.
+     * @param ioThreads The amount of threads used to read (and write) files in parallel.
+     * @param changeLogSize The amount of changes kept per user for {@link #getChanges(String, String, long)}.
+     *
+     * @throws IOException When a file can't be read.
+     *
+     * @since 1.0.0
+     */
+    public FileDB(String dir, int ioThreads, int changeLogSize) throws IOException {
+        this(DEFAULT_ENGINE, dir, Collections.emptyMap(), ioThreads, changeLogSize);
+    }
+
+    /**
+     * Initiates the user database.
+     *
+     * @param engine The name of the {@link StorageEngine} storing the files (see {@link StorageEngine#open(String, String, Map, ExecutorService)}).
+     * @param dir The database root directory.
+     * @param options The options of the engine.
+     * @param ioThreads The amount of threads used to read (and write) files in parallel.
+     * @param changeLogSize The amount of changes kept per user for {@link #getChanges(String, String, long)}.
+     *
+     * @throws IOException When a file can't be read.
+     * @throws IllegalArgumentException When the engine is unknown.
+     *
+     * @since 1.0.0
+     */
+    public FileDB(String engine, String dir, Map<String, String> options, int ioThreads, int changeLogSize) throws IOException {
         INSTANCE = this;
-        this.dir = Paths.get(dir);
+        this.changeLogSize = changeLogSize;
+        for (int i = 0; i < FILE_LOCK_STRIPES; i++) this.fileLocks[i] = new ReentrantLock();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, "FileDB-IO-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.engine = StorageEngine.open(engine, dir, options, this.ioExecutor);
         this.loadFromDB();
     }
 
@@ -59,6 +141,17 @@ public class FileDB {
         return INSTANCE;
     }
 
+    /**
+     * Adds a listener which is notified about each change of a file.
+     *
+     * @param listener The listener.
+     *
+     * @since 1.0.0
+     */
+    public void addChangeListener(ChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
     /**
      * Returns all files the user has access to.
      *
@@ -73,8 +166,78 @@ public class FileDB {
     public ArrayList<Long> listUserFiles(String executingUser, String targetUser) throws HttpException {
         if (!UserDB.getInstance().isUserValid(targetUser)) throw new HttpException(400, "Invalid User ID");
         UserDB.getInstance().checkAPIPermission(executingUser, targetUser);
-        if (!this.files.containsKey(targetUser)) return new ArrayList<>();
-        return this.files.get(targetUser);
+        this.indexLock.readLock().lock();
+        try {
+            if (!this.files.containsKey(targetUser)) return new ArrayList<>();
+            return new ArrayList<>(this.files.get(targetUser).keySet());
+        }
+        finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the changes of the files of a user since a sequence number.
+     *
+     * <p>
+     *     <code>{"seq":long,"reset":boolean,"changes":[{"seq":long,"id":long,"deleted":boolean,"meta":object}]}</code>
+     *     <br>
+     *     seq is the sequence number of the latest change (to be passed as 'since' with the next request).
+     *     When reset is true, the changes are not available (anymore) and the client must reload all files (changes is empty in this case).
+     *     Only the latest change of each file is returned.
+     * </p>
+     *
+     * @param executingUser The ID of the executing user.
+     * @param targetUser The ID of the user to get the changes from.
+     * @param since The sequence number of the last change known by the client, -1 to obtain the current sequence number only.
+     * @return The changes.
+     *
+     * @throws HttpException See {@link UserDB#checkAPIPermission(String, String)}.
+     *
+     * @since 1.0.0
+     */
+    public JSONObject getChanges(String executingUser, String targetUser, long since) throws HttpException {
+        if (!UserDB.getInstance().isUserValid(targetUser)) throw new HttpException(400, "Invalid User ID");
+        UserDB.getInstance().checkAPIPermission(executingUser, targetUser);
+        this.indexLock.readLock().lock();
+        try {
+            ChangeLog changeLog = this.changes.get(targetUser);
+            long seq = (changeLog == null ? this.initialSeq : changeLog.getSeq());
+            List<ChangeLog.Change> changes;
+            if (changeLog == null) changes = (since == this.initialSeq ? new ArrayList<>() : null);
+            else changes = changeLog.since(since);
+            JSONArray json = new JSONArray();
+            if (changes != null) changes.forEach(change -> json.put(change.toJSON()));
+            return new JSONObject()
+                    .put("seq", seq)
+                    .put("reset", changes == null)
+                    .put("changes", json);
+        }
+        finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata of a file from the in-memory index (i.e. without reading the file).
+     *
+     * @param user The owner of the file.
+     * @param id The id of the file.
+     * @return The metadata of the file.
+     *
+     * @throws HttpException When the user has no access to the file.
+     *
+     * @since 1.0.0
+     */
+    public FileMetadata getMetadata(String user, long id) throws HttpException {
+        this.indexLock.readLock().lock();
+        try {
+            this.checkAccess(user, id);
+            return this.files.get(user).get(id);
+        }
+        finally {
+            this.indexLock.readLock().unlock();
+        }
     }
 
     /**
@@ -85,33 +248,128 @@ public class FileDB {
      * @param metadataOnly Request metadata only when true.
      * @return The metadata or the content of the file.
      *
-     * @throws HttpException When the server is in an illegal IO state (i.e. {@link FileUtils#readUntil(File, char)}, {@link FileUtils#readFrom(File, char)} throws an exception).
+     * @throws HttpException When the file doesn't exist (e.g. it was deleted concurrently, 404)
+     *                       or the server is in an illegal IO state (i.e. {@link StorageEngine#get(String, long)} throws an exception).
      *
      * @since 1.0.0
      */
     public JSONObject getFile(String user, long id, boolean metadataOnly) throws HttpException {
-        this.checkAccess(user, id);
-        java.io.File f = this.getFileName(user, id);
-        JSONObject json = new JSONObject();
+        FileMetadata meta = this.getMetadata(user, id);
+        if (metadataOnly) return meta.toJSON();
+        long start = System.nanoTime();
         try {
-            if (metadataOnly) {
-                String[] data = FileUtils.readUntil(f, '\n').split(";");
-                if (data.length == 0 || data.length > 2) throw new InvalidFileFormatException("Malformed metadata");
-                json = new JSONObject()
-                        .put("owner", user)
-                        .put("created", id)
-                        .put("modified", data[0])
-                        .put("users", (data.length == 2 ? data[1] : new String[0]));
-            }
-            else {
-                json = new JSONObject(FileUtils.readFrom(f, '\n'));
-            }
+            return this.engine.get(user, id);
+        }
+        catch (NoSuchFileException e) {
+            // The file was deleted after its metadata was read.
+            throw new HttpException(404, "File Not Found Or Access Denied");
         }
         catch (IOException e) {
             LOGGER.exception("Error while reading file: ", e);
             throw new HttpException(500, "Server Is In An Illegal IO State");
         }
-        return json;
+        finally {
+            RequestContext.current().record("db", start);
+        }
+    }
+
+    /**
+     * Returns the content of a file as it is stored (i.e. encoded), so it can be sent without decoding it.
+     *
+     * @param user The owner of the file.
+     * @param id The id of the file.
+     * @return The encoded content or null when the content is not stored encoded.
+     *
+     * @throws HttpException When the user has no access to the file or the server is in an illegal IO state
+     *                       (i.e. {@link StorageEngine#getEncoded(String, long)} throws an exception).
+     *
+     * @since 1.0.0
+     */
+    public EncodedContent getEncodedFile(String user, long id) throws HttpException {
+        this.getMetadata(user, id);
+        long start = System.nanoTime();
+        try {
+            return this.engine.getEncoded(user, id);
+        }
+        catch (NoSuchFileException e) {
+            throw new HttpException(404, "File Not Found Or Access Denied");
+        }
+        catch (IOException e) {
+            LOGGER.exception("Error while reading file: ", e);
+            throw new HttpException(500, "Server Is In An Illegal IO State");
+        }
+        finally {
+            RequestContext.current().record("db", start);
+        }
+    }
+
+    /**
+     * Returns either the metadata or the content of multiple files.
+     *
+     * <p>
+     *     Metadata and access errors are served from the in-memory index, the contents are read in parallel on the I/O threads.
+     *     <br>
+     *     The results are passed to the consumer on the calling thread in the order they are available (i.e. not in the order of the IDs).
+     *     A file which can't be read (e.g. a corrupt document) is passed with an error, so the other files are still served.
+     *     The read times are summed up as <code>db</code> stage of the context of the calling thread.
+     * </p>
+     *
+     * @param user The owner of the files.
+     * @param ids The ids of the files.
+     * @param metadataOnly Request metadata only when true.
+     * @param consumer The consumer which receives the result for each ID.
+     *
+     * @throws IOException When the consumer throws an exception.
+     * @throws InterruptedException When the calling thread is interrupted while waiting for the I/O threads.
+     *
+     * @since 1.0.0
+     */
+    public void getFiles(String user, Collection<Long> ids, boolean metadataOnly, FileConsumer consumer) throws IOException, InterruptedException {
+        RequestContext context = RequestContext.current();
+        CompletionService<ReadResult> reads = new ExecutorCompletionService<>(this.ioExecutor);
+        int pending = 0;
+        for (long id : ids) {
+            FileMetadata meta;
+            try {
+                meta = this.getMetadata(user, id);
+            }
+            catch (HttpException e) {
+                consumer.accept(id, null, e);
+                continue;
+            }
+            if (metadataOnly) {
+                consumer.accept(id, meta.toJSON(), null);
+                continue;
+            }
+            reads.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return new ReadResult(id, this.getFile(user, id, false), null, System.nanoTime() - start);
+                }
+                catch (HttpException e) {
+                    return new ReadResult(id, null, e, System.nanoTime() - start);
+                }
+                catch (RuntimeException e) {
+                    // E.g. a corrupt document, the other files are still served.
+                    LOGGER.exception("Error while reading file: ", e);
+                    return new ReadResult(id, null, new HttpException(500, "Server Is In An Illegal IO State"), System.nanoTime() - start);
+                }
+            });
+            pending++;
+        }
+        for (; pending > 0; pending--) {
+            ReadResult result;
+            try {
+                result = reads.take().get();
+            }
+            catch (ExecutionException e) {
+                // The reads return all exceptions as result.
+                throw new IllegalStateException(e.getCause());
+            }
+            // The I/O threads handle no request, so their reads are recorded here (the context is not thread-safe).
+            context.record("db", System.nanoTime() - result.duration);
+            consumer.accept(result.id, result.file, result.error);
+        }
     }
 
     /**
@@ -121,19 +379,66 @@ public class FileDB {
      * @param id The id of the file.
      * @param content The new content.
      *
-     * @throws HttpException See {@link FileUtils#write(File, String)}.
+     * @throws HttpException When the file can't be written.
      *
      * @since 1.0.0
      */
     public void modFileContent(String user, long id, JSONObject content) throws HttpException {
-        this.checkAccess(user, id);
-        File file = this.getFileName(user, id);
-        JSONObject meta = this.getFile(user, id, true);
+        ReentrantLock lock = this.getFileLock(user, id);
+        lock.lock();
         try {
-            FileUtils.write(file, meta.getLong("modified") + ";" + meta.getJSONArray("users").join(",") + "\n" + content.toString());
-        } catch (IOException e) {
-            LOGGER.exception("Error while reading file: ", e);
-            throw new HttpException(500);
+            FileMetadata meta = this.getMetadata(user, id).modify((new Date()).getTime());
+            long start = System.nanoTime();
+            try {
+                this.engine.put(meta, content);
+            } catch (IOException e) {
+                LOGGER.exception("Error while writing file: ", e);
+                throw new HttpException(500);
+            } finally {
+                RequestContext.current().record("db", start);
+            }
+            this.indexLock.writeLock().lock();
+            try {
+                this.applyModified(meta);
+            }
+            finally {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Modifies the content of a file by applying a patch to the stored content.
+     * <p>
+     *     The content is read, patched and written while the write lock of the file is held, so concurrent patches can't get lost.
+     * </p>
+     *
+     * @param user The owner of the file.
+     * @param id The id of the file.
+     * @param patch The function which applies the patch to the content (the passed content may be modified).
+     *
+     * @throws HttpException When the patch can't be applied (i.e. the function throws a {@link JSONException}), see {@link #modFileContent(String, long, JSONObject)}.
+     *
+     * @since 1.0.0
+     */
+    public void patchFileContent(String user, long id, UnaryOperator<JSONObject> patch) throws HttpException {
+        ReentrantLock lock = this.getFileLock(user, id);
+        lock.lock();
+        try {
+            JSONObject content = this.getFile(user, id, false);
+            try {
+                content = patch.apply(content);
+            }
+            catch (JSONException e) {
+                throw new HttpException(409, "Patch Can't Be Applied: " + e.getMessage());
+            }
+            this.modFileContent(user, id, content);
+        }
+        finally {
+            lock.unlock();
         }
     }
 
@@ -148,9 +453,152 @@ public class FileDB {
      * @since 1.0.0
      */
     public void deleteFile(String user, long id) throws HttpException {
-        this.checkAccess(user, id);
-        this.getFileName(user, id).delete();
-        this.files.get(user).remove(id);
+        ReentrantLock lock = this.getFileLock(user, id);
+        lock.lock();
+        try {
+            this.getMetadata(user, id);
+            long start = System.nanoTime();
+            try {
+                this.engine.delete(user, id);
+            }
+            catch (IOException e) {
+                LOGGER.exception("Error while deleting file: ", e);
+                throw new HttpException(500);
+            }
+            finally {
+                RequestContext.current().record("db", start);
+            }
+            this.indexLock.writeLock().lock();
+            try {
+                this.applyDeleted(user, id);
+            }
+            finally {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies multiple operations (create, update, delete) as one batch.
+     *
+     * <p>
+     *     All operations are validated against the index first. Operations which can't be applied (e.g. the file does not exist) get an error;
+     *     when the batch is atomic, no operation is applied in that case and the other operations fail with 424 (Failed Dependency).
+     *     <br>
+     *     The files are written at once with {@link StorageEngine#write(String, Collection, Map, Collection)}, after that the index changes are applied at once.
+     * </p>
+     *
+     * @param user The owner of the files.
+     * @param operations The operations in the order they should be applied. Their results are set by this method.
+     * @param atomic Whether no operation should be applied when any operation can't be applied.
+     *
+     * @throws HttpException When the files can't be written (no operation is applied in this case).
+     *
+     * @since 1.0.0
+     */
+    public void applyBatch(String user, List<Operation> operations, boolean atomic) throws HttpException {
+        // Stripe locks are acquired in ascending order, so concurrent batches can't deadlock.
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Operation op : operations) {
+            if (op.type != Operation.Type.CREATE) stripes.add(this.getFileLockIndex(user, op.id));
+        }
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (int stripe : stripes) {
+            this.fileLocks[stripe].lock();
+            locks.add(this.fileLocks[stripe]);
+        }
+        try {
+            LinkedHashMap<Long, FileMetadata> staged = new LinkedHashMap<>();
+            HashMap<Long, JSONObject> contents = new HashMap<>();
+            HashSet<Long> removed = new HashSet<>();
+            boolean failed = false;
+            long now = (new Date()).getTime();
+            this.indexLock.readLock().lock();
+            try {
+                for (Operation op : operations) {
+                    if (op.type == Operation.Type.CREATE) {
+                        op.id = this.nextId();
+                        staged.put(op.id, new FileMetadata(user, op.id, op.id, new ArrayList<>()));
+                        contents.put(op.id, op.content);
+                        continue;
+                    }
+                    FileMetadata meta = staged.get(op.id);
+                    if (meta == null && !removed.contains(op.id)) {
+                        try {
+                            this.checkAccess(user, op.id);
+                            meta = this.files.get(user).get(op.id);
+                        }
+                        catch (HttpException e) {
+                            op.error = e;
+                        }
+                    }
+                    if (meta == null) {
+                        if (op.error == null) op.error = new HttpException(404, "File Not Found Or Access Denied");
+                        failed = true;
+                    }
+                    else if (op.type == Operation.Type.UPDATE) {
+                        staged.put(op.id, meta.modify(now));
+                        contents.put(op.id, op.content);
+                    }
+                    else {
+                        staged.remove(op.id);
+                        contents.remove(op.id);
+                        removed.add(op.id);
+                    }
+                }
+            }
+            finally {
+                this.indexLock.readLock().unlock();
+            }
+            if (atomic && failed) {
+                for (Operation op : operations) {
+                    if (op.error == null) op.error = new HttpException(424, "Batch Aborted");
+                    if (op.type == Operation.Type.CREATE) op.id = -1;
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                this.writeBatch(user, staged, contents, removed);
+            }
+            finally {
+                RequestContext.current().record("db", start);
+            }
+            this.indexLock.writeLock().lock();
+            try {
+                staged.values().forEach(this::applyModified);
+                removed.forEach(id -> this.applyDeleted(user, id));
+            }
+            finally {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+        finally {
+            for (ReentrantLock lock : locks) lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the files of a batch.
+     *
+     * @param user The owner of the files.
+     * @param staged The metadata of the created and updated files.
+     * @param contents The contents of the created and updated files.
+     * @param removed The IDs of the deleted files.
+     *
+     * @throws HttpException When a file can't be written (no file is modified in this case).
+     */
+    private void writeBatch(String user, LinkedHashMap<Long, FileMetadata> staged, HashMap<Long, JSONObject> contents, HashSet<Long> removed) throws HttpException {
+        try {
+            this.engine.write(user, staged.values(), contents, removed);
+        }
+        catch (IOException e) {
+            LOGGER.exception("Error while writing files: ", e);
+            throw new HttpException(500);
+        }
     }
 
     /**
@@ -159,7 +607,7 @@ public class FileDB {
      * @param user The owner of the new file.
      * @return The ID of the created file.
      *
-     * @throws HttpException See {@link FileUtils#write(File, String)}.
+     * @throws HttpException When the file can't be written.
      *
      * @since 1.0.0
      */
@@ -174,55 +622,165 @@ public class FileDB {
      * @param content The content of the new file.
      * @return The ID of the created file.
      *
-     * @throws HttpException See {@link FileUtils#write(File, String)}.
+     * @throws HttpException When the file can't be written.
      *
      * @since 1.0.0
      */
     public long createFile(String user, JSONObject content) throws HttpException {
-        long id = (new Date()).getTime();
+        long id = this.nextId();
+        FileMetadata meta = new FileMetadata(user, id, id, new ArrayList<>());
+        long start = System.nanoTime();
         try {
-            FileUtils.write(this.getFileName(user, id), id + ";\n" + content.toString());
+            this.engine.put(meta, content);
         } catch (IOException e) {
             LOGGER.exception("Error while writing file: ", e);
             throw new HttpException(500);
+        } finally {
+            RequestContext.current().record("db", start);
+        }
+        this.indexLock.writeLock().lock();
+        try {
+            this.applyModified(meta);
+        }
+        finally {
+            this.indexLock.writeLock().unlock();
         }
-        if (!this.files.containsKey(user)) this.files.put(user, new ArrayList<>());
-        this.files.get(user).add(id);
         return id;
     }
 
     /**
-     * Loads all files to the database.
+     * Loads the metadata of all files to the index.
      *
      * <p>
-     *     This method iterates through the file database root dir, collects all database files and extracts the owner and the id from them.
-     *     <br>
-     *     After that, each known owner will be added to {@link #files} with a list of all IDs he owns.
+     *     Each known owner will be added to {@link #files} with the IDs and the metadata of all files he owns.
      * </p>
      *
-     * @throws IOException See {@link Files#createDirectories(Path, FileAttribute[])} and {@link Files#list(Path)}.
+     * @throws IOException See {@link StorageEngine#scanSince(long, java.util.function.Consumer)}.
      *
      * @since 1.0.0
      */
     private void loadFromDB() throws IOException {
-        File file = this.dir.toFile();
-        if (!file.isDirectory()) {
-            if (file.exists()) throw new InvalidParameterException("Files must be a directory");
-            Files.createDirectories(this.dir);
-        }
         this.files = new HashMap<>();
-        Files.list(this.dir).filter(Files::isRegularFile).forEach(p -> {
-            String f = p.getFileName().toString();
-            if (f.matches(FILE_REGEX)) {
-                String[] pp = f.split("\\.");
-                if (pp.length == 3) {
-                    if (!this.files.containsKey(pp[0])) this.files.put(pp[0], new ArrayList<>());
-                    this.files.get(pp[0]).add(Long.valueOf(pp[1]));
-                }
-            }
+        this.engine.scanSince(Long.MIN_VALUE, meta -> {
+            this.putMetadata(meta);
+            this.lastId.accumulateAndGet(meta.getId(), Math::max);
         });
     }
 
+    /**
+     * Returns a new (unique) file ID, which is the current timestamp when possible.
+     *
+     * @return The new ID.
+     */
+    private long nextId() {
+        long now = (new Date()).getTime();
+        // IDs are timestamps, two files created in the same millisecond must not share one.
+        return this.lastId.accumulateAndGet(now, (last, ts) -> Math.max(last + 1, ts));
+    }
+
+    /**
+     * Adds or replaces the metadata of a file in the index.
+     * <p>
+     *     The caller must hold the write lock of the index (except during {@link #loadFromDB()}).
+     * </p>
+     *
+     * @param meta The metadata.
+     */
+    private void putMetadata(FileMetadata meta) {
+        if (!this.files.containsKey(meta.getOwner())) this.files.put(meta.getOwner(), new LinkedHashMap<>());
+        this.files.get(meta.getOwner()).put(meta.getId(), meta);
+    }
+
+    /**
+     * Adds or replaces the metadata of a created or modified file in the index and records the change.
+     * <p>
+     *     The caller must hold the write lock of the index.
+     * </p>
+     *
+     * @param meta The metadata.
+     */
+    private void applyModified(FileMetadata meta) {
+        this.putMetadata(meta);
+        this.notifyListeners(meta.getOwner(), this.getChangeLog(meta.getOwner()).modified(meta));
+    }
+
+    /**
+     * Removes the metadata of a deleted file from the index and records the change.
+     * <p>
+     *     The caller must hold the write lock of the index.
+     * </p>
+     *
+     * @param user The owner of the file.
+     * @param id The ID of the file.
+     */
+    private void applyDeleted(String user, long id) {
+        if (this.files.containsKey(user)) this.files.get(user).remove(id);
+        this.notifyListeners(user, this.getChangeLog(user).deleted(id));
+    }
+
+    /**
+     * Notifies the listeners about a change.
+     * <p>
+     *     The caller must hold the write lock of the index, so the listeners receive the changes of a user in order of their sequence numbers.
+     * </p>
+     *
+     * @param user The owner of the file.
+     * @param change The change.
+     */
+    private void notifyListeners(String user, ChangeLog.Change change) {
+        for (ChangeListener listener : this.listeners) {
+            try {
+                listener.onChange(user, change);
+            }
+            catch (RuntimeException e) {
+                LOGGER.exception("Change listener failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the change log of a user, which is created when it does not exist.
+     * <p>
+     *     The caller must hold the write lock of the index.
+     * </p>
+     *
+     * @param user The user.
+     * @return The change log.
+     */
+    private ChangeLog getChangeLog(String user) {
+        ChangeLog changeLog = this.changes.get(user);
+        if (changeLog == null) {
+            changeLog = new ChangeLog(this.changeLogSize, this.initialSeq);
+            this.changes.put(user, changeLog);
+        }
+        return changeLog;
+    }
+
+    /**
+     * Returns the write lock of a file.
+     * <p>
+     *     The locks are striped, so different files may share a lock.
+     * </p>
+     *
+     * @param user The owner of the file.
+     * @param id The ID of the file.
+     * @return The lock.
+     */
+    private ReentrantLock getFileLock(String user, long id) {
+        return this.fileLocks[this.getFileLockIndex(user, id)];
+    }
+
+    /**
+     * Returns the index of the lock stripe of a file.
+     *
+     * @param user The owner of the file.
+     * @param id The ID of the file.
+     * @return The index in {@link #fileLocks}.
+     */
+    private int getFileLockIndex(String user, long id) {
+        return ((user.hashCode() * 31 + Long.hashCode(id)) & 0x7fffffff) % FILE_LOCK_STRIPES;
+    }
+
     /**
      * Checks whether the user has access to a file or not.
      *
@@ -234,20 +792,162 @@ public class FileDB {
      * @since 1.0.0
      */
     private void checkAccess(String user, long id) throws HttpException {
-        if (!(this.files.containsKey(user) && this.files.get(user).contains(id))) throw new HttpException(404, "File Not Found Or Access Denied");
+        if (!(this.files.containsKey(user) && this.files.get(user).containsKey(id))) throw new HttpException(404, "File Not Found Or Access Denied");
     }
 
     /**
-     * Formats a filename from an owner and an ID.
+     * An operation of a batch, see {@link #applyBatch(String, List, boolean)}.
      *
-     * @param user The owner of the file.
-     * @param id The ID of the file.
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    public static final class Operation {
+        private final Type type;
+        private final JSONObject content;
+        private long id;
+        private HttpException error = null;
+
+        private Operation(Type type, long id, JSONObject content) {
+            this.type = type;
+            this.id = id;
+            this.content = content;
+        }
+
+        /**
+         * Creates an operation which creates a new file.
+         *
+         * @param content The content of the new file.
+         * @return The operation.
+         *
+         * @since 1.0.0
+         */
+        public static Operation create(JSONObject content) {
+            return new Operation(Type.CREATE, -1, content);
+        }
+
+        /**
+         * Creates an operation which modifies the content of a file.
+         *
+         * @param id The ID of the file.
+         * @param content The new content.
+         * @return The operation.
+         *
+         * @since 1.0.0
+         */
+        public static Operation update(long id, JSONObject content) {
+            return new Operation(Type.UPDATE, id, content);
+        }
+
+        /**
+         * Creates an operation which deletes a file.
+         *
+         * @param id The ID of the file.
+         * @return The operation.
+         *
+         * @since 1.0.0
+         */
+        public static Operation delete(long id) {
+            return new Operation(Type.DELETE, id, null);
+        }
+
+        /**
+         * Returns the type of the operation.
+         *
+         * @return The type.
+         *
+         * @since 1.0.0
+         */
+        public Type getType() {
+            return this.type;
+        }
+
+        /**
+         * Returns the ID of the file (for create operations, the ID of the created file after the batch is applied or -1).
+         *
+         * @return The ID.
+         *
+         * @since 1.0.0
+         */
+        public long getId() {
+            return this.id;
+        }
+
+        /**
+         * Returns the error of the operation after the batch is applied.
+         *
+         * @return The error or null when the operation succeeded.
+         *
+         * @since 1.0.0
+         */
+        public HttpException getError() {
+            return this.error;
+        }
+
+        /**
+         * Possible types of operations.
+         */
+        public enum Type {
+            CREATE,
+            UPDATE,
+            DELETE
+        }
+    }
+
+    /**
+     * Receives the results of {@link #getFiles(String, Collection, boolean, FileConsumer)}.
      *
-     * @return A new file matching the parameters.
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    public interface FileConsumer {
+        /**
+         * This method is called once for each requested file.
+         *
+         * @param id The ID of the file.
+         * @param file The metadata or the content of the file, null when an error occurred.
+         * @param error The error (e.g. 404 when the file does not exist), null when the file could be read.
+         *
+         * @throws IOException When the result can't be processed (e.g. sent to the client).
+         */
+        void accept(long id, JSONObject file, HttpException error) throws IOException;
+    }
+
+    /**
+     * The result of a file read on an I/O thread.
+     */
+    private static final class ReadResult {
+        private final long id;
+        private final JSONObject file;
+        private final HttpException error;
+        private final long duration;
+
+        private ReadResult(long id, JSONObject file, HttpException error, long duration) {
+            this.id = id;
+            this.file = file;
+            this.error = error;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * A listener which is notified about the changes of files.
      *
-     * @since 1.0.0
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
      */
-    private java.io.File getFileName(String user, long id) {
-        return new java.io.File(this.dir.toString(), user + "." + id + "." + EXTENSION);
+    public interface ChangeListener {
+
+        /**
+         * Called after a file has been created, modified or deleted.
+         * <p>
+         *     The listener is called while the index is locked, so it must not block (e.g. hand the change over to another thread).
+         * </p>
+         *
+         * @param user The owner of the file.
+         * @param change The change.
+         *
+         * @since 1.0.0
+         */
+        void onChange(String user, ChangeLog.Change change);
     }
 }
@@ -0,0 +1,299 @@
+package com.github.luka5w.fileserver.data;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.api.HttpException;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.github.luka5w.util.encryption.HashedPassword;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes passwords (PBKDF2 with HMAC-SHA256 and a configurable amount of iterations) and verifies them on a bounded pool of threads.
+ *
+ * <p>
+ *     Hashing is expensive on purpose, so the verifications (and the hashes of new passwords) run on their own threads instead of the threads handling the requests:
+ *     a burst of logins (e.g. credential stuffing) only fills the queue of the pool, further verifications are rejected with 503 (Service Unavailable)
+ *     and the requests of authenticated users (see {@link #fingerprint(String)}) are not delayed.
+ *     The threads handling the requests wait for the result, so the threads and the queue of the pool together should stay below the threads of the server.
+ * </p>
+ * <p>
+ *     A hash is stored as <code>pbkdf2-sha256$[iterations]$[salt]$[hash]</code> (Base64).
+ *     Hashes of the previous format (a salted SHA-256 hash, see {@link HashedPassword}) and hashes with fewer iterations than configured
+ *     are replaced with a new hash when the password is verified successfully.
+ * </p>
+ * <p>
+ *     The passwords of unknown users are verified against a dummy hash (see {@link #verifyUnknown(String)}),
+ *     so the time of a failed login doesn't reveal whether the user exists.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class PasswordVerifier {
+
+    public static final int DEFAULT_ITERATIONS = 600000;
+
+    private static final Log LOGGER = Main.getLogger("Passwords");
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+    private final String dummyHash;
+    private final ThreadLocal<Mac> fingerprints;
+    private final Counter valid;
+    private final Counter invalid;
+    private final Counter rejected;
+    private final Counter rehashed;
+
+    /**
+     * Creates a new verifier with the default configuration: a thread and a queued verification per two processors
+     * (so at most half of the default threads of the server wait for verifications) and the default amount of iterations.
+     *
+     * @since 1.0.0
+     */
+    public PasswordVerifier() {
+        this(getDefaultThreads(), getDefaultThreads(), DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Returns the default amount of threads (and queued verifications).
+     *
+     * @return A thread per two processors.
+     *
+     * @since 1.0.0
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Creates a new verifier and starts its threads.
+     *
+     * @param threads The amount of threads verifying passwords.
+     * @param queueSize The maximal amount of verifications waiting for a thread, further verifications are rejected.
+     * @param iterations The amount of iterations of new hashes (the cost of hashing).
+     *
+     * @throws IllegalArgumentException When the amount of threads or iterations is less than 1 or the queue size is negative.
+     *
+     * @since 1.0.0
+     */
+    public PasswordVerifier(int threads, int queueSize, int iterations) {
+        if (threads < 1 || iterations < 1) throw new IllegalArgumentException("threads and iterations must be at least 1");
+        if (queueSize < 0) throw new IllegalArgumentException("queue-size must not be negative");
+        this.iterations = iterations;
+        AtomicInteger threadCount = new AtomicInteger();
+        // Without a queue, a verification is only accepted when a thread is idle.
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, (queueSize == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(queueSize)), r -> {
+            Thread t = new Thread(r, "Password-Verifier-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        byte[] key = new byte[HASH_LENGTH];
+        this.random.nextBytes(key);
+        SecretKeySpec fingerprintKey = new SecretKeySpec(key, "HmacSHA256");
+        this.fingerprints = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(fingerprintKey);
+                return mac;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unexpected Exception: HmacSHA256 should exist.\n" + e.getMessage());
+            }
+        });
+        Metrics metrics = Metrics.getInstance();
+        this.valid = metrics.counter("fileserver_password_verifications_total", "The verified passwords.", "result", "valid");
+        this.invalid = metrics.counter("fileserver_password_verifications_total", "The verified passwords.", "result", "invalid");
+        this.rejected = metrics.counter("fileserver_password_verifications_total", "The verified passwords.", "result", "rejected");
+        this.rehashed = metrics.counter("fileserver_password_rehashes_total", "The hashes replaced after a successful verification.");
+        metrics.gauge("fileserver_password_verifications_queued", "The verifications waiting for a thread.", () -> this.executor.getQueue().size());
+        byte[] dummy = new byte[HASH_LENGTH];
+        this.random.nextBytes(dummy);
+        this.dummyHash = this.hashNow(Base64.getEncoder().encodeToString(dummy));
+    }
+
+    /**
+     * Hashes a password with the configured amount of iterations on a thread of the pool and waits for the result.
+     *
+     * @param password The password.
+     * @return The encoded hash.
+     *
+     * @throws HttpException When the queue of the pool is full (503).
+     *
+     * @since 1.0.0
+     */
+    public String hash(String password) throws HttpException {
+        return this.await(() -> this.hashNow(password));
+    }
+
+    /**
+     * Hashes a password with the configured amount of iterations on the current thread (e.g. while the server is started).
+     *
+     * @param password The password.
+     * @return The encoded hash.
+     *
+     * @since 1.0.0
+     */
+    public String hashNow(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + this.iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(pbkdf2(password, salt, this.iterations));
+    }
+
+    /**
+     * Verifies a password on a thread of the pool and waits for the result.
+     *
+     * @param hash The encoded hash.
+     * @param password The password to check.
+     * @return null when the password is wrong, otherwise the hash to store: the passed hash or a new hash when it uses weaker parameters.
+     *
+     * @throws HttpException When the queue of the pool is full (503).
+     *
+     * @since 1.0.0
+     */
+    public String verify(String hash, String password) throws HttpException {
+        return this.await(() -> this.verifyNow(hash, password));
+    }
+
+    /**
+     * Runs a task on a thread of the pool and waits for the result.
+     *
+     * @param task The task.
+     * @param <T> The type of the result.
+     * @return The result.
+     *
+     * @throws HttpException When the queue of the pool is full (503).
+     */
+    private <T> T await(Callable<T> task) throws HttpException {
+        Future<T> result;
+        try {
+            result = this.executor.submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            this.rejected.increment();
+            throw new HttpException(503, "Service Unavailable");
+        }
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new HttpException(503, "Service Unavailable");
+        }
+        catch (ExecutionException e) {
+            LOGGER.exception("Failed to hash or verify password: ", e);
+            throw new HttpException(500, "Internal Server Error");
+        }
+    }
+
+    /**
+     * Verifies a password of an unknown user against a dummy hash (with the configured amount of iterations) on a thread of the pool,
+     * so it takes as long (and is rejected under load like) the verification of a password of an existing user.
+     *
+     * @param password The password to check.
+     *
+     * @throws HttpException When the queue of the pool is full (503).
+     *
+     * @since 1.0.0
+     */
+    public void verifyUnknown(String password) throws HttpException {
+        this.verify(this.dummyHash, password);
+    }
+
+    /**
+     * Returns a cheap keyed digest of a password, which identifies a password verified before without hashing it again.
+     *
+     * <p>
+     *     The key is random and never stored, so the digests are only valid while the server is running.
+     * </p>
+     *
+     * @param password The password.
+     * @return The digest.
+     *
+     * @since 1.0.0
+     */
+    public byte[] fingerprint(String password) {
+        return this.fingerprints.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Verifies a password on the current thread.
+     *
+     * @param hash The encoded hash.
+     * @param password The password to check.
+     * @return null when the password is wrong, otherwise the passed hash or a new hash.
+     *
+     * @throws NoSuchAlgorithmException Never (the algorithm of the previous format is part of every JDK).
+     */
+    private String verifyNow(String hash, String password) throws NoSuchAlgorithmException {
+        boolean matches;
+        boolean weak;
+        if (hash.startsWith(PREFIX)) {
+            String[] parts = hash.substring(PREFIX.length()).split("\\$");
+            if (parts.length != 3) throw new IllegalArgumentException("Malformed password hash");
+            int iterations = Integer.parseInt(parts[0]);
+            Base64.Decoder decoder = Base64.getDecoder();
+            matches = MessageDigest.isEqual(decoder.decode(parts[2]), pbkdf2(password, decoder.decode(parts[1]), iterations));
+            weak = (iterations < this.iterations);
+        }
+        else {
+            matches = HashedPassword.fromString(hash).verify(password);
+            weak = true;
+        }
+        if (!matches) {
+            this.invalid.increment();
+            return null;
+        }
+        this.valid.increment();
+        if (!weak) return hash;
+        this.rehashed.increment();
+        return this.hashNow(password);
+    }
+
+    /**
+     * Derives the hash of a password.
+     *
+     * @param password The password.
+     * @param salt The salt.
+     * @param iterations The amount of iterations.
+     * @return The hash.
+     */
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unexpected Exception: " + ALGORITHM + " should exist.\n" + e.getMessage());
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+}
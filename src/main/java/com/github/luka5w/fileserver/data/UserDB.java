@@ -2,19 +2,27 @@ package com.github.luka5w.fileserver.data;
 
 import com.github.luka5w.fileserver.api.HttpException;
 import com.github.luka5w.fileserver.data.datatypes.User;
-import com.github.luka5w.util.encryption.HashedPassword;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.security.MessageDigest;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * The internal API for the user database
  *
+ * <p>
+ *     New passwords are hashed on the threads of the {@link PasswordVerifier} before the database is locked, so writes of other users don't wait for a hash.
+ *     The stronger hashes replacing weaker hashes after logins (see {@link UserData#verifyPassword(String)}) are saved together a few seconds later,
+ *     the previous hashes in the file stay valid until then.
+ * </p>
+ *
  * @author Lukas // https://github.com/luka5w
  * @version 1.0.0
  */
@@ -22,8 +30,13 @@ public class UserDB extends DB {
 
     private static final String DEFAULT_ID = "admin";
     private static final String DEFAULT_PW = "password";
+    private static final long REHASH_SAVE_DELAY = 5;
     private static UserDB INSTANCE;
-    private HashMap<String, UserData> users;
+    private static volatile PasswordVerifier VERIFIER;
+    private final ScheduledExecutorService saver;
+    private ConcurrentHashMap<String, UserData> users;
+    // guarded by this
+    private boolean saveScheduled = false;
 
     /**
      * Initiates the user database.
@@ -36,6 +49,11 @@ public class UserDB extends DB {
         super(file, "UserDB");
         INSTANCE = this;
         this.loadFromDB();
+        this.saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "UserDB-Saver");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
@@ -49,6 +67,31 @@ public class UserDB extends DB {
         return INSTANCE;
     }
 
+    /**
+     * Sets the verifier hashing and verifying the passwords, must be called before the database is created.
+     *
+     * @param verifier The verifier or null to use a verifier with the default configuration.
+     *
+     * @since 1.0.0
+     */
+    public static synchronized void setPasswordVerifier(PasswordVerifier verifier) {
+        VERIFIER = verifier;
+    }
+
+    /**
+     * Returns the verifier, a verifier with the default configuration is created when none is set.
+     *
+     * @return The verifier.
+     */
+    private static PasswordVerifier getVerifier() {
+        PasswordVerifier verifier = VERIFIER;
+        if (verifier != null) return verifier;
+        synchronized (UserDB.class) {
+            if (VERIFIER == null) VERIFIER = new PasswordVerifier();
+            return VERIFIER;
+        }
+    }
+
     /**
      * Checks whether the passed username and password is valid using {@link #isUserValid(String)} and {@link #isPasswordValid(String)}
      * and whether the user itself is valid and enabled using {@link #checkUser(String, String)} {@link User#isEnabled()}.
@@ -56,7 +99,7 @@ public class UserDB extends DB {
      * @param user The user ID.
      * @param password The password.
      *
-     * @throws HttpException When the checks of the passed credentials failed.
+     * @throws HttpException When the checks of the passed credentials failed or the password can't be verified right now (503).
      *
      * @since 1.0.0
      */
@@ -134,7 +177,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    public void setUserId(String executingUser, String targetUser, String newId) throws HttpException {
+    public synchronized void setUserId(String executingUser, String targetUser, String newId) throws HttpException {
         this.checkAPIPermission(executingUser);
         this.users.get(targetUser).setId(newId);
         this.save();
@@ -151,15 +194,18 @@ public class UserDB extends DB {
      * @param targetUser The ID of the target user to modify.
      * @param password The new password of the target user.
      *
-     * @throws HttpException When the executing user has insufficient permissions.
+     * @throws HttpException When the executing user has insufficient permissions or the password can't be hashed right now (503).
      *
      * @since 1.0.0
      */
     public void setUserPassword(String executingUser, String targetUser, String password) throws HttpException {
         this.checkAPIPermission(executingUser, targetUser);
         if (!this.isPasswordValid(password)) throw new HttpException(401, "Invalid Password");
-        this.users.get(targetUser).setPassword(password);
-        this.save();
+        String hash = getVerifier().hash(password);
+        synchronized (this) {
+            this.users.get(targetUser).setPasswordHash(hash);
+            this.save();
+        }
     }
 
     /**
@@ -176,7 +222,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    public void disableUser(String executingUser, String targetUser) throws HttpException {
+    public synchronized void disableUser(String executingUser, String targetUser) throws HttpException {
         this.checkAPIPermission(executingUser, targetUser);
         this.users.get(targetUser).setEnabled(false);
         this.save();
@@ -197,7 +243,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    public void setUserEnabled(String executingUser, String targetUser, boolean enabled) throws HttpException {
+    public synchronized void setUserEnabled(String executingUser, String targetUser, boolean enabled) throws HttpException {
         this.checkAPIPermission(executingUser);
         this.users.get(targetUser).setEnabled(enabled);
         this.save();
@@ -218,7 +264,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    public void setUserType(String executingUser, String targetUser, User.Type type) throws HttpException {
+    public synchronized void setUserType(String executingUser, String targetUser, User.Type type) throws HttpException {
         this.checkAPIPermission(executingUser);
         this.users.get(targetUser).setType(type);
         this.save();
@@ -237,7 +283,7 @@ public class UserDB extends DB {
      * @param type The type of the new user.
      * @param enabled Whether the user is enabled or not.
      *
-     * @throws HttpException When the executing user has insufficient permissions.
+     * @throws HttpException When the executing user has insufficient permissions or the password can't be hashed right now (503).
      *
      * @since 1.0.0
      */
@@ -245,8 +291,13 @@ public class UserDB extends DB {
         this.checkAPIPermission(executingUser);
         if (!this.isUserValid(targetUser) || !this.isPasswordValid(password)) throw new HttpException(401, "Invalid User ID or Password");
         if (this.users.containsKey(targetUser)) throw new HttpException(409, "User Already Exist");
-        this.users.put(targetUser, new UserData(targetUser, type, enabled, password));
-        this.save();
+        String hash = getVerifier().hash(password);
+        synchronized (this) {
+            // The user may have been added while the password was hashed.
+            if (this.users.containsKey(targetUser)) throw new HttpException(409, "User Already Exist");
+            this.users.put(targetUser, new UserData(targetUser, type, enabled, hash));
+            this.save();
+        }
     }
 
     /**
@@ -263,7 +314,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    public void delUser(String executingUser, String targetUser) throws HttpException {
+    public synchronized void delUser(String executingUser, String targetUser) throws HttpException {
         this.checkAPIPermission(executingUser);
         if (!this.users.containsKey(targetUser)) throw new HttpException(409, "User Does Not Exist");
         this.users.remove(targetUser);
@@ -310,16 +361,27 @@ public class UserDB extends DB {
 
     /**
      * Checks whether an user exists and whether the credentials are correct.
+     * <p>
+     *     The password of an unknown user is verified, too (see {@link PasswordVerifier#verifyUnknown(String)}),
+     *     so the time of the check doesn't reveal whether the user exists.
+     * </p>
      *
      * @param user The user ID to check.
      * @param password The password to check.
      *
      * @return true, when the user exists and the password is valid.
      *
+     * @throws HttpException When the password can't be verified right now (see {@link PasswordVerifier#verify(String, String)}).
+     *
      * @since 1.0.0
      */
-    public boolean checkUser(String user, String password) {
-        return (this.users.containsKey(user) && this.users.get(user).verifyPassword(password));
+    public boolean checkUser(String user, String password) throws HttpException {
+        UserData userData = this.users.get(user);
+        if (userData == null) {
+            getVerifier().verifyUnknown(password);
+            return false;
+        }
+        return userData.verifyPassword(password);
     }
 
     /**
@@ -361,7 +423,7 @@ public class UserDB extends DB {
      *
      * @since 1.0.0
      */
-    private void save() throws HttpException {
+    private synchronized void save() throws HttpException {
         JSONArray json = new JSONArray();
         this.users.values().forEach(u -> {
             json.put(u.toJSON());
@@ -375,6 +437,38 @@ public class UserDB extends DB {
         }
     }
 
+    /**
+     * Replaces the hash of a password with a stronger hash after the password was verified, unless the password was changed in the meantime.
+     * <p>
+     *     The database is saved after {@value #REHASH_SAVE_DELAY} seconds (with the hashes replaced until then),
+     *     so replacing the hashes of many users (e.g. after the iterations were increased) doesn't write the file per login.
+     * </p>
+     *
+     * @param user The user.
+     * @param previous The verified hash.
+     * @param password The new hash.
+     */
+    private synchronized void rehash(UserData user, Password previous, Password password) {
+        if (user.password != previous || this.users.get(user.getId()) != user) return;
+        user.password = password;
+        if (this.saveScheduled) return;
+        this.saveScheduled = true;
+        this.saver.schedule(this::saveRehashed, REHASH_SAVE_DELAY, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Saves the hashes replaced by {@link #rehash(UserData, Password, Password)}.
+     */
+    private synchronized void saveRehashed() {
+        this.saveScheduled = false;
+        try {
+            this.save();
+        }
+        catch (HttpException e) {
+            // Already logged, the previous hashes in the file stay valid.
+        }
+    }
+
     /**
      * Loads the database from the file.
      *
@@ -383,7 +477,7 @@ public class UserDB extends DB {
      * @since 1.0.0
      */
     private void loadFromDB() throws IOException {
-        this.users = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
         JSONArray json = new JSONArray(super.load());
         json.forEach(u -> {
             UserData u1 = new UserData((JSONObject) u);
@@ -394,7 +488,7 @@ public class UserDB extends DB {
     @Override
     protected void create() throws IOException {
         super.create();
-        super.save("[" + new UserData(DEFAULT_ID, User.Type.ADMIN, true, DEFAULT_PW).toString() + "]");
+        super.save("[" + new UserData(DEFAULT_ID, User.Type.ADMIN, true, getVerifier().hashNow(DEFAULT_PW)).toString() + "]");
         LOGGER.log("Created default user:\n id: " + DEFAULT_ID + "\n password: " + DEFAULT_PW);
         LOGGER.warn("You should change the credentials of the default user!");
     }
@@ -405,7 +499,7 @@ public class UserDB extends DB {
      * <p>
      *     This datatype contains sensitive user information and must <b>not</b> be published!
      *     <br />
-     *     The password is never stored raw anywhere but in hashed form using my {@link HashedPassword} datatype.
+     *     The password is never stored raw anywhere but in hashed form (see {@link PasswordVerifier}).
      * </p>
      *
      * @author Lukas // https://github.com/luka5w
@@ -418,7 +512,7 @@ public class UserDB extends DB {
         private static final String JSON_KEY_ENABLED = "e";
         private static final String JSON_KEY_PASSWORD = "p";
 
-        private HashedPassword password;
+        private volatile Password password;
 
         /**
          * Creates a new user from a JSONObject.
@@ -438,7 +532,7 @@ public class UserDB extends DB {
          */
         public UserData(JSONObject json) {
             super(json.getString(JSON_KEY_ID), User.Type.valueOf(json.getString(JSON_KEY_TYPE)), json.getBoolean(JSON_KEY_ENABLED));
-            this.password = HashedPassword.fromString(json.getString(JSON_KEY_PASSWORD));
+            this.password = new Password(json.getString(JSON_KEY_PASSWORD));
         }
 
         /**
@@ -447,33 +541,47 @@ public class UserDB extends DB {
          * @param id The ID of the new user.
          * @param type The type of the new user.
          * @param enabled Whether the new user is enabled.
-         * @param password The password of the new user.
+         * @param hash The hash of the password of the new user (see {@link PasswordVerifier#hash(String)}).
          *
          * @since 1.0.0
          */
-        public UserData(String id, Type type, boolean enabled, String password) {
+        public UserData(String id, Type type, boolean enabled, String hash) {
             super(id, type, enabled);
-            try {
-                this.password = new HashedPassword(password);
-            } catch (NoSuchAlgorithmException e) {
-                throw new IllegalStateException("Unexpected Exception: Default algorithm should exist.\n" + e.getMessage());
-            }
+            this.password = new Password(hash);
         }
 
         /**
          * Checks whether the given password matches the hashed password.
          *
+         * <p>
+         *     A password which was verified before is recognized by its fingerprint, otherwise it is verified by the {@link PasswordVerifier}
+         *     (and the hash is replaced when it uses weaker parameters than configured).
+         * </p>
+         *
          * @param password The password to check.
          * @return true when the passwords matches.
          *
+         * @throws HttpException When the password can't be verified right now (see {@link PasswordVerifier#verify(String, String)}).
+         *
          * @since 1.0.0
          */
-        public boolean verifyPassword(String password) {
-            try {
-                return this.password.verify(password);
-            } catch (NoSuchAlgorithmException e) {
-                throw new IllegalStateException("Unexpected Exception: This exception should be occurred in constructor already.\n" + e.getMessage());
+        public boolean verifyPassword(String password) throws HttpException {
+            PasswordVerifier verifier = getVerifier();
+            Password current = this.password;
+            byte[] fingerprint = verifier.fingerprint(password);
+            byte[] verified = current.verified;
+            if (verified != null && MessageDigest.isEqual(verified, fingerprint)) return true;
+            String hash = verifier.verify(current.hash, password);
+            if (hash == null) return false;
+            if (hash.equals(current.hash)) {
+                current.verified = fingerprint;
+            }
+            else {
+                Password rehashed = new Password(hash);
+                rehashed.verified = fingerprint;
+                UserDB.this.rehash(this, current, rehashed);
             }
+            return true;
         }
 
         @Override
@@ -494,14 +602,13 @@ public class UserDB extends DB {
         /**
          * Sets a new password for the user.
          *
-         * @see HashedPassword#update(String)
-         *
-         * @param password The new password
+         * @param hash The hash of the new password (see {@link PasswordVerifier#hash(String)}).
          *
          * @since 1.0.0
          */
-        public void setPassword(String password) {
-            this.password.update(password);
+        public void setPasswordHash(String hash) {
+            // A new instance is assigned, so concurrent verifications never see a half updated hash or the fingerprint of the previous password.
+            this.password = new Password(hash);
         }
 
         /**
@@ -516,7 +623,7 @@ public class UserDB extends DB {
                     .put(JSON_KEY_ID, super.getId())
                     .put(JSON_KEY_TYPE, super.getType().toString())
                     .put(JSON_KEY_ENABLED, super.isEnabled())
-                    .put(JSON_KEY_PASSWORD, this.password.toString());
+                    .put(JSON_KEY_PASSWORD, this.password.hash);
 
         }
 
@@ -525,4 +632,22 @@ public class UserDB extends DB {
             return this.toJSON().toString();
         }
     }
+
+    /**
+     * The hash of a password and the fingerprint of the password which was verified successfully (see {@link PasswordVerifier#fingerprint(String)}).
+     */
+    private static final class Password {
+
+        private final String hash;
+        private volatile byte[] verified;
+
+        /**
+         * Creates a new password.
+         *
+         * @param hash The encoded hash.
+         */
+        private Password(String hash) {
+            this.hash = hash;
+        }
+    }
 }
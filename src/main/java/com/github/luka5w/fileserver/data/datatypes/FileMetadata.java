@@ -0,0 +1,177 @@
+package com.github.luka5w.fileserver.data.datatypes;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A datatype containing the metadata of a file.
+ *
+ * <p>
+ *     The metadata is kept in memory by the {@link com.github.luka5w.fileserver.data.FileDB},
+ *     so it can be served (and used for conditional requests) without reading the file.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class FileMetadata {
+
+    private final String owner;
+    private final long id;
+    private final long modified;
+    private final List<String> users;
+
+    /**
+     * Creates new metadata.
+     *
+     * @param owner The owner of the file.
+     * @param id The ID of the file (which is the creation timestamp).
+     * @param modified The timestamp of the last modification.
+     * @param users The users the file is shared with.
+     *
+     * @since 1.0.0
+     */
+    public FileMetadata(String owner, long id, long modified, List<String> users) {
+        this.owner = owner;
+        this.id = id;
+        this.modified = modified;
+        this.users = Collections.unmodifiableList(users);
+    }
+
+    /**
+     * Creates new metadata from the header line of a database file.
+     *
+     * <code>
+     *     [modified];[user],[user],...
+     * </code>
+     *
+     * @param owner The owner of the file.
+     * @param id The ID of the file.
+     * @param header The header line (without the line break).
+     * @return The metadata.
+     *
+     * @throws IllegalArgumentException When the header is malformed.
+     *
+     * @since 1.0.0
+     */
+    public static FileMetadata fromHeader(String owner, long id, String header) {
+        String[] data = header.split(";", -1);
+        if (data.length == 0 || data.length > 2) throw new IllegalArgumentException("Malformed metadata");
+        List<String> users = (data.length == 2 && !data[1].isEmpty() ? Arrays.asList(data[1].split(",")) : new ArrayList<>());
+        return new FileMetadata(owner, id, Long.parseLong(data[0]), users);
+    }
+
+    /**
+     * Returns the owner of the file.
+     *
+     * @return The owner.
+     *
+     * @since 1.0.0
+     */
+    public String getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * Returns the ID (i.e. the creation timestamp) of the file.
+     *
+     * @return The ID.
+     *
+     * @since 1.0.0
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the timestamp of the last modification.
+     *
+     * @return The timestamp in milliseconds.
+     *
+     * @since 1.0.0
+     */
+    public long getModified() {
+        return this.modified;
+    }
+
+    /**
+     * Returns the users the file is shared with.
+     *
+     * @return An unmodifiable list of user IDs.
+     *
+     * @since 1.0.0
+     */
+    public List<String> getUsers() {
+        return this.users;
+    }
+
+    /**
+     * Returns a copy of this metadata with a new modification timestamp.
+     * <p>
+     *     The timestamp is guaranteed to be greater than the current one, so each modification results in a new {@link #getETag(boolean)}.
+     * </p>
+     *
+     * @param modified The (requested) timestamp of the modification.
+     * @return The new metadata.
+     *
+     * @since 1.0.0
+     */
+    public FileMetadata modify(long modified) {
+        return new FileMetadata(this.owner, this.id, Math.max(modified, this.modified + 1), this.users);
+    }
+
+    /**
+     * Returns the (weak) entity tag of the file.
+     * <p>
+     *     The tag is derived from the ID and the modification timestamp, which acts as version of the file.
+     *     The tag of the metadata representation also covers the users the file is shared with, which are changed without modifying the file.
+     *     <br>
+     *     The tag is weak, since the representations differ in their bytes (the timestamp of the response, the content encoding)
+     *     while they are semantically equivalent.
+     * </p>
+     *
+     * @param metadataOnly Whether the tag should identify the metadata representation instead of the content.
+     * @return The quoted entity tag.
+     *
+     * @since 1.0.0
+     */
+    public String getETag(boolean metadataOnly) {
+        return "W/\"" + Long.toString(this.id, 36) + "-" + Long.toString(this.modified, 36)
+                + (metadataOnly ? "-m" + Integer.toString(this.users.hashCode(), 36) : "") + "\"";
+    }
+
+    /**
+     * Returns the header line which is stored in the database file.
+     *
+     * @return The header line (without the line break).
+     *
+     * @since 1.0.0
+     */
+    public String toHeader() {
+        return this.modified + ";" + String.join(",", this.users);
+    }
+
+    /**
+     * Creates a new JSONObject containing the metadata.
+     * <p>
+     *     The fields keep the types of the header line which were sent before the metadata was indexed:
+     *     <code>modified</code> is a string and <code>users</code> is a comma-separated string (an empty array when the file is not shared).
+     * </p>
+     *
+     * @return The JSONObject.
+     *
+     * @since 1.0.0
+     */
+    public JSONObject toJSON() {
+        return new JSONObject()
+                .put("owner", this.owner)
+                .put("created", this.id)
+                .put("modified", String.valueOf(this.modified))
+                .put("users", (this.users.isEmpty() ? new JSONArray() : String.join(",", this.users)));
+    }
+}
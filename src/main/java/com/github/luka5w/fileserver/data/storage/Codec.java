@@ -0,0 +1,102 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import java.io.IOException;
+
+/**
+ * Compresses the contents of documents before they are stored.
+ *
+ * <p>
+ *     Engines store the ID of the codec with each encoded record (so records remain readable when the configured codec changes)
+ *     and look the codec up with {@link #forId(byte)} when the record is read.
+ *     <br>
+ *     Codecs are selected by name with {@link #forName(String, int)} (ini: <code>[database] compression</code>).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public interface Codec {
+
+    /**
+     * Returns a codec by its name.
+     *
+     * @param name The name of the codec: <code>none</code> (or an empty string) or <code>deflate</code> (see {@link DeflateCodec}).
+     * @param level The compression level (-1 for the default level of the codec).
+     * @return The codec or null for <code>none</code>.
+     *
+     * @throws IllegalArgumentException When the codec is unknown.
+     *
+     * @since 1.0.0
+     */
+    static Codec forName(String name, int level) {
+        switch (name) {
+            case "":
+            case "none":
+                return null;
+            case DeflateCodec.NAME:
+                return new DeflateCodec(level);
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+    /**
+     * Returns a codec (with its default level) by its ID, to decode stored records.
+     *
+     * @param id The ID of the codec.
+     * @return The codec.
+     *
+     * @throws IOException When the codec is unknown (i.e. the record is corrupt).
+     *
+     * @since 1.0.0
+     */
+    static Codec forId(byte id) throws IOException {
+        switch (id) {
+            case DeflateCodec.ID:
+                return DeflateCodec.DEFAULT;
+            default:
+                throw new IOException("Unknown codec: " + id);
+        }
+    }
+
+    /**
+     * Returns the ID of the codec, which is stored in the records.
+     *
+     * @return The ID (never 0, which marks unencoded records).
+     *
+     * @since 1.0.0
+     */
+    byte getId();
+
+    /**
+     * Returns the name of the codec.
+     *
+     * @return The name.
+     *
+     * @since 1.0.0
+     */
+    String getName();
+
+    /**
+     * Encodes data.
+     *
+     * @param data The data.
+     * @return The encoded data.
+     *
+     * @since 1.0.0
+     */
+    byte[] encode(byte[] data);
+
+    /**
+     * Decodes data.
+     *
+     * @param data The encoded data.
+     * @param length The length of the decoded data.
+     * @return The decoded data.
+     *
+     * @throws IOException When the data is corrupt.
+     *
+     * @since 1.0.0
+     */
+    byte[] decode(byte[] data, int length) throws IOException;
+}
@@ -0,0 +1,538 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Stores each distinct content only once (content-addressed by its SHA-256 hash) on top of another engine.
+ *
+ * <p>
+ *     The engine stores a pointer (<code>{"$blob":"[hash]"}</code>) instead of the content in the underlying engine,
+ *     the content itself is stored as blob (<code>blobs/[first 2 chars of the hash]/[hash].json</code> in the database root directory
+ *     or in memory for the memory engine). Writes of a content which is already stored skip the blob write, reads of documents
+ *     with the same content share one entry of the blob cache.
+ *     <br>
+ *     Contents smaller than the minimal size are stored inline (i.e. as usual), since the pointer would not be much smaller.
+ *     Documents which are not pointers are read as inline contents, so deduplication can be enabled for an existing database
+ *     (but not disabled again).
+ * </p>
+ * <p>
+ *     A user must not be able to store a pointer: inline contents consisting of a single <code>$blob</code> or <code>$inline</code> key
+ *     are stored escaped (<code>{"$inline":[content]}</code>). A document is only read as pointer when the hash is valid (64 lowercase hexadecimal characters)
+ *     and the blob is stored, otherwise (e.g. such a content stored before deduplication was enabled) it is read as content.
+ * </p>
+ * <p>
+ *     The blobs are reference counted, the counts are rebuilt from the pointers when the engine is opened.
+ *     A blob is written before the first pointer to it and deleted some time after its last pointer is removed
+ *     (so the pointer removal is persisted first), blobs without pointers are deleted when the engine is opened.
+ * </p>
+ * <p>
+ *     Options (<code>[database]</code>): <code>dedup</code> (default false), <code>dedup-min-size</code> (bytes, default 128),
+ *     <code>dedup-cache-size</code> (blobs, default 1024) and <code>dedup-gc-delay</code> (seconds, default 60).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class DedupStorageEngine implements StorageEngine {
+
+    private static final Log LOGGER = Main.getLogger("DedupStorage");
+    private static final String POINTER_KEY = "$blob";
+    private static final String ESCAPE_KEY = "$inline";
+    private static final String EXTENSION = ".json";
+    private static final String TMP_EXTENSION = ".tmp";
+    private static final int BLOB_LOCK_STRIPES = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final StorageEngine engine;
+    private final Path blobDir;
+    private final int minSize;
+    private final long gcDelay;
+    private final ConcurrentHashMap<String, Blob> blobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, String>> pointers = new ConcurrentHashMap<>();
+    private final ReentrantLock[] blobLocks = new ReentrantLock[BLOB_LOCK_STRIPES];
+    private final Map<String, String> cache;
+    private final Counter hits;
+    private final ScheduledExecutorService collector;
+
+    /**
+     * Opens the engine and rebuilds the reference counts.
+     *
+     * @param engine The engine storing the documents (i.e. the pointers).
+     * @param blobDir The directory of the blobs or null to keep them in memory.
+     * @param options The options.
+     *
+     * @throws IOException When the documents or the blobs can't be read.
+     *
+     * @since 1.0.0
+     */
+    public DedupStorageEngine(StorageEngine engine, Path blobDir, Map<String, String> options) throws IOException {
+        this.engine = engine;
+        this.blobDir = blobDir;
+        this.minSize = Integer.parseInt(getOption(options, "dedup-min-size", "128"));
+        int cacheSize = Integer.parseInt(getOption(options, "dedup-cache-size", "1024"));
+        this.gcDelay = TimeUnit.SECONDS.toNanos(Integer.parseInt(getOption(options, "dedup-gc-delay", "60")));
+        for (int i = 0; i < BLOB_LOCK_STRIPES; i++) this.blobLocks[i] = new ReentrantLock();
+        this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return this.size() > cacheSize;
+            }
+        };
+        if (this.blobDir != null) Files.createDirectories(this.blobDir);
+        this.loadReferences();
+        Metrics metrics = Metrics.getInstance();
+        this.hits = metrics.counter("fileserver_storage_dedup_hits_total", "The writes of contents which were already stored.");
+        metrics.gauge("fileserver_storage_blobs", "The amount of stored blobs.", () -> this.blobs.size());
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Blob-Collector");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(this.gcDelay));
+        this.collector.scheduleWithFixedDelay(this::collect, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public JSONObject get(String owner, long id) throws IOException {
+        JSONObject document = this.engine.get(owner, id);
+        String hash = getPointer(document);
+        if (hash != null && this.blobs.containsKey(hash)) return new JSONObject(this.readBlob(hash));
+        return unescape(document);
+    }
+
+    @Override
+    public FileMetadata getMeta(String owner, long id) throws IOException {
+        return this.engine.getMeta(owner, id);
+    }
+
+    @Override
+    public void put(FileMetadata meta, JSONObject content) throws IOException {
+        String data = content.toString();
+        String hash = this.store(data, false);
+        try {
+            this.engine.put(meta, (hash == null ? escape(content) : createPointer(hash)));
+        }
+        catch (IOException e) {
+            if (hash != null) this.release(hash);
+            throw e;
+        }
+        this.setPointer(meta.getOwner(), meta.getId(), hash);
+    }
+
+    @Override
+    public void delete(String owner, long id) throws IOException {
+        this.engine.delete(owner, id);
+        this.setPointer(owner, id, null);
+    }
+
+    @Override
+    public void write(String owner, Collection<FileMetadata> puts, Map<Long, JSONObject> contents, Collection<Long> deletes) throws IOException {
+        Map<Long, JSONObject> stored = new HashMap<>();
+        Map<Long, String> hashes = new HashMap<>();
+        try {
+            for (FileMetadata meta : puts) {
+                JSONObject content = contents.get(meta.getId());
+                String hash = this.store(content.toString(), true);
+                if (hash != null) hashes.put(meta.getId(), hash);
+                stored.put(meta.getId(), (hash == null ? escape(content) : createPointer(hash)));
+            }
+            if (!hashes.isEmpty()) this.syncBlobDir();
+            this.engine.write(owner, puts, stored, deletes);
+        }
+        catch (IOException | RuntimeException e) {
+            hashes.values().forEach(this::release);
+            throw e;
+        }
+        for (FileMetadata meta : puts) this.setPointer(owner, meta.getId(), hashes.get(meta.getId()));
+        for (long id : deletes) this.setPointer(owner, id, null);
+    }
+
+    @Override
+    public List<FileMetadata> list(String owner) throws IOException {
+        return this.engine.list(owner);
+    }
+
+    @Override
+    public void scanSince(long modified, Consumer<FileMetadata> consumer) throws IOException {
+        this.engine.scanSince(modified, consumer);
+    }
+
+    /**
+     * Returns an option.
+     *
+     * @param options The options.
+     * @param key The key of the option.
+     * @param defaultValue The value which is returned when the option is missing or empty.
+     * @return The value.
+     */
+    private static String getOption(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return (value == null || value.isEmpty() ? defaultValue : value);
+    }
+
+    /**
+     * Creates a pointer to a blob.
+     *
+     * @param hash The hash of the blob.
+     * @return The pointer.
+     */
+    private static JSONObject createPointer(String hash) {
+        return new JSONObject().put(POINTER_KEY, hash);
+    }
+
+    /**
+     * Returns the hash of the blob a document points to.
+     * <p>
+     *     The blob must be looked up, the document is an inline content when the blob is not stored.
+     * </p>
+     *
+     * @param document The stored document.
+     * @return The hash or null when the document is an inline content.
+     */
+    private static String getPointer(JSONObject document) {
+        if (document.length() != 1) return null;
+        Object hash = document.opt(POINTER_KEY);
+        return (hash instanceof String && isHash((String) hash) ? (String) hash : null);
+    }
+
+    /**
+     * Returns whether a string is a valid hash (64 lowercase hexadecimal characters), so it can be used as file name.
+     *
+     * @param hash The string.
+     * @return true when the string is a valid hash.
+     */
+    private static boolean isHash(String hash) {
+        if (hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Escapes an inline content which could be mistaken for a pointer or an escaped content.
+     *
+     * @param content The content.
+     * @return The content to store.
+     */
+    private static JSONObject escape(JSONObject content) {
+        if (content.length() != 1 || !(content.has(POINTER_KEY) || content.has(ESCAPE_KEY))) return content;
+        return new JSONObject().put(ESCAPE_KEY, content);
+    }
+
+    /**
+     * Reverts {@link #escape(JSONObject)}.
+     *
+     * @param document The stored inline content.
+     * @return The content.
+     */
+    private static JSONObject unescape(JSONObject document) {
+        if (document.length() != 1) return document;
+        Object content = document.opt(ESCAPE_KEY);
+        return (content instanceof JSONObject ? (JSONObject) content : document);
+    }
+
+    /**
+     * Returns the SHA-256 hash of a content.
+     *
+     * @param data The serialized content.
+     * @return The hash (hexadecimal).
+     */
+    private static String hash(String data) {
+        byte[] digest = DIGEST.get().digest(data.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Rebuilds the reference counts from the pointers and deletes the blobs without pointers.
+     *
+     * @throws IOException When the documents or the blob directory can't be read.
+     */
+    private void loadReferences() throws IOException {
+        List<FileMetadata> documents = new ArrayList<>();
+        this.engine.scanSince(Long.MIN_VALUE, documents::add);
+        for (FileMetadata meta : documents) {
+            String hash;
+            try {
+                hash = getPointer(this.engine.get(meta.getOwner(), meta.getId()));
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.warn("Can't read document " + meta.getOwner() + "." + meta.getId() + ": " + e.getMessage());
+                continue;
+            }
+            // Pointers to missing blobs were stored as contents before deduplication was enabled (or the blob was lost).
+            if (hash == null || this.blobDir == null || !Files.isRegularFile(this.getBlobPath(hash))) continue;
+            this.pointers.computeIfAbsent(meta.getOwner(), o -> new ConcurrentHashMap<>()).put(meta.getId(), hash);
+            this.blobs.computeIfAbsent(hash, h -> new Blob(null)).refs++;
+        }
+        if (this.blobDir == null) return;
+        int deleted = 0;
+        try (Stream<Path> paths = Files.walk(this.blobDir, 2)) {
+            for (Path p : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(EXTENSION) && this.blobs.containsKey(name.substring(0, name.length() - EXTENSION.length()))) continue;
+                Files.delete(p);
+                deleted++;
+            }
+        }
+        if (deleted > 0) LOGGER.log("Deleted " + deleted + " unreferenced blob files.");
+    }
+
+    /**
+     * Stores a content as blob (when it is not stored yet) and increments its reference count.
+     *
+     * @param data The serialized content.
+     * @param force Whether the blob file should be synced to the disk.
+     * @return The hash of the blob or null when the content should be stored inline.
+     *
+     * @throws IOException When the blob can't be written.
+     */
+    private String store(String data, boolean force) throws IOException {
+        if (data.length() < this.minSize) return null;
+        String hash = hash(data);
+        ReentrantLock lock = this.getBlobLock(hash);
+        lock.lock();
+        try {
+            Blob blob = this.blobs.get(hash);
+            if (blob != null) {
+                blob.refs++;
+                this.hits.increment();
+                return hash;
+            }
+            if (this.blobDir != null) this.writeBlob(hash, data, force);
+            blob = new Blob(this.blobDir == null ? data : null);
+            blob.refs = 1;
+            this.blobs.put(hash, blob);
+            return hash;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decrements the reference count of a blob, the blob is deleted by the collector when it is not referenced anymore.
+     *
+     * @param hash The hash of the blob.
+     */
+    private void release(String hash) {
+        ReentrantLock lock = this.getBlobLock(hash);
+        lock.lock();
+        try {
+            Blob blob = this.blobs.get(hash);
+            if (blob != null && --blob.refs == 0) blob.released = System.nanoTime();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the blob a document points to and releases the blob it pointed to before.
+     * <p>
+     *     The FileDB never writes the same document concurrently, so this is not atomic with the write of the document.
+     * </p>
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @param hash The hash of the blob or null when the document is deleted or stored inline.
+     */
+    private void setPointer(String owner, long id, String hash) {
+        String old;
+        if (hash == null) {
+            Map<Long, String> pointers = this.pointers.get(owner);
+            old = (pointers == null ? null : pointers.remove(id));
+        }
+        else {
+            old = this.pointers.computeIfAbsent(owner, o -> new ConcurrentHashMap<>()).put(id, hash);
+        }
+        if (old != null) this.release(old);
+    }
+
+    /**
+     * Reads a blob, from the cache when possible.
+     *
+     * @param hash The hash of the blob.
+     * @return The serialized content.
+     *
+     * @throws IOException When the blob does not exist or can't be read.
+     */
+    private String readBlob(String hash) throws IOException {
+        synchronized (this.cache) {
+            String data = this.cache.get(hash);
+            if (data != null) return data;
+        }
+        String data;
+        if (this.blobDir == null) {
+            Blob blob = this.blobs.get(hash);
+            if (blob == null) throw new NoSuchFileException(hash);
+            data = blob.data;
+        }
+        else {
+            data = new String(Files.readAllBytes(this.getBlobPath(hash)), StandardCharsets.UTF_8);
+        }
+        synchronized (this.cache) {
+            this.cache.put(hash, data);
+        }
+        return data;
+    }
+
+    /**
+     * Writes a blob file (to a temporary file which is renamed, so a blob file is always complete).
+     *
+     * @param hash The hash of the blob.
+     * @param data The serialized content.
+     * @param force Whether the file should be synced to the disk.
+     *
+     * @throws IOException When the file can't be written.
+     */
+    private void writeBlob(String hash, String data, boolean force) throws IOException {
+        Path path = this.getBlobPath(hash);
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(hash + TMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            if (force) channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Syncs the blob directories, so renamed blob files are persisted before the pointers are written.
+     * <p>
+     *     Not all platforms support syncing directories, failures are logged only.
+     * </p>
+     */
+    private void syncBlobDir() {
+        if (this.blobDir == null) return;
+        try (Stream<Path> dirs = Files.list(this.blobDir)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                    channel.force(true);
+                }
+            }
+        }
+        catch (IOException e) {
+            LOGGER.debug(() -> "Can't sync blob directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the blobs which have not been referenced for the collection delay.
+     */
+    private void collect() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Blob> entry : this.blobs.entrySet()) {
+            Blob blob = entry.getValue();
+            if (blob.refs > 0 || now - blob.released < this.gcDelay) continue;
+            ReentrantLock lock = this.getBlobLock(entry.getKey());
+            lock.lock();
+            try {
+                // The blob may have been referenced again in the meantime.
+                if (blob.refs > 0) continue;
+                if (this.blobDir != null) Files.deleteIfExists(this.getBlobPath(entry.getKey()));
+                this.blobs.remove(entry.getKey());
+                synchronized (this.cache) {
+                    this.cache.remove(entry.getKey());
+                }
+            }
+            catch (IOException e) {
+                LOGGER.exception("Can't delete blob " + entry.getKey() + ": ", e);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the path of a blob file.
+     *
+     * @param hash The hash of the blob.
+     * @return The path.
+     */
+    private Path getBlobPath(String hash) {
+        if (!isHash(hash)) throw new IllegalArgumentException("Invalid blob hash");
+        return this.blobDir.resolve(hash.substring(0, 2)).resolve(hash + EXTENSION);
+    }
+
+    /**
+     * Returns the lock of a blob.
+     * <p>
+     *     The locks are striped, so different blobs may share a lock.
+     * </p>
+     *
+     * @param hash The hash of the blob.
+     * @return The lock.
+     */
+    private ReentrantLock getBlobLock(String hash) {
+        return this.blobLocks[(hash.hashCode() & 0x7fffffff) % BLOB_LOCK_STRIPES];
+    }
+
+    /**
+     * A stored content.
+     * <p>
+     *     The fields are guarded by the lock of the blob.
+     * </p>
+     */
+    private static final class Blob {
+        private final String data;
+        private volatile int refs = 0;
+        private volatile long released;
+
+        /**
+         * Creates a new blob.
+         *
+         * @param data The serialized content when the blobs are kept in memory, null otherwise.
+         */
+        private Blob(String data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses data with deflate (RFC 1951) from the JDK.
+ *
+ * <p>
+ *     The encoded data is a raw deflate stream (without zlib header and trailer) which ends with a sync flush instead of a final block,
+ *     so it can be spliced into a deflate stream of a response (see {@link com.github.luka5w.fileserver.server.Compression}) without decoding it.
+ *     <br>
+ *     {@link Deflater}s and {@link Inflater}s allocate native memory, so one of each is kept per thread.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class DeflateCodec implements Codec {
+
+    /**
+     * The name of the codec.
+     *
+     * @since 1.0.0
+     */
+    public static final String NAME = "deflate";
+
+    /**
+     * The ID of the codec.
+     *
+     * @since 1.0.0
+     */
+    public static final byte ID = 1;
+
+    static final DeflateCodec DEFAULT = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+    private static final int BUFFER_SIZE = 4096;
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    /**
+     * Creates a new codec.
+     *
+     * @param level The compression level (-1 for the default level).
+     *
+     * @throws IllegalArgumentException When the level is invalid.
+     *
+     * @since 1.0.0
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("level must be -1 up to 9");
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        Deflater deflater = this.deflaters.get();
+        try {
+            deflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(data.length, BUFFER_SIZE));
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            // A full buffer means there may be more output pending.
+            do {
+                len = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                out.write(buf, 0, len);
+            } while (len == buf.length);
+            return out.toByteArray();
+        }
+        finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int length) throws IOException {
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[length];
+            int off = 0;
+            while (off < length) {
+                int len = inflater.inflate(out, off, length - off);
+                if (len == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) throw new IOException("Truncated deflate data");
+                off += len;
+            }
+            return out;
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate data: " + e.getMessage(), e);
+        }
+        finally {
+            inflater.reset();
+        }
+    }
+}
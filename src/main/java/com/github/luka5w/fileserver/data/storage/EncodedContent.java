@@ -0,0 +1,94 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The content of a document as it is stored by an engine (i.e. encoded by a {@link Codec}), see {@link StorageEngine#getEncoded(String, long)}.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class EncodedContent {
+
+    private final Codec codec;
+    private final byte[] data;
+    private final int length;
+    private final int crc;
+
+    /**
+     * Creates a new encoded content.
+     *
+     * @param codec The codec the content is encoded with.
+     * @param data The encoded content.
+     * @param length The length of the decoded content (serialized JSON as UTF-8).
+     * @param crc The CRC-32 of the decoded content.
+     *
+     * @since 1.0.0
+     */
+    public EncodedContent(Codec codec, byte[] data, int length, int crc) {
+        this.codec = codec;
+        this.data = data;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * Returns the codec the content is encoded with.
+     *
+     * @return The codec.
+     *
+     * @since 1.0.0
+     */
+    public Codec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Returns the encoded content.
+     *
+     * @return The encoded content (must not be modified).
+     *
+     * @since 1.0.0
+     */
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Returns the length of the decoded content.
+     *
+     * @return The length in bytes.
+     *
+     * @since 1.0.0
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the CRC-32 of the decoded content.
+     *
+     * @return The CRC-32.
+     *
+     * @since 1.0.0
+     */
+    public int getCrc() {
+        return this.crc;
+    }
+
+    /**
+     * Decodes the content.
+     *
+     * @return The content.
+     *
+     * @throws IOException When the content is corrupt.
+     *
+     * @since 1.0.0
+     */
+    public JSONObject decode() throws IOException {
+        return new JSONObject(new String(this.codec.decode(this.data, this.length), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,279 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.util.data.FileUtils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores every document in its own file: <code>[owner].[id].db</code> in the database root directory.
+ *
+ * <p>
+ *     The first line of a file is the header of the metadata (see {@link FileMetadata#toHeader()}), the rest is the content.
+ *     <br>
+ *     Batches are written to temporary files in parallel, which are moved to their final names after all writes succeeded.
+ *     Before the files are moved (or deleted), the batch is committed with a record listing its files (<code>[batch].commit</code>),
+ *     which is deleted when the batch is applied completely.
+ *     When the engine is opened, the batches of the records left by an interrupted batch are completed (rolled forward),
+ *     the remaining temporary files belong to batches which were not committed and are deleted.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class FileStorageEngine implements StorageEngine {
+
+    private static final Log LOGGER = Main.getLogger("FileStorage");
+    private static final String EXTENSION = "db";
+    private static final String TMP_EXTENSION = "tmp";
+    private static final String COMMIT_EXTENSION = "commit";
+    private static final String FILE_REGEX = "[0-9A-Za-z]{1,32}\\.[0-9]{13}\\." + EXTENSION;
+
+    private final Path dir;
+    private final ExecutorService ioExecutor;
+    private final AtomicLong batches = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Opens the engine, the directory is created when it does not exist.
+     *
+     * @param dir The database root directory.
+     * @param ioExecutor The executor writing the files of batches in parallel.
+     *
+     * @throws IOException When the directory can't be created, a committed batch can't be completed or a temporary file can't be deleted.
+     *
+     * @since 1.0.0
+     */
+    public FileStorageEngine(String dir, ExecutorService ioExecutor) throws IOException {
+        this.dir = Paths.get(dir);
+        this.ioExecutor = ioExecutor;
+        File file = this.dir.toFile();
+        if (!file.isDirectory()) {
+            if (file.exists()) throw new InvalidParameterException("Files must be a directory");
+            Files.createDirectories(this.dir);
+        }
+        List<Path> commits;
+        try (Stream<Path> paths = Files.list(this.dir)) {
+            // The batches are completed in the order they were committed.
+            commits = paths.filter(p -> p.getFileName().toString().endsWith("." + COMMIT_EXTENSION))
+                    .sorted(Comparator.comparingLong(p -> Long.parseLong(p.getFileName().toString().split("\\.")[0])))
+                    .collect(Collectors.toList());
+        }
+        for (Path commit : commits) {
+            LOGGER.warn("Completing interrupted batch: " + commit.getFileName());
+            this.apply(commit);
+        }
+        try (Stream<Path> paths = Files.list(this.dir)) {
+            for (Path p : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                // Leftover of an interrupted batch, the batch was not committed.
+                if (p.getFileName().toString().endsWith("." + TMP_EXTENSION)) Files.delete(p);
+            }
+        }
+    }
+
+    @Override
+    public JSONObject get(String owner, long id) throws IOException {
+        File file = this.getFileName(owner, id);
+        if (!file.isFile()) throw new NoSuchFileException(file.getPath());
+        return new JSONObject(FileUtils.readFrom(file, '\n'));
+    }
+
+    @Override
+    public FileMetadata getMeta(String owner, long id) throws IOException {
+        File file = this.getFileName(owner, id);
+        if (!file.isFile()) return null;
+        return FileMetadata.fromHeader(owner, id, FileUtils.readUntil(file, '\n'));
+    }
+
+    @Override
+    public void put(FileMetadata meta, JSONObject content) throws IOException {
+        FileUtils.write(this.getFileName(meta.getOwner(), meta.getId()), meta.toHeader() + "\n" + content.toString());
+    }
+
+    @Override
+    public void delete(String owner, long id) {
+        this.getFileName(owner, id).delete();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     When the method throws an exception after the batch was committed, the batch is completed when the engine is opened again.
+     * </p>
+     */
+    @Override
+    public void write(String owner, Collection<FileMetadata> puts, Map<Long, JSONObject> contents, Collection<Long> deletes) throws IOException {
+        String batch = Long.toString(this.batches.incrementAndGet());
+        List<Future<Path>> writes = new ArrayList<>();
+        StringBuilder record = new StringBuilder();
+        for (FileMetadata meta : puts) {
+            String data = meta.toHeader() + "\n" + contents.get(meta.getId()).toString();
+            String name = this.getFileName(meta.getOwner(), meta.getId()).getName();
+            Path tmp = this.dir.resolve(name + "." + batch + "." + TMP_EXTENSION);
+            record.append('+').append(name).append('\n');
+            writes.add(this.ioExecutor.submit(() -> {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    // The default charset is used, like FileUtils does.
+                    ByteBuffer buf = ByteBuffer.wrap(data.getBytes(Charset.defaultCharset()));
+                    while (buf.hasRemaining()) channel.write(buf);
+                    channel.force(true);
+                }
+                return tmp;
+            }));
+        }
+        List<Path> tmps = new ArrayList<>();
+        IOException error = null;
+        for (Future<Path> write : writes) {
+            try {
+                tmps.add(write.get());
+            }
+            catch (ExecutionException e) {
+                error = (e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Interrupted while writing files");
+            }
+        }
+        if (error != null) {
+            for (Path tmp : tmps) tmp.toFile().delete();
+            throw error;
+        }
+        for (long id : deletes) record.append('-').append(this.getFileName(owner, id).getName()).append('\n');
+        Path commit = this.dir.resolve(batch + "." + COMMIT_EXTENSION);
+        try (FileChannel channel = FileChannel.open(commit, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(record.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+        catch (IOException e) {
+            for (Path tmp : tmps) tmp.toFile().delete();
+            commit.toFile().delete();
+            throw e;
+        }
+        // The batch is committed when its record is persisted, from here on it is completed (if necessary when the engine is opened again).
+        this.syncDirectory();
+        this.apply(commit);
+    }
+
+    /**
+     * Applies a committed batch: moves its temporary files to their final names, deletes its deleted files and deletes its record.
+     * <p>
+     *     Files which were moved or deleted already are skipped, so an interrupted batch can be applied again.
+     * </p>
+     *
+     * @param commit The record of the batch.
+     *
+     * @throws IOException When a file can't be moved or deleted.
+     */
+    private void apply(Path commit) throws IOException {
+        String name = commit.getFileName().toString();
+        String batch = name.substring(0, name.length() - COMMIT_EXTENSION.length() - 1);
+        for (String line : Files.readAllLines(commit, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) continue;
+            Path file = this.dir.resolve(line.substring(1));
+            if (line.charAt(0) == '-') {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            Path tmp = this.dir.resolve(line.substring(1) + "." + batch + "." + TMP_EXTENSION);
+            if (Files.exists(tmp)) Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        this.syncDirectory();
+        Files.delete(commit);
+    }
+
+    @Override
+    public List<FileMetadata> list(String owner) throws IOException {
+        List<FileMetadata> list = new ArrayList<>();
+        this.scan(owner, Long.MIN_VALUE, list::add);
+        return list;
+    }
+
+    @Override
+    public void scanSince(long modified, Consumer<FileMetadata> consumer) throws IOException {
+        this.scan(null, modified, consumer);
+    }
+
+    /**
+     * Reads the metadata of the files in the directory.
+     *
+     * @param owner The owner of the files or null for the files of all owners.
+     * @param modified The minimal timestamp of the last modification.
+     * @param consumer The consumer of the metadata.
+     *
+     * @throws IOException When the directory or a file can't be read.
+     */
+    private void scan(String owner, long modified, Consumer<FileMetadata> consumer) throws IOException {
+        try (Stream<Path> paths = Files.list(this.dir)) {
+            for (Path p : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String f = p.getFileName().toString();
+                if (!f.matches(FILE_REGEX)) continue;
+                String[] pp = f.split("\\.");
+                if (pp.length != 3 || (owner != null && !owner.equals(pp[0]))) continue;
+                FileMetadata meta;
+                try {
+                    meta = FileMetadata.fromHeader(pp[0], Long.parseLong(pp[1]), FileUtils.readUntil(p.toFile(), '\n'));
+                }
+                catch (IllegalArgumentException e) {
+                    LOGGER.warn("Ignoring file with malformed metadata: " + f);
+                    continue;
+                }
+                if (meta.getModified() >= modified) consumer.accept(meta);
+            }
+        }
+    }
+
+    /**
+     * Syncs the database directory, so renamed and deleted files are persisted.
+     * <p>
+     *     Not all platforms support syncing directories, failures are logged only.
+     * </p>
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(this.dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            LOGGER.debug(() -> "Can't sync database directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats a filename from an owner and an ID.
+     *
+     * @param user The owner of the file.
+     * @param id The ID of the file.
+     *
+     * @return A new file matching the parameters.
+     */
+    private File getFileName(String user, long id) {
+        return new File(this.dir.toString(), user + "." + id + "." + EXTENSION);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Stores the documents in memory (they are lost when the program exits), meant for benchmarks and tests.
+ *
+ * <p>
+ *     The contents are stored serialized, so the costs of (de)serialization are the same as with other engines
+ *     and callers can't modify stored contents.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class MemoryStorageEngine implements StorageEngine {
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, Document>> documents = new ConcurrentHashMap<>();
+
+    @Override
+    public JSONObject get(String owner, long id) throws IOException {
+        Document document = this.getDocument(owner, id);
+        if (document == null) throw new NoSuchFileException(owner + "." + id);
+        return new JSONObject(document.content);
+    }
+
+    @Override
+    public FileMetadata getMeta(String owner, long id) {
+        Document document = this.getDocument(owner, id);
+        return (document == null ? null : document.meta);
+    }
+
+    @Override
+    public void put(FileMetadata meta, JSONObject content) {
+        this.documents.computeIfAbsent(meta.getOwner(), o -> new ConcurrentHashMap<>()).put(meta.getId(), new Document(meta, content.toString()));
+    }
+
+    @Override
+    public void delete(String owner, long id) {
+        Map<Long, Document> documents = this.documents.get(owner);
+        if (documents != null) documents.remove(id);
+    }
+
+    @Override
+    public void write(String owner, Collection<FileMetadata> puts, Map<Long, JSONObject> contents, Collection<Long> deletes) {
+        for (FileMetadata meta : puts) this.put(meta, contents.get(meta.getId()));
+        for (long id : deletes) this.delete(owner, id);
+    }
+
+    @Override
+    public List<FileMetadata> list(String owner) {
+        List<FileMetadata> list = new ArrayList<>();
+        Map<Long, Document> documents = this.documents.get(owner);
+        if (documents != null) documents.values().forEach(d -> list.add(d.meta));
+        return list;
+    }
+
+    @Override
+    public void scanSince(long modified, Consumer<FileMetadata> consumer) {
+        this.documents.values().forEach(documents -> documents.values().forEach(d -> {
+            if (d.meta.getModified() >= modified) consumer.accept(d.meta);
+        }));
+    }
+
+    /**
+     * Returns a stored document.
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @return The document or null when it does not exist.
+     */
+    private Document getDocument(String owner, long id) {
+        Map<Long, Document> documents = this.documents.get(owner);
+        return (documents == null ? null : documents.get(id));
+    }
+
+    /**
+     * A stored document.
+     */
+    private static final class Document {
+        private final FileMetadata meta;
+        private final String content;
+
+        /**
+         * Creates a new document.
+         *
+         * @param meta The metadata.
+         * @param content The serialized content.
+         */
+        private Document(FileMetadata meta, String content) {
+            this.meta = meta;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,751 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the documents as records appended to large segment files (<code>segment-[number].log</code> in the database root directory).
+ *
+ * <p>
+ *     Creates, updates and deletes are sequential appends to the active segment; a segment is rolled over when it exceeds the segment size.
+ *     The location of the content of each document (segment, offset, length) and its metadata are kept in memory,
+ *     so a read is a single positional read and listing needs no I/O.
+ *     <br>
+ *     A record is <code>[int length][int crc32][operations]</code>, an operation is
+ *     <code>[byte type][short owner length][owner][long id]</code> followed by <code>[int header length][header][int content length][content]</code> for puts
+ *     (deletes are tombstones without data). Encoded puts (see {@link Codec}) have their own type and <code>[byte codec][int decoded length][int crc32]</code>
+ *     before the content length. A batch is written as one record, so it is applied completely or not at all.
+ *     <br>
+ *     When the segments are opened, the records are replayed in order. A torn record at the end of a segment (i.e. after a crash) is truncated.
+ * </p>
+ * <p>
+ *     Overwritten and deleted records are garbage. A background thread compacts segments whose live ratio (live bytes / size) is below the
+ *     compaction ratio: the live records are appended to the active segment and the segment is deleted.
+ *     Tombstones are kept as long as an older segment may still contain a record they delete.
+ * </p>
+ * <p>
+ *     Options (<code>[database]</code>): <code>segment-size</code> (MiB, default 64), <code>compaction-ratio</code> (default 0.5)
+ *     <code>compaction-interval</code> (seconds, default 30), <code>compression</code> (<code>none</code> or <code>deflate</code>, default none),
+ *     <code>compression-level</code> (default -1) and <code>compression-threshold</code> (bytes, default 512).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class SegmentStorageEngine implements StorageEngine {
+
+    private static final Log LOGGER = Main.getLogger("SegmentStorage");
+    private static final String PREFIX = "segment-";
+    private static final String EXTENSION = ".log";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte PUT_ENCODED = 3;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 30;
+    private static final int READ_RETRIES = 3;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final double compactionRatio;
+    private final Codec codec;
+    private final int compressionThreshold;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, Location>> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ScheduledExecutorService compactor;
+    private volatile Segment active;
+
+    /**
+     * Opens the engine and replays the segments, the directory is created when it does not exist.
+     *
+     * @param dir The database root directory.
+     * @param options The options.
+     *
+     * @throws IOException When a segment can't be read.
+     *
+     * @since 1.0.0
+     */
+    public SegmentStorageEngine(String dir, Map<String, String> options) throws IOException {
+        this.dir = Paths.get(dir);
+        this.segmentSize = Long.parseLong(getOption(options, "segment-size", "64")) * 1024 * 1024;
+        this.compactionRatio = Double.parseDouble(getOption(options, "compaction-ratio", "0.5"));
+        int compactionInterval = Integer.parseInt(getOption(options, "compaction-interval", "30"));
+        this.codec = Codec.forName(getOption(options, "compression", "none"), Integer.parseInt(getOption(options, "compression-level", "-1")));
+        this.compressionThreshold = Integer.parseInt(getOption(options, "compression-threshold", "512"));
+        File file = this.dir.toFile();
+        if (!file.isDirectory()) {
+            if (file.exists()) throw new InvalidParameterException("Files must be a directory");
+            Files.createDirectories(this.dir);
+        }
+        TreeMap<Long, Path> paths = new TreeMap<>();
+        try (Stream<Path> list = Files.list(this.dir)) {
+            for (Path p : (Iterable<Path>) list.filter(Files::isRegularFile)::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(PREFIX) || !name.endsWith(EXTENSION)) continue;
+                try {
+                    paths.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - EXTENSION.length())), p);
+                }
+                catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring file with malformed segment name: " + name);
+                }
+            }
+        }
+        for (Map.Entry<Long, Path> entry : paths.entrySet()) {
+            Segment segment = new Segment(entry.getKey(), entry.getValue());
+            this.segments.put(segment.number, segment);
+            this.replay(segment);
+        }
+        this.active = (this.segments.isEmpty() ? this.createSegment(1) : this.segments.lastEntry().getValue());
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("fileserver_storage_segments", "The amount of segment files.", () -> this.segments.size());
+        metrics.gauge("fileserver_storage_segment_bytes", "The size of all segment files.",
+                () -> this.segments.values().stream().mapToLong(s -> s.size).sum());
+        metrics.gauge("fileserver_storage_segment_live_bytes", "The size of the live records in the segment files.",
+                () -> this.segments.values().stream().mapToLong(s -> s.live.get()).sum());
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Segment-Compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (compactionInterval > 0) this.compactor.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public JSONObject get(String owner, long id) throws IOException {
+        for (int i = 0; ; i++) {
+            Location location = this.getLocation(owner, id);
+            if (location == null) throw new NoSuchFileException(owner + "." + id);
+            try {
+                ByteBuffer buf = ByteBuffer.allocate(location.length);
+                location.segment.read(buf, location.offset);
+                byte[] data = (location.codec == 0 ? buf.array() : Codec.forId(location.codec).decode(buf.array(), location.decodedLength));
+                return new JSONObject(new String(data, StandardCharsets.UTF_8));
+            }
+            catch (ClosedChannelException e) {
+                // The segment was compacted in the meantime, the record has been moved.
+                if (i == READ_RETRIES) throw e;
+            }
+        }
+    }
+
+    @Override
+    public EncodedContent getEncoded(String owner, long id) throws IOException {
+        for (int i = 0; ; i++) {
+            Location location = this.getLocation(owner, id);
+            if (location == null) throw new NoSuchFileException(owner + "." + id);
+            if (location.codec == 0) return null;
+            try {
+                ByteBuffer buf = ByteBuffer.allocate(location.length);
+                location.segment.read(buf, location.offset);
+                return new EncodedContent(Codec.forId(location.codec), buf.array(), location.decodedLength, location.crc);
+            }
+            catch (ClosedChannelException e) {
+                // The segment was compacted in the meantime, the record has been moved.
+                if (i == READ_RETRIES) throw e;
+            }
+        }
+    }
+
+    @Override
+    public FileMetadata getMeta(String owner, long id) {
+        Location location = this.getLocation(owner, id);
+        return (location == null ? null : location.meta);
+    }
+
+    @Override
+    public void put(FileMetadata meta, JSONObject content) throws IOException {
+        List<Operation> operations = new ArrayList<>(1);
+        operations.add(this.createPut(meta, content));
+        this.append(operations, false);
+    }
+
+    @Override
+    public void delete(String owner, long id) throws IOException {
+        if (this.getLocation(owner, id) == null) return;
+        List<Operation> operations = new ArrayList<>(1);
+        operations.add(Operation.delete(owner, id));
+        this.append(operations, false);
+    }
+
+    @Override
+    public void write(String owner, Collection<FileMetadata> puts, Map<Long, JSONObject> contents, Collection<Long> deletes) throws IOException {
+        List<Operation> operations = new ArrayList<>(puts.size() + deletes.size());
+        for (FileMetadata meta : puts) operations.add(this.createPut(meta, contents.get(meta.getId())));
+        for (long id : deletes) operations.add(Operation.delete(owner, id));
+        // Batches are durable when the method returns, like the batches of the FileStorageEngine.
+        this.append(operations, true);
+    }
+
+    @Override
+    public List<FileMetadata> list(String owner) {
+        List<FileMetadata> list = new ArrayList<>();
+        Map<Long, Location> locations = this.index.get(owner);
+        if (locations != null) locations.values().forEach(l -> list.add(l.meta));
+        return list;
+    }
+
+    @Override
+    public void scanSince(long modified, Consumer<FileMetadata> consumer) {
+        this.index.values().forEach(locations -> locations.values().forEach(l -> {
+            if (l.meta.getModified() >= modified) consumer.accept(l.meta);
+        }));
+    }
+
+    /**
+     * Returns an option.
+     *
+     * @param options The options.
+     * @param key The key of the option.
+     * @param defaultValue The value which is returned when the option is missing or empty.
+     * @return The value.
+     */
+    private static String getOption(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return (value == null || value.isEmpty() ? defaultValue : value);
+    }
+
+    /**
+     * Creates a put operation, the content is encoded when a codec is configured and the content is not smaller than the threshold.
+     *
+     * @param meta The metadata of the document.
+     * @param content The content.
+     * @return The operation.
+     */
+    private Operation createPut(FileMetadata meta, JSONObject content) {
+        byte[] data = content.toString().getBytes(StandardCharsets.UTF_8);
+        if (this.codec == null || data.length < this.compressionThreshold) return Operation.put(meta, data);
+        byte[] encoded = this.codec.encode(data);
+        // Incompressible contents are stored as they are.
+        if (encoded.length >= data.length) return Operation.put(meta, data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return Operation.putEncoded(meta, this.codec.getId(), encoded, data.length, (int) crc.getValue());
+    }
+
+    /**
+     * Returns the location of a document.
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @return The location or null when the document does not exist.
+     */
+    private Location getLocation(String owner, long id) {
+        Map<Long, Location> locations = this.index.get(owner);
+        return (locations == null ? null : locations.get(id));
+    }
+
+    /**
+     * Appends the operations as one record to the active segment and applies them to the index.
+     *
+     * @param operations The operations.
+     * @param force Whether the segment should be synced to the disk.
+     *
+     * @throws IOException When the record can't be written (the index is not modified in this case).
+     */
+    private void append(List<Operation> operations, boolean force) throws IOException {
+        this.writeLock.lock();
+        try {
+            Segment segment = this.appendRecord(operations);
+            if (force) segment.channel.force(false);
+        }
+        finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the operations as one record to the active segment and applies them to the index.
+     * <p>
+     *     The caller must hold the write lock.
+     * </p>
+     *
+     * @param operations The operations.
+     * @return The segment the record was appended to.
+     *
+     * @throws IOException When the record can't be written (the index is not modified in this case).
+     */
+    private Segment appendRecord(List<Operation> operations) throws IOException {
+        if (this.active.size >= this.segmentSize) this.active = this.createSegment(this.active.number + 1);
+        Segment segment = this.active;
+        int length = 0;
+        for (Operation op : operations) length += op.size();
+        if (length > MAX_RECORD_SIZE) throw new IOException("Record too large: " + length + " bytes");
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        buf.position(RECORD_HEADER_SIZE);
+        for (Operation op : operations) op.write(buf);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), RECORD_HEADER_SIZE, length);
+        buf.putInt(0, length);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        long position = segment.size;
+        // When the write fails, the size is not updated, so the partial record is overwritten by the next one.
+        while (buf.hasRemaining()) segment.channel.write(buf, position + buf.position());
+        segment.size = position + buf.limit();
+        long offset = position + RECORD_HEADER_SIZE;
+        for (Operation op : operations) {
+            this.apply(segment, offset, op);
+            offset += op.size();
+        }
+        return segment;
+    }
+
+    /**
+     * Applies an operation to the index.
+     * <p>
+     *     The caller must hold the write lock (except during the replay).
+     * </p>
+     *
+     * @param segment The segment containing the operation.
+     * @param offset The offset of the operation in the segment.
+     * @param op The operation.
+     */
+    private void apply(Segment segment, long offset, Operation op) {
+        Location old;
+        if (op.isPut()) {
+            Location location = new Location(segment, offset + op.contentOffset(), op.content.length, op.size(), op.meta, op.codec, op.decodedLength, op.crc);
+            segment.live.addAndGet(location.size);
+            old = this.index.computeIfAbsent(op.owner, o -> new ConcurrentHashMap<>()).put(op.id, location);
+        }
+        else {
+            Map<Long, Location> locations = this.index.get(op.owner);
+            old = (locations == null ? null : locations.remove(op.id));
+        }
+        if (old != null) old.segment.live.addAndGet(-old.size);
+    }
+
+    /**
+     * Replays the records of a segment, a torn or corrupt record and everything after it is truncated.
+     *
+     * @param segment The segment.
+     *
+     * @throws IOException When the segment can't be read.
+     */
+    private void replay(Segment segment) throws IOException {
+        long end = this.readRecords(segment, (offset, op) -> this.apply(segment, offset, op));
+        if (end < segment.channel.size()) {
+            LOGGER.warn("Truncating torn or corrupt record at " + end + " of " + segment.path.getFileName() + " (" + (segment.channel.size() - end) + " bytes).");
+            segment.channel.truncate(end);
+        }
+        segment.size = end;
+    }
+
+    /**
+     * Reads the records of a segment.
+     *
+     * @param segment The segment.
+     * @param visitor Receives the operations of the valid records.
+     * @return The end of the last valid record.
+     *
+     * @throws IOException When the segment can't be read.
+     */
+    private long readRecords(Segment segment, OperationVisitor visitor) throws IOException {
+        long size = segment.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            segment.read(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            segment.read(payload, position + RECORD_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) break;
+            payload.flip();
+            List<Operation> operations = new ArrayList<>();
+            try {
+                while (payload.hasRemaining()) operations.add(Operation.read(payload));
+            }
+            catch (RuntimeException e) {
+                // The checksum matched, so the record was written by an incompatible version.
+                LOGGER.warn("Malformed record at " + position + " of " + segment.path.getFileName() + ": " + e.getMessage());
+                break;
+            }
+            long offset = position + RECORD_HEADER_SIZE;
+            for (Operation op : operations) {
+                visitor.visit(offset, op);
+                offset += op.size();
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Compacts all segments (except the active one) whose live ratio is below the compaction ratio.
+     * <p>
+     *     Called by the background thread (and by the tests).
+     * </p>
+     */
+    void compact() {
+        // Segments created during the pass (by the copies) are compacted in a later pass.
+        for (Segment segment : new ArrayList<>(this.segments.headMap(this.active.number).values())) {
+            if (segment.size > 0 && (double) segment.live.get() / segment.size >= this.compactionRatio) continue;
+            try {
+                this.compact(segment);
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.exception("Can't compact " + segment.path.getFileName() + ": ", e);
+            }
+        }
+    }
+
+    /**
+     * Moves the live records of a segment to the active segment and deletes the segment.
+     *
+     * @param segment The segment.
+     *
+     * @throws IOException When the segment can't be read or the records can't be written.
+     */
+    private void compact(Segment segment) throws IOException {
+        long before = segment.size;
+        Set<Segment> written = new HashSet<>();
+        boolean oldest = (this.segments.firstKey() == segment.number);
+        this.readRecords(segment, (offset, op) -> {
+            this.writeLock.lock();
+            try {
+                boolean copy;
+                if (op.isPut()) {
+                    Location location = this.getLocation(op.owner, op.id);
+                    copy = (location != null && location.segment == segment && location.offset == offset + op.contentOffset());
+                }
+                else {
+                    // A newer put supersedes older records anyway, without older segments there is nothing to delete.
+                    copy = (!oldest && this.getLocation(op.owner, op.id) == null);
+                }
+                if (!copy) return;
+                List<Operation> operations = new ArrayList<>(1);
+                operations.add(op);
+                written.add(this.appendRecord(operations));
+            }
+            finally {
+                this.writeLock.unlock();
+            }
+        });
+        // The copies must be durable before the originals are deleted.
+        for (Segment s : written) s.channel.force(false);
+        this.writeLock.lock();
+        try {
+            this.segments.remove(segment.number);
+            segment.channel.close();
+            Files.delete(segment.path);
+        }
+        finally {
+            this.writeLock.unlock();
+        }
+        this.syncDirectory();
+        LOGGER.debug(() -> "Compacted " + segment.path.getFileName() + " (" + before + " bytes, " + written.size() + " segments written).");
+    }
+
+    /**
+     * Creates a new segment.
+     * <p>
+     *     The caller must hold the write lock (except in the constructor).
+     * </p>
+     *
+     * @param number The number of the segment.
+     * @return The segment.
+     *
+     * @throws IOException When the file can't be created.
+     */
+    private Segment createSegment(long number) throws IOException {
+        Segment segment = new Segment(number, this.dir.resolve(PREFIX + String.format("%016d", number) + EXTENSION));
+        // Otherwise the records synced to the segment could be lost with the entry of the file after a crash.
+        this.syncDirectory();
+        this.segments.put(number, segment);
+        return segment;
+    }
+
+    /**
+     * Syncs the database directory, so created and deleted segments are persisted.
+     * <p>
+     *     Not all platforms support syncing directories, failures are logged only.
+     * </p>
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(this.dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            LOGGER.debug(() -> "Can't sync database directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives the operations of the records of a segment.
+     */
+    private interface OperationVisitor {
+
+        /**
+         * Called for each operation.
+         *
+         * @param offset The offset of the operation in the segment.
+         * @param op The operation.
+         *
+         * @throws IOException When the operation can't be processed.
+         */
+        void visit(long offset, Operation op) throws IOException;
+    }
+
+    /**
+     * A segment file.
+     */
+    private static final class Segment {
+        private final long number;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong live = new AtomicLong();
+        private volatile long size = 0;
+
+        /**
+         * Opens or creates a segment file.
+         *
+         * @param number The number of the segment.
+         * @param path The path of the file.
+         *
+         * @throws IOException When the file can't be opened.
+         */
+        private Segment(long number, Path path) throws IOException {
+            this.number = number;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Reads bytes at a position (positional reads are thread-safe).
+         *
+         * @param buf The buffer which is filled completely.
+         * @param position The position in the file.
+         *
+         * @throws IOException When the file ends before the buffer is filled or the file can't be read.
+         */
+        private void read(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                if (this.channel.read(buf, position + buf.position()) < 0) throw new EOFException("Unexpected end of " + this.path.getFileName());
+            }
+        }
+    }
+
+    /**
+     * The location of the content of a document.
+     */
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final int size;
+        private final FileMetadata meta;
+        private final byte codec;
+        private final int decodedLength;
+        private final int crc;
+
+        /**
+         * Creates a new location.
+         *
+         * @param segment The segment.
+         * @param offset The offset of the content in the segment.
+         * @param length The length of the (stored) content.
+         * @param size The size of the operation (i.e. the live bytes of the document).
+         * @param meta The metadata of the document.
+         * @param codec The ID of the codec the content is encoded with or 0.
+         * @param decodedLength The length of the decoded content (encoded contents only).
+         * @param crc The CRC-32 of the decoded content (encoded contents only).
+         */
+        private Location(Segment segment, long offset, int length, int size, FileMetadata meta, byte codec, int decodedLength, int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.meta = meta;
+            this.codec = codec;
+            this.decodedLength = decodedLength;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * An operation of a record.
+     */
+    private static final class Operation {
+        private final byte type;
+        private final String owner;
+        private final byte[] ownerBytes;
+        private final long id;
+        private final FileMetadata meta;
+        private final byte[] header;
+        private final byte[] content;
+        private final byte codec;
+        private final int decodedLength;
+        private final int crc;
+
+        /**
+         * Creates a new operation.
+         *
+         * @param type The type ({@link #PUT}, {@link #PUT_ENCODED} or {@link #DELETE}).
+         * @param owner The owner of the document.
+         * @param id The ID of the document.
+         * @param meta The metadata (puts only).
+         * @param header The serialized metadata (puts only).
+         * @param content The serialized (and maybe encoded) content (puts only).
+         * @param codec The ID of the codec the content is encoded with or 0.
+         * @param decodedLength The length of the decoded content (encoded puts only).
+         * @param crc The CRC-32 of the decoded content (encoded puts only).
+         */
+        private Operation(byte type, String owner, long id, FileMetadata meta, byte[] header, byte[] content, byte codec, int decodedLength, int crc) {
+            this.type = type;
+            this.owner = owner;
+            this.ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+            this.id = id;
+            this.meta = meta;
+            this.header = header;
+            this.content = content;
+            this.codec = codec;
+            this.decodedLength = decodedLength;
+            this.crc = crc;
+        }
+
+        /**
+         * Creates a put operation.
+         *
+         * @param meta The metadata of the document.
+         * @param content The serialized content.
+         * @return The operation.
+         */
+        private static Operation put(FileMetadata meta, byte[] content) {
+            return new Operation(PUT, meta.getOwner(), meta.getId(), meta, meta.toHeader().getBytes(StandardCharsets.UTF_8), content, (byte) 0, 0, 0);
+        }
+
+        /**
+         * Creates a put operation with an encoded content.
+         *
+         * @param meta The metadata of the document.
+         * @param codec The ID of the codec the content is encoded with.
+         * @param content The encoded content.
+         * @param decodedLength The length of the decoded content.
+         * @param crc The CRC-32 of the decoded content.
+         * @return The operation.
+         */
+        private static Operation putEncoded(FileMetadata meta, byte codec, byte[] content, int decodedLength, int crc) {
+            return new Operation(PUT_ENCODED, meta.getOwner(), meta.getId(), meta, meta.toHeader().getBytes(StandardCharsets.UTF_8), content, codec, decodedLength, crc);
+        }
+
+        /**
+         * Creates a delete operation (a tombstone).
+         *
+         * @param owner The owner of the document.
+         * @param id The ID of the document.
+         * @return The operation.
+         */
+        private static Operation delete(String owner, long id) {
+            return new Operation(DELETE, owner, id, null, null, null, (byte) 0, 0, 0);
+        }
+
+        /**
+         * Reads an operation.
+         *
+         * @param buf The buffer positioned at the start of the operation.
+         * @return The operation.
+         *
+         * @throws IllegalArgumentException When the operation is malformed.
+         */
+        private static Operation read(ByteBuffer buf) {
+            byte type = buf.get();
+            byte[] owner = new byte[buf.getShort() & 0xffff];
+            buf.get(owner);
+            String ownerString = new String(owner, StandardCharsets.UTF_8);
+            long id = buf.getLong();
+            if (type == DELETE) return delete(ownerString, id);
+            if (type != PUT && type != PUT_ENCODED) throw new IllegalArgumentException("Unknown operation: " + type);
+            byte[] header = new byte[buf.getInt()];
+            buf.get(header);
+            byte codec = 0;
+            int decodedLength = 0;
+            int crc = 0;
+            if (type == PUT_ENCODED) {
+                codec = buf.get();
+                decodedLength = buf.getInt();
+                crc = buf.getInt();
+            }
+            byte[] content = new byte[buf.getInt()];
+            buf.get(content);
+            FileMetadata meta = FileMetadata.fromHeader(ownerString, id, new String(header, StandardCharsets.UTF_8));
+            return new Operation(type, ownerString, id, meta, header, content, codec, decodedLength, crc);
+        }
+
+        /**
+         * Writes the operation.
+         *
+         * @param buf The buffer.
+         */
+        private void write(ByteBuffer buf) {
+            buf.put(this.type).putShort((short) this.ownerBytes.length).put(this.ownerBytes).putLong(this.id);
+            if (!this.isPut()) return;
+            buf.putInt(this.header.length).put(this.header);
+            if (this.type == PUT_ENCODED) buf.put(this.codec).putInt(this.decodedLength).putInt(this.crc);
+            buf.putInt(this.content.length).put(this.content);
+        }
+
+        /**
+         * Returns whether the operation creates or replaces a document.
+         *
+         * @return true for (encoded) puts.
+         */
+        private boolean isPut() {
+            return this.type != DELETE;
+        }
+
+        /**
+         * Returns the size of the serialized operation.
+         *
+         * @return The size in bytes.
+         */
+        private int size() {
+            return (this.isPut() ? this.contentOffset() + this.content.length : 1 + 2 + this.ownerBytes.length + 8);
+        }
+
+        /**
+         * Returns the offset of the content in the serialized operation.
+         *
+         * @return The offset in bytes.
+         */
+        private int contentOffset() {
+            return 1 + 2 + this.ownerBytes.length + 8 + 4 + this.header.length + (this.type == PUT_ENCODED ? 1 + 4 + 4 : 0) + 4;
+        }
+    }
+}
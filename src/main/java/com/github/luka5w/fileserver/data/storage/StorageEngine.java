@@ -0,0 +1,178 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Stores the documents (i.e. the metadata and the content of the files) of the {@link com.github.luka5w.fileserver.data.FileDB}.
+ *
+ * <p>
+ *     The engine is a plain key-value store: access checks, the in-memory index, the change log and the locking are done by the FileDB.
+ *     The FileDB never writes the same document concurrently, but different documents are read and written concurrently,
+ *     so engines must be thread-safe.
+ *     <br>
+ *     Engines are selected by name with {@link #open(String, String, Map, ExecutorService)} (ini: <code>[database] engine</code>).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public interface StorageEngine {
+
+    /**
+     * Opens an engine.
+     *
+     * @param name The name of the engine: <code>file</code> (see {@link FileStorageEngine}), <code>segment</code> (see {@link SegmentStorageEngine})
+     *             or <code>memory</code> (see {@link MemoryStorageEngine}).
+     * @param dir The database root directory.
+     * @param options The options of the engine (i.e. the <code>[database]</code> section of the ini), unknown keys are ignored.
+     *                When <code>dedup</code> is true, the engine is wrapped by a {@link DedupStorageEngine}.
+     * @param ioExecutor The executor for parallel I/O.
+     * @return The engine.
+     *
+     * @throws IOException When the stored documents can't be opened.
+     * @throws IllegalArgumentException When the engine is unknown.
+     *
+     * @since 1.0.0
+     */
+    static StorageEngine open(String name, String dir, Map<String, String> options, ExecutorService ioExecutor) throws IOException {
+        StorageEngine engine;
+        switch (name) {
+            case "file":
+                engine = new FileStorageEngine(dir, ioExecutor);
+                break;
+            case "segment":
+                engine = new SegmentStorageEngine(dir, options);
+                break;
+            case "memory":
+                engine = new MemoryStorageEngine();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + name);
+        }
+        if (!Boolean.parseBoolean(options.get("dedup"))) return engine;
+        return new DedupStorageEngine(engine, (engine instanceof MemoryStorageEngine ? null : Paths.get(dir, "blobs")), options);
+    }
+
+    /**
+     * Reads the content of a document.
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @return The content (a new object, which may be modified by the caller).
+     *
+     * @throws IOException When the document does not exist or can't be read.
+     *
+     * @since 1.0.0
+     */
+    JSONObject get(String owner, long id) throws IOException;
+
+    /**
+     * Reads the content of a document as it is stored, so it can be sent without decoding it.
+     * <p>
+     *     Engines which don't encode contents return null.
+     * </p>
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @return The encoded content or null when the content is not encoded.
+     *
+     * @throws IOException When the document does not exist or can't be read.
+     *
+     * @since 1.0.0
+     */
+    default EncodedContent getEncoded(String owner, long id) throws IOException {
+        return null;
+    }
+
+    /**
+     * Reads the metadata of a document.
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     * @return The metadata or null when the document does not exist.
+     *
+     * @throws IOException When the document can't be read.
+     *
+     * @since 1.0.0
+     */
+    FileMetadata getMeta(String owner, long id) throws IOException;
+
+    /**
+     * Creates or replaces a document.
+     *
+     * @param meta The metadata (which contains the owner and the ID).
+     * @param content The content.
+     *
+     * @throws IOException When the document can't be written.
+     *
+     * @since 1.0.0
+     */
+    void put(FileMetadata meta, JSONObject content) throws IOException;
+
+    /**
+     * Deletes a document, nothing happens when it does not exist.
+     *
+     * @param owner The owner of the document.
+     * @param id The ID of the document.
+     *
+     * @throws IOException When the document can't be deleted.
+     *
+     * @since 1.0.0
+     */
+    void delete(String owner, long id) throws IOException;
+
+    /**
+     * Creates, replaces and deletes multiple documents of an owner.
+     * <p>
+     *     The batch is applied completely or not at all: when the method throws an exception, no document should have been modified,
+     *     unless the engine has persisted the batch already and completes it when it is opened again.
+     * </p>
+     *
+     * @param owner The owner of the documents.
+     * @param puts The metadata of the created and replaced documents.
+     * @param contents The contents of the created and replaced documents by ID.
+     * @param deletes The IDs of the deleted documents.
+     *
+     * @throws IOException When the documents can't be written.
+     *
+     * @since 1.0.0
+     */
+    void write(String owner, Collection<FileMetadata> puts, Map<Long, JSONObject> contents, Collection<Long> deletes) throws IOException;
+
+    /**
+     * Returns the metadata of all documents of an owner.
+     *
+     * @param owner The owner.
+     * @return The metadata (empty when the owner has no documents).
+     *
+     * @throws IOException When the documents can't be read.
+     *
+     * @since 1.0.0
+     */
+    List<FileMetadata> list(String owner) throws IOException;
+
+    /**
+     * Passes the metadata of all documents which were modified at or after a timestamp to a consumer.
+     * <p>
+     *     The FileDB builds its index with <code>scanSince(Long.MIN_VALUE, ...)</code> when it is opened.
+     *     Documents with malformed metadata are skipped.
+     * </p>
+     *
+     * @param modified The timestamp (milliseconds since the epoch).
+     * @param consumer The consumer.
+     *
+     * @throws IOException When the documents can't be read.
+     *
+     * @since 1.0.0
+     */
+    void scanSince(long modified, Consumer<FileMetadata> consumer) throws IOException;
+}
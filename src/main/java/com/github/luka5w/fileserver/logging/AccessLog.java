@@ -0,0 +1,274 @@
+package com.github.luka5w.fileserver.logging;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Logs all requests to a file.
+ *
+ * <p>
+ *     Requests are passed to a background thread by an {@link AsyncAppender}, so request threads never wait for the file.
+ *     When its buffer is full, records are dropped and counted (<code>fileserver_access_log_dropped_total</code>).
+ *     <br>
+ *     Formats:
+ * </p>
+ * <ul>
+ *     <li><code>line</code>: <code>[time] [remote address] [user|-] [method] [path] [status] [bytes] [latency in ms]</code></li>
+ *     <li><code>json</code>: one object per line with the keys <code>time</code>, <code>remote</code>, <code>user</code>, <code>method</code>,
+ *     <code>path</code>, <code>status</code>, <code>bytes</code> and <code>latency</code> (in ms)</li>
+ * </ul>
+ * <p>
+ *     The path is logged encoded and without query, since the query may contain credentials or file contents.
+ *     <br>
+ *     When the file exceeds the maximal size it is rotated: <code>[file]</code> is renamed to <code>[file].1</code>,
+ *     <code>[file].1</code> to <code>[file].2</code> and so on, the oldest file is deleted.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class AccessLog {
+
+    private static final Log LOGGER = Main.getLogger("AccessLog");
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+    private final File file;
+    private final boolean json;
+    private final long maxSize;
+    private final int maxFiles;
+    private final AsyncAppender<Entry> appender;
+    private final Counter dropped;
+    private final StringBuilder line = new StringBuilder(256);
+    private OutputStream out;
+    private long size;
+
+    /**
+     * Creates a new access log and starts its thread.
+     *
+     * @param file The path of the file.
+     * @param format The format (<code>line</code> or <code>json</code>).
+     * @param maxSize The size in bytes after which the file is rotated or 0 to never rotate it.
+     * @param maxFiles The amount of rotated files which are kept.
+     * @param capacity The amount of records which can be buffered.
+     *
+     * @throws IOException When the file can't be opened.
+     * @throws IllegalArgumentException When the format is unknown.
+     *
+     * @since 1.0.0
+     */
+    public AccessLog(String file, String format, long maxSize, int maxFiles, int capacity) throws IOException {
+        switch (format) {
+            case "line":
+                this.json = false;
+                break;
+            case "json":
+                this.json = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown access log format: " + format);
+        }
+        this.file = new File(file);
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+        this.dropped = Metrics.getInstance().counter("fileserver_access_log_dropped_total", "The access log records which were dropped since the buffer was full.");
+        this.open();
+        this.appender = new AsyncAppender<>("Access-Log", capacity, IDLE_PARK_NANOS, new AsyncAppender.Sink<Entry>() {
+            @Override
+            public void write(Entry entry) {
+                AccessLog.this.write(entry);
+            }
+
+            @Override
+            public void flush() {
+                AccessLog.this.flush();
+            }
+        });
+    }
+
+    /**
+     * Logs a request, the record is dropped when the buffer is full.
+     *
+     * @param time The start of the request (milliseconds since the epoch).
+     * @param remote The address of the client.
+     * @param user The authenticated user or null.
+     * @param method The request method.
+     * @param path The (encoded) request path without query.
+     * @param status The HTTP status code.
+     * @param bytes The sent bytes of the response body.
+     * @param latency The duration of the request in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public void log(long time, String remote, String user, String method, String path, int status, long bytes, long latency) {
+        if (!this.appender.append(new Entry(time, remote, user, method, path, status, bytes, latency))) this.dropped.increment();
+    }
+
+    /**
+     * Writes a record to the file and rotates the file when it exceeds the maximal size (called by the appender).
+     *
+     * @param entry The record.
+     */
+    private void write(Entry entry) {
+        if (this.out == null) return;
+        this.line.setLength(0);
+        if (this.json) entry.appendJSON(this.line);
+        else entry.appendLine(this.line);
+        this.line.append('\n');
+        // The size is counted in bytes of the file, the paths and the users may contain non-ASCII characters.
+        byte[] bytes = this.line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            this.out.write(bytes);
+            this.size += bytes.length;
+            if (this.maxSize > 0 && this.size >= this.maxSize) this.rotate();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Can't write access log, disabling it: ", e);
+            this.close();
+        }
+    }
+
+    /**
+     * Flushes the file after the buffered records have been written (called by the appender).
+     */
+    private void flush() {
+        if (this.out == null) return;
+        try {
+            this.out.flush();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Can't write access log, disabling it: ", e);
+            this.close();
+        }
+    }
+
+    /**
+     * Opens the file for appending.
+     *
+     * @throws IOException When the file can't be opened.
+     */
+    private void open() throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(this.file, true));
+        this.size = this.file.length();
+    }
+
+    /**
+     * Closes the file, further records are dropped.
+     */
+    private void close() {
+        try {
+            if (this.out != null) this.out.close();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Can't close access log: ", e);
+        }
+        this.out = null;
+    }
+
+    /**
+     * Renames the file and the already rotated files and opens a new file.
+     *
+     * @throws IOException When the files can't be renamed or the new file can't be opened.
+     */
+    private void rotate() throws IOException {
+        this.out.close();
+        this.out = null;
+        String path = this.file.getPath();
+        if (this.maxFiles < 1) {
+            Files.deleteIfExists(this.file.toPath());
+        }
+        else {
+            Files.deleteIfExists(new File(path + "." + this.maxFiles).toPath());
+            for (int i = this.maxFiles - 1; i >= 1; i--) {
+                File rotated = new File(path + "." + i);
+                if (rotated.exists()) Files.move(rotated.toPath(), new File(path + "." + (i + 1)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(this.file.toPath(), new File(path + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.open();
+        LOGGER.debug("Rotated access log.");
+    }
+
+    /**
+     * A logged request.
+     */
+    private static final class Entry {
+        private final long time;
+        private final String remote;
+        private final String user;
+        private final String method;
+        private final String path;
+        private final int status;
+        private final long bytes;
+        private final long latency;
+
+        /**
+         * Creates a new record.
+         *
+         * @param time The start of the request (milliseconds since the epoch).
+         * @param remote The address of the client.
+         * @param user The authenticated user or null.
+         * @param method The request method.
+         * @param path The request path.
+         * @param status The HTTP status code.
+         * @param bytes The sent bytes of the response body.
+         * @param latency The duration of the request in nanoseconds.
+         */
+        private Entry(long time, String remote, String user, String method, String path, int status, long bytes, long latency) {
+            this.time = time;
+            this.remote = remote;
+            this.user = user;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.bytes = bytes;
+            this.latency = latency;
+        }
+
+        /**
+         * Formats the record as line.
+         *
+         * @param sb The builder the record is appended to.
+         */
+        private void appendLine(StringBuilder sb) {
+            sb.append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(this.time))).append(' ')
+                    .append(this.remote).append(' ')
+                    .append(this.user == null ? "-" : this.user).append(' ')
+                    .append(this.method).append(' ')
+                    .append(this.path).append(' ')
+                    .append(this.status).append(' ')
+                    .append(this.bytes).append(' ')
+                    .append(RequestContext.formatMillis(this.latency));
+        }
+
+        /**
+         * Formats the record as JSON object.
+         *
+         * @param sb The builder the record is appended to.
+         */
+        private void appendJSON(StringBuilder sb) {
+            sb.append("{\"time\":\"").append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(this.time)))
+                    .append("\",\"remote\":").append(JSONObject.quote(this.remote))
+                    .append(",\"user\":").append(this.user == null ? "null" : JSONObject.quote(this.user))
+                    .append(",\"method\":").append(JSONObject.quote(this.method))
+                    .append(",\"path\":").append(JSONObject.quote(this.path))
+                    .append(",\"status\":").append(this.status)
+                    .append(",\"bytes\":").append(this.bytes)
+                    .append(",\"latency\":").append(RequestContext.formatMillis(this.latency))
+                    .append('}');
+        }
+    }
+}
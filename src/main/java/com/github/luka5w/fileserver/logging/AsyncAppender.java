@@ -0,0 +1,145 @@
+package com.github.luka5w.fileserver.logging;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes records (e.g. log messages) from any thread to a background thread, which writes them with a {@link Sink}.
+ *
+ * <p>
+ *     The records are stored in a bounded lock-free {@link RingBuffer}.
+ *     When the ring is full, records are dropped instead of blocking the appending thread (the caller decides how to count them).
+ *     <br>
+ *     The sink is flushed whenever the ring has been drained, so a burst of records is written with one flush.
+ * </p>
+ *
+ * @param <T> The type of the records.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class AsyncAppender<T> {
+
+    private final RingBuffer<T> ring;
+    private final Sink<T> sink;
+    private final long idleParkNanos;
+    private final Thread thread;
+    private volatile boolean idle = false;
+
+    /**
+     * Creates a new appender and starts its thread.
+     *
+     * @param name The name of the thread.
+     * @param capacity The capacity of the ring (rounded up to a power of two).
+     * @param idleParkNanos The time the idle thread waits before it checks the ring again (it is woken up by appended records anyway).
+     * @param sink Writes the records.
+     *
+     * @since 1.0.0
+     */
+    public AsyncAppender(String name, int capacity, long idleParkNanos, Sink<T> sink) {
+        this.ring = new RingBuffer<>(capacity);
+        this.sink = sink;
+        this.idleParkNanos = idleParkNanos;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+        // Records which are still in the ring are written before the program exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, name + "-Flush"));
+    }
+
+    /**
+     * Adds a record to the ring.
+     *
+     * @param record The record.
+     * @return false when the ring is full and the record was dropped.
+     *
+     * @since 1.0.0
+     */
+    public boolean append(T record) {
+        if (!this.ring.offer(record)) return false;
+        if (this.idle) LockSupport.unpark(this.thread);
+        return true;
+    }
+
+    /**
+     * Writes all records which are in the ring at the moment on the calling thread and flushes the sink.
+     * <p>
+     *     The records may be interleaved with records written by the appender thread at the same time.
+     * </p>
+     *
+     * @since 1.0.0
+     */
+    public void flush() {
+        boolean written = false;
+        while (this.poll()) written = true;
+        if (written) this.flushSink();
+    }
+
+    /**
+     * The loop of the appender thread.
+     */
+    private void run() {
+        while (true) {
+            this.flush();
+            this.idle = true;
+            // Re-checks after announcing idleness, so a record appended in between is not delayed.
+            if (!this.hasNext()) LockSupport.parkNanos(this, this.idleParkNanos);
+            this.idle = false;
+        }
+    }
+
+    /**
+     * Returns whether a record is available.
+     *
+     * @return true when the ring is not empty.
+     */
+    private synchronized boolean hasNext() {
+        return !this.ring.isEmpty();
+    }
+
+    /**
+     * Takes one record from the ring and writes it.
+     *
+     * @return false when the ring was empty.
+     */
+    private synchronized boolean poll() {
+        T record = this.ring.poll();
+        if (record == null) return false;
+        this.sink.write(record);
+        return true;
+    }
+
+    /**
+     * Flushes the sink.
+     */
+    private synchronized void flushSink() {
+        this.sink.flush();
+    }
+
+    /**
+     * Writes the records of an {@link AsyncAppender} (on its thread, one record at a time).
+     *
+     * @param <T> The type of the records.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    public interface Sink<T> {
+
+        /**
+         * Writes a record.
+         *
+         * @param record The record.
+         *
+         * @since 1.0.0
+         */
+        void write(T record);
+
+        /**
+         * Flushes the written records, called after the ring has been drained.
+         *
+         * @since 1.0.0
+         */
+        default void flush() {
+        }
+    }
+}
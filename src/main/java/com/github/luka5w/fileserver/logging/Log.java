@@ -0,0 +1,335 @@
+package com.github.luka5w.fileserver.logging;
+
+import com.github.luka5w.util.cli.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A logging facade around the {@link Logger}.
+ *
+ * <p>
+ *     The level is checked before a message is formatted: messages can be passed as {@link Supplier}s, which are only called when the level is enabled,
+ *     and {@link #isEnabled(int)} guards more expensive logging code.
+ *     <br>
+ *     Enabled messages are written asynchronously by an {@link AsyncAppender}, so logging never blocks on console I/O.
+ *     When its buffer is full, messages are dropped and counted; the amount of dropped messages is logged as soon as there is space again.
+ *     Messages which exit the program are written synchronously after all pending messages.
+ *     <br>
+ *     The level is global (see {@link #setLevel(int)}), the wrapped loggers log everything they get.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class Log {
+
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int LOG = 2;
+    public static final int WARN = 3;
+    public static final int ERROR = 4;
+    private static final int BUFFER_SIZE = 8192;
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AsyncAppender<Record> APPENDER = new AsyncAppender<>("Log-Appender", BUFFER_SIZE, IDLE_PARK_NANOS, Log::write);
+    private static volatile int LEVEL = DEBUG;
+
+    private final Logger logger;
+    private final ConcurrentHashMap<String, Log> children = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new root logger.
+     *
+     * @param name The name of the program.
+     *
+     * @since 1.0.0
+     */
+    public Log(String name) {
+        this(new Logger(name, DEBUG));
+    }
+
+    /**
+     * Creates a new logger.
+     *
+     * @param logger The wrapped logger.
+     */
+    private Log(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Sets the level of all loggers.
+     *
+     * @param level The minimal level of logged messages ({@link #DEBUG}, {@link #INFO}, {@link #LOG}, {@link #WARN} or {@link #ERROR}).
+     *
+     * @since 1.0.0
+     */
+    public static void setLevel(int level) {
+        LEVEL = level;
+    }
+
+    /**
+     * Returns the logger for a part of the program, loggers are created once per name.
+     *
+     * @param name The name of the part of the program.
+     * @return The logger.
+     *
+     * @since 1.0.0
+     */
+    public Log getChild(String name) {
+        return this.children.computeIfAbsent(name, n -> new Log(new Logger(n, this.logger)));
+    }
+
+    /**
+     * Returns whether messages of a level are logged.
+     *
+     * @param level The level.
+     * @return true when the level is enabled.
+     *
+     * @since 1.0.0
+     */
+    public boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    /**
+     * Returns whether debug messages are logged.
+     *
+     * @return true when the level is enabled.
+     *
+     * @since 1.0.0
+     */
+    public boolean isDebugEnabled() {
+        return this.isEnabled(DEBUG);
+    }
+
+    /**
+     * Logs a debug message.
+     *
+     * @param message The message.
+     *
+     * @since 1.0.0
+     */
+    public void debug(Object message) {
+        this.append(DEBUG, message);
+    }
+
+    /**
+     * Logs a debug message, which is only created when the level is enabled.
+     *
+     * @param message Supplies the message.
+     *
+     * @since 1.0.0
+     */
+    public void debug(Supplier<?> message) {
+        if (this.isEnabled(DEBUG)) this.append(DEBUG, message.get());
+    }
+
+    /**
+     * Logs an info message.
+     *
+     * @param message The message.
+     *
+     * @since 1.0.0
+     */
+    public void info(Object message) {
+        this.append(INFO, message);
+    }
+
+    /**
+     * Logs an info message, which is only created when the level is enabled.
+     *
+     * @param message Supplies the message.
+     *
+     * @since 1.0.0
+     */
+    public void info(Supplier<?> message) {
+        if (this.isEnabled(INFO)) this.append(INFO, message.get());
+    }
+
+    /**
+     * Logs a message.
+     *
+     * @param message The message.
+     *
+     * @since 1.0.0
+     */
+    public void log(Object message) {
+        this.append(LOG, message);
+    }
+
+    /**
+     * Logs a message, which is only created when the level is enabled.
+     *
+     * @param message Supplies the message.
+     *
+     * @since 1.0.0
+     */
+    public void log(Supplier<?> message) {
+        if (this.isEnabled(LOG)) this.append(LOG, message.get());
+    }
+
+    /**
+     * Logs a warning.
+     *
+     * @param message The message.
+     *
+     * @since 1.0.0
+     */
+    public void warn(Object message) {
+        this.append(WARN, message);
+    }
+
+    /**
+     * Logs a warning, which is only created when the level is enabled.
+     *
+     * @param message Supplies the message.
+     *
+     * @since 1.0.0
+     */
+    public void warn(Supplier<?> message) {
+        if (this.isEnabled(WARN)) this.append(WARN, message.get());
+    }
+
+    /**
+     * Logs an error.
+     *
+     * @param message The message.
+     *
+     * @since 1.0.0
+     */
+    public void error(Object message) {
+        this.append(ERROR, message);
+    }
+
+    /**
+     * Logs an error and exits the program when requested.
+     *
+     * @param message The message.
+     * @param exit Whether the program should exit.
+     *
+     * @since 1.0.0
+     */
+    public void error(Object message, boolean exit) {
+        if (!exit) {
+            this.error(message);
+            return;
+        }
+        APPENDER.flush();
+        this.logger.error(message, true);
+    }
+
+    /**
+     * Logs an exception.
+     *
+     * @param message The message.
+     * @param e The exception.
+     *
+     * @since 1.0.0
+     */
+    public void exception(String message, Throwable e) {
+        if (this.isEnabled(ERROR)) this.append(new Record(this.logger, ERROR, message, e));
+    }
+
+    /**
+     * Logs an exception and exits the program when requested.
+     *
+     * @param message The message.
+     * @param e The exception.
+     * @param exit Whether the program should exit.
+     *
+     * @since 1.0.0
+     */
+    public void exception(String message, Throwable e, boolean exit) {
+        if (!exit) {
+            this.exception(message, e);
+            return;
+        }
+        APPENDER.flush();
+        this.logger.exception(message, e, true);
+    }
+
+    /**
+     * Passes a message to the appender when the level is enabled.
+     *
+     * @param level The level of the message.
+     * @param message The message.
+     */
+    private void append(int level, Object message) {
+        if (this.isEnabled(level)) this.append(new Record(this.logger, level, String.valueOf(message), null));
+    }
+
+    /**
+     * Passes a message to the appender, the message is dropped (and counted) when the buffer is full.
+     *
+     * @param record The message.
+     */
+    private void append(Record record) {
+        if (!APPENDER.append(record)) DROPPED.incrementAndGet();
+    }
+
+    /**
+     * Writes a message with its logger (called by the appender), preceded by the amount of messages dropped before.
+     *
+     * @param record The message.
+     */
+    private static void write(Record record) {
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) record.logger.warn("Dropped " + dropped + " log messages (the log buffer was full).");
+        record.write();
+    }
+
+    /**
+     * A log message.
+     */
+    private static final class Record {
+        private final Logger logger;
+        private final int level;
+        private final String message;
+        private final Throwable throwable;
+
+        /**
+         * Creates a new record.
+         *
+         * @param logger The logger writing the message.
+         * @param level The level of the message.
+         * @param message The message.
+         * @param throwable The exception of the message or null.
+         */
+        private Record(Logger logger, int level, String message, Throwable throwable) {
+            this.logger = logger;
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        /**
+         * Writes the message with the logger.
+         */
+        private void write() {
+            if (this.throwable != null) {
+                this.logger.exception(this.message, this.throwable);
+                return;
+            }
+            switch (this.level) {
+                case DEBUG:
+                    this.logger.debug(this.message);
+                    break;
+                case INFO:
+                    this.logger.info(this.message);
+                    break;
+                case LOG:
+                    this.logger.log(this.message);
+                    break;
+                case WARN:
+                    this.logger.warn(this.message);
+                    break;
+                default:
+                    this.logger.error(this.message);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.luka5w.fileserver.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue for multiple producers and a single consumer (a variant of Dmitry Vyukov's bounded queue).
+ *
+ * <p>
+ *     Producers never block: {@link #offer(Object)} fails when the ring is full.
+ *     <br>
+ *     {@link #poll()} must not be called by multiple threads at the same time.
+ * </p>
+ *
+ * @param <T> The type of the elements.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class RingBuffer<T> {
+
+    private final Object[] ring;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    /**
+     * Creates a new ring.
+     *
+     * @param capacity The capacity of the ring (rounded up to a power of two).
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) this.sequences.set(i, i);
+    }
+
+    /**
+     * Adds an element to the ring.
+     *
+     * @param element The element.
+     * @return false when the ring is full (the element is not added).
+     */
+    boolean offer(T element) {
+        long pos;
+        while (true) {
+            pos = this.tail.get();
+            long dif = this.sequences.get((int) pos & this.mask) - pos;
+            if (dif == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) break;
+            }
+            else if (dif < 0) return false;
+        }
+        int index = (int) pos & this.mask;
+        this.ring[index] = element;
+        // Publishes the element (the consumer reads the sequence before the element).
+        this.sequences.set(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest element from the ring.
+     *
+     * @return The element or null when the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        int index = (int) this.head & this.mask;
+        if (this.sequences.get(index) != this.head + 1) return null;
+        T element = (T) this.ring[index];
+        this.ring[index] = null;
+        this.sequences.set(index, this.head + this.ring.length);
+        this.head++;
+        return element;
+    }
+
+    /**
+     * Returns whether the ring is empty.
+     *
+     * @return true when there is no element to poll.
+     */
+    boolean isEmpty() {
+        return this.sequences.get((int) this.head & this.mask) != this.head + 1;
+    }
+}
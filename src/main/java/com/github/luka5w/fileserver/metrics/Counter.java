@@ -0,0 +1,52 @@
+package com.github.luka5w.fileserver.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter.
+ *
+ * <p>
+ *     The counter is lock-free and striped ({@link LongAdder}), so concurrent increments don't contend.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Increments the counter by one.
+     *
+     * @since 1.0.0
+     */
+    public void increment() {
+        this.value.increment();
+    }
+
+    /**
+     * Increments the counter.
+     *
+     * @param amount The amount to add (must not be negative).
+     *
+     * @since 1.0.0
+     */
+    public void add(long amount) {
+        this.value.add(amount);
+    }
+
+    /**
+     * Returns the current value of the counter.
+     *
+     * @return The value.
+     *
+     * @since 1.0.0
+     */
+    public long get() {
+        return this.value.sum();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.luka5w.fileserver.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with log-linear buckets (in the style of HdrHistogram).
+ *
+ * <p>
+ *     Durations are recorded in nanoseconds and exported in seconds.
+ *     Each power of two between {@link #MIN} (16 us) and about 50 s is split in two buckets (<code>2^n</code> and <code>1.5 * 2^n</code>),
+ *     so the relative error of a bucket is at most 50% while the amount of buckets stays small.
+ *     <br>
+ *     Each bucket is a striped counter ({@link LongAdder}), so recording is lock-free and concurrent recordings don't contend.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class Histogram {
+
+    private static final long MIN = 1L << 14;
+    private static final int OCTAVES = 22;
+    private static final long[] BOUNDS = new long[OCTAVES * 2];
+
+    static {
+        for (int i = 0; i < OCTAVES; i++) {
+            BOUNDS[2 * i] = MIN << i;
+            BOUNDS[2 * i + 1] = (MIN << i) + (MIN << i) / 2;
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sum = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int i = Arrays.binarySearch(BOUNDS, nanos);
+        // Not found: the insertion point is the first bound greater than the value (or the +Inf bucket).
+        this.buckets[i >= 0 ? i : -i - 1].increment();
+        this.sum.add(nanos);
+    }
+
+    /**
+     * Returns the upper bounds of the buckets (without +Inf).
+     *
+     * @return The bounds in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Returns the (non cumulative) counts of the buckets, the last bucket contains the durations exceeding the greatest bound.
+     *
+     * @return The counts.
+     *
+     * @since 1.0.0
+     */
+    public long[] getCounts() {
+        long[] counts = new long[this.buckets.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = this.buckets[i].sum();
+        return counts;
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return The sum in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.luka5w.fileserver.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of all metrics of the server, exported in the Prometheus text format.
+ *
+ * <p>
+ *     source: https://prometheus.io/docs/instrumenting/exposition_formats/
+ *     <br>
+ *     A metric is identified by its name and its labels (passed as key-value pairs, e.g. <code>"method", "GET"</code>).
+ *     Metrics are created on first use, looking up an existing metric doesn't lock.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentSkipListMap<String, Family<?>> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the instance of the registry.
+     *
+     * @return The instance of the registry.
+     *
+     * @since 1.0.0
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a counter, which is created when it does not exist.
+     *
+     * @param name The name of the metric (should end with '_total').
+     * @param help The description of the metric.
+     * @param labels The labels as key-value pairs.
+     * @return The counter.
+     *
+     * @since 1.0.0
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return this.family(name, help, "counter", Counter.class).get(labels, l -> new Counter());
+    }
+
+    /**
+     * Returns a histogram of durations, which is created when it does not exist.
+     *
+     * @param name The name of the metric (should end with '_seconds').
+     * @param help The description of the metric.
+     * @param labels The labels as key-value pairs.
+     * @return The histogram.
+     *
+     * @since 1.0.0
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return this.family(name, help, "histogram", Histogram.class).get(labels, l -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, whose value is read when the metrics are exported.
+     * <p>
+     *     An existing gauge with the same name and labels is replaced.
+     * </p>
+     *
+     * @param name The name of the metric.
+     * @param help The description of the metric.
+     * @param supplier Supplies the current value (must be thread-safe).
+     * @param labels The labels as key-value pairs.
+     *
+     * @since 1.0.0
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        this.family(name, help, "gauge", LongSupplier.class).put(labels, supplier);
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param writer The writer.
+     *
+     * @throws IOException When writing failed.
+     *
+     * @since 1.0.0
+     */
+    public void write(Writer writer) throws IOException {
+        for (Family<?> family : this.families.values()) {
+            if (family.metrics.isEmpty()) continue;
+            writer.write("# HELP " + family.name + " " + family.help + "\n");
+            writer.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, ?> entry : family.metrics.entrySet()) {
+                Object metric = entry.getValue();
+                String labels = entry.getKey();
+                if (metric instanceof Counter) {
+                    this.writeSample(writer, family.name, labels, null, Long.toString(((Counter) metric).get()));
+                }
+                else if (metric instanceof LongSupplier) {
+                    this.writeSample(writer, family.name, labels, null, Long.toString(((LongSupplier) metric).getAsLong()));
+                }
+                else if (metric instanceof Histogram) {
+                    this.writeHistogram(writer, family.name, labels, (Histogram) metric);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the samples of a histogram (cumulative buckets, sum and count).
+     *
+     * @param writer The writer.
+     * @param name The name of the metric.
+     * @param labels The formatted labels (without braces).
+     * @param histogram The histogram.
+     *
+     * @throws IOException When writing failed.
+     */
+    private void writeHistogram(Writer writer, String name, String labels, Histogram histogram) throws IOException {
+        long[] bounds = Histogram.getBounds();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String le = (i < bounds.length ? seconds(bounds[i]) : "+Inf");
+            this.writeSample(writer, name + "_bucket", labels, "le=\"" + le + "\"", Long.toString(cumulative));
+        }
+        this.writeSample(writer, name + "_sum", labels, null, seconds(histogram.getSum()));
+        this.writeSample(writer, name + "_count", labels, null, Long.toString(cumulative));
+    }
+
+    /**
+     * Writes a sample line.
+     *
+     * @param writer The writer.
+     * @param name The name of the sample.
+     * @param labels The formatted labels (without braces).
+     * @param extraLabel An additional formatted label or null.
+     * @param value The value.
+     *
+     * @throws IOException When writing failed.
+     */
+    private void writeSample(Writer writer, String name, String labels, String extraLabel, String value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) writer.write(',');
+                writer.write(extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Returns a family of metrics, which is created when it does not exist.
+     *
+     * @param name The name of the metrics.
+     * @param help The description of the metrics.
+     * @param type The Prometheus type of the metrics.
+     * @param metricClass The class of the metrics.
+     * @param <T> The type of the metrics.
+     * @return The family.
+     *
+     * @throws IllegalArgumentException When a family with this name but another type exists.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Family<T> family(String name, String help, String type, Class<T> metricClass) {
+        Family<?> family = this.families.computeIfAbsent(name, n -> new Family<T>(n, help, type));
+        if (!family.type.equals(type)) throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+        return (Family<T>) family;
+    }
+
+    /**
+     * Formats a duration in seconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * Formats labels (<code>key="value",...</code>), the values are escaped.
+     *
+     * @param labels The labels as key-value pairs.
+     * @return The formatted labels.
+     *
+     * @throws IllegalArgumentException When a key has no value.
+     */
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be key-value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') sb.append('\\').append(c);
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * All metrics with the same name.
+     *
+     * @param <T> The type of the metrics.
+     */
+    private static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentHashMap<String, T> metrics = new ConcurrentHashMap<>();
+
+        /**
+         * Creates a new family.
+         *
+         * @param name The name of the metrics.
+         * @param help The description of the metrics.
+         * @param type The Prometheus type of the metrics.
+         */
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        /**
+         * Returns a metric, which is created when it does not exist.
+         *
+         * @param labels The labels as key-value pairs.
+         * @param factory Creates the metric.
+         * @return The metric.
+         */
+        private T get(String[] labels, Function<String, T> factory) {
+            String key = formatLabels(labels);
+            T metric = this.metrics.get(key);
+            return (metric != null ? metric : this.metrics.computeIfAbsent(key, factory));
+        }
+
+        /**
+         * Adds or replaces a metric.
+         *
+         * @param labels The labels as key-value pairs.
+         * @param metric The metric.
+         */
+        private void put(String[] labels, T metric) {
+            this.metrics.put(formatLabels(labels), metric);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.luka5w.fileserver.metrics;
+
+/**
+ * The timings of the stages of a request (e.g. authentication, database access, serialization) and its authenticated user.
+ *
+ * <p>
+ *     The context of the request handled by the current thread is obtained by {@link #current()},
+ *     so code which does not know the request (e.g. the database) can record its stages.
+ *     Durations of stages with the same name are summed up.
+ *     <br>
+ *     A context is written by the thread handling the request only, so it is not thread-safe.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class RequestContext {
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+    private static final RequestContext NONE = new RequestContext(0);
+    private static final int MAX_STAGES = 8;
+
+    private final long start;
+    private final String[] stages = new String[MAX_STAGES];
+    private final long[] durations = new long[MAX_STAGES];
+    private int size = 0;
+    private volatile String user;
+    private volatile boolean streaming = false;
+
+    /**
+     * Creates a new context.
+     *
+     * @param start The start of the request ({@link System#nanoTime()}).
+     *
+     * @since 1.0.0
+     */
+    public RequestContext(long start) {
+        this.start = start;
+    }
+
+    /**
+     * Returns the context of the request handled by the current thread.
+     *
+     * @return The context or a context which ignores all stages when the current thread handles no request.
+     *
+     * @since 1.0.0
+     */
+    public static RequestContext current() {
+        RequestContext context = CURRENT.get();
+        return (context == null ? NONE : context);
+    }
+
+    /**
+     * Sets the context of the request handled by the current thread.
+     *
+     * @param context The context or null when the thread has finished handling the request.
+     *
+     * @since 1.0.0
+     */
+    public static void setCurrent(RequestContext context) {
+        if (context == null) CURRENT.remove();
+        else CURRENT.set(context);
+    }
+
+    /**
+     * Records a stage which ends now.
+     *
+     * @param stage The name of the stage (a token, see RFC 7230).
+     * @param start The start of the stage ({@link System#nanoTime()}).
+     *
+     * @since 1.0.0
+     */
+    public void record(String stage, long start) {
+        if (this == NONE) return;
+        long duration = System.nanoTime() - start;
+        for (int i = 0; i < this.size; i++) {
+            if (this.stages[i].equals(stage)) {
+                this.durations[i] += duration;
+                return;
+            }
+        }
+        if (this.size == MAX_STAGES) return;
+        this.stages[this.size] = stage;
+        this.durations[this.size++] = duration;
+    }
+
+    /**
+     * Sets the authenticated user of the request.
+     *
+     * @param user The name of the user.
+     *
+     * @since 1.0.0
+     */
+    public void setUser(String user) {
+        if (this == NONE) return;
+        this.user = user;
+    }
+
+    /**
+     * Returns the authenticated user of the request.
+     *
+     * @return The name of the user or null when the request is not authenticated (yet).
+     *
+     * @since 1.0.0
+     */
+    public String getUser() {
+        return this.user;
+    }
+
+    /**
+     * Marks the request as streaming (e.g. a long-poll or an event stream), so its duration is the time the client is connected
+     * instead of the latency of the server and it is recorded separately.
+     *
+     * @since 1.0.0
+     */
+    public void setStreaming() {
+        if (this == NONE) return;
+        this.streaming = true;
+    }
+
+    /**
+     * Returns whether the request is streaming.
+     *
+     * @return true when the request is marked as streaming.
+     *
+     * @since 1.0.0
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Returns the time since the start of the request.
+     *
+     * @return The time in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public long getElapsed() {
+        return System.nanoTime() - this.start;
+    }
+
+    /**
+     * Formats the stages as value of a <code>Server-Timing</code> header (e.g. <code>auth;dur=1.234, total;dur=2.5</code>).
+     * <p>
+     *     source: https://www.w3.org/TR/server-timing/
+     * </p>
+     *
+     * @return The formatted stages (including the total time until now).
+     *
+     * @since 1.0.0
+     */
+    public String toServerTiming() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            sb.append(this.stages[i]).append(";dur=").append(formatMillis(this.durations[i])).append(", ");
+        }
+        return sb.append("total;dur=").append(formatMillis(this.getElapsed())).toString();
+    }
+
+    /**
+     * Formats the stages for a log (e.g. <code>total=2.500ms auth=1.234ms</code>).
+     *
+     * @return The formatted stages (including the total time until now).
+     *
+     * @since 1.0.0
+     */
+    public String toLogString() {
+        StringBuilder sb = new StringBuilder("total=").append(formatMillis(this.getElapsed())).append("ms");
+        for (int i = 0; i < this.size; i++) {
+            sb.append(' ').append(this.stages[i]).append('=').append(formatMillis(this.durations[i])).append("ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a duration in milliseconds with microsecond precision (e.g. <code>2.500</code>).
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     *
+     * @since 1.0.0
+     */
+    public static String formatMillis(long nanos) {
+        long micros = nanos / 1000;
+        long fraction = micros % 1000;
+        return (micros / 1000) + "." + (fraction < 10 ? "00" : (fraction < 100 ? "0" : "")) + fraction;
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.luka5w.fileserver.server;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the amount of requests the server accepts at the same time (the in-flight requests, which are queued or handled by a worker).
+ *
+ * <p>
+ *     Requests exceeding the limit or the capacity of the queue of the executor are answered with 503 (Service Unavailable)
+ *     and a <code>Retry-After</code> header instead of queueing up until the clients time out (see {@link AdmissionExecutor} and {@link AdmissionFilter}).
+ * </p>
+ * <p>
+ *     A request holds its permit until it is completed, which is usually when the handler passed by the {@link AdmissionExecutor} returns.
+ *     A handler completing the request on another thread (e.g. the {@link com.github.luka5w.fileserver.api.FairScheduler})
+ *     takes over the permit with {@link #takePermit()} and runs it when the request is completed,
+ *     so the requests waiting there count towards the limit and their latency includes the time they wait.
+ * </p>
+ * <p>
+ *     The limit is either static or adapted to the observed latency (TCP Vegas style):
+ *     the latency of the requests (including the time they are queued) is averaged over short windows
+ *     and compared to the lowest latency observed (the latency without load). The difference estimates the amount of queued requests:
+ *     <code>queued = limit * (1 - minLatency / latency)</code>. While few requests are queued, the limit is increased,
+ *     when many requests are queued, it is decreased, so the latency stays bounded under overload.
+ *     <br>
+ *     The latency without load may change (e.g. with the size of the files), so it is measured again regularly.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class AdmissionControl {
+
+    private static final Log LOGGER = Main.getLogger("Admission");
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int PROBE_WINDOWS = 300;
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+    private static final ThreadLocal<Runnable> PERMIT = new ThreadLocal<>();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final int queueSize;
+    private final int retryAfter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final Counter rejectedLimit;
+    private final Counter rejectedQueue;
+    private volatile int limit;
+    private long minLatency = 0;
+    private int windows = 0;
+
+    /**
+     * Creates a new admission control.
+     *
+     * @param minLimit The minimal (and initial) limit of in-flight requests when the limit is adaptive.
+     * @param maxLimit The maximal limit of in-flight requests (the limit when it is static).
+     * @param adaptive Whether the limit should be adapted to the latency.
+     * @param queueSize The maximal amount of requests waiting for a worker.
+     * @param retryAfter The value of the <code>Retry-After</code> header in seconds.
+     *
+     * @throws IllegalArgumentException When a limit is less than 1 or the minimal limit exceeds the maximal limit.
+     *
+     * @since 1.0.0
+     */
+    public AdmissionControl(int minLimit, int maxLimit, boolean adaptive, int queueSize, int retryAfter) {
+        if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("Limits must be at least 1 and min-limit must not exceed max-in-flight");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.queueSize = queueSize;
+        this.retryAfter = retryAfter;
+        this.limit = (adaptive ? minLimit : maxLimit);
+        Metrics metrics = Metrics.getInstance();
+        this.rejectedLimit = metrics.counter("fileserver_admission_rejected_total", "The requests rejected with 503 by the admission control.", "reason", "limit");
+        this.rejectedQueue = metrics.counter("fileserver_admission_rejected_total", "The requests rejected with 503 by the admission control.", "reason", "queue");
+        metrics.gauge("fileserver_admission_limit", "The current limit of in-flight requests.", () -> this.limit);
+        metrics.gauge("fileserver_admission_in_flight", "The admitted requests which are queued or handled.", this.inFlight::get);
+    }
+
+    /**
+     * Returns whether the request handled by the current thread has been rejected and must be answered with 503.
+     *
+     * @return true when the request is rejected.
+     *
+     * @since 1.0.0
+     */
+    public static boolean isShedding() {
+        return SHEDDING.get() != null;
+    }
+
+    /**
+     * Marks the requests handled by the current thread as rejected (or accepted).
+     *
+     * @param shedding Whether the requests are rejected.
+     */
+    static void setShedding(boolean shedding) {
+        if (shedding) SHEDDING.set(Boolean.TRUE);
+        else SHEDDING.remove();
+    }
+
+    /**
+     * Takes over the permit of the admitted request handled by the current thread,
+     * so it isn't released when the current thread returns from the handler.
+     * <p>
+     *     The caller must run the permit exactly once when the request is completed,
+     *     which releases the request (see {@link #release(long)}) with the latency since its admission.
+     * </p>
+     *
+     * @return The permit or null when the request handled by the current thread wasn't admitted by an admission control (or its permit has been taken over).
+     *
+     * @since 1.0.0
+     */
+    public static Runnable takePermit() {
+        Runnable permit = PERMIT.get();
+        PERMIT.remove();
+        return permit;
+    }
+
+    /**
+     * Sets the permit of the admitted request handled by the current thread.
+     *
+     * @param permit The permit or null when the thread handles no admitted request.
+     */
+    static void setPermit(Runnable permit) {
+        if (permit == null) PERMIT.remove();
+        else PERMIT.set(permit);
+    }
+
+    /**
+     * Admits a request when the limit is not reached.
+     * <p>
+     *     An admitted request must be released with {@link #release(long)} when it is completed.
+     * </p>
+     *
+     * @return true when the request is admitted.
+     *
+     * @since 1.0.0
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = this.inFlight.get();
+            if (current >= this.limit) {
+                this.rejectedLimit.increment();
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                if (this.adaptive) this.peakInFlight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request.
+     *
+     * @param latency The time from the admission until the request was completed in nanoseconds.
+     *
+     * @since 1.0.0
+     */
+    public void release(long latency) {
+        this.inFlight.decrementAndGet();
+        if (!this.adaptive) return;
+        this.latencySum.add(latency);
+        this.latencyCount.increment();
+        long now = System.nanoTime();
+        long start = this.windowStart.get();
+        if (now - start < WINDOW || !this.windowStart.compareAndSet(start, now)) return;
+        this.update(this.latencySum.sumThenReset(), this.latencyCount.sumThenReset(), this.peakInFlight.getAndSet(0));
+    }
+
+    /**
+     * Releases an admitted request which was rejected, since the queue of the executor is full.
+     *
+     * @since 1.0.0
+     */
+    public void releaseRejected() {
+        this.inFlight.decrementAndGet();
+        this.rejectedQueue.increment();
+    }
+
+    /**
+     * Returns the current limit of in-flight requests.
+     *
+     * @return The limit.
+     *
+     * @since 1.0.0
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Returns the maximal amount of requests waiting for a worker.
+     *
+     * @return The size of the queue.
+     *
+     * @since 1.0.0
+     */
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    /**
+     * Returns the value of the <code>Retry-After</code> header of rejected requests.
+     *
+     * @return The delay in seconds.
+     *
+     * @since 1.0.0
+     */
+    public int getRetryAfter() {
+        return this.retryAfter;
+    }
+
+    /**
+     * Adapts the limit to the average latency of a window.
+     *
+     * @param sum The sum of the latencies of the requests completed in the window.
+     * @param count The amount of requests completed in the window.
+     * @param peak The maximal amount of in-flight requests in the window.
+     */
+    private synchronized void update(long sum, long count, int peak) {
+        if (count == 0) return;
+        long latency = sum / count;
+        if (++this.windows % PROBE_WINDOWS == 0) this.minLatency = latency;
+        else if (this.minLatency == 0 || latency < this.minLatency) this.minLatency = latency;
+        // When the limit is not used, the latency tells nothing about it (and the limit must not grow without bounds).
+        if (peak * 2 < this.limit) return;
+        double limit = this.limit;
+        double queued = Math.ceil(limit * (1 - (double) this.minLatency / latency));
+        double log = Math.max(1, Math.log10(limit));
+        if (queued <= log) limit += 6 * log;
+        else if (queued < 3 * log) limit += log;
+        else if (queued > 6 * log) limit -= log;
+        int newLimit = (int) Math.max(this.minLimit, Math.min(this.maxLimit, Math.round(limit)));
+        if (newLimit != this.limit) {
+            int oldLimit = this.limit;
+            long minLatency = this.minLatency;
+            LOGGER.debug(() -> "Limit " + oldLimit + " -> " + newLimit + " (latency " + TimeUnit.NANOSECONDS.toMicros(latency) + " us, min " + TimeUnit.NANOSECONDS.toMicros(minLatency) + " us)");
+            this.limit = newLimit;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.luka5w.fileserver.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor of the {@link com.sun.net.httpserver.HttpServer} when the admission control is enabled.
+ *
+ * <p>
+ *     The HttpServer passes each request to the executor before its headers are parsed, so a rejected request can't be answered here.
+ *     Admitted requests are passed to the workers; rejected requests are passed to a single shedding thread,
+ *     which parses them and marks them as rejected, so the {@link AdmissionFilter} answers them with 503 immediately.
+ *     When even the queue of the shedding thread is full, the request is shed on the dispatcher thread of the HttpServer
+ *     (which delays accepting further requests, so they wait in the TCP backlog).
+ *     <br>
+ *     An admitted request is released when the task returns, unless the handler took over its permit (see {@link AdmissionControl#takePermit()}).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+class AdmissionExecutor implements Executor {
+
+    private static final int SHED_QUEUE_SIZE = 1024;
+
+    private final ThreadPoolExecutor workers;
+    private final AdmissionControl control;
+    private final ThreadPoolExecutor shedder;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param workers The executor of the admitted requests.
+     * @param control The admission control.
+     */
+    AdmissionExecutor(ThreadPoolExecutor workers, AdmissionControl control) {
+        this.workers = workers;
+        this.control = control;
+        this.shedder = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(SHED_QUEUE_SIZE), r -> {
+            Thread t = new Thread(r, "Server-Shedder");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!this.control.tryAcquire()) {
+            this.shed(task);
+            return;
+        }
+        if (this.workers.getQueue().size() >= this.control.getQueueSize()) {
+            this.control.releaseRejected();
+            this.shed(task);
+            return;
+        }
+        long start = System.nanoTime();
+        Runnable permit = () -> this.control.release(System.nanoTime() - start);
+        try {
+            this.workers.execute(() -> {
+                AdmissionControl.setPermit(permit);
+                try {
+                    task.run();
+                }
+                finally {
+                    // Unless the handler took over the permit to complete the request on another thread.
+                    Runnable held = AdmissionControl.takePermit();
+                    if (held != null) held.run();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // The workers are shut down.
+            this.control.releaseRejected();
+            throw e;
+        }
+    }
+
+    /**
+     * Passes a rejected request to the shedding thread.
+     *
+     * @param task The task of the HttpServer handling the request.
+     */
+    private void shed(Runnable task) {
+        this.shedder.execute(() -> {
+            AdmissionControl.setShedding(true);
+            try {
+                task.run();
+            }
+            finally {
+                AdmissionControl.setShedding(false);
+            }
+        });
+    }
+
+    /**
+     * Shuts down the shedding thread (the workers are shut down by their owner).
+     */
+    void shutdown() {
+        this.shedder.shutdown();
+    }
+}
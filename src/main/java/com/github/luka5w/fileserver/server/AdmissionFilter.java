@@ -0,0 +1,46 @@
+package com.github.luka5w.fileserver.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * A filter which answers the requests rejected by the {@link AdmissionControl} with 503 (Service Unavailable) and a <code>Retry-After</code> header.
+ * <p>
+ *     Must be added after the {@link MetricsFilter}, so the rejected requests are recorded.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class AdmissionFilter extends Filter {
+
+    private final AdmissionControl control;
+
+    /**
+     * Creates a new filter.
+     *
+     * @param control The admission control.
+     *
+     * @since 1.0.0
+     */
+    public AdmissionFilter(AdmissionControl control) {
+        this.control = control;
+    }
+
+    @Override
+    public void doFilter(HttpExchange httpExchange, Chain chain) throws IOException {
+        if (!AdmissionControl.isShedding()) {
+            chain.doFilter(httpExchange);
+            return;
+        }
+        httpExchange.getResponseHeaders().set("Retry-After", Integer.toString(this.control.getRetryAfter()));
+        Server.sendResponse(httpExchange, 503);
+    }
+
+    @Override
+    public String description() {
+        return "Rejects requests when the server is overloaded";
+    }
+}
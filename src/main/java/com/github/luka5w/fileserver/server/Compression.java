@@ -0,0 +1,362 @@
+package com.github.luka5w.fileserver.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Negotiates and applies the content encoding (gzip, deflate) of responses.
+ *
+ * <p>
+ *     {@link Deflater}s are expensive to create (they allocate native memory), so they are pooled and reused.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final int threshold;
+    private final int level;
+    private final int poolSize;
+    private final Queue<Deflater> gzipPool = new ConcurrentLinkedQueue<>();
+    private final Queue<Deflater> deflatePool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger gzipPooled = new AtomicInteger();
+    private final AtomicInteger deflatePooled = new AtomicInteger();
+
+    /**
+     * Creates a new compression configuration.
+     *
+     * @param threshold The minimal size of a response body (in bytes) to be compressed.
+     * @param level The compression level (0-9, see {@link Deflater}).
+     * @param poolSize The maximal amount of idle {@link Deflater}s kept per encoding.
+     *
+     * @since 1.0.0
+     */
+    public Compression(int threshold, int level, int poolSize) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("level must be -1 up to 9");
+        this.threshold = threshold;
+        this.level = level;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Returns the minimal size of a response body to be compressed.
+     *
+     * @return The threshold in bytes.
+     *
+     * @since 1.0.0
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Selects the content encoding for a response using the 'Accept-Encoding' request header.
+     * <p>
+     *     gzip is preferred over deflate when both have the same quality value.
+     * </p>
+     *
+     * @param headers The Headers retrieved from {@link com.sun.net.httpserver.HttpExchange#getRequestHeaders()}.
+     * @return {@link #GZIP}, {@link #DEFLATE} or null when the response should not be encoded.
+     *
+     * @since 1.0.0
+     */
+    public String negotiate(Headers headers) {
+        List<String> acceptEncoding = headers.get("Accept-Encoding");
+        if (acceptEncoding == null) return null;
+        float gzip = -1;
+        float deflate = -1;
+        float wildcard = -1;
+        for (String header : acceptEncoding) {
+            for (String coding : header.split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim().toLowerCase();
+                float q = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            q = Float.parseFloat(param.substring(2));
+                        }
+                        catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                switch (name) {
+                    case GZIP:
+                    case "x-gzip":
+                        gzip = q;
+                        break;
+                    case DEFLATE:
+                        deflate = q;
+                        break;
+                    case "*":
+                        wildcard = q;
+                        break;
+                }
+            }
+        }
+        if (gzip < 0) gzip = wildcard;
+        if (deflate < 0) deflate = wildcard;
+        if (gzip <= 0 && deflate <= 0) return null;
+        return (gzip >= deflate ? GZIP : DEFLATE);
+    }
+
+    /**
+     * Wraps a stream, so everything written to the returned stream is compressed with the encoding.
+     * <p>
+     *     Closing the returned stream finishes the compression, returns the {@link Deflater} to the pool and closes the wrapped stream.
+     * </p>
+     *
+     * @param out The stream to write the compressed data to.
+     * @param encoding The encoding returned by {@link #negotiate(Headers)}.
+     * @return The compressing stream.
+     *
+     * @throws IOException When the gzip header can't be written.
+     *
+     * @since 1.0.0
+     */
+    public OutputStream compress(OutputStream out, String encoding) throws IOException {
+        switch (encoding) {
+            case GZIP:
+                return new GzipStream(out, this.acquire(this.gzipPool, this.gzipPooled, true));
+            case DEFLATE:
+                return new PooledDeflaterStream(out, this.acquire(this.deflatePool, this.deflatePooled, false), this.deflatePool, this.deflatePooled);
+            default:
+                throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Writes data which is already compressed with raw deflate to a stream returned by {@link #compress(OutputStream, String)}, without decompressing it.
+     * <p>
+     *     The data must end with a sync flush (i.e. without final block), like the contents encoded by
+     *     {@link com.github.luka5w.fileserver.data.storage.DeflateCodec}. Only gzip streams support this,
+     *     since the zlib format needs the Adler-32 of the data.
+     * </p>
+     *
+     * @param stream The compressing stream.
+     * @param data The compressed data.
+     * @param length The length of the uncompressed data.
+     * @param crc The CRC-32 of the uncompressed data.
+     * @return false when the stream does not support precompressed data (nothing is written in this case).
+     *
+     * @throws IOException When writing to the stream failed.
+     *
+     * @since 1.0.0
+     */
+    public boolean writeDeflated(OutputStream stream, byte[] data, int length, int crc) throws IOException {
+        if (!(stream instanceof GzipStream)) return false;
+        ((GzipStream) stream).writeDeflated(data, length, crc);
+        return true;
+    }
+
+    /**
+     * Combines the CRC-32s of two consecutive blocks of data (a port of zlib's crc32_combine).
+     *
+     * @param crc1 The CRC-32 of the first block.
+     * @param crc2 The CRC-32 of the second block.
+     * @param len2 The length of the second block.
+     * @return The CRC-32 of both blocks.
+     */
+    static long combineCrc(long crc1, long crc2, long len2) {
+        if (len2 <= 0) return crc1;
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // The operator for one zero bit.
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        squareGf2Matrix(even, odd);
+        squareGf2Matrix(odd, even);
+        // Applies len2 zero bytes to crc1.
+        do {
+            squareGf2Matrix(even, odd);
+            if ((len2 & 1) != 0) crc1 = multiplyGf2Matrix(even, crc1);
+            len2 >>= 1;
+            if (len2 == 0) break;
+            squareGf2Matrix(odd, even);
+            if ((len2 & 1) != 0) crc1 = multiplyGf2Matrix(odd, crc1);
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    /**
+     * Multiplies a GF(2) matrix with a vector.
+     *
+     * @param matrix The matrix.
+     * @param vector The vector.
+     * @return The product.
+     */
+    private static long multiplyGf2Matrix(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squares a GF(2) matrix.
+     *
+     * @param square The array the square is written to.
+     * @param matrix The matrix.
+     */
+    private static void squareGf2Matrix(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) square[n] = multiplyGf2Matrix(matrix, matrix[n]);
+    }
+
+    /**
+     * Takes a deflater from a pool or creates a new one when the pool is empty.
+     *
+     * @param pool The pool.
+     * @param pooled The amount of deflaters in the pool.
+     * @param nowrap Whether the deflater should write raw deflate data (true) or the zlib format (false).
+     * @return The deflater.
+     */
+    private Deflater acquire(Queue<Deflater> pool, AtomicInteger pooled, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        if (deflater == null) return new Deflater(this.level, nowrap);
+        pooled.decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Resets a deflater and puts it back to a pool, or frees it when the pool is full.
+     *
+     * @param deflater The deflater.
+     * @param pool The pool.
+     * @param pooled The amount of deflaters in the pool.
+     */
+    private void release(Deflater deflater, Queue<Deflater> pool, AtomicInteger pooled) {
+        if (pooled.incrementAndGet() > this.poolSize) {
+            pooled.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        pool.offer(deflater);
+    }
+
+    /**
+     * A {@link DeflaterOutputStream} which returns its (pooled) deflater on close.
+     */
+    private class PooledDeflaterStream extends DeflaterOutputStream {
+
+        private final Queue<Deflater> pool;
+        private final AtomicInteger pooled;
+        private boolean closed = false;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater, Queue<Deflater> pool, AtomicInteger pooled) {
+            // Sync flush, so flushing the stream (e.g. while streaming a response) emits all data written so far.
+            super(out, deflater, BUFFER_SIZE, true);
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+            this.closed = true;
+            try {
+                this.finish();
+                this.writeTrailer(this.out);
+                this.out.close();
+            }
+            finally {
+                release(this.def, this.pool, this.pooled);
+            }
+        }
+
+        /**
+         * Writes data after the compressed data, before the wrapped stream is closed.
+         *
+         * @param out The wrapped stream.
+         *
+         * @throws IOException When writing to the stream failed.
+         */
+        protected void writeTrailer(OutputStream out) throws IOException {
+        }
+    }
+
+    /**
+     * A gzip stream (RFC 1952) using a pooled (raw) deflater.
+     * <p>
+     *     {@link java.util.zip.GZIPOutputStream} can't be used, because it always creates its own deflater.
+     * </p>
+     */
+    private class GzipStream extends PooledDeflaterStream {
+
+        private final CRC32 crc = new CRC32();
+        private long crcBefore = 0;
+        private long lengthBefore = 0;
+        private long length = 0;
+
+        GzipStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, gzipPool, gzipPooled);
+            out.write(new byte[] {(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            this.crc.update(b, off, len);
+            this.length += len;
+        }
+
+        /**
+         * Writes precompressed data, see {@link Compression#writeDeflated(OutputStream, byte[], int, int)}.
+         *
+         * @param data The compressed data.
+         * @param length The length of the uncompressed data.
+         * @param crc The CRC-32 of the uncompressed data.
+         *
+         * @throws IOException When writing to the wrapped stream failed.
+         */
+        void writeDeflated(byte[] data, int length, int crc) throws IOException {
+            // Ends the current block at a byte boundary, so the data can be appended.
+            int len;
+            do {
+                len = this.def.deflate(this.buf, 0, this.buf.length, Deflater.SYNC_FLUSH);
+                this.out.write(this.buf, 0, len);
+            } while (len == this.buf.length);
+            // Back-references of the following data must not reach over the precompressed data into the data before it.
+            this.def.reset();
+            this.out.write(data);
+            this.crcBefore = combineCrc(combineCrc(this.crcBefore, this.crc.getValue(), this.length - this.lengthBefore), crc & 0xffffffffL, length);
+            this.crc.reset();
+            this.length += length;
+            this.lengthBefore = this.length;
+        }
+
+        @Override
+        protected void writeTrailer(OutputStream out) throws IOException {
+            long crc = combineCrc(this.crcBefore, this.crc.getValue(), this.length - this.lengthBefore);
+            long size = this.length;
+            out.write(new byte[] {
+                    (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24),
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+            });
+        }
+    }
+}
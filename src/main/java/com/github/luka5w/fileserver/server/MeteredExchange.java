@@ -0,0 +1,262 @@
+package com.github.luka5w.fileserver.server;
+
+import com.github.luka5w.fileserver.logging.AccessLog;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link HttpExchange} which records the latency, the status and the transferred bytes of a request (see {@link MetricsFilter}).
+ *
+ * <p>
+ *     The request is recorded when the exchange is closed or when a response without body is sent,
+ *     so exchanges which are answered asynchronously (e.g. long-poll requests) are recorded when they are answered.
+ *     The duration of streaming requests (see {@link RequestContext#setStreaming()}) is recorded by its own histogram,
+ *     so the connection time of the clients doesn't distort the latency of the server.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+class MeteredExchange extends HttpExchange {
+
+    static final LongAdder IN_FLIGHT = new LongAdder();
+
+    private final HttpExchange httpExchange;
+    private final String endpoint;
+    private final long start = System.nanoTime();
+    private final long startTime = System.currentTimeMillis();
+    private final RequestContext context = new RequestContext(this.start);
+    private final AtomicBoolean recorded = new AtomicBoolean(false);
+    private volatile int status = -1;
+    private volatile long requestBytes = 0;
+    private volatile long responseBytes = 0;
+    private InputStream requestBody;
+    private OutputStream responseBody;
+
+    /**
+     * Creates a new metered exchange.
+     *
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @param endpoint The endpoint (used as label, so the amount of different values must be small).
+     */
+    MeteredExchange(HttpExchange httpExchange, String endpoint) {
+        this.httpExchange = httpExchange;
+        this.endpoint = endpoint;
+        IN_FLIGHT.increment();
+    }
+
+    /**
+     * Returns the timings of the stages of the request.
+     *
+     * @return The context of the request.
+     */
+    RequestContext getContext() {
+        return this.context;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return this.httpExchange.getRequestHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return this.httpExchange.getResponseHeaders();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return this.httpExchange.getRequestURI();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return this.httpExchange.getRequestMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return this.httpExchange.getHttpContext();
+    }
+
+    @Override
+    public void close() {
+        this.httpExchange.close();
+        this.record();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        if (this.requestBody == null) {
+            this.requestBody = new FilterInputStream(this.httpExchange.getRequestBody()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) requestBytes++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) requestBytes += n;
+                    return n;
+                }
+            };
+        }
+        return this.requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        if (this.responseBody == null) {
+            this.responseBody = new FilterOutputStream(this.httpExchange.getResponseBody()) {
+                @Override
+                public void write(int b) throws IOException {
+                    this.out.write(b);
+                    responseBytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                    responseBytes += len;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        this.out.close();
+                    }
+                    finally {
+                        MeteredExchange.this.record();
+                    }
+                }
+            };
+        }
+        return this.responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        this.status = rCode;
+        this.httpExchange.sendResponseHeaders(rCode, responseLength);
+        // Without a body the exchange is complete (and closing it has no effect).
+        if (responseLength == -1) this.record();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return this.httpExchange.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return this.httpExchange.getResponseCode();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return this.httpExchange.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.httpExchange.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return this.httpExchange.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        this.httpExchange.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        this.httpExchange.setStreams(i, o);
+        if (i != null) this.requestBody = null;
+        if (o != null) this.responseBody = null;
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return this.httpExchange.getPrincipal();
+    }
+
+    /**
+     * Records a request which failed without a response (the connection is closed by the server).
+     */
+    void fail() {
+        if (this.status == -1) this.status = 500;
+        this.record();
+    }
+
+    /**
+     * Returns the request method as label, unknown methods are combined (so clients can't create arbitrary many metrics).
+     *
+     * @return The label.
+     */
+    private String getMethodLabel() {
+        switch (this.getRequestMethod()) {
+            case "GET":
+            case "HEAD":
+            case "POST":
+            case "PUT":
+            case "PATCH":
+            case "DELETE":
+            case "OPTIONS":
+                return this.getRequestMethod();
+            default:
+                return "other";
+        }
+    }
+
+    /**
+     * Records the request (once).
+     */
+    private void record() {
+        if (!this.recorded.compareAndSet(false, true)) return;
+        long duration = System.nanoTime() - this.start;
+        IN_FLIGHT.decrement();
+        String method = this.getMethodLabel();
+        String status = Integer.toString(this.status);
+        Metrics metrics = Metrics.getInstance();
+        if (this.context.isStreaming()) {
+            metrics.histogram("fileserver_http_stream_duration_seconds", "The duration of streaming requests (long-polls and event streams).",
+                    "endpoint", this.endpoint, "method", method, "status", status).record(duration);
+        }
+        else {
+            metrics.histogram("fileserver_http_request_duration_seconds", "The latency of the requests (until the response is complete).",
+                    "endpoint", this.endpoint, "method", method, "status", status).record(duration);
+        }
+        metrics.counter("fileserver_http_request_bytes_total", "The received bytes of request bodies.",
+                "endpoint", this.endpoint, "method", method).add(this.requestBytes);
+        SlowRequestLog slowRequestLog = Server.getSlowRequestLog();
+        if (slowRequestLog != null) slowRequestLog.log(this.getRequestMethod(), this.getRequestURI().getPath(), this.endpoint, this.status, this.context);
+        metrics.counter("fileserver_http_response_bytes_total", "The sent bytes of response bodies (after compression).",
+                "endpoint", this.endpoint, "method", method).add(this.responseBytes);
+        AccessLog accessLog = Server.getAccessLog();
+        if (accessLog != null) {
+            accessLog.log(this.startTime, this.getRemoteAddress().getAddress().getHostAddress(), this.context.getUser(),
+                    this.getRequestMethod(), this.getRequestURI().getRawPath(), this.status, this.responseBytes, duration);
+        }
+    }
+}
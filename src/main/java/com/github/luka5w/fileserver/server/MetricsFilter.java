@@ -0,0 +1,55 @@
+package com.github.luka5w.fileserver.server;
+
+import com.github.luka5w.fileserver.metrics.RequestContext;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * A filter which records the metrics of the requests of a context by passing a {@link MeteredExchange} to the handler.
+ * <p>
+ *     The {@link RequestContext} of the request is set as current context of the thread while the handler is called.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class MetricsFilter extends Filter {
+
+    private final Function<String, String> endpoints;
+
+    /**
+     * Creates a new filter.
+     *
+     * @param endpoints Returns the endpoint (used as label) of a request path.
+     *                  The amount of different endpoints must be small, so unknown paths must be mapped to a common value.
+     *
+     * @since 1.0.0
+     */
+    public MetricsFilter(Function<String, String> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public void doFilter(HttpExchange httpExchange, Chain chain) throws IOException {
+        MeteredExchange meteredExchange = new MeteredExchange(httpExchange, this.endpoints.apply(httpExchange.getRequestURI().getPath()));
+        RequestContext.setCurrent(meteredExchange.getContext());
+        try {
+            chain.doFilter(meteredExchange);
+        }
+        catch (IOException | RuntimeException e) {
+            meteredExchange.fail();
+            throw e;
+        }
+        finally {
+            RequestContext.setCurrent(null);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Records the latency, status and transferred bytes of requests";
+    }
+}
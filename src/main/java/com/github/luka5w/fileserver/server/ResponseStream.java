@@ -0,0 +1,279 @@
+package com.github.luka5w.fileserver.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A stream for the body of a response, obtained by {@link Server#openResponse(HttpExchange, int, String)}.
+ *
+ * <p>
+ *     The body is written to a pooled (per thread) buffer. When the stream is closed before the buffer is full,
+ *     the response is sent with a 'Content-Length' header.
+ *     Otherwise (or when the stream is flushed), the headers are sent with chunked transfer encoding and the body is streamed to the client.
+ *     <br>
+ *     The (optional) compression of the body is applied in both cases.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class ResponseStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+    private final HttpExchange httpExchange;
+    private final int status;
+    private final Compression compression;
+    private byte[] buf;
+    private int count = 0;
+    private OutputStream out = null;
+    private Utf8Writer writer = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a new response stream.
+     *
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @param status The HTTP status code.
+     * @param compression The compression configuration or null when compression is disabled.
+     *
+     * @since 1.0.0
+     */
+    ResponseStream(HttpExchange httpExchange, int status, Compression compression) {
+        this.httpExchange = httpExchange;
+        this.status = status;
+        this.compression = compression;
+        this.buf = BUFFERS.get();
+        if (this.buf == null) this.buf = new byte[BUFFER_SIZE];
+        else BUFFERS.set(null);
+    }
+
+    /**
+     * Returns a writer which encodes the characters as UTF-8 directly into this stream.
+     * <p>
+     *     The writer does not buffer (i.e. it must not be flushed before this stream is closed) and is reused for the lifetime of this stream.
+     * </p>
+     *
+     * @return The writer.
+     *
+     * @since 1.0.0
+     */
+    public Writer getWriter() {
+        if (this.writer == null) this.writer = new Utf8Writer();
+        return this.writer;
+    }
+
+    /**
+     * Returns whether the headers of the response are already sent.
+     *
+     * @return true when the headers are sent.
+     *
+     * @since 1.0.0
+     */
+    public boolean isCommitted() {
+        return this.out != null;
+    }
+
+    /**
+     * Writes data which is already compressed with raw deflate (see {@link Compression#writeDeflated(OutputStream, byte[], int, int)}).
+     * <p>
+     *     The response is sent with chunked transfer encoding.
+     *     Must only be called when {@link Server#acceptsDeflated(HttpExchange)} returned true for the exchange.
+     * </p>
+     *
+     * @param data The compressed data.
+     * @param length The length of the uncompressed data.
+     * @param crc The CRC-32 of the uncompressed data.
+     *
+     * @throws IOException When the response can't be sent.
+     * @throws IllegalStateException When the response is not gzip-compressed.
+     *
+     * @since 1.0.0
+     */
+    public void writeDeflated(byte[] data, int length, int crc) throws IOException {
+        this.drain();
+        if (this.compression == null || !this.compression.writeDeflated(this.out, data, length, crc)) throw new IllegalStateException("Response is not gzip-compressed");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.buf.length) this.drain();
+        this.buf[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > this.buf.length - this.count) {
+            this.drain();
+            if (len >= this.buf.length) {
+                this.out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, this.buf, this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * Sends the headers (if not already sent) and everything written so far to the client.
+     * <p>
+     *     After the first flush, the response is sent with chunked transfer encoding.
+     * </p>
+     *
+     * @throws IOException When the response can't be sent.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.drain();
+        this.out.flush();
+    }
+
+    /**
+     * Sends the response (i.e. the headers if not already sent and the rest of the body) and closes the exchange.
+     *
+     * @throws IOException When the response can't be sent.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) return;
+        this.closed = true;
+        try {
+            if (this.out == null) this.commit(false);
+            if (this.count > 0) this.out.write(this.buf, 0, this.count);
+            this.count = 0;
+            this.out.close();
+        }
+        finally {
+            if (BUFFERS.get() == null) BUFFERS.set(this.buf);
+            this.buf = null;
+            this.httpExchange.close();
+        }
+    }
+
+    /**
+     * Writes the buffer to the client, the headers are sent with chunked transfer encoding before when necessary.
+     *
+     * @throws IOException When the response can't be sent.
+     */
+    private void drain() throws IOException {
+        if (this.closed) throw new IOException("Stream closed");
+        if (this.out == null) this.commit(true);
+        if (this.count > 0) this.out.write(this.buf, 0, this.count);
+        this.count = 0;
+    }
+
+    /**
+     * Sends the headers of the response.
+     *
+     * @param streaming Whether the length of the body is unknown (i.e. more data will follow the buffer).
+     *
+     * @throws IOException When the headers can't be sent.
+     */
+    private void commit(boolean streaming) throws IOException {
+        String encoding = null;
+        if (this.compression != null && (streaming || this.count > 0)) {
+            this.httpExchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+            if (streaming || this.count >= this.compression.getThreshold()) encoding = this.compression.negotiate(this.httpExchange.getRequestHeaders());
+        }
+        if (Server.isServerTiming() && this.httpExchange instanceof MeteredExchange) {
+            this.httpExchange.getResponseHeaders().set("Server-Timing", ((MeteredExchange) this.httpExchange).getContext().toServerTiming());
+        }
+        OutputStream os = this.httpExchange.getResponseBody();
+        if (encoding != null) {
+            this.httpExchange.getResponseHeaders().set("Content-Encoding", encoding);
+            this.httpExchange.sendResponseHeaders(this.status, 0);
+            this.out = this.compression.compress(os, encoding);
+        }
+        else {
+            // A length of 0 results in chunked transfer encoding, -1 is used for responses without body (e.g. 204, 304).
+            this.httpExchange.sendResponseHeaders(this.status, streaming ? 0 : (this.count == 0 ? -1 : this.count));
+            this.out = os;
+        }
+    }
+
+    /**
+     * A writer encoding characters as UTF-8 directly into the stream (without allocating an encoder or an intermediate buffer).
+     */
+    private class Utf8Writer extends Writer {
+
+        private char highSurrogate = 0;
+
+        @Override
+        public void write(int c) throws IOException {
+            this.put((char) c);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) this.put(str.charAt(i));
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) this.put(cbuf[i]);
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            String s = String.valueOf(csq);
+            this.write(s, 0, s.length());
+            return this;
+        }
+
+        /**
+         * Encodes a character (or a surrogate pair, when the character is a low surrogate).
+         *
+         * @param c The character.
+         *
+         * @throws IOException See {@link ResponseStream#write(int)}.
+         */
+        private void put(char c) throws IOException {
+            ResponseStream rs = ResponseStream.this;
+            if (this.highSurrogate != 0) {
+                char high = this.highSurrogate;
+                this.highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    rs.write(0xf0 | (cp >> 18));
+                    rs.write(0x80 | ((cp >> 12) & 0x3f));
+                    rs.write(0x80 | ((cp >> 6) & 0x3f));
+                    rs.write(0x80 | (cp & 0x3f));
+                    return;
+                }
+                rs.write('?');
+            }
+            if (c < 0x80) {
+                rs.write(c);
+            }
+            else if (c < 0x800) {
+                rs.write(0xc0 | (c >> 6));
+                rs.write(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c)) {
+                this.highSurrogate = c;
+            }
+            else if (Character.isLowSurrogate(c)) {
+                rs.write('?');
+            }
+            else {
+                rs.write(0xe0 | (c >> 12));
+                rs.write(0x80 | ((c >> 6) & 0x3f));
+                rs.write(0x80 | (c & 0x3f));
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Nothing is buffered in the writer.
+        }
+
+        @Override
+        public void close() {
+            // The stream is closed by its owner.
+        }
+    }
+}
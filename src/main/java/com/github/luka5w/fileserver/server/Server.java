@@ -2,19 +2,26 @@ package com.github.luka5w.fileserver.server;
 
 import com.github.luka5w.fileserver.Main;
 import com.github.luka5w.fileserver.api.API;
-import com.github.luka5w.util.cli.Logger;
+import com.github.luka5w.fileserver.api.APIVersion;
+import com.github.luka5w.fileserver.logging.AccessLog;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.github.luka5w.fileserver.server.nio.NioConfig;
+import com.github.luka5w.fileserver.server.nio.NioHttpServer;
 import com.sun.net.httpserver.*;
 
-import javax.net.ssl.*;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A webserver using {@link com.github.luka5w.fileserver.api.APIVersion}s from an {@link API} as contexts.
@@ -23,36 +30,55 @@ import java.security.KeyStore;
  * @version 1.0.0
  */
 public class Server {
-    private static final Logger LOGGER = Main.getLogger("Server");
+    private static final Log LOGGER = Main.getLogger("Server");
+    private static Compression COMPRESSION;
+    private static boolean SERVER_TIMING = false;
+    private static SlowRequestLog SLOW_REQUEST_LOG;
+    private static AccessLog ACCESS_LOG;
+    private static AdmissionControl ADMISSION_CONTROL;
+    private static NioConfig NIO_CONFIG;
+
+    static {
+        // Without TCP_NODELAY, a response written in multiple segments waits for the delayed ACK of the client (~40 ms per request on keep-alive connections).
+        // The property is read once when the HttpServer implementation is loaded, so it must be set before the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
 
     private final API api;
     private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final AdmissionExecutor admissionExecutor;
 
     private boolean running = false;
 
     /**
-     * Initializes an {@link HttpServer}.
+     * Initializes an {@link HttpServer} (or a {@link NioHttpServer} when the NIO engine is selected, see {@link #setNioEngine(NioConfig)}).
      *
      * @param api The API to use.
      * @param port The port to use.
      * @param backlog The maximum amount of requests.
+     * @param threads The amount of threads handling the requests.
      *
      * @throws IOException When the address is invalid or the HttpServer could not be created.
      *
      * @since 1.0.0
      */
-    public Server(API api, String address, int port, int backlog) throws IOException {
+    public Server(API api, String address, int port, int backlog, int threads) throws IOException {
         this.api = api;
         LOGGER.warn("Running an unencrypted Server is insecure.");
         LOGGER.log("Initializing Server...");
         InetSocketAddress sockAddress = this.getAddress(address, port);
-        this.server = HttpServer.create(sockAddress, backlog);
+        this.server = (NIO_CONFIG == null ? HttpServer.create(sockAddress, backlog) : new NioHttpServer(sockAddress, backlog, NIO_CONFIG));
+        this.executor = this.createExecutor(threads);
+        this.admissionExecutor = (ADMISSION_CONTROL == null ? null : new AdmissionExecutor(this.executor, ADMISSION_CONTROL));
+        this.server.setExecutor(this.admissionExecutor == null ? this.executor : this.admissionExecutor);
         LOGGER.debug("Initialized Server.");
         this.addContexts();
     }
 
     /**
-     * Initializes an {@link HttpsServer}.
+     * Initializes an {@link HttpsServer} (or a {@link NioHttpServer} with TLS, which negotiates HTTP/2 with ALPN, when the NIO engine is selected)
+     * with the default {@link TlsConfig}.
      * <p>
      *     command to generate the (self-signed) keystore:
      *     keytool -genkeypair -keyalg RSA -alias selfsigned -keystore [filename].jks -storepass [password] -validity 360 -keysize 2048
@@ -61,6 +87,7 @@ public class Server {
      * @param api The API to use.
      * @param port The port to use.
      * @param backlog The maximum amount of requests.
+     * @param threads The amount of threads handling the requests.
      * @param keystorePath The path to the keystore.
      * @param keystorePassword The password of the keystore.
      * @throws IOException When the address is invalid or the HttpServer could not be created.
@@ -68,7 +95,23 @@ public class Server {
      *
      * @since 1.0.0
      */
-    public Server(API api, String address, int port, int backlog, String keystorePath, String keystorePassword) throws IOException, GeneralSecurityException {
+    public Server(API api, String address, int port, int backlog, int threads, String keystorePath, String keystorePassword) throws IOException, GeneralSecurityException {
+        this(api, address, port, backlog, threads, new TlsConfig(keystorePath, keystorePassword));
+    }
+
+    /**
+     * Initializes an {@link HttpsServer} (or a {@link NioHttpServer} with TLS, which negotiates HTTP/2 with ALPN, when the NIO engine is selected).
+     *
+     * @param api The API to use.
+     * @param port The port to use.
+     * @param backlog The maximum amount of requests.
+     * @param threads The amount of threads handling the requests.
+     * @param tls The TLS configuration.
+     * @throws IOException When the address is invalid or the HttpServer could not be created.
+     *
+     * @since 1.0.0
+     */
+    public Server(API api, String address, int port, int backlog, int threads, TlsConfig tls) throws IOException {
         // TODO: 28.12.2020 @pre0.0.2 [bug] anything here screws up the server if a request comes from curl. for dev: using com.sun.net.httpserver.HttpServer "fixes" the issue...
         this.api = api;
         LOGGER.log("Initializing Server...");
@@ -78,36 +121,13 @@ public class Server {
          * The additional variable is to avoid unnecessary casts to HttpsServer
          * during tls initialization.
         */
-        HttpsServer server = HttpsServer.create(sockAddress, backlog);
+        HttpsServer server = (NIO_CONFIG == null ? HttpsServer.create(sockAddress, backlog) : new NioHttpServer(sockAddress, backlog, NIO_CONFIG));
         this.server = server;
-
-        SSLContext context = SSLContext.getInstance("TLS");
-        char[] pw = keystorePassword.toCharArray();
-
-        KeyStore ks = KeyStore.getInstance("JKS");
-        FileInputStream fIn = new FileInputStream(keystorePath);
-        ks.load(fIn, pw);
-
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(ks, pw);
-
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
-        tmf.init(ks);
-
-        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-
-        server.setHttpsConfigurator(new HttpsConfigurator(context) {
-            @Override
-            public void configure(HttpsParameters params) {
-                SSLContext context = getSSLContext();
-                SSLEngine engine = context.createSSLEngine();
-                params.setNeedClientAuth(false);
-                params.setCipherSuites(engine.getEnabledCipherSuites());
-                params.setProtocols(engine.getEnabledProtocols());
-                SSLParameters sslParams = context.getSupportedSSLParameters();
-                params.setSSLParameters(sslParams);
-            }
-        });
+        this.executor = this.createExecutor(threads);
+        this.admissionExecutor = (ADMISSION_CONTROL == null ? null : new AdmissionExecutor(this.executor, ADMISSION_CONTROL));
+        this.server.setExecutor(this.admissionExecutor == null ? this.executor : this.admissionExecutor);
+        server.setHttpsConfigurator(tls.getConfigurator());
+        LOGGER.debug("TLS protocols: " + String.join(", ", tls.getProtocols()) + ", cipher suites: " + String.join(", ", tls.getCipherSuites()));
 
         LOGGER.debug("Initialized Server.");
         this.addContexts();
@@ -123,7 +143,7 @@ public class Server {
             LOGGER.warn("Server already running. Ignoring start request.");
         }
         else {
-            LOGGER.log("Server started. Listening at " + (this.server instanceof HttpsServer ? "https://" : "http://") + this.server.getAddress().toString());
+            LOGGER.log("Server started. Listening at " + (this.server instanceof HttpsServer && ((HttpsServer) this.server).getHttpsConfigurator() != null ? "https://" : "http://") + this.server.getAddress().toString());
             this.server.start();
             this.running = true;
         }
@@ -138,12 +158,79 @@ public class Server {
         if (this.running) {
             LOGGER.log("Server stopped.");
             this.server.stop(0);
+            this.executor.shutdown();
+            if (this.admissionExecutor != null) this.admissionExecutor.shutdown();
         }
         else {
             LOGGER.warn("Server is not running. Ignoring stop request.");
         }
     }
 
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return The address (with the actual port when the server was created with port 0).
+     *
+     * @since 1.0.0
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Enables the metrics (in the Prometheus text format) at <code>/metrics</code>.
+     * <p>
+     *     The metrics are not protected by the user database (so monitoring needs no user account),
+     *     a token can be required instead (<code>Authorization: Bearer [token]</code>).
+     * </p>
+     *
+     * @param token The token or an empty string to allow unauthenticated access.
+     *
+     * @since 1.0.0
+     */
+    public void enableMetrics(String token) {
+        LOGGER.log("Adding Context /metrics...");
+        this.server.createContext("/metrics", httpExchange -> {
+            String authorization = httpExchange.getRequestHeaders().getFirst("Authorization");
+            if (!(token == null || token.isEmpty()) && !("Bearer " + token).equals(authorization)) {
+                sendResponse(httpExchange, 401);
+            }
+            else if (!httpExchange.getRequestMethod().equals("GET")) {
+                sendResponse(httpExchange, 405);
+            }
+            else {
+                httpExchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE + "; charset=utf-8");
+                httpExchange.sendResponseHeaders(200, 0);
+                try (Writer writer = new OutputStreamWriter(httpExchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                    Metrics.getInstance().write(writer);
+                }
+                finally {
+                    httpExchange.close();
+                }
+            }
+        });
+        LOGGER.debug("Done.");
+    }
+
+    /**
+     * Creates the executor handling the requests and registers its metrics.
+     *
+     * @param threads The amount of threads.
+     * @return The executor.
+     */
+    private ThreadPoolExecutor createExecutor(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "Server-Worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.getInstance().gauge("fileserver_executor_queue_depth", "The amount of requests waiting for a worker thread.", () -> executor.getQueue().size());
+        Metrics.getInstance().gauge("fileserver_executor_active_threads", "The amount of worker threads handling a request.", executor::getActiveCount);
+        Metrics.getInstance().gauge("fileserver_http_requests_in_flight", "The amount of requests which are not answered yet (including open event streams).", MeteredExchange.IN_FLIGHT::sum);
+        return executor;
+    }
+
     /**
      * Creates a new address from an IP address or a hostname and a port.
      *
@@ -169,16 +256,141 @@ public class Server {
     private void addContexts() {
         LOGGER.log("Adding API Contexts...");
         LOGGER.log("Adding root context (/)...");
-        this.server.createContext("/", this.api::info);
+        this.addFilters(this.server.createContext("/", this.api::info), new MetricsFilter(path -> (path.equals("/") ? "/" : "other")));
         LOGGER.debug("Done.");
         this.api.getVersions().forEach(apiVersion -> {
             LOGGER.log("Adding Context /" + apiVersion.getVersion() + "...");
-            this.server.createContext("/" + apiVersion.getVersion(), apiVersion::handle);
+            this.addFilters(this.server.createContext("/" + apiVersion.getVersion(), apiVersion::handle), new MetricsFilter(path -> this.getEndpointLabel(apiVersion, path)));
             LOGGER.debug("Done.");
         });
         LOGGER.debug("Added API Contexts.");
     }
 
+    /**
+     * Adds the filters to a context of the API.
+     * <p>
+     *     The metrics context has no filters, so it is answered even when the server is overloaded.
+     * </p>
+     *
+     * @param context The context.
+     * @param metricsFilter The filter recording the metrics of the context.
+     */
+    private void addFilters(HttpContext context, MetricsFilter metricsFilter) {
+        context.getFilters().add(metricsFilter);
+        if (this.admissionExecutor != null) context.getFilters().add(new AdmissionFilter(ADMISSION_CONTROL));
+    }
+
+    /**
+     * Returns the label of the endpoint of a request for the metrics.
+     *
+     * @param apiVersion The API version handling the request.
+     * @param path The request path.
+     * @return The label (<code>/[version]/[endpoint]</code>), requests to unknown endpoints share one label.
+     */
+    private String getEndpointLabel(APIVersion apiVersion, String path) {
+        String endpoint;
+        try {
+            endpoint = apiVersion.getEndpointName(path);
+        }
+        catch (IllegalArgumentException e) {
+            endpoint = null;
+        }
+        return "/" + apiVersion.getVersion() + "/" + (endpoint == null ? "other" : endpoint);
+    }
+
+    /**
+     * Enables or disables the admission control, must be called before the server is created.
+     *
+     * @param admissionControl The admission control or null to admit all requests.
+     *
+     * @since 1.0.0
+     */
+    public static void setAdmissionControl(AdmissionControl admissionControl) {
+        ADMISSION_CONTROL = admissionControl;
+    }
+
+    /**
+     * Selects the NIO engine ({@link NioHttpServer}) instead of the HttpServer of the JDK, must be called before the server is created.
+     *
+     * @param config The configuration of the engine or null to use the HttpServer of the JDK.
+     *
+     * @since 1.0.0
+     */
+    public static void setNioEngine(NioConfig config) {
+        NIO_CONFIG = config;
+    }
+
+    /**
+     * Enables or disables the compression of responses.
+     *
+     * @param compression The compression configuration or null to disable compression.
+     *
+     * @since 1.0.0
+     */
+    public static void setCompression(Compression compression) {
+        COMPRESSION = compression;
+    }
+
+    /**
+     * Enables or disables the <code>Server-Timing</code> header, which contains the timings of the stages of a request (see {@link com.github.luka5w.fileserver.metrics.RequestContext}).
+     *
+     * @param enabled Whether the header should be sent.
+     *
+     * @since 1.0.0
+     */
+    public static void setServerTiming(boolean enabled) {
+        SERVER_TIMING = enabled;
+    }
+
+    /**
+     * Returns whether the <code>Server-Timing</code> header is sent.
+     *
+     * @return true when the header is sent.
+     */
+    static boolean isServerTiming() {
+        return SERVER_TIMING;
+    }
+
+    /**
+     * Enables or disables the log of slow requests.
+     *
+     * @param slowRequestLog The log or null to disable it.
+     *
+     * @since 1.0.0
+     */
+    public static void setSlowRequestLog(SlowRequestLog slowRequestLog) {
+        SLOW_REQUEST_LOG = slowRequestLog;
+    }
+
+    /**
+     * Returns the log of slow requests.
+     *
+     * @return The log or null when it is disabled.
+     */
+    static SlowRequestLog getSlowRequestLog() {
+        return SLOW_REQUEST_LOG;
+    }
+
+    /**
+     * Enables or disables the access log.
+     *
+     * @param accessLog The log or null to disable it.
+     *
+     * @since 1.0.0
+     */
+    public static void setAccessLog(AccessLog accessLog) {
+        ACCESS_LOG = accessLog;
+    }
+
+    /**
+     * Returns the access log.
+     *
+     * @return The log or null when it is disabled.
+     */
+    static AccessLog getAccessLog() {
+        return ACCESS_LOG;
+    }
+
     /**
      * Sends an empty response to the client using {@link #sendResponse(HttpExchange, int, String, String)}.
      *
@@ -205,16 +417,47 @@ public class Server {
      * @since 1.0.0
      */
     public static void sendResponse(HttpExchange httpExchange, int status, String payload, String contentType) {
-        LOGGER.debug("Response: c=" + status + " t=" + contentType + " p=" + payload);
-        httpExchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
-        byte[] response = new byte[0];
-        if (payload != null && !payload.isEmpty()) response = payload.getBytes(StandardCharsets.UTF_8);
-        try (OutputStream os = httpExchange.getResponseBody()) {
-            httpExchange.sendResponseHeaders(status, response.length);
-            os.write(response);
+        LOGGER.debug(() -> "Response: c=" + status + " t=" + contentType + " p=" + payload);
+        try (ResponseStream rs = openResponse(httpExchange, status, contentType)) {
+            if (payload != null && !payload.isEmpty()) rs.getWriter().write(payload);
         }
         catch (IOException e) {
             LOGGER.exception("Failed to respond: ", e);
         }
     }
+
+    /**
+     * Opens a stream for a response with a content type, the response is sent when the stream is closed (or flushed).
+     *
+     * <p>
+     *     Charset: UTF-8
+     *     <br>
+     *     When compression is enabled, the body exceeds the threshold and the client accepts gzip or deflate,
+     *     the body is compressed while it is streamed to the client.
+     * </p>
+     *
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @param status The HTTP status code.
+     * @param contentType The content type.
+     * @return The stream for the response body.
+     *
+     * @since 1.0.0
+     */
+    public static ResponseStream openResponse(HttpExchange httpExchange, int status, String contentType) {
+        httpExchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        return new ResponseStream(httpExchange, status, COMPRESSION);
+    }
+
+    /**
+     * Returns whether the response to a request will be gzip-compressed when it is streamed,
+     * so precompressed data can be written with {@link ResponseStream#writeDeflated(byte[], int, int)}.
+     *
+     * @param httpExchange The HttpExchange supplied by the {@link com.sun.net.httpserver.HttpServer}.
+     * @return true when compression is enabled and the client prefers gzip.
+     *
+     * @since 1.0.0
+     */
+    public static boolean acceptsDeflated(HttpExchange httpExchange) {
+        return COMPRESSION != null && Compression.GZIP.equals(COMPRESSION.negotiate(httpExchange.getRequestHeaders()));
+    }
 }
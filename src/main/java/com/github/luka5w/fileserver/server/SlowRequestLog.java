@@ -0,0 +1,101 @@
+package com.github.luka5w.fileserver.server;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.AsyncAppender;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.RequestContext;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs requests which took longer than a threshold together with the timings of their stages (see {@link RequestContext}).
+ *
+ * <p>
+ *     Format: <code>[time] [method] [path] [endpoint] [status] total=[ms]ms [stage]=[ms]ms ...</code>
+ *     <br>
+ *     The query of the request is not logged, since it may contain credentials or file contents.
+ *     Streaming requests (see {@link RequestContext#isStreaming()}) are not logged, since their duration is the time the client is connected.
+ *     <br>
+ *     The file is written by an {@link AsyncAppender}, so the threads handling the requests don't wait for the file.
+ *     When its buffer is full, requests are dropped.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class SlowRequestLog {
+
+    private static final Log LOGGER = Main.getLogger("SlowRequests");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+    private static final int BUFFER_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+    private final long threshold;
+    private final Writer writer;
+    private final AsyncAppender<String> appender;
+
+    /**
+     * Creates a new slow request log.
+     *
+     * @param threshold The minimal duration of a logged request in milliseconds.
+     * @param file The file the requests are appended to or an empty string to log them with the program logger.
+     *
+     * @throws IOException When the file can't be opened.
+     *
+     * @since 1.0.0
+     */
+    public SlowRequestLog(int threshold, String file) throws IOException {
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+        this.writer = (file == null || file.isEmpty() ? null : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)));
+        this.appender = (this.writer == null ? null : new AsyncAppender<>("Slow-Request-Log", BUFFER_SIZE, IDLE_PARK_NANOS, new AsyncAppender.Sink<String>() {
+            @Override
+            public void write(String line) {
+                try {
+                    SlowRequestLog.this.writer.write(line);
+                }
+                catch (IOException e) {
+                    LOGGER.exception("Can't write slow request log: ", e);
+                }
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    SlowRequestLog.this.writer.flush();
+                }
+                catch (IOException e) {
+                    LOGGER.exception("Can't write slow request log: ", e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Logs a request when it exceeded the threshold.
+     *
+     * @param method The request method.
+     * @param path The request path.
+     * @param endpoint The endpoint.
+     * @param status The HTTP status code.
+     * @param context The timings of the request.
+     *
+     * @since 1.0.0
+     */
+    public void log(String method, String path, String endpoint, int status, RequestContext context) {
+        if (context.isStreaming() || context.getElapsed() < this.threshold) return;
+        String line = method + " " + path + " " + endpoint + " " + status + " " + context.toLogString();
+        if (this.appender == null) {
+            LOGGER.warn("Slow request: " + line);
+            return;
+        }
+        this.appender.append(LocalDateTime.now().format(TIME_FORMAT) + " " + line + "\n");
+    }
+}
@@ -0,0 +1,433 @@
+package com.github.luka5w.fileserver.server;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TLS configuration of the server: the context created from the keystore and the parameters of the connections.
+ *
+ * <p>
+ *     The parameters are computed once, the configurator applies them to each connection without creating an engine to look up the defaults.
+ *     TLS 1.3 (one round trip) is preferred over TLS 1.2 and the server selects the cipher suite in its own order,
+ *     which prefers the AEAD ciphers (AES-GCM and ChaCha20-Poly1305) unless the suites are configured explicitly.
+ * </p>
+ * <p>
+ *     Reconnecting clients resume their session instead of running a full handshake (which needs the expensive signature of the server):
+ *     with session tickets, the state of the session is encrypted and stored by the client (TLS 1.3 and TLS 1.2 clients supporting RFC 5077),
+ *     otherwise it is kept in the session cache of the server, whose size and lifetime are configurable.
+ *     The engines of the connections report the full, resumed and failed handshakes (see {@link TlsEngine}).
+ * </p>
+ * <p>
+ *     The keystore can be watched (see {@link #watchKeystore()}): when it changes, a new context is created in the background
+ *     and replaces the context of the JDK behind the context of the configurator, which is used for the new connections.
+ *     The connections established before continue with the previous certificate, their sessions can't be resumed with the new context.
+ *     When the keystore can't be loaded (e.g. it is written partially), the previous context is kept.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class TlsConfig {
+
+    private static final Log LOGGER = Main.getLogger("TLS");
+    private static final String[] DEFAULT_PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final long RELOAD_DELAY = 1000;
+
+    private final Path keystorePath;
+    private final char[] keystorePassword;
+    private final int sessionCacheSize;
+    private final int sessionTimeout;
+    private final Spi spi;
+    private final SSLContext context;
+    private final SSLParameters parameters;
+    private final Counter fullHandshakes;
+    private final Counter resumedHandshakes;
+    private final Counter failedHandshakes;
+    private final Counter reloads;
+    private final Counter failedReloads;
+    private Thread watcher;
+
+    /**
+     * Creates a new configuration with the default protocols, cipher suites and session cache of the JDK.
+     *
+     * @param keystorePath The path to the keystore (JKS).
+     * @param keystorePassword The password of the keystore.
+     *
+     * @throws IOException When the keystore could not be read.
+     * @throws GeneralSecurityException When something went wrong with the certificate.
+     *
+     * @since 1.0.0
+     */
+    public TlsConfig(String keystorePath, String keystorePassword) throws IOException, GeneralSecurityException {
+        this(keystorePath, keystorePassword, DEFAULT_PROTOCOLS, null, 20480, 86400, true);
+    }
+
+    /**
+     * Creates a new configuration.
+     *
+     * @param keystorePath The path to the keystore (JKS).
+     * @param keystorePassword The password of the keystore.
+     * @param protocols The enabled protocols (the highest protocol supported by the client is used).
+     * @param cipherSuites The enabled cipher suites in the order of preference or null to prefer the AEAD suites of the defaults.
+     * @param sessionCacheSize The maximal amount of sessions in the session cache (0 for no limit).
+     * @param sessionTimeout The lifetime of a session in seconds (0 for no limit).
+     * @param sessionTickets Whether the sessions should be stored by the clients (session tickets) instead of the cache of the server,
+     *                       the system property <code>jdk.tls.server.enableSessionTicketExtension</code> takes precedence.
+     *
+     * @throws IOException When the keystore could not be read.
+     * @throws GeneralSecurityException When something went wrong with the certificate.
+     * @throws IllegalArgumentException When no configured protocol or cipher suite is supported or the session cache is negative.
+     *
+     * @since 1.0.0
+     */
+    public TlsConfig(String keystorePath, String keystorePassword, String[] protocols, String[] cipherSuites, int sessionCacheSize, int sessionTimeout, boolean sessionTickets) throws IOException, GeneralSecurityException {
+        if (sessionCacheSize < 0 || sessionTimeout < 0) throw new IllegalArgumentException("session-cache-size and session-timeout must not be negative");
+        // The property is read when the session context of an SSLContext is created.
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) System.setProperty("jdk.tls.server.enableSessionTicketExtension", Boolean.toString(sessionTickets));
+        this.keystorePath = Paths.get(keystorePath).toAbsolutePath();
+        this.keystorePassword = keystorePassword.toCharArray();
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+        SSLContext context = this.createContext();
+
+        SSLParameters supported = context.getSupportedSSLParameters();
+        this.parameters = context.getDefaultSSLParameters();
+        this.parameters.setProtocols(this.select("protocol", protocols, supported.getProtocols()));
+        this.parameters.setCipherSuites(cipherSuites == null ? this.preferAead(this.parameters.getCipherSuites()) : this.select("cipher suite", cipherSuites, supported.getCipherSuites()));
+        this.parameters.setUseCipherSuitesOrder(true);
+        this.parameters.setNeedClientAuth(false);
+        this.spi = new Spi(context, this);
+        this.context = new Context(this.spi, context);
+
+        Metrics metrics = Metrics.getInstance();
+        this.fullHandshakes = metrics.counter("fileserver_tls_handshakes_total", "The completed TLS handshakes.", "type", "full");
+        this.resumedHandshakes = metrics.counter("fileserver_tls_handshakes_total", "The completed TLS handshakes.", "type", "resumed");
+        this.failedHandshakes = metrics.counter("fileserver_tls_handshake_failures_total", "The failed TLS handshakes.");
+        this.reloads = metrics.counter("fileserver_tls_keystore_reloads_total", "The reloads of the keystore.", "result", "success");
+        this.failedReloads = metrics.counter("fileserver_tls_keystore_reloads_total", "The reloads of the keystore.", "result", "failure");
+        metrics.gauge("fileserver_tls_resumption_percent", "The percentage of the completed TLS handshakes which resumed a session.", () -> {
+            long resumed = this.resumedHandshakes.get();
+            long total = resumed + this.fullHandshakes.get();
+            return (total == 0 ? 0 : resumed * 100 / total);
+        });
+    }
+
+    /**
+     * Returns the configurator applying the parameters to the connections of an {@link com.sun.net.httpserver.HttpsServer}.
+     *
+     * @return The configurator.
+     *
+     * @since 1.0.0
+     */
+    public HttpsConfigurator getConfigurator() {
+        SSLParameters parameters = this.parameters;
+        return new HttpsConfigurator(this.context) {
+            @Override
+            public void configure(HttpsParameters params) {
+                // The parameters are copied by the engine.
+                params.setSSLParameters(parameters);
+            }
+        };
+    }
+
+    /**
+     * Starts a daemon thread watching the keystore, which is reloaded when it changes (see {@link TlsConfig}).
+     *
+     * <p>
+     *     The directory of the keystore is watched, so a keystore replaced by renaming (or by changing a symbolic link within the directory) is detected.
+     *     The keystore is reloaded when no change occurred for a second, since it may be written in several steps.
+     * </p>
+     *
+     * @throws IOException When the directory can't be watched.
+     * @throws IllegalStateException When the keystore is already watched.
+     *
+     * @since 1.0.0
+     */
+    public synchronized void watchKeystore() throws IOException {
+        if (this.watcher != null) throw new IllegalStateException("Keystore is already watched");
+        Path dir = this.keystorePath.getParent();
+        WatchService service = dir.getFileSystem().newWatchService();
+        try {
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException e) {
+            service.close();
+            throw e;
+        }
+        this.watcher = new Thread(() -> this.watch(service), "TLS-Keystore-Watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+        LOGGER.debug("Watching keystore " + this.keystorePath);
+    }
+
+    /**
+     * Returns the enabled protocols.
+     *
+     * @return The protocols.
+     *
+     * @since 1.0.0
+     */
+    public String[] getProtocols() {
+        return this.parameters.getProtocols();
+    }
+
+    /**
+     * Returns the enabled cipher suites.
+     *
+     * @return The cipher suites in the order of preference.
+     *
+     * @since 1.0.0
+     */
+    public String[] getCipherSuites() {
+        return this.parameters.getCipherSuites();
+    }
+
+    /**
+     * Creates and initializes a context of the JDK with the current keystore.
+     *
+     * @return The context.
+     *
+     * @throws IOException When the keystore could not be read.
+     * @throws GeneralSecurityException When something went wrong with the certificate.
+     */
+    private SSLContext createContext() throws IOException, GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        char[] pw = this.keystorePassword;
+
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(this.keystorePath)) {
+            ks.load(in, pw);
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, pw);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(ks);
+
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(this.sessionCacheSize);
+        sessions.setSessionTimeout(this.sessionTimeout);
+        return context;
+    }
+
+    /**
+     * Waits for changes of the keystore and reloads it, runs until the thread is interrupted.
+     *
+     * @param service The service watching the directory of the keystore.
+     */
+    private void watch(WatchService service) {
+        try (WatchService watcher = service) {
+            Object version = this.getKeystoreVersion();
+            while (true) {
+                WatchKey key = watcher.take();
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        LOGGER.warn("Directory of the keystore is no longer accessible, stopped watching the keystore.");
+                        return;
+                    }
+                    key = watcher.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                Object current = this.getKeystoreVersion();
+                // Other files in the directory may have changed or the keystore may be replaced right now.
+                if (current == null || current.equals(version)) continue;
+                version = current;
+                this.reload();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Failed to watch keystore: ", e);
+        }
+    }
+
+    /**
+     * Returns a value which changes when the keystore is modified or replaced.
+     *
+     * @return The value or null when the keystore doesn't exist.
+     */
+    private Object getKeystoreVersion() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(this.keystorePath, BasicFileAttributes.class);
+            return Arrays.asList(this.keystorePath.toRealPath(), attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a new context with the keystore and uses it for new connections, the current context is kept when the keystore is invalid.
+     */
+    private void reload() {
+        SSLContext context;
+        try {
+            context = this.createContext();
+        }
+        catch (IOException | GeneralSecurityException e) {
+            this.failedReloads.increment();
+            LOGGER.exception("Failed to reload keystore, keeping the previous certificate: ", e);
+            return;
+        }
+        this.spi.context = context;
+        this.reloads.increment();
+        LOGGER.log("Reloaded keystore " + this.keystorePath);
+    }
+
+    /**
+     * Counts a completed handshake.
+     *
+     * @param resumed Whether a session was resumed.
+     */
+    void handshakeFinished(boolean resumed) {
+        (resumed ? this.resumedHandshakes : this.fullHandshakes).increment();
+    }
+
+    /**
+     * Counts a failed handshake.
+     */
+    void handshakeFailed() {
+        this.failedHandshakes.increment();
+    }
+
+    /**
+     * Returns the configured values supported by the JDK, the others are ignored.
+     *
+     * @param name The name of the values (for the messages).
+     * @param values The configured values.
+     * @param supported The supported values.
+     * @return The supported configured values.
+     *
+     * @throws IllegalArgumentException When no configured value is supported.
+     */
+    private String[] select(String name, String[] values, String[] supported) {
+        List<String> available = Arrays.asList(supported);
+        List<String> selected = new ArrayList<>(values.length);
+        for (String value : values) {
+            if (available.contains(value)) selected.add(value);
+            else LOGGER.warn("Ignoring unsupported " + name + ": " + value);
+        }
+        if (selected.isEmpty()) throw new IllegalArgumentException("No supported " + name + " configured");
+        return selected.toArray(new String[0]);
+    }
+
+    /**
+     * Moves the AEAD cipher suites (AES-GCM and ChaCha20-Poly1305) in front of the other suites, otherwise the order is kept.
+     *
+     * @param cipherSuites The default cipher suites.
+     * @return The ordered cipher suites.
+     */
+    private String[] preferAead(String[] cipherSuites) {
+        List<String> aead = new ArrayList<>(cipherSuites.length);
+        List<String> others = new ArrayList<>();
+        for (String suite : cipherSuites) {
+            if (suite.contains("_GCM_") || suite.contains("_CHACHA20_")) aead.add(suite);
+            else others.add(suite);
+        }
+        aead.addAll(others);
+        return aead.toArray(new String[0]);
+    }
+
+    /**
+     * A context delegating to the (replaceable) context of the JDK, which wraps the engines to report the handshakes.
+     */
+    private static final class Context extends SSLContext {
+
+        /**
+         * Creates a new context.
+         *
+         * @param spi The implementation.
+         * @param context The initialized context of the JDK.
+         */
+        private Context(Spi spi, SSLContext context) {
+            super(spi, context.getProvider(), context.getProtocol());
+        }
+    }
+
+    /**
+     * The implementation of the {@link Context}.
+     */
+    private static final class Spi extends SSLContextSpi {
+
+        private final TlsConfig config;
+        private volatile SSLContext context;
+
+        /**
+         * Creates a new implementation.
+         *
+         * @param context The initialized context of the JDK.
+         * @param config The configuration the handshakes are reported to.
+         */
+        private Spi(SSLContext context, TlsConfig config) {
+            this.context = context;
+            this.config = config;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            throw new KeyManagementException("Context is already initialized");
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return this.context.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return this.context.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return new TlsEngine(this.context.createSSLEngine(), this.config);
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            return new TlsEngine(this.context.createSSLEngine(host, port), this.config);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return this.context.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return this.context.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return this.context.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return this.context.getSupportedSSLParameters();
+        }
+    }
+}
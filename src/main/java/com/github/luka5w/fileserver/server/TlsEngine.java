@@ -0,0 +1,234 @@
+package com.github.luka5w.fileserver.server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * An {@link SSLEngine} delegating to the engine of the JDK, which reports the completed and failed handshakes to the {@link TlsConfig}.
+ *
+ * <p>
+ *     A resumed session keeps the creation time of the session established with the full handshake,
+ *     so a session created before the engine was created was resumed.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class TlsEngine extends SSLEngine {
+
+    private final SSLEngine engine;
+    private final TlsConfig config;
+    private final long created = System.currentTimeMillis();
+    private boolean handshaking = true;
+    private BiFunction<SSLEngine, List<String>, String> selector;
+
+    /**
+     * Creates a new engine.
+     *
+     * @param engine The engine of the JDK.
+     * @param config The configuration the handshakes are reported to.
+     */
+    TlsEngine(SSLEngine engine, TlsConfig config) {
+        super(engine.getPeerHost(), engine.getPeerPort());
+        this.engine = engine;
+        this.config = config;
+    }
+
+    @Override
+    public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+        try {
+            return this.observe(this.engine.wrap(srcs, offset, length, dst));
+        }
+        catch (SSLException e) {
+            this.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+        try {
+            return this.observe(this.engine.unwrap(src, dsts, offset, length));
+        }
+        catch (SSLException e) {
+            this.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports a completed handshake.
+     *
+     * @param result The result of the operation.
+     * @return The result.
+     */
+    private SSLEngineResult observe(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED && this.handshaking) {
+            this.handshaking = false;
+            this.config.handshakeFinished(this.engine.getSession().getCreationTime() < this.created);
+        }
+        return result;
+    }
+
+    /**
+     * Reports a failed handshake (an exception while the handshake is not finished).
+     */
+    private void failed() {
+        if (!this.handshaking) return;
+        this.handshaking = false;
+        this.config.handshakeFailed();
+    }
+
+    @Override
+    public Runnable getDelegatedTask() {
+        return this.engine.getDelegatedTask();
+    }
+
+    @Override
+    public void closeInbound() throws SSLException {
+        this.engine.closeInbound();
+    }
+
+    @Override
+    public boolean isInboundDone() {
+        return this.engine.isInboundDone();
+    }
+
+    @Override
+    public void closeOutbound() {
+        this.engine.closeOutbound();
+    }
+
+    @Override
+    public boolean isOutboundDone() {
+        return this.engine.isOutboundDone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return this.engine.getSupportedCipherSuites();
+    }
+
+    @Override
+    public String[] getEnabledCipherSuites() {
+        return this.engine.getEnabledCipherSuites();
+    }
+
+    @Override
+    public void setEnabledCipherSuites(String[] suites) {
+        this.engine.setEnabledCipherSuites(suites);
+    }
+
+    @Override
+    public String[] getSupportedProtocols() {
+        return this.engine.getSupportedProtocols();
+    }
+
+    @Override
+    public String[] getEnabledProtocols() {
+        return this.engine.getEnabledProtocols();
+    }
+
+    @Override
+    public void setEnabledProtocols(String[] protocols) {
+        this.engine.setEnabledProtocols(protocols);
+    }
+
+    @Override
+    public SSLSession getSession() {
+        return this.engine.getSession();
+    }
+
+    @Override
+    public SSLSession getHandshakeSession() {
+        return this.engine.getHandshakeSession();
+    }
+
+    @Override
+    public void beginHandshake() throws SSLException {
+        this.engine.beginHandshake();
+    }
+
+    @Override
+    public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        return this.engine.getHandshakeStatus();
+    }
+
+    @Override
+    public void setUseClientMode(boolean mode) {
+        this.engine.setUseClientMode(mode);
+    }
+
+    @Override
+    public boolean getUseClientMode() {
+        return this.engine.getUseClientMode();
+    }
+
+    @Override
+    public void setNeedClientAuth(boolean need) {
+        this.engine.setNeedClientAuth(need);
+    }
+
+    @Override
+    public boolean getNeedClientAuth() {
+        return this.engine.getNeedClientAuth();
+    }
+
+    @Override
+    public void setWantClientAuth(boolean want) {
+        this.engine.setWantClientAuth(want);
+    }
+
+    @Override
+    public boolean getWantClientAuth() {
+        return this.engine.getWantClientAuth();
+    }
+
+    @Override
+    public void setEnableSessionCreation(boolean flag) {
+        this.engine.setEnableSessionCreation(flag);
+    }
+
+    @Override
+    public boolean getEnableSessionCreation() {
+        return this.engine.getEnableSessionCreation();
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        return this.engine.getSSLParameters();
+    }
+
+    @Override
+    public void setSSLParameters(SSLParameters params) {
+        this.engine.setSSLParameters(params);
+    }
+
+    @Override
+    public String getApplicationProtocol() {
+        return this.engine.getApplicationProtocol();
+    }
+
+    @Override
+    public String getHandshakeApplicationProtocol() {
+        return this.engine.getHandshakeApplicationProtocol();
+    }
+
+    @Override
+    public void setHandshakeApplicationProtocolSelector(BiFunction<SSLEngine, List<String>, String> selector) {
+        // The selector receives this engine instead of the engine of the JDK.
+        this.selector = selector;
+        this.engine.setHandshakeApplicationProtocolSelector(selector == null ? null : (engine, protocols) -> selector.apply(this, protocols));
+    }
+
+    @Override
+    public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+        return this.selector;
+    }
+}
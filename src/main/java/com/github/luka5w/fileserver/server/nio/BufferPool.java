@@ -0,0 +1,82 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of the same size used for reading requests and writing responses.
+ *
+ * <p>
+ *     Direct buffers are expensive to allocate (and are freed by the garbage collector only), so released buffers are kept for reuse.
+ *     The pool keeps a limited amount of buffers, further released buffers are dropped.
+ *     <br>
+ *     Connections hold a buffer only while they receive or send data, so idle connections don't occupy memory.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Creates a new (empty) pool.
+     *
+     * @param bufferSize The size of the buffers in bytes.
+     * @param maxPooled The maximal amount of buffers kept for reuse.
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns the size of the buffers.
+     *
+     * @return The size in bytes.
+     */
+    int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Returns the amount of buffers kept for reuse.
+     *
+     * @return The amount of buffers.
+     */
+    int getPooled() {
+        return this.pooled.get();
+    }
+
+    /**
+     * Takes a buffer from the pool or allocates a new buffer when the pool is empty.
+     *
+     * @return The cleared buffer.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = this.buffers.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(this.bufferSize);
+        this.pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, the buffer must not be used afterwards.
+     *
+     * @param buffer The buffer (buffers which were not acquired from a pool are ignored).
+     */
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != this.bufferSize) return;
+        if (this.pooled.incrementAndGet() > this.maxPooled) {
+            this.pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        this.buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,751 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.HttpContext;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A connection of a {@link NioHttpServer}, which is read and written by its {@link EventLoop}.
+ *
+ * <p>
+ *     With HTTP/1.x, requests are handled one after another: while a request is handled, the connection is not read, so pipelined requests
+ *     wait in the buffer (or in the socket) and the responses are sent in the order of the requests.
+ *     With HTTP/2 (see {@link Http2Session}), the connection is read while not too much data is pending and the requests of its streams are handled concurrently
+ *     (frames answered by the server, e.g. <code>PING</code>, can't make it buffer replies for a client which does not read them).
+ *     HTTP/2 is used when it was negotiated with ALPN or, without TLS, when the client starts with the preface of HTTP/2 (prior knowledge).
+ *     An idle connection holds no buffer.
+ *     <br>
+ *     Responses are written by the threads handling the requests, directly to the socket when no data is pending.
+ *     Data which can't be written immediately is queued and written by the event loop when the socket is writable,
+ *     writing threads wait while too much data is queued (so a slow client can't make the server buffer a large response).
+ * </p>
+ * <p>
+ *     With TLS, the received records are decrypted by the event loop and the data is encrypted by the writing thread while it holds the lock
+ *     of the queue, so the records are sent in order. The tasks of the handshake are short and run on the event loop.
+ * </p>
+ * <p>
+ *     All methods except {@link #queue(ByteBuffer)}, {@link #awaitWritable()}, {@link #write(ByteBuffer)}, {@link #complete(boolean)},
+ *     {@link #closeGracefully()} and {@link #close()} must be called by the event loop.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Connection {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int MAX_PENDING_BUFFERS = 16;
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final NioHttpServer server;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private final SSLEngine engine;
+    private final RequestParser parser;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private SelectionKey key;
+    private ByteBuffer netIn;
+    private ByteBuffer in;
+    private boolean fresh = true;
+    private Http2Session http2;
+    private NioHttpExchange exchange;
+    private long lastActivity = System.nanoTime();
+    private long requestStart = 0;
+    private boolean closeAfterWrite = false;
+    private boolean released = false;
+    // guarded by pending
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private long lastWrite;
+    private boolean closed = false;
+
+    /**
+     * Creates a new connection.
+     *
+     * @param server The server.
+     * @param loop The event loop of the connection.
+     * @param channel The accepted (non-blocking) channel.
+     *
+     * @throws IOException When the addresses of the channel can't be obtained.
+     */
+    Connection(NioHttpServer server, EventLoop loop, SocketChannel channel) throws IOException {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+        this.engine = server.createEngine(this.remoteAddress);
+        this.parser = new RequestParser(server.getConfig().getMaxHeaderSize(), server.getConfig().getMaxBodySize());
+    }
+
+    /**
+     * Registers the connection at the selector of its event loop.
+     *
+     * @param selector The selector.
+     *
+     * @throws IOException When the channel is closed.
+     */
+    void register(Selector selector) throws IOException {
+        this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Returns the server of the connection.
+     *
+     * @return The server.
+     */
+    NioHttpServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * Returns the pool of the buffers of the server.
+     *
+     * @return The pool.
+     */
+    BufferPool getPool() {
+        return this.server.getPool();
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return The address.
+     */
+    InetSocketAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    /**
+     * Returns the address the connection was accepted on.
+     *
+     * @return The address.
+     */
+    InetSocketAddress getLocalAddress() {
+        return this.localAddress;
+    }
+
+    /**
+     * Returns whether the current thread is the event loop of the connection.
+     *
+     * @return true when called by the event loop.
+     */
+    boolean inLoop() {
+        return this.loop.inLoop();
+    }
+
+    /**
+     * Reads the available bytes and handles the complete requests.
+     *
+     * @throws IOException When the connection is broken.
+     */
+    void onReadable() throws IOException {
+        int read;
+        if (this.engine == null) {
+            if (this.in == null) this.in = this.getPool().acquire();
+            read = this.channel.read(this.in);
+        }
+        else {
+            if (this.netIn == null) this.netIn = this.getPool().acquire();
+            read = this.channel.read(this.netIn);
+        }
+        if (read < 0) {
+            this.close();
+            return;
+        }
+        this.lastActivity = System.nanoTime();
+        this.processInput();
+    }
+
+    /**
+     * Writes the pending data when the socket is writable.
+     *
+     * @throws IOException When the connection is broken.
+     */
+    void onWritable() throws IOException {
+        boolean drained;
+        synchronized (this.pending) {
+            this.writePending();
+            drained = this.pending.isEmpty();
+            // Wakes the threads waiting for space (or for the connection to be closed).
+            this.pending.notifyAll();
+        }
+        if (drained && this.closeAfterWrite) this.close();
+        else this.updateInterest();
+    }
+
+    /**
+     * Writes data of the response, the buffer is released to the pool when it has been written.
+     * <p>
+     *     This method may be called by any thread, threads other than the event loop wait while too much data is pending.
+     * </p>
+     *
+     * @param buffer The data (in read mode).
+     *
+     * @throws IOException When the connection is closed or the client does not receive the data in time.
+     */
+    void write(ByteBuffer buffer) throws IOException {
+        this.queue(buffer);
+        this.awaitWritable();
+    }
+
+    /**
+     * Writes data without waiting, the buffer is released to the pool when it has been written.
+     * <p>
+     *     This method may be called by any thread. The data of concurrent calls is sent in the order of the calls.
+     * </p>
+     *
+     * @param buffer The data (in read mode).
+     *
+     * @throws IOException When the connection is closed.
+     */
+    void queue(ByteBuffer buffer) throws IOException {
+        boolean schedule = false;
+        synchronized (this.pending) {
+            if (this.closed) {
+                this.getPool().release(buffer);
+                throw new IOException("Connection closed");
+            }
+            try {
+                if (this.engine == null) {
+                    schedule = this.send(buffer);
+                }
+                else {
+                    for (ByteBuffer record : this.encrypt(buffer)) schedule |= this.send(record);
+                }
+            }
+            catch (IOException e) {
+                this.close();
+                throw e;
+            }
+        }
+        if (schedule) {
+            if (this.loop.inLoop()) this.updateInterest();
+            else this.loop.execute(this::updateInterest);
+        }
+    }
+
+    /**
+     * Waits while too much data is pending (does not wait when called by the event loop).
+     *
+     * @throws IOException When the connection is closed or the client does not receive the data in time.
+     */
+    void awaitWritable() throws IOException {
+        if (this.loop.inLoop()) return;
+        synchronized (this.pending) {
+            long timeout = this.server.getConfig().getRequestTimeout();
+            long deadline = System.nanoTime() + timeout;
+            while (this.pending.size() > MAX_PENDING_BUFFERS && !this.closed) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) {
+                    this.server.countTimeout("write");
+                    this.close();
+                    break;
+                }
+                try {
+                    this.pending.wait(wait / 1000000 + 1);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the client");
+                }
+            }
+            if (this.closed) throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Returns whether data is waiting for the socket to become writable.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     *
+     * @return true when data is pending.
+     */
+    boolean hasPending() {
+        synchronized (this.pending) {
+            return !this.pending.isEmpty();
+        }
+    }
+
+    /**
+     * Passes the connection on to the next request (or closes it) after a response is complete.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     *
+     * @param keepAlive Whether the connection is kept open.
+     */
+    void complete(boolean keepAlive) {
+        this.loop.execute(() -> {
+            if (this.released) return;
+            this.exchange = null;
+            this.lastActivity = System.nanoTime();
+            if (keepAlive) this.processInput();
+            else this.closeAfterWrite();
+        });
+    }
+
+    /**
+     * Closes the connection when the pending data has been written.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     */
+    void closeGracefully() {
+        this.loop.execute(() -> {
+            if (!this.released) this.closeAfterWrite();
+        });
+    }
+
+    /**
+     * Closes the connection, pending data is discarded.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     */
+    void close() {
+        synchronized (this.pending) {
+            if (this.closed) return;
+            this.closed = true;
+            for (ByteBuffer buffer : this.pending) this.getPool().release(buffer);
+            this.pending.clear();
+            this.pending.notifyAll();
+        }
+        if (this.loop.inLoop()) this.release();
+        else this.loop.execute(this::release);
+    }
+
+    /**
+     * Closes the connection when the timeout of its current state has expired.
+     *
+     * @param now The current time ({@link System#nanoTime()}).
+     */
+    void checkTimeout(long now) {
+        NioConfig config = this.server.getConfig();
+        synchronized (this.pending) {
+            if (!this.pending.isEmpty() && now - this.lastWrite > config.getRequestTimeout()) {
+                this.server.countTimeout("write");
+                this.close();
+                return;
+            }
+        }
+        if (this.closeAfterWrite) return;
+        if (this.http2 != null) {
+            // The streams being handled have no timeout, like the requests of HTTP/1.x.
+            if (this.http2.isIdle()) {
+                if (now - Math.max(this.lastActivity, this.http2.getIdleSince()) > config.getIdleTimeout()) {
+                    this.server.countTimeout("idle");
+                    this.http2.goAway(Http2Exception.NO_ERROR);
+                    this.closeAfterWrite();
+                }
+            }
+            else if (this.http2.isReceiving() && now - this.lastActivity > config.getRequestTimeout()) {
+                this.server.countTimeout("request");
+                this.close();
+            }
+            return;
+        }
+        // A request being handled (e.g. an event stream) has no timeout.
+        if (this.exchange != null) return;
+        if (this.requestStart != 0) {
+            if (now - this.requestStart > config.getRequestTimeout()) {
+                this.server.countTimeout("request");
+                this.sendError(408);
+            }
+        }
+        else if (now - this.lastActivity > config.getIdleTimeout()) {
+            this.server.countTimeout("idle");
+            this.close();
+        }
+    }
+
+    /**
+     * Closes the channel and releases the resources of the connection (called by the event loop, once).
+     */
+    void release() {
+        if (this.released) return;
+        this.released = true;
+        synchronized (this.pending) {
+            this.closed = true;
+            for (ByteBuffer buffer : this.pending) this.getPool().release(buffer);
+            this.pending.clear();
+            this.pending.notifyAll();
+        }
+        if (this.key != null) this.key.cancel();
+        try {
+            this.channel.close();
+        }
+        catch (IOException ignored) {
+            // The connection is gone anyway.
+        }
+        if (this.netIn != null) {
+            this.getPool().release(this.netIn);
+            this.netIn = null;
+        }
+        if (this.in != null) {
+            this.getPool().release(this.in);
+            this.in = null;
+        }
+        if (this.exchange != null) this.exchange.abort();
+        if (this.http2 != null) this.http2.release();
+        this.loop.remove(this);
+        this.server.connectionClosed();
+    }
+
+    /**
+     * Closes the connection when the pending data has been written (after the close_notify alert with TLS).
+     */
+    void closeAfterWrite() {
+        this.closeAfterWrite = true;
+        if (this.engine != null && !this.engine.isOutboundDone()) {
+            this.engine.closeOutbound();
+            try {
+                this.queue(EMPTY);
+            }
+            catch (IOException ignored) {
+                // The connection is closed.
+            }
+            if (this.released) return;
+        }
+        boolean drained;
+        synchronized (this.pending) {
+            drained = this.pending.isEmpty();
+        }
+        if (drained) this.close();
+        else this.updateInterest();
+    }
+
+    /**
+     * Decrypts the received records (with TLS) and handles the received data with the protocol of the connection.
+     */
+    private void processInput() {
+        boolean overflow;
+        int buffered;
+        do {
+            overflow = (this.engine != null && this.unwrap());
+            if (this.released) return;
+            buffered = (this.in == null ? 0 : this.in.position());
+            if (this.fresh && buffered > 0 && !this.selectProtocol()) {
+                if (this.requestStart == 0) this.requestStart = System.nanoTime();
+                this.updateInterest();
+                return;
+            }
+            if (this.http2 != null) this.processFrames();
+            else this.processRequests();
+            if (this.released) return;
+        }
+        // The records left over are decrypted when the data was consumed.
+        while (overflow && (this.in == null || this.in.position() < buffered));
+    }
+
+    /**
+     * Selects the protocol of the connection when the first data is received.
+     *
+     * @return false when more data is needed to tell the protocol.
+     */
+    private boolean selectProtocol() {
+        boolean http2;
+        if (this.engine != null) {
+            http2 = "h2".equals(this.engine.getApplicationProtocol());
+        }
+        else if (this.server.getConfig().isHttp2()) {
+            int length = Math.min(this.in.position(), Http2Session.PREFACE.length);
+            http2 = true;
+            for (int i = 0; i < length && http2; i++) http2 = (this.in.get(i) == Http2Session.PREFACE[i]);
+            if (http2 && length < Http2Session.PREFACE.length) return false;
+        }
+        else {
+            http2 = false;
+        }
+        this.fresh = false;
+        if (http2) {
+            this.requestStart = 0;
+            this.http2 = new Http2Session(this);
+            this.http2.start();
+        }
+        return true;
+    }
+
+    /**
+     * Handles the received frames of an HTTP/2 connection.
+     */
+    private void processFrames() {
+        if (this.in != null) {
+            this.in.flip();
+            this.http2.process(this.in);
+            if (this.released) return;
+            this.in.compact();
+            if (this.in.position() == 0) {
+                this.getPool().release(this.in);
+                this.in = null;
+            }
+        }
+        if (this.http2.isClosing()) this.closeAfterWrite();
+        else this.updateInterest();
+    }
+
+    /**
+     * Parses the received bytes and dispatches the next complete request (when no request is being handled).
+     */
+    private void processRequests() {
+        while (this.exchange == null && !this.closeAfterWrite && this.in != null && this.in.position() > 0) {
+            boolean complete;
+            this.in.flip();
+            try {
+                complete = this.parser.parse(this.in);
+            }
+            catch (RequestParser.BadRequestException e) {
+                this.in.clear();
+                this.sendError(e.getStatus());
+                return;
+            }
+            this.in.compact();
+            if (!complete) {
+                if (this.parser.takeExpectContinue()) this.writeInterim();
+                break;
+            }
+            this.dispatch();
+        }
+        if (this.in != null && this.in.position() == 0) {
+            this.getPool().release(this.in);
+            this.in = null;
+        }
+        if (this.exchange == null && (this.in != null || this.netIn != null || this.parser.isStarted())) {
+            // With TLS, an incomplete handshake counts as an incomplete request.
+            if (this.requestStart == 0) this.requestStart = System.nanoTime();
+        }
+        else {
+            this.requestStart = 0;
+        }
+        this.updateInterest();
+    }
+
+    /**
+     * Creates the exchange of the parsed request and passes it to the handler of its context.
+     */
+    private void dispatch() {
+        String path = this.parser.getUri().getPath();
+        HttpContext context = (path == null ? null : this.server.findContext(path));
+        this.exchange = new NioHttpExchange(this, context, this.parser.getMethod(), this.parser.getUri(), this.parser.getProtocol(), this.parser.getHeaders(), this.parser.getBody());
+        this.parser.reset();
+        this.server.dispatch(this.exchange);
+    }
+
+    /**
+     * Sends the interim response which requests the body from a client sending <code>Expect: 100-continue</code>.
+     */
+    private void writeInterim() {
+        try {
+            this.write(ByteBuffer.wrap(CONTINUE));
+        }
+        catch (IOException ignored) {
+            // The connection is closed.
+        }
+    }
+
+    /**
+     * Answers an invalid request (or a timeout) with an error status and closes the connection afterwards.
+     *
+     * @param status The HTTP status code.
+     */
+    private void sendError(int status) {
+        this.parser.reset();
+        this.requestStart = 0;
+        byte[] response = (NioHttpExchange.statusLine(status) + "Content-Length: 0\r\nConnection: close\r\nDate: " + this.server.getDate() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        try {
+            this.write(ByteBuffer.wrap(response));
+        }
+        catch (IOException ignored) {
+            // The connection is closed.
+        }
+        if (!this.released) this.closeAfterWrite();
+    }
+
+    /**
+     * Decrypts the received records into the input buffer and continues the handshake.
+     *
+     * @return true when the input buffer is full and records are left over.
+     */
+    private boolean unwrap() {
+        if (this.netIn == null) return false;
+        if (this.in == null) this.in = this.getPool().acquire();
+        boolean overflow = false;
+        this.netIn.flip();
+        try {
+            while (this.netIn.hasRemaining()) {
+                SSLEngineResult result = this.engine.unwrap(this.netIn, this.in);
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    overflow = true;
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) break;
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    // The client sent close_notify.
+                    this.close();
+                    return false;
+                }
+                this.handshake(result.getHandshakeStatus());
+                if (this.released) return false;
+                if (result.bytesConsumed() == 0 && this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) break;
+            }
+        }
+        catch (IOException e) {
+            // E.g. a failed handshake, the client is informed by the alert sent by the engine (if any).
+            this.close();
+            return false;
+        }
+        this.netIn.compact();
+        if (this.netIn.position() == 0) {
+            this.getPool().release(this.netIn);
+            this.netIn = null;
+        }
+        return overflow;
+    }
+
+    /**
+     * Runs the tasks and sends the messages of the handshake until the engine waits for data of the client.
+     *
+     * @param status The status of the handshake.
+     *
+     * @throws IOException When the connection is closed.
+     */
+    private void handshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+        while (true) {
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = this.engine.getDelegatedTask()) != null) task.run();
+            }
+            else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP && !this.engine.isOutboundDone()) {
+                this.queue(EMPTY);
+            }
+            else {
+                return;
+            }
+            status = this.engine.getHandshakeStatus();
+        }
+    }
+
+    /**
+     * Encrypts data into records (the caller must hold the lock of {@link #pending}), the data is released to the pool.
+     *
+     * @param plain The data (in read mode).
+     * @return The buffers of the records (in read mode).
+     *
+     * @throws SSLException When the data can't be encrypted.
+     */
+    private List<ByteBuffer> encrypt(ByteBuffer plain) throws SSLException {
+        List<ByteBuffer> records = new ArrayList<>(1);
+        ByteBuffer out = this.getPool().acquire();
+        try {
+            while (true) {
+                SSLEngineResult result = this.engine.wrap(plain, out);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    out.flip();
+                    records.add(out);
+                    out = this.getPool().acquire();
+                    continue;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = this.engine.getDelegatedTask()) != null) task.run();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) break;
+                if (!plain.hasRemaining() && this.engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) break;
+            }
+        }
+        finally {
+            this.getPool().release(plain);
+        }
+        out.flip();
+        if (out.hasRemaining()) records.add(out);
+        else this.getPool().release(out);
+        return records;
+    }
+
+    /**
+     * Writes data to the socket or queues it behind the pending data (the caller must hold the lock of {@link #pending}).
+     *
+     * @param buffer The data (in read mode), which is released to the pool when it has been written.
+     * @return true when the data was queued and the event loop must wait for the socket to become writable.
+     *
+     * @throws IOException When the connection is broken.
+     */
+    private boolean send(ByteBuffer buffer) throws IOException {
+        if (!this.pending.isEmpty()) {
+            this.pending.add(buffer);
+            return false;
+        }
+        try {
+            this.channel.write(buffer);
+        }
+        catch (IOException e) {
+            this.getPool().release(buffer);
+            throw e;
+        }
+        if (!buffer.hasRemaining()) {
+            this.getPool().release(buffer);
+            return false;
+        }
+        this.lastWrite = System.nanoTime();
+        this.pending.add(buffer);
+        return true;
+    }
+
+    /**
+     * Selects the events of the connection the event loop waits for:
+     * readable while no request is being handled (or with HTTP/2 while not too much data is pending) and buffer space is left,
+     * writable while data is pending.
+     */
+    private void updateInterest() {
+        if (this.released || !this.key.isValid()) return;
+        int pending;
+        synchronized (this.pending) {
+            pending = this.pending.size();
+        }
+        boolean readable = (this.http2 == null ? this.exchange == null : pending <= MAX_PENDING_BUFFERS);
+        int ops = (readable && !this.closeAfterWrite && (this.netIn == null || this.netIn.hasRemaining()) ? SelectionKey.OP_READ : 0);
+        if (pending > 0) ops |= SelectionKey.OP_WRITE;
+        if (this.key.interestOps() != ops) this.key.interestOps(ops);
+    }
+
+    /**
+     * Writes as much pending data as the socket accepts (the caller must hold the lock of {@link #pending}).
+     *
+     * @throws IOException When the connection is broken.
+     */
+    private void writePending() throws IOException {
+        if (this.pending.isEmpty()) return;
+        // Gathers the first buffers only, the socket doesn't accept much more at once anyway.
+        int count = 0;
+        for (ByteBuffer buffer : this.pending) {
+            this.gathered[count++] = buffer;
+            if (count == this.gathered.length) break;
+        }
+        long written;
+        try {
+            written = this.channel.write(this.gathered, 0, count);
+        }
+        finally {
+            Arrays.fill(this.gathered, 0, count, null);
+        }
+        if (written > 0) this.lastWrite = System.nanoTime();
+        while (!this.pending.isEmpty() && !this.pending.peek().hasRemaining()) this.getPool().release(this.pending.poll());
+    }
+}
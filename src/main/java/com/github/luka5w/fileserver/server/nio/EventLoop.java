@@ -0,0 +1,198 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A thread which reads and writes the connections registered at its selector.
+ *
+ * <p>
+ *     Other threads pass work to the loop as tasks (e.g. registering a connection or resuming a connection after a response),
+ *     the selector is woken up once for all tasks queued while the loop is busy.
+ *     Once per second, the timeouts of the connections are checked.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class EventLoop implements Runnable {
+
+    private static final Log LOGGER = Main.getLogger("NIO");
+    private static final long TICK = TimeUnit.SECONDS.toMillis(1);
+
+    private final NioHttpServer server;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeup = new AtomicBoolean(false);
+    private final Set<Connection> connections = new HashSet<>();
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new event loop.
+     *
+     * @param server The server.
+     * @param name The name of the thread.
+     *
+     * @throws IOException When the selector can't be opened.
+     */
+    EventLoop(NioHttpServer server, String name) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the thread of the loop.
+     */
+    void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Stops the loop and closes its connections.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting for the loop.
+     */
+    void shutdown() throws InterruptedException {
+        this.running = false;
+        this.selector.wakeup();
+        this.thread.join();
+    }
+
+    /**
+     * Returns whether the current thread is the thread of this loop.
+     *
+     * @return true when called by the loop.
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Queues a task which is run by the loop.
+     *
+     * @param task The task.
+     */
+    void execute(Runnable task) {
+        this.tasks.add(task);
+        if (!this.inLoop() && this.wakeup.compareAndSet(false, true)) this.selector.wakeup();
+    }
+
+    /**
+     * Registers an accepted connection.
+     *
+     * @param channel The (non-blocking) channel.
+     */
+    void register(SocketChannel channel) {
+        this.execute(() -> {
+            try {
+                Connection connection = new Connection(this.server, this, channel);
+                connection.register(this.selector);
+                this.connections.add(connection);
+            }
+            catch (IOException e) {
+                this.reject(channel);
+            }
+            catch (RuntimeException e) {
+                // E.g. invalid parameters of the HttpsConfigurator.
+                LOGGER.exception("Failed to create connection: ", e);
+                this.reject(channel);
+            }
+        });
+    }
+
+    /**
+     * Closes a channel which could not be registered.
+     *
+     * @param channel The channel.
+     */
+    private void reject(SocketChannel channel) {
+        this.server.connectionClosed();
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+            // The connection is gone anyway.
+        }
+    }
+
+    /**
+     * Removes a closed connection.
+     *
+     * @param connection The connection.
+     */
+    void remove(Connection connection) {
+        this.connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        long lastCheck = System.nanoTime();
+        while (this.running) {
+            try {
+                if (this.tasks.isEmpty()) this.selector.select(TICK);
+                else this.selector.selectNow();
+            }
+            catch (IOException e) {
+                LOGGER.exception("Failed to select: ", e);
+            }
+            this.wakeup.set(false);
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.exception("Failed to run task: ", e);
+                }
+            }
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) connection.onReadable();
+                    if (key.isValid() && key.isWritable()) connection.onWritable();
+                }
+                catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.exception("Failed to handle connection: ", e);
+                    connection.close();
+                }
+            }
+            long now = System.nanoTime();
+            if (now - lastCheck >= TimeUnit.MILLISECONDS.toNanos(TICK)) {
+                lastCheck = now;
+                for (Connection connection : new ArrayList<>(this.connections)) connection.checkTimeout(now);
+            }
+        }
+        // Registers the connections accepted meanwhile, so they are closed, too.
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) task.run();
+        for (Connection connection : new ArrayList<>(this.connections)) connection.release();
+        try {
+            this.selector.close();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Failed to close selector: ", e);
+        }
+    }
+}
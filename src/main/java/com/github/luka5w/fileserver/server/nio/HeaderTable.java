@@ -0,0 +1,166 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index of the header fields of HPACK (RFC 7541 2.3): the static table followed by the dynamic table of a connection.
+ *
+ * <p>
+ *     The encoder and the decoder of a connection each have their own dynamic table, which contains the most recently indexed fields
+ *     (the newest field has the lowest index) up to a maximal size (the sum of the lengths of the names and values plus 32 bytes per field).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class HeaderTable {
+
+    static final int DEFAULT_SIZE = 4096;
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final String[][] STATIC = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+            {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""}, {"content-location", ""}, {"content-range", ""},
+            {"content-type", ""}, {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""},
+            {"expires", ""}, {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""},
+            {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+            {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+            {"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC[i][0] + '\0' + STATIC[i][1], i + 1);
+        }
+    }
+
+    // The oldest field first.
+    private final List<String[]> entries = new ArrayList<>();
+    private int size = 0;
+    private int maxSize = DEFAULT_SIZE;
+
+    /**
+     * Returns the name of a field.
+     *
+     * @param index The index (starting at 1).
+     * @return The name.
+     *
+     * @throws Http2Exception When the index does not exist.
+     */
+    String getName(int index) throws Http2Exception {
+        return this.get(index)[0];
+    }
+
+    /**
+     * Returns the value of a field.
+     *
+     * @param index The index (starting at 1).
+     * @return The value.
+     *
+     * @throws Http2Exception When the index does not exist.
+     */
+    String getValue(int index) throws Http2Exception {
+        return this.get(index)[1];
+    }
+
+    /**
+     * Adds a field to the dynamic table, the oldest fields are evicted to keep the maximal size.
+     *
+     * @param name The name.
+     * @param value The value.
+     */
+    void add(String name, String value) {
+        int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+        if (entrySize > this.maxSize) {
+            // A field larger than the table empties the table (RFC 7541 4.4).
+            this.entries.clear();
+            this.size = 0;
+            return;
+        }
+        this.evict(this.maxSize - entrySize);
+        this.entries.add(new String[] {name, value});
+        this.size += entrySize;
+    }
+
+    /**
+     * Changes the maximal size of the dynamic table, the oldest fields are evicted when the table is too large.
+     *
+     * @param maxSize The size in bytes.
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        this.evict(maxSize);
+    }
+
+    /**
+     * Returns the maximal size of the dynamic table.
+     *
+     * @return The size in bytes.
+     */
+    int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Searches a field in the table.
+     *
+     * @param name The name.
+     * @param value The value.
+     * @return The index of the field, the negative index of a field with the same name (when no field matches exactly) or 0.
+     */
+    int find(String name, String value) {
+        Integer index = STATIC_FIELDS.get(name + '\0' + value);
+        if (index != null) return index;
+        int nameIndex = 0;
+        for (int i = this.entries.size() - 1; i >= 0; i--) {
+            String[] entry = this.entries.get(i);
+            if (!entry[0].equals(name)) continue;
+            int dynamicIndex = STATIC.length + this.entries.size() - i;
+            if (entry[1].equals(value)) return dynamicIndex;
+            if (nameIndex == 0) nameIndex = dynamicIndex;
+        }
+        index = STATIC_NAMES.get(name);
+        if (index != null) return -index;
+        return -nameIndex;
+    }
+
+    /**
+     * Returns a field.
+     *
+     * @param index The index (starting at 1).
+     * @return The name and the value.
+     *
+     * @throws Http2Exception When the index does not exist.
+     */
+    private String[] get(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC.length) return STATIC[index - 1];
+        int dynamicIndex = index - STATIC.length;
+        if (dynamicIndex < 1 || dynamicIndex > this.entries.size()) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid index " + index);
+        return this.entries.get(this.entries.size() - dynamicIndex);
+    }
+
+    /**
+     * Evicts the oldest fields until the dynamic table is not larger than a size.
+     *
+     * @param size The size in bytes.
+     */
+    private void evict(int size) {
+        int evicted = 0;
+        while (this.size > size && evicted < this.entries.size()) {
+            String[] entry = this.entries.get(evicted++);
+            this.size -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+        }
+        if (evicted > 0) this.entries.subList(0, evicted).clear();
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the header blocks of the requests received on a connection (RFC 7541).
+ * <p>
+ *     The decoder must see every header block of the connection in order, since the blocks update the dynamic table.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class HpackDecoder {
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private final HeaderTable table = new HeaderTable();
+
+    /**
+     * Decodes a header block.
+     * <p>
+     *     A block exceeding the maximal size is decoded completely anyway, so the dynamic table stays in sync with the encoder of the client.
+     * </p>
+     *
+     * @param block The header block (is consumed completely).
+     * @param maxListSize The maximal size of the header list (the lengths of the names and values plus 32 bytes per field, RFC 7540 6.5.2).
+     * @return The names and values of the fields in order or null when the header list exceeds the maximal size.
+     *
+     * @throws Http2Exception When the block is invalid (a connection error).
+     */
+    List<String[]> decode(ByteBuffer block, int maxListSize) throws Http2Exception {
+        List<String[]> fields = new ArrayList<>();
+        long listSize = 0;
+        boolean start = true;
+        while (block.hasRemaining()) {
+            int b = block.get(block.position()) & 0xFF;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) {
+                // Indexed header field (6.1).
+                int index = decodeInt(block, 7);
+                if (index == 0) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid index 0");
+                name = this.table.getName(index);
+                value = this.table.getValue(index);
+            }
+            else if ((b & 0xE0) == 0x20) {
+                // Dynamic table size update (6.3), only at the start of a block.
+                if (!start) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size update after a field");
+                int size = decodeInt(block, 5);
+                if (size > HeaderTable.DEFAULT_SIZE) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size exceeds the limit");
+                this.table.setMaxSize(size);
+                continue;
+            }
+            else {
+                // Literal header field with incremental indexing (6.2.1), without indexing (6.2.2) or never indexed (6.2.3).
+                boolean indexing = ((b & 0xC0) == 0x40);
+                int index = decodeInt(block, indexing ? 6 : 4);
+                name = (index == 0 ? decodeString(block) : this.table.getName(index));
+                value = decodeString(block);
+                if (indexing) this.table.add(name, value);
+            }
+            start = false;
+            listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+            if (listSize <= maxListSize) fields.add(new String[] {name, value});
+        }
+        return (listSize <= maxListSize ? fields : null);
+    }
+
+    /**
+     * Decodes an integer (RFC 7541 5.1).
+     *
+     * @param in The buffer.
+     * @param prefix The amount of bits of the first byte used for the integer.
+     * @return The integer.
+     *
+     * @throws Http2Exception When the integer is incomplete or too large.
+     */
+    static int decodeInt(ByteBuffer in, int prefix) throws Http2Exception {
+        int max = (1 << prefix) - 1;
+        int value = in.get() & max;
+        if (value < max) return value;
+        int shift = 0;
+        int b;
+        do {
+            if (!in.hasRemaining()) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Incomplete integer");
+            if (shift > 21) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer too large");
+            b = in.get() & 0xFF;
+            value += (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        if (value < 0) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer too large");
+        return value;
+    }
+
+    /**
+     * Decodes a string literal (RFC 7541 5.2).
+     *
+     * @param in The buffer.
+     * @return The string (the octets as ISO-8859-1 characters).
+     *
+     * @throws Http2Exception When the string is incomplete or its Huffman code is invalid.
+     */
+    private static String decodeString(ByteBuffer in) throws Http2Exception {
+        if (!in.hasRemaining()) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Missing string");
+        boolean huffman = ((in.get(in.position()) & 0x80) != 0);
+        int length = decodeInt(in, 7);
+        if (length > in.remaining()) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Incomplete string");
+        byte[] data;
+        if (huffman) {
+            data = Huffman.decode(in, length);
+        }
+        else {
+            data = new byte[length];
+            in.get(data);
+        }
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes the header blocks of the responses sent on a connection (RFC 7541).
+ *
+ * <p>
+ *     Fields found in the static or the dynamic table are sent as an index. Other fields are added to the dynamic table,
+ *     except for fields whose values change with every response (e.g. <code>date</code>) or are sensitive (e.g. <code>set-cookie</code>),
+ *     so repeated headers like <code>server</code> or <code>content-type</code> cost a single byte after the first response.
+ *     Strings are Huffman-encoded when this makes them shorter.
+ * </p>
+ * <p>
+ *     The blocks must be sent in the order they are encoded, since they update the dynamic table of the client.
+ *     The encoder is not thread-safe.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class HpackEncoder {
+
+    private static final Set<String> NOT_INDEXED = new HashSet<>(Arrays.asList("age", "content-length", "content-range", "date", "etag", "expires",
+            "last-modified", "location", "retry-after", "server-timing"));
+    private static final Set<String> NEVER_INDEXED = new HashSet<>(Arrays.asList("authorization", "proxy-authenticate", "set-cookie", "www-authenticate"));
+
+    private final HeaderTable table = new HeaderTable();
+    private int minTableSize = -1;
+    private int tableSize = -1;
+
+    /**
+     * Changes the maximal size of the dynamic table (when the client sends <code>SETTINGS_HEADER_TABLE_SIZE</code>),
+     * the change is signaled at the start of the next block.
+     *
+     * @param size The size allowed by the client in bytes (the encoder uses at most {@link HeaderTable#DEFAULT_SIZE}).
+     */
+    void setMaxTableSize(int size) {
+        size = Math.min(size, HeaderTable.DEFAULT_SIZE);
+        this.minTableSize = (this.minTableSize == -1 ? size : Math.min(this.minTableSize, size));
+        this.tableSize = size;
+    }
+
+    /**
+     * Returns the maximal length of the block of a header list.
+     *
+     * @param fields The names (lower case) and values of the fields.
+     * @return The length in bytes.
+     */
+    static int maxEncodedLength(List<String[]> fields) {
+        // Two table size updates and per field the type, the name and the value with their lengths (at most 5 bytes each).
+        int length = 12;
+        for (String[] field : fields) length += 15 + field[0].length() + field[1].length();
+        return length;
+    }
+
+    /**
+     * Encodes a header list.
+     *
+     * @param fields The names (lower case) and values of the fields.
+     * @param out The buffer to write the block to (with at least {@link #maxEncodedLength(List)} bytes remaining).
+     */
+    void encode(List<String[]> fields, ByteBuffer out) {
+        if (this.tableSize != -1) {
+            // The smallest size since the last block must be signaled, so the client evicts the same fields (RFC 7541 4.2).
+            if (this.minTableSize < this.tableSize) {
+                encodeInt(out, 0x20, 5, this.minTableSize);
+                this.table.setMaxSize(this.minTableSize);
+            }
+            encodeInt(out, 0x20, 5, this.tableSize);
+            this.table.setMaxSize(this.tableSize);
+            this.minTableSize = -1;
+            this.tableSize = -1;
+        }
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            boolean never = NEVER_INDEXED.contains(name);
+            int index = (never ? 0 : this.table.find(name, value));
+            if (index > 0) {
+                encodeInt(out, 0x80, 7, index);
+                continue;
+            }
+            int nameIndex = Math.abs(never ? this.table.find(name, "") : index);
+            if (never) {
+                encodeInt(out, 0x10, 4, nameIndex);
+            }
+            else if (NOT_INDEXED.contains(name)) {
+                encodeInt(out, 0x00, 4, nameIndex);
+            }
+            else {
+                encodeInt(out, 0x40, 6, nameIndex);
+                this.table.add(name, value);
+            }
+            if (nameIndex == 0) encodeString(out, name);
+            encodeString(out, value);
+        }
+    }
+
+    /**
+     * Encodes an integer (RFC 7541 5.1).
+     *
+     * @param out The buffer.
+     * @param flags The bits of the first byte preceding the prefix.
+     * @param prefix The amount of bits of the first byte used for the integer.
+     * @param value The integer.
+     */
+    private static void encodeInt(ByteBuffer out, int flags, int prefix, int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.put((byte) (flags | value));
+            return;
+        }
+        out.put((byte) (flags | max));
+        value -= max;
+        while (value >= 0x80) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Encodes a string literal (RFC 7541 5.2), Huffman-encoded when this is shorter.
+     *
+     * @param out The buffer.
+     * @param value The string (ISO-8859-1).
+     */
+    private static void encodeString(ByteBuffer out, String value) {
+        byte[] data = value.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = Huffman.encodedLength(data);
+        if (huffmanLength < data.length) {
+            encodeInt(out, 0x80, 7, huffmanLength);
+            Huffman.encode(data, out);
+        }
+        else {
+            encodeInt(out, 0x00, 7, data.length);
+            out.put(data);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.luka5w.fileserver.server.nio;
+
+/**
+ * A violation of HTTP/2 (RFC 7540) or HPACK (RFC 7541) by the client, which is answered with an error code.
+ * <p>
+ *     Errors of a stream reset the stream (<code>RST_STREAM</code>), errors of the connection close the connection (<code>GOAWAY</code>).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Http2Exception extends Exception {
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Creates a new error of the connection.
+     *
+     * @param errorCode The error code (RFC 7540 7).
+     * @param message The reason.
+     */
+    Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Creates a new error.
+     *
+     * @param errorCode The error code (RFC 7540 7).
+     * @param streamId The stream which is reset or 0 when the connection is closed.
+     * @param message The reason.
+     */
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message, null, false, false);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Returns the error code sent to the client.
+     *
+     * @return The error code.
+     */
+    int getErrorCode() {
+        return this.errorCode;
+    }
+
+    /**
+     * Returns the stream which is reset.
+     *
+     * @return The stream or 0 when the connection is closed.
+     */
+    int getStreamId() {
+        return this.streamId;
+    }
+}
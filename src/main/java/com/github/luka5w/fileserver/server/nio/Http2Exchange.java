@@ -0,0 +1,101 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An exchange of a request received on a stream of an HTTP/2 connection.
+ *
+ * <p>
+ *     The header names of the response are sent in lower case, the headers specific to HTTP/1.x connections are dropped.
+ *     A response without body ends the stream with its headers. A response with a length of 0 is sent in frames until the body is closed
+ *     (HTTP/2 has no chunked transfer coding).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Http2Exchange extends NioExchange {
+
+    private final Http2Session session;
+    private final Http2Stream stream;
+    private final Http2Output output;
+
+    /**
+     * Creates a new exchange.
+     *
+     * @param connection The connection the request was received on.
+     * @param context The context handling the request.
+     * @param method The method of the request.
+     * @param uri The target of the request.
+     * @param requestHeaders The headers of the request.
+     * @param body The body of the request.
+     * @param session The session of the stream.
+     * @param stream The stream the request was received on.
+     */
+    Http2Exchange(Connection connection, HttpContext context, String method, URI uri, Headers requestHeaders, byte[] body, Http2Session session, Http2Stream stream) {
+        super(connection, context, method, uri, "HTTP/2.0", requestHeaders, body);
+        this.session = session;
+        this.stream = stream;
+        this.output = new Http2Output(connection.getPool(), session, stream, this);
+        this.setStreams(null, this.output);
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        this.startResponse(rCode);
+        Headers responseHeaders = this.getResponseHeaders();
+        boolean noContent = (rCode < 200 || rCode == 204 || rCode == 304);
+        boolean head = this.getRequestMethod().equals("HEAD");
+        responseHeaders.remove("Content-Length");
+        if (noContent || head || responseLength == -1) {
+            if (head && responseLength > 0) responseHeaders.set("Content-Length", Long.toString(responseLength));
+            else if (!noContent && !head) responseHeaders.set("Content-Length", "0");
+        }
+        else if (responseLength > 0) {
+            responseHeaders.set("Content-Length", Long.toString(responseLength));
+        }
+        if (!responseHeaders.containsKey("Date")) responseHeaders.set("Date", this.getConnection().getServer().getDate());
+        List<String[]> fields = new ArrayList<>(responseHeaders.size() + 1);
+        fields.add(new String[] {":status", Integer.toString(rCode)});
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (Http2Session.CONNECTION_HEADERS.contains(name)) continue;
+            for (String value : header.getValue()) fields.add(new String[] {name, value});
+        }
+        boolean body = !(noContent || head || responseLength == -1);
+        this.session.writeHeaders(this.stream, fields, !body);
+        if (body) this.output.start(responseLength > 0 ? responseLength : -1);
+        else this.output.startEmpty();
+    }
+
+    /**
+     * Marks the response as complete and closes the stream.
+     */
+    void complete() {
+        if (this.finish()) this.session.streamFinished(this.stream);
+    }
+
+    @Override
+    void fail() {
+        if (this.finish()) this.session.resetStream(this.stream.getId(), Http2Exception.INTERNAL_ERROR);
+    }
+
+    @Override
+    void abort() {
+        // The buffer of the response is left to the thread writing it, which fails since the stream is reset.
+        this.finish();
+    }
+
+    @Override
+    void handled() {
+        this.session.exchangeHandled(this.stream);
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The stream of a response body sent on an HTTP/2 stream, which is written into pooled buffers and sent as <code>DATA</code> frames.
+ *
+ * <p>
+ *     The header of the frame is reserved in front of the data (like the size line of a chunk, see {@link ResponseOutput}),
+ *     so a full buffer is sent as a frame without copying the data again.
+ *     A frame is sent when the flow control windows of the client allow it (see {@link Http2Session#acquireWindow(Http2Stream, int)}),
+ *     when only a part is allowed, the rest is moved to the next frame.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Http2Output extends OutputStream {
+
+    private final BufferPool pool;
+    private final Http2Session session;
+    private final Http2Stream stream;
+    private final Http2Exchange exchange;
+    private ByteBuffer buffer;
+    private boolean started = false;
+    private boolean fixedLength;
+    private long remaining;
+    private boolean closed = false;
+
+    /**
+     * Creates a new stream, which accepts data after {@link #start(long)} was called.
+     *
+     * @param pool The pool of the buffers.
+     * @param session The session of the stream.
+     * @param stream The stream.
+     * @param exchange The exchange which is completed when the stream is closed.
+     */
+    Http2Output(BufferPool pool, Http2Session session, Http2Stream stream, Http2Exchange exchange) {
+        this.pool = pool;
+        this.session = session;
+        this.stream = stream;
+        this.exchange = exchange;
+    }
+
+    /**
+     * Starts the body of the response (after the headers were sent).
+     *
+     * @param length The length of the body or -1 when the length is unknown.
+     */
+    void start(long length) {
+        this.started = true;
+        this.fixedLength = (length >= 0);
+        this.remaining = (this.fixedLength ? length : Long.MAX_VALUE);
+    }
+
+    /**
+     * Marks a response without body (the end of the stream was sent with the headers) as complete.
+     */
+    void startEmpty() {
+        this.started = true;
+        this.closed = true;
+        this.exchange.complete();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!this.started) throw new IOException("Response headers not sent yet");
+        if (this.closed) throw new IOException("Stream is closed");
+        if (len > this.remaining) throw new IOException("Too many bytes to write to stream");
+        this.remaining -= len;
+        while (len > 0) {
+            if (this.buffer == null) this.nextBuffer();
+            int length = Math.min(len, this.buffer.remaining());
+            this.buffer.put(b, off, length);
+            off += length;
+            len -= length;
+            if (!this.buffer.hasRemaining()) this.send(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.closed || this.buffer == null) return;
+        if (this.buffer.position() > Http2Session.FRAME_HEADER) this.send(false);
+    }
+
+    /**
+     * Closes the stream and completes the exchange, the HTTP/2 stream is reset when fewer bytes than announced were written.
+     *
+     * @throws IOException When the response is incomplete or the stream is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed || !this.started) return;
+        this.closed = true;
+        if (this.fixedLength && this.remaining > 0) {
+            this.release();
+            this.exchange.fail();
+            throw new IOException("Insufficient bytes written to stream");
+        }
+        try {
+            if (this.buffer == null) this.nextBuffer();
+            this.send(true);
+        }
+        finally {
+            this.exchange.complete();
+        }
+    }
+
+    /**
+     * Releases the current buffer without sending it.
+     */
+    void release() {
+        if (this.buffer == null) return;
+        this.pool.release(this.buffer);
+        this.buffer = null;
+    }
+
+    /**
+     * Acquires an empty buffer for the next frame, limited to the maximal frame size of the client.
+     */
+    private void nextBuffer() {
+        this.buffer = this.pool.acquire();
+        this.buffer.limit(Math.min(this.buffer.capacity(), Http2Session.FRAME_HEADER + this.session.getMaxFrameSize()));
+        this.buffer.position(Http2Session.FRAME_HEADER);
+    }
+
+    /**
+     * Sends the current buffer as a frame (or as several frames when the window is smaller than the data).
+     *
+     * @param last Whether the buffer contains the end of the body.
+     *
+     * @throws IOException When the stream is closed or the client does not open the window in time.
+     */
+    private void send(boolean last) throws IOException {
+        ByteBuffer frame = this.buffer;
+        this.buffer = null;
+        int length = frame.position() - Http2Session.FRAME_HEADER;
+        while (length > 0) {
+            int window;
+            try {
+                window = this.session.acquireWindow(this.stream, length);
+            }
+            catch (IOException e) {
+                this.pool.release(frame);
+                throw e;
+            }
+            if (window == length) break;
+            ByteBuffer next = this.pool.acquire();
+            next.position(Http2Session.FRAME_HEADER);
+            ByteBuffer rest = frame.duplicate();
+            rest.limit(frame.position());
+            rest.position(Http2Session.FRAME_HEADER + window);
+            next.put(rest);
+            frame.position(Http2Session.FRAME_HEADER + window);
+            this.session.writeData(this.stream, frame, false);
+            frame = next;
+            length -= window;
+        }
+        this.session.writeData(this.stream, frame, last);
+    }
+}
@@ -0,0 +1,976 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.Log;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP/2 protocol of a {@link Connection} (RFC 7540), which multiplexes the requests of the client on streams.
+ *
+ * <p>
+ *     The frames are parsed by the event loop. A request is passed to the server (like a request received with HTTP/1.x)
+ *     when its headers and its body are received completely, so the requests of a connection are handled concurrently.
+ *     The responses are sent by the threads handling the requests (see {@link Http2Exchange}).
+ * </p>
+ * <p>
+ *     The header blocks are compressed with HPACK. Since both sides keep a dynamic table, the blocks are decoded in the order they are received
+ *     and encoded in the order they are sent (the encoder is the lock for the order of the frames of the streams).
+ *     <br>
+ *     The client may send as much data as the windows allow, the windows are replenished when half of them is used
+ *     (the body is buffered anyway and limited by the maximal body size).
+ *     The data of the responses is sent when the windows of the client allow it, otherwise the handler waits at most the request timeout.
+ * </p>
+ * <p>
+ *     A stream closed while its handler is still running (e.g. reset by the client) counts towards the maximal amount of concurrent streams
+ *     until the handler returns, so resetting streams right after opening them (rapid reset) can't make the server handle more requests
+ *     of a connection at the same time than allowed. A client resetting more streams per second than allowed concurrently
+ *     is disconnected with <code>GOAWAY</code> (<code>ENHANCE_YOUR_CALM</code>).
+ * </p>
+ * <p>
+ *     The frames answered by the server (<code>PING</code>, <code>SETTINGS</code> and streams refused with <code>RST_STREAM</code>) are not read
+ *     while too much data is pending (see {@link Connection}), and a client which does not read the answers of more than {@value #MAX_PENDING_CONTROL}
+ *     of these frames (the pending data isn't drained in between) is disconnected with <code>GOAWAY</code> (<code>ENHANCE_YOUR_CALM</code>),
+ *     so flooding the server with them (CVE-2019-9512, CVE-2019-9515) doesn't make it buffer the answers.
+ * </p>
+ * <p>
+ *     Server push and priorities are not supported (the priorities are ignored).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Http2Session {
+
+    /** The length of the header of a frame. */
+    static final int FRAME_HEADER = 9;
+    /** The maximal length of the payload of a received frame (the default of <code>SETTINGS_MAX_FRAME_SIZE</code>). */
+    static final int MAX_FRAME_SIZE = 16384;
+    /** The preface a client sends at the start of the connection. */
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    /** The headers which are specific to a connection of HTTP/1.x and must not be sent with HTTP/2 (RFC 7540 8.1.2.2). */
+    static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"));
+
+    private static final Log LOGGER = Main.getLogger("NIO");
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int STREAM_WINDOW = 1024 * 1024;
+    private static final int CONNECTION_WINDOW = 16 * 1024 * 1024;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    private static final long RESET_WINDOW = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_PENDING_CONTROL = 512;
+
+    private final Connection connection;
+    private final NioConfig config;
+    private final HpackDecoder decoder = new HpackDecoder();
+    private final HpackEncoder encoder = new HpackEncoder();
+    // accessed by the event loop only
+    private boolean prefaceReceived = false;
+    private boolean settingsReceived = false;
+    private boolean closing = false;
+    private int lastStreamId = 0;
+    private int receiveWindow = CONNECTION_WINDOW;
+    private int headerStreamId = 0;
+    private boolean headerEndStream;
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength;
+    private long resetWindowStart = System.nanoTime();
+    private int resets = 0;
+    private int pendingControl = 0;
+    // guarded by this
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    private int handling = 0;
+    private long sendWindow = DEFAULT_WINDOW;
+    private long initialSendWindow = DEFAULT_WINDOW;
+    // accessed by any thread
+    private volatile boolean released = false;
+    private volatile boolean goAwayReceived = false;
+    private volatile int maxFrameSize = MAX_FRAME_SIZE;
+    private volatile long idleSince = System.nanoTime();
+
+    /**
+     * Creates a new session.
+     *
+     * @param connection The connection.
+     */
+    Http2Session(Connection connection) {
+        this.connection = connection;
+        this.config = connection.getServer().getConfig();
+    }
+
+    /**
+     * Sends the preface of the server: the settings and the window of the connection.
+     */
+    void start() {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 18 + FRAME_HEADER + 4);
+        putHeader(frame, 18, SETTINGS, 0, 0);
+        frame.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(this.config.getMaxConcurrentStreams());
+        frame.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(STREAM_WINDOW);
+        frame.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(this.config.getMaxHeaderSize());
+        putHeader(frame, 4, WINDOW_UPDATE, 0, 0);
+        frame.putInt(CONNECTION_WINDOW - DEFAULT_WINDOW);
+        frame.flip();
+        this.queue(frame);
+    }
+
+    /**
+     * Handles the complete frames of the received bytes, an incomplete frame is left in the buffer.
+     * <p>
+     *     A stream error resets the stream, a connection error sends <code>GOAWAY</code> and discards further bytes
+     *     (the connection must be closed, see {@link #isClosing()}).
+     * </p>
+     *
+     * @param in The received bytes (in read mode).
+     */
+    void process(ByteBuffer in) {
+        if (this.closing) {
+            in.position(in.limit());
+            return;
+        }
+        try {
+            if (!this.prefaceReceived) {
+                int length = Math.min(in.remaining(), PREFACE.length);
+                for (int i = 0; i < length; i++) {
+                    if (in.get(in.position() + i) != PREFACE[i]) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+                }
+                if (length < PREFACE.length) return;
+                in.position(in.position() + PREFACE.length);
+                this.prefaceReceived = true;
+            }
+            while (in.remaining() >= FRAME_HEADER && !this.closing && !this.released) {
+                int start = in.position();
+                int length = ((in.get(start) & 0xFF) << 16) | ((in.get(start + 1) & 0xFF) << 8) | (in.get(start + 2) & 0xFF);
+                if (length > MAX_FRAME_SIZE) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame exceeds the maximal size");
+                if (in.remaining() < FRAME_HEADER + length) break;
+                int type = in.get(start + 3) & 0xFF;
+                int flags = in.get(start + 4) & 0xFF;
+                int streamId = in.getInt(start + 5) & 0x7FFFFFFF;
+                in.position(start + FRAME_HEADER);
+                ByteBuffer payload = in.slice();
+                payload.limit(length);
+                in.position(start + FRAME_HEADER + length);
+                try {
+                    this.handleFrame(type, flags, streamId, payload);
+                }
+                catch (Http2Exception e) {
+                    if (e.getStreamId() == 0) throw e;
+                    this.countControl();
+                    this.resetStream(e.getStreamId(), e.getErrorCode());
+                }
+            }
+        }
+        catch (Http2Exception e) {
+            LOGGER.debug(() -> "HTTP/2 connection error " + e.getErrorCode() + ": " + e.getMessage());
+            this.goAway(e.getErrorCode());
+            in.position(in.limit());
+        }
+    }
+
+    /**
+     * Returns whether the connection must be closed (after <code>GOAWAY</code> was sent or received).
+     *
+     * @return true when the connection is closing.
+     */
+    boolean isClosing() {
+        return this.closing;
+    }
+
+    /**
+     * Sends <code>GOAWAY</code>, further frames of the client are discarded.
+     *
+     * @param errorCode The error code (see {@link Http2Exception}).
+     */
+    void goAway(int errorCode) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 8);
+        putHeader(frame, 8, GOAWAY, 0, 0);
+        frame.putInt(this.lastStreamId).putInt(errorCode);
+        frame.flip();
+        this.queue(frame);
+        this.closing = true;
+    }
+
+    /**
+     * Returns whether the connection has no open streams.
+     *
+     * @return true when no request is received or handled.
+     */
+    synchronized boolean isIdle() {
+        return this.streams.isEmpty();
+    }
+
+    /**
+     * Returns whether a request is being received (the headers or the body are incomplete).
+     *
+     * @return true when a stream has no exchange yet.
+     */
+    synchronized boolean isReceiving() {
+        for (Http2Stream stream : this.streams.values()) {
+            if (stream.getExchange() == null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time the last stream was closed.
+     *
+     * @return The time ({@link System#nanoTime()}).
+     */
+    long getIdleSince() {
+        return this.idleSince;
+    }
+
+    /**
+     * Returns the maximal length of the payload of a frame sent to the client.
+     *
+     * @return The length in bytes.
+     */
+    int getMaxFrameSize() {
+        return this.maxFrameSize;
+    }
+
+    /**
+     * Sends the headers of a response.
+     * <p>
+     *     This method may be called by any thread, the thread waits while too much data of the connection is pending.
+     * </p>
+     *
+     * @param stream The stream.
+     * @param fields The pseudo-headers and the headers (names in lower case).
+     * @param endStream Whether the response has no body.
+     *
+     * @throws IOException When the stream or the connection is closed.
+     */
+    void writeHeaders(Http2Stream stream, List<String[]> fields, boolean endStream) throws IOException {
+        int maxFrameSize = this.maxFrameSize;
+        ByteBuffer block = ByteBuffer.allocate(HpackEncoder.maxEncodedLength(fields));
+        synchronized (this.encoder) {
+            if (stream.isReset()) throw new IOException("Stream closed");
+            this.encoder.encode(fields, block);
+            block.flip();
+            int frames = Math.max(1, (block.remaining() + maxFrameSize - 1) / maxFrameSize);
+            ByteBuffer frame = ByteBuffer.allocate(block.remaining() + frames * FRAME_HEADER);
+            int type = HEADERS;
+            do {
+                int length = Math.min(block.remaining(), maxFrameSize);
+                int flags = (length == block.remaining() ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+                putHeader(frame, length, type, flags, stream.getId());
+                ByteBuffer fragment = block.duplicate();
+                fragment.limit(block.position() + length);
+                frame.put(fragment);
+                block.position(block.position() + length);
+                type = CONTINUATION;
+            }
+            while (block.hasRemaining());
+            frame.flip();
+            this.connection.queue(frame);
+        }
+        this.connection.awaitWritable();
+    }
+
+    /**
+     * Sends a <code>DATA</code> frame, the buffer is released to the pool when it has been written.
+     * <p>
+     *     The window must be acquired before (see {@link #acquireWindow(Http2Stream, int)}).
+     *     This method may be called by any thread, the thread waits while too much data of the connection is pending.
+     * </p>
+     *
+     * @param stream The stream.
+     * @param frame The frame (in write mode): the header is reserved, the payload starts at {@link #FRAME_HEADER} and ends at the position.
+     * @param endStream Whether the frame ends the response.
+     *
+     * @throws IOException When the stream or the connection is closed.
+     */
+    void writeData(Http2Stream stream, ByteBuffer frame, boolean endStream) throws IOException {
+        int end = frame.position();
+        frame.position(0);
+        putHeader(frame, end - FRAME_HEADER, DATA, (endStream ? FLAG_END_STREAM : 0), stream.getId());
+        frame.position(end);
+        frame.flip();
+        synchronized (this.encoder) {
+            if (stream.isReset()) {
+                this.connection.getPool().release(frame);
+                throw new IOException("Stream closed");
+            }
+            this.connection.queue(frame);
+        }
+        this.connection.awaitWritable();
+    }
+
+    /**
+     * Takes a part of the windows of the connection and of the stream for sending data, waits until the client opens a window if necessary.
+     *
+     * @param stream The stream.
+     * @param wanted The length of the data in bytes.
+     * @return The length of the data allowed to send (1 up to the wanted length).
+     *
+     * @throws IOException When the stream is closed or the client does not open the window in time.
+     */
+    synchronized int acquireWindow(Http2Stream stream, int wanted) throws IOException {
+        long deadline = System.nanoTime() + this.config.getRequestTimeout();
+        while (true) {
+            if (stream.isReset() || this.released) throw new IOException("Stream closed");
+            long window = Math.min(this.sendWindow, stream.getSendWindow());
+            if (window > 0) {
+                int length = (int) Math.min(window, wanted);
+                this.sendWindow -= length;
+                stream.addSendWindow(-length);
+                return length;
+            }
+            // The event loop must not wait for the frames it would read itself.
+            if (this.connection.inLoop()) throw new IOException("Flow control window exhausted");
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) throw new IOException("Timed out waiting for the flow control window");
+            try {
+                this.wait(wait / 1000000 + 1);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the client");
+            }
+        }
+    }
+
+    /**
+     * Closes a stream after its response is complete.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     *
+     * @param stream The stream.
+     */
+    void streamFinished(Http2Stream stream) {
+        boolean idle;
+        synchronized (this) {
+            this.removeStream(stream.getId());
+            idle = this.streams.isEmpty();
+        }
+        if (idle && this.goAwayReceived) this.connection.closeGracefully();
+    }
+
+    /**
+     * Resets a stream (sends <code>RST_STREAM</code>) and aborts the exchange of the stream.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     *
+     * @param streamId The identifier of the stream.
+     * @param errorCode The error code (see {@link Http2Exception}).
+     */
+    void resetStream(int streamId, int errorCode) {
+        Http2Stream stream = this.closeStream(streamId);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 4);
+        putHeader(frame, 4, RST_STREAM, 0, streamId);
+        frame.putInt(errorCode);
+        frame.flip();
+        synchronized (this.encoder) {
+            this.queue(frame);
+        }
+        if (stream != null && stream.getExchange() != null) stream.getExchange().abort();
+    }
+
+    /**
+     * Aborts the exchanges of the open streams when the connection is closed (called by the event loop).
+     */
+    void release() {
+        List<Http2Stream> streams;
+        synchronized (this) {
+            this.released = true;
+            streams = new ArrayList<>(this.streams.values());
+            this.streams.clear();
+            for (Http2Stream stream : streams) stream.reset();
+            this.notifyAll();
+        }
+        for (Http2Stream stream : streams) {
+            if (stream.getExchange() != null) stream.getExchange().abort();
+        }
+    }
+
+    /**
+     * Handles a frame.
+     *
+     * @param type The type.
+     * @param flags The flags.
+     * @param streamId The identifier of the stream (0 for the connection).
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid (a stream or a connection error).
+     */
+    private void handleFrame(int type, int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (this.headerStreamId != 0 && type != CONTINUATION) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected CONTINUATION frame");
+        if (!this.settingsReceived && type != SETTINGS) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected SETTINGS frame");
+        switch (type) {
+            case DATA:
+                this.onData(flags, streamId, payload);
+                break;
+            case HEADERS:
+                this.onHeaders(flags, streamId, payload);
+                break;
+            case PRIORITY:
+                if (streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PRIORITY frame without stream");
+                if (payload.remaining() != 5) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "Invalid PRIORITY frame");
+                break;
+            case RST_STREAM:
+                this.onRstStream(streamId, payload);
+                break;
+            case SETTINGS:
+                this.onSettings(flags, streamId, payload);
+                break;
+            case PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE frame from client");
+            case PING:
+                this.onPing(flags, streamId, payload);
+                break;
+            case GOAWAY:
+                if (streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY frame with stream");
+                if (payload.remaining() < 8) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid GOAWAY frame");
+                // The requests already received are completed, the connection is closed afterwards.
+                this.goAwayReceived = true;
+                if (this.isIdle()) this.closing = true;
+                break;
+            case WINDOW_UPDATE:
+                this.onWindowUpdate(streamId, payload);
+                break;
+            case CONTINUATION:
+                if (this.headerStreamId == 0 || streamId != this.headerStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+                this.appendHeaderBlock(payload);
+                if ((flags & FLAG_END_HEADERS) != 0) this.endHeaders();
+                break;
+            default:
+                // Frames of unknown types are ignored (RFC 7540 4.1).
+        }
+    }
+
+    /**
+     * Handles a <code>DATA</code> frame.
+     *
+     * @param flags The flags.
+     * @param streamId The identifier of the stream.
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid.
+     */
+    private void onData(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA frame without stream");
+        int length = payload.remaining();
+        // The padding counts for the flow control, too.
+        this.receiveWindow -= length;
+        if (this.receiveWindow < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        if (this.receiveWindow < CONNECTION_WINDOW / 2) {
+            this.sendWindowUpdate(0, CONNECTION_WINDOW - this.receiveWindow);
+            this.receiveWindow = CONNECTION_WINDOW;
+        }
+        removePadding(flags, payload);
+        Http2Stream stream = this.getStream(streamId);
+        if (stream == null) {
+            if (streamId > this.lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA frame on idle stream");
+            // The stream was reset, the client may have sent the frame before it received RST_STREAM.
+            return;
+        }
+        if (stream.isEndStreamReceived()) throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "DATA frame on half-closed stream");
+        int window = stream.consumeReceiveWindow(length);
+        if (window < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        if ((long) stream.getBodyLength() + payload.remaining() > this.config.getMaxBodySize()) {
+            this.reject(stream, 413);
+            return;
+        }
+        stream.appendBody(payload);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.setEndStreamReceived();
+            this.endRequest(stream);
+        }
+        else if (window < STREAM_WINDOW / 2) {
+            this.sendWindowUpdate(streamId, stream.restoreReceiveWindow(STREAM_WINDOW));
+        }
+    }
+
+    /**
+     * Handles a <code>HEADERS</code> frame, which starts a header block.
+     *
+     * @param flags The flags.
+     * @param streamId The identifier of the stream.
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid.
+     */
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0 || (streamId & 1) == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid stream identifier " + streamId);
+        removePadding(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (payload.remaining() < 5) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid HEADERS frame");
+            // The priority is ignored.
+            payload.position(payload.position() + 5);
+        }
+        this.headerStreamId = streamId;
+        this.headerEndStream = ((flags & FLAG_END_STREAM) != 0);
+        this.headerBlockLength = 0;
+        this.appendHeaderBlock(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) this.endHeaders();
+    }
+
+    /**
+     * Appends a fragment to the current header block.
+     *
+     * @param fragment The fragment.
+     *
+     * @throws Http2Exception When the header block is too large.
+     */
+    private void appendHeaderBlock(ByteBuffer fragment) throws Http2Exception {
+        int length = fragment.remaining();
+        if (this.headerBlockLength + length > Math.max(MAX_FRAME_SIZE, 2 * this.config.getMaxHeaderSize())) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if (this.headerBlockLength + length > this.headerBlock.length) {
+            this.headerBlock = Arrays.copyOf(this.headerBlock, Math.max(this.headerBlockLength + length, this.headerBlock.length * 2));
+        }
+        fragment.get(this.headerBlock, this.headerBlockLength, length);
+        this.headerBlockLength += length;
+    }
+
+    /**
+     * Decodes a complete header block and opens its stream (or completes the request with trailers).
+     *
+     * @throws Http2Exception When the block or the request is invalid.
+     */
+    private void endHeaders() throws Http2Exception {
+        int streamId = this.headerStreamId;
+        this.headerStreamId = 0;
+        // The block is decoded in any case, so the dynamic table stays in sync with the client.
+        List<String[]> fields = this.decoder.decode(ByteBuffer.wrap(this.headerBlock, 0, this.headerBlockLength), this.config.getMaxHeaderSize());
+        Http2Stream stream = this.getStream(streamId);
+        if (stream != null) {
+            // Trailers, which are not passed to the handlers (like the trailers of a chunked body).
+            if (stream.isEndStreamReceived()) throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "HEADERS frame on half-closed stream");
+            if (!this.headerEndStream) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+            stream.setEndStreamReceived();
+            this.endRequest(stream);
+            return;
+        }
+        if (streamId <= this.lastStreamId) throw new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS frame on closed stream");
+        this.lastStreamId = streamId;
+        synchronized (this) {
+            if (this.streams.size() + this.handling >= this.config.getMaxConcurrentStreams()) throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+            stream = new Http2Stream(streamId, this.initialSendWindow, STREAM_WINDOW);
+            this.streams.put(streamId, stream);
+        }
+        if (fields == null) {
+            this.reject(stream, 431);
+            return;
+        }
+        this.setRequest(stream, fields);
+        if (stream.getContentLength() > this.config.getMaxBodySize()) {
+            this.reject(stream, 413);
+            return;
+        }
+        if (this.headerEndStream) {
+            stream.setEndStreamReceived();
+            this.endRequest(stream);
+        }
+    }
+
+    /**
+     * Validates the fields of a request (RFC 7540 8.1.2) and sets the request of the stream.
+     *
+     * @param stream The stream.
+     * @param fields The decoded fields.
+     *
+     * @throws Http2Exception When the request is malformed (a stream error).
+     */
+    private void setRequest(Http2Stream stream, List<String[]> fields) throws Http2Exception {
+        int streamId = stream.getId();
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+        boolean regular = false;
+        StringBuilder cookies = null;
+        Headers headers = new Headers();
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            if (name.startsWith(":")) {
+                if (regular) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Pseudo-header after a header");
+                switch (name) {
+                    case ":method":
+                        if (method != null) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Duplicate pseudo-header");
+                        method = value;
+                        break;
+                    case ":scheme":
+                        if (scheme != null) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Duplicate pseudo-header");
+                        scheme = value;
+                        break;
+                    case ":path":
+                        if (path != null) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Duplicate pseudo-header");
+                        path = value;
+                        break;
+                    case ":authority":
+                        if (authority != null) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Duplicate pseudo-header");
+                        authority = value;
+                        break;
+                    default:
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            regular = true;
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) >= 'A' && name.charAt(i) <= 'Z') throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Header name in upper case");
+            }
+            if (CONNECTION_HEADERS.contains(name) || (name.equals("te") && !value.equals("trailers"))) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Connection-specific header " + name);
+            }
+            if (name.equals("cookie")) {
+                // The cookies may be split into several fields (RFC 7540 8.1.2.5).
+                cookies = (cookies == null ? new StringBuilder(value) : cookies.append("; ").append(value));
+                continue;
+            }
+            headers.add(name, value);
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Missing pseudo-header");
+        if (cookies != null) headers.set("cookie", cookies.toString());
+        if (authority != null && !headers.containsKey("host")) headers.set("host", authority);
+        long contentLength = -1;
+        List<String> contentLengths = headers.get("content-length");
+        if (contentLengths != null) {
+            try {
+                if (contentLengths.size() != 1) throw new NumberFormatException();
+                contentLength = Long.parseLong(contentLengths.get(0));
+            }
+            catch (NumberFormatException e) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Invalid content-length");
+            }
+            if (contentLength < 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Invalid content-length");
+        }
+        stream.setRequest(method, path, headers, contentLength);
+    }
+
+    /**
+     * Passes a complete request to the server.
+     *
+     * @param stream The stream.
+     *
+     * @throws Http2Exception When the body does not match the announced length.
+     */
+    private void endRequest(Http2Stream stream) throws Http2Exception {
+        if (stream.getContentLength() != -1 && stream.getContentLength() != stream.getBodyLength()) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, stream.getId(), "Body does not match content-length");
+        }
+        URI uri;
+        try {
+            uri = new URI(stream.getPath());
+        }
+        catch (URISyntaxException e) {
+            this.reject(stream, 400);
+            return;
+        }
+        NioHttpServer server = this.connection.getServer();
+        HttpContext context = (uri.getPath() == null ? null : server.findContext(uri.getPath()));
+        Http2Exchange exchange = new Http2Exchange(this.connection, context, stream.getMethod(), uri, stream.getHeaders(), stream.getBody(), this, stream);
+        stream.setExchange(exchange);
+        server.dispatch(exchange);
+    }
+
+    /**
+     * Answers a request with an error status (without body) and resets its stream, so the client stops sending the body.
+     *
+     * @param stream The stream.
+     * @param status The HTTP status code.
+     */
+    private void reject(Http2Stream stream, int status) {
+        List<String[]> fields = Arrays.asList(new String[] {":status", Integer.toString(status)}, new String[] {"content-length", "0"},
+                new String[] {"date", this.connection.getServer().getDate()});
+        try {
+            this.writeHeaders(stream, fields, true);
+        }
+        catch (IOException ignored) {
+            // The connection is closed.
+        }
+        this.resetStream(stream.getId(), Http2Exception.NO_ERROR);
+    }
+
+    /**
+     * Handles a <code>RST_STREAM</code> frame.
+     *
+     * @param streamId The identifier of the stream.
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid.
+     */
+    private void onRstStream(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM frame without stream");
+        if (payload.remaining() != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid RST_STREAM frame");
+        if (streamId > this.lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM frame on idle stream");
+        Http2Stream stream = this.closeStream(streamId);
+        if (stream == null) return;
+        if (stream.getExchange() != null) stream.getExchange().abort();
+        long now = System.nanoTime();
+        if (now - this.resetWindowStart >= RESET_WINDOW) {
+            this.resetWindowStart = now;
+            this.resets = 0;
+        }
+        if (++this.resets > this.config.getMaxConcurrentStreams()) throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Too many reset streams");
+    }
+
+    /**
+     * Handles a <code>SETTINGS</code> frame and acknowledges it.
+     *
+     * @param flags The flags.
+     * @param streamId The identifier of the stream.
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame or a setting is invalid.
+     */
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS frame with stream");
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.hasRemaining()) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid SETTINGS frame");
+            return;
+        }
+        if (payload.remaining() % 6 != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid SETTINGS frame");
+        while (payload.hasRemaining()) {
+            int id = payload.getShort() & 0xFFFF;
+            long value = payload.getInt() & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (this.encoder) {
+                        this.encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    }
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    synchronized (this) {
+                        // The change applies to the open streams, too (RFC 7540 6.9.2).
+                        long delta = value - this.initialSendWindow;
+                        this.initialSendWindow = value;
+                        for (Http2Stream stream : this.streams.values()) {
+                            if (stream.addSendWindow(delta) > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window too large");
+                        }
+                        this.notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    this.maxFrameSize = (int) value;
+                    break;
+                default:
+                    // The other settings don't affect a server, unknown settings are ignored.
+            }
+        }
+        this.settingsReceived = true;
+        this.countControl();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER);
+        putHeader(frame, 0, SETTINGS, FLAG_ACK, 0);
+        frame.flip();
+        this.queue(frame);
+    }
+
+    /**
+     * Handles a <code>PING</code> frame and answers it.
+     *
+     * @param flags The flags.
+     * @param streamId The identifier of the stream.
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid.
+     */
+    private void onPing(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING frame with stream");
+        if (payload.remaining() != 8) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid PING frame");
+        if ((flags & FLAG_ACK) != 0) return;
+        this.countControl();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 8);
+        putHeader(frame, 8, PING, FLAG_ACK, 0);
+        frame.put(payload);
+        frame.flip();
+        this.queue(frame);
+    }
+
+    /**
+     * Handles a <code>WINDOW_UPDATE</code> frame and wakes the threads waiting for the window.
+     *
+     * @param streamId The identifier of the stream (0 for the connection).
+     * @param payload The payload.
+     *
+     * @throws Http2Exception When the frame is invalid or the window exceeds the maximum.
+     */
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame");
+        int increment = payload.getInt() & 0x7FFFFFFF;
+        if (streamId == 0) {
+            if (increment == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid window increment");
+            synchronized (this) {
+                this.sendWindow += increment;
+                if (this.sendWindow > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window too large");
+                this.notifyAll();
+            }
+            return;
+        }
+        if (streamId > this.lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE frame on idle stream");
+        if (increment == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Invalid window increment");
+        synchronized (this) {
+            Http2Stream stream = this.streams.get(streamId);
+            if (stream == null) return;
+            if (stream.addSendWindow(increment) > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window too large");
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Sends a <code>WINDOW_UPDATE</code> frame.
+     *
+     * @param streamId The identifier of the stream (0 for the connection).
+     * @param increment The increment of the window.
+     */
+    private void sendWindowUpdate(int streamId, int increment) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 4);
+        putHeader(frame, 4, WINDOW_UPDATE, 0, streamId);
+        frame.putInt(increment);
+        frame.flip();
+        this.queue(frame);
+    }
+
+    /**
+     * Returns an open stream.
+     *
+     * @param streamId The identifier of the stream.
+     * @return The stream or null when the stream is idle or closed.
+     */
+    private synchronized Http2Stream getStream(int streamId) {
+        return this.streams.get(streamId);
+    }
+
+    /**
+     * Removes a stream from the open streams (the caller must hold the lock of the session).
+     * <p>
+     *     A stream whose exchange is still handled keeps counting towards the concurrent streams until {@link #exchangeHandled(Http2Stream)}.
+     * </p>
+     *
+     * @param streamId The identifier of the stream.
+     * @return The stream or null when the stream was not open.
+     */
+    private Http2Stream removeStream(int streamId) {
+        Http2Stream stream = this.streams.remove(streamId);
+        if (stream == null) return null;
+        if (stream.getExchange() != null && !stream.isHandled()) this.handling++;
+        if (this.streams.isEmpty()) this.idleSince = System.nanoTime();
+        return stream;
+    }
+
+    /**
+     * Marks the exchange of a stream as handled, so a closed stream no longer counts towards the concurrent streams.
+     * <p>
+     *     This method may be called by any thread.
+     * </p>
+     *
+     * @param stream The stream.
+     */
+    synchronized void exchangeHandled(Http2Stream stream) {
+        stream.setHandled();
+        // The streams are dropped without counting them when the connection is released.
+        if (!this.released && this.streams.get(stream.getId()) != stream) this.handling--;
+    }
+
+    /**
+     * Closes a stream which was reset and wakes the threads waiting for its window.
+     *
+     * @param streamId The identifier of the stream.
+     * @return The stream or null when the stream was not open.
+     */
+    private synchronized Http2Stream closeStream(int streamId) {
+        Http2Stream stream = this.removeStream(streamId);
+        if (stream != null) {
+            stream.reset();
+            this.notifyAll();
+        }
+        return stream;
+    }
+
+    /**
+     * Counts a frame answered by the server before its answer is queued, the count starts again when no data is pending.
+     *
+     * @throws Http2Exception When the client did not read the answers of too many frames.
+     */
+    private void countControl() throws Http2Exception {
+        if (!this.connection.hasPending()) this.pendingControl = 0;
+        if (++this.pendingControl > MAX_PENDING_CONTROL) throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Too many unread control frames");
+    }
+
+    /**
+     * Passes a frame to the connection.
+     *
+     * @param frame The frame (in read mode).
+     */
+    private void queue(ByteBuffer frame) {
+        try {
+            this.connection.queue(frame);
+        }
+        catch (IOException ignored) {
+            // The connection is closed, the streams are released by the connection.
+        }
+    }
+
+    /**
+     * Removes the padding of a frame (RFC 7540 6.1).
+     *
+     * @param flags The flags of the frame.
+     * @param payload The payload (the limit is set to the end of the data).
+     *
+     * @throws Http2Exception When the padding is invalid.
+     */
+    private static void removePadding(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) return;
+        if (!payload.hasRemaining()) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Missing padding length");
+        int padding = payload.get() & 0xFF;
+        if (padding > payload.remaining()) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding exceeds the payload");
+        payload.limit(payload.limit() - padding);
+    }
+
+    /**
+     * Writes the header of a frame.
+     *
+     * @param frame The buffer.
+     * @param length The length of the payload.
+     * @param type The type.
+     * @param flags The flags.
+     * @param streamId The identifier of the stream (0 for the connection).
+     */
+    private static void putHeader(ByteBuffer frame, int length, int type, int flags, int streamId) {
+        frame.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length).put((byte) type).put((byte) flags).putInt(streamId);
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.Headers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A stream of an {@link Http2Session}, which carries one request and its response.
+ * <p>
+ *     The request is collected by the event loop, the window for sending the response is guarded by the session.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Http2Stream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int id;
+    // accessed by the event loop only
+    private String method;
+    private String path;
+    private Headers headers;
+    private long contentLength = -1;
+    private byte[] body = EMPTY;
+    private int bodyLength = 0;
+    private int receiveWindow;
+    private boolean endStreamReceived = false;
+    // guarded by the session
+    private long sendWindow;
+    private boolean handled = false;
+    // accessed by any thread
+    private volatile boolean reset = false;
+    private volatile Http2Exchange exchange;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param id The identifier.
+     * @param sendWindow The initial window for sending data (the setting of the client).
+     * @param receiveWindow The initial window for receiving data (the setting of the server).
+     */
+    Http2Stream(int id, long sendWindow, int receiveWindow) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+    }
+
+    /**
+     * Returns the identifier of the stream.
+     *
+     * @return The identifier.
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /**
+     * Sets the request line and the headers of the request.
+     *
+     * @param method The method.
+     * @param path The path (and the query).
+     * @param headers The headers.
+     * @param contentLength The length announced by the <code>content-length</code> header or -1.
+     */
+    void setRequest(String method, String path, Headers headers, long contentLength) {
+        this.method = method;
+        this.path = path;
+        this.headers = headers;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Returns the method of the request.
+     *
+     * @return The method.
+     */
+    String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the path (and the query) of the request.
+     *
+     * @return The path.
+     */
+    String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the headers of the request.
+     *
+     * @return The headers.
+     */
+    Headers getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Returns the length announced by the <code>content-length</code> header.
+     *
+     * @return The length or -1.
+     */
+    long getContentLength() {
+        return this.contentLength;
+    }
+
+    /**
+     * Appends data to the body of the request.
+     *
+     * @param data The data.
+     */
+    void appendBody(ByteBuffer data) {
+        int length = data.remaining();
+        if (this.bodyLength + length > this.body.length) this.body = Arrays.copyOf(this.body, Math.max(this.bodyLength + length, this.body.length * 2));
+        data.get(this.body, this.bodyLength, length);
+        this.bodyLength += length;
+    }
+
+    /**
+     * Returns the length of the received body.
+     *
+     * @return The length in bytes.
+     */
+    int getBodyLength() {
+        return this.bodyLength;
+    }
+
+    /**
+     * Returns the body of the request.
+     *
+     * @return The body.
+     */
+    byte[] getBody() {
+        return (this.body.length == this.bodyLength ? this.body : Arrays.copyOf(this.body, this.bodyLength));
+    }
+
+    /**
+     * Consumes a part of the window for receiving data.
+     *
+     * @param length The length of the received frame.
+     * @return The remaining window (negative when the client sent too much data).
+     */
+    int consumeReceiveWindow(int length) {
+        return (this.receiveWindow -= length);
+    }
+
+    /**
+     * Restores the window for receiving data.
+     *
+     * @param window The window.
+     * @return The increment to send to the client.
+     */
+    int restoreReceiveWindow(int window) {
+        int increment = window - this.receiveWindow;
+        this.receiveWindow = window;
+        return increment;
+    }
+
+    /**
+     * Marks the request as complete (the client has closed its side of the stream).
+     */
+    void setEndStreamReceived() {
+        this.endStreamReceived = true;
+    }
+
+    /**
+     * Returns whether the request is complete.
+     *
+     * @return true when the client has closed its side of the stream.
+     */
+    boolean isEndStreamReceived() {
+        return this.endStreamReceived;
+    }
+
+    /**
+     * Returns the window for sending data (the caller must hold the lock of the session).
+     *
+     * @return The window in bytes (negative when the client reduced the initial window).
+     */
+    long getSendWindow() {
+        return this.sendWindow;
+    }
+
+    /**
+     * Changes the window for sending data (the caller must hold the lock of the session).
+     *
+     * @param delta The change in bytes.
+     * @return The new window.
+     */
+    long addSendWindow(long delta) {
+        return (this.sendWindow += delta);
+    }
+
+    /**
+     * Marks the exchange of the stream as handled (the caller must hold the lock of the session).
+     */
+    void setHandled() {
+        this.handled = true;
+    }
+
+    /**
+     * Returns whether the handler of the exchange has returned (the caller must hold the lock of the session).
+     *
+     * @return true when the exchange is handled.
+     */
+    boolean isHandled() {
+        return this.handled;
+    }
+
+    /**
+     * Marks the stream as reset, so the response can't be sent anymore.
+     */
+    void reset() {
+        this.reset = true;
+    }
+
+    /**
+     * Returns whether the stream was reset.
+     *
+     * @return true when the stream was reset.
+     */
+    boolean isReset() {
+        return this.reset;
+    }
+
+    /**
+     * Sets the exchange handling the request.
+     *
+     * @param exchange The exchange.
+     */
+    void setExchange(Http2Exchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * Returns the exchange handling the request.
+     *
+     * @return The exchange or null when the request is not complete yet.
+     */
+    Http2Exchange getExchange() {
+        return this.exchange;
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The configuration of a {@link NioHttpServer}.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class NioConfig {
+
+    private final int eventLoops;
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final long requestTimeout;
+    private final int bufferSize;
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+    private final boolean http2;
+    private final int maxConcurrentStreams;
+
+    /**
+     * Creates a new configuration.
+     *
+     * @param eventLoops The amount of threads reading and writing the connections.
+     * @param maxConnections The maximal amount of open connections, further connections are closed immediately.
+     * @param idleTimeout The time in seconds a keep-alive connection is kept open without a request.
+     * @param requestTimeout The time in seconds a client may take to send a request (or to receive a part of a response).
+     * @param bufferSize The size of the pooled buffers in bytes (at most 1 MiB).
+     * @param maxHeaderSize The maximal size of the request line and the headers of a request in bytes (at most the buffer size).
+     * @param maxBodySize The maximal size of the body of a request in bytes.
+     * @param http2 Whether HTTP/2 is accepted (with prior knowledge or negotiated with ALPN).
+     * @param maxConcurrentStreams The maximal amount of concurrent requests of an HTTP/2 connection.
+     *
+     * @throws IllegalArgumentException When a value is out of range.
+     *
+     * @since 1.0.0
+     */
+    public NioConfig(int eventLoops, int maxConnections, int idleTimeout, int requestTimeout, int bufferSize, int maxHeaderSize, int maxBodySize, boolean http2, int maxConcurrentStreams) {
+        if (eventLoops < 1) throw new IllegalArgumentException("event-loops must be at least 1");
+        if (maxConnections < 1) throw new IllegalArgumentException("max-connections must be at least 1");
+        if (idleTimeout < 1 || requestTimeout < 1) throw new IllegalArgumentException("Timeouts must be at least 1 second");
+        if (bufferSize < 1024 || bufferSize > 1024 * 1024) throw new IllegalArgumentException("buffer-size must be 1024 up to 1048576");
+        if (maxHeaderSize < 256 || maxHeaderSize > bufferSize) throw new IllegalArgumentException("max-header-size must be at least 256 and must not exceed buffer-size");
+        if (maxBodySize < 0) throw new IllegalArgumentException("max-body-size must not be negative");
+        if (maxConcurrentStreams < 1) throw new IllegalArgumentException("max-concurrent-streams must be at least 1");
+        this.eventLoops = eventLoops;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = TimeUnit.SECONDS.toNanos(idleTimeout);
+        this.requestTimeout = TimeUnit.SECONDS.toNanos(requestTimeout);
+        this.bufferSize = bufferSize;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+        this.http2 = http2;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * Returns the amount of threads reading and writing the connections.
+     *
+     * @return The amount of threads.
+     */
+    int getEventLoops() {
+        return this.eventLoops;
+    }
+
+    /**
+     * Returns the maximal amount of open connections.
+     *
+     * @return The amount of connections.
+     */
+    int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    /**
+     * Returns the time a keep-alive connection is kept open without a request.
+     *
+     * @return The time in nanoseconds.
+     */
+    long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * Returns the time a client may take to send a request (or to receive a part of a response).
+     *
+     * @return The time in nanoseconds.
+     */
+    long getRequestTimeout() {
+        return this.requestTimeout;
+    }
+
+    /**
+     * Returns the size of the pooled buffers.
+     *
+     * @return The size in bytes.
+     */
+    int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Returns the maximal size of the request line and the headers of a request.
+     *
+     * @return The size in bytes.
+     */
+    int getMaxHeaderSize() {
+        return this.maxHeaderSize;
+    }
+
+    /**
+     * Returns the maximal size of the body of a request.
+     *
+     * @return The size in bytes.
+     */
+    int getMaxBodySize() {
+        return this.maxBodySize;
+    }
+
+    /**
+     * Returns whether HTTP/2 is accepted.
+     *
+     * @return true when HTTP/2 is enabled.
+     */
+    boolean isHttp2() {
+        return this.http2;
+    }
+
+    /**
+     * Returns the maximal amount of concurrent requests of an HTTP/2 connection.
+     *
+     * @return The amount of streams.
+     */
+    int getMaxConcurrentStreams() {
+        return this.maxConcurrentStreams;
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adapts a request received by a {@link NioHttpServer} to an {@link HttpExchange}, so it is served by the same handlers and filters.
+ *
+ * <p>
+ *     The behavior follows the HttpExchange of the JDK: the response length passed to {@link #sendResponseHeaders(int, long)}
+ *     selects a fixed length, a streamed body (0) or no body (-1) and the exchange is complete when the response body is closed.
+ *     The request body is received completely before the handler is called.
+ *     <br>
+ *     The subclasses send the response with HTTP/1.x ({@link NioHttpExchange}) or on a stream of an HTTP/2 connection ({@link Http2Exchange}).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+abstract class NioExchange extends HttpExchange {
+
+    private final Connection connection;
+    private final HttpContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private InputStream in;
+    private OutputStream out;
+    private int responseCode = -1;
+
+    /**
+     * Creates a new exchange.
+     *
+     * @param connection The connection the request was received on.
+     * @param context The context handling the request.
+     * @param method The method of the request.
+     * @param uri The target of the request.
+     * @param protocol The protocol of the request.
+     * @param requestHeaders The headers of the request.
+     * @param body The body of the request.
+     */
+    NioExchange(Connection connection, HttpContext context, String method, URI uri, String protocol, Headers requestHeaders, byte[] body) {
+        this.connection = connection;
+        this.context = context;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.in = new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return this.requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return this.responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return this.uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return this.method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return this.context;
+    }
+
+    @Override
+    public void close() {
+        if (this.responseCode == -1) {
+            // Like the JDK, an exchange closed without a response is aborted.
+            this.fail();
+            return;
+        }
+        try {
+            this.out.close();
+        }
+        catch (IOException e) {
+            this.fail();
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return this.in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return this.out;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return this.connection.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return this.connection.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        synchronized (this.attributes) {
+            return this.attributes.get(name);
+        }
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        synchronized (this.attributes) {
+            if (value == null) this.attributes.remove(name);
+            else this.attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) this.in = i;
+        if (o != null) this.out = o;
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Returns the connection the request was received on.
+     *
+     * @return The connection.
+     */
+    Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Checks the status code and marks the response headers as sent.
+     *
+     * @param rCode The status code.
+     *
+     * @throws IOException When the headers were sent already or the status code is invalid.
+     */
+    void startResponse(int rCode) throws IOException {
+        if (this.responseCode != -1) throw new IOException("Headers already sent");
+        if (rCode < 100 || rCode > 599) throw new IOException("Invalid status code: " + rCode);
+        this.responseCode = rCode;
+    }
+
+    /**
+     * Marks the exchange as finished (once), so it is no longer counted as active by the server.
+     *
+     * @return true when the exchange was not finished before.
+     */
+    boolean finish() {
+        if (!this.completed.compareAndSet(false, true)) return false;
+        this.connection.getServer().exchangeFinished();
+        return true;
+    }
+
+    /**
+     * Aborts the exchange after the handler failed or closed it without a response (the connection or the stream is closed).
+     */
+    abstract void fail();
+
+    /**
+     * Releases the resources of an incomplete response when the connection is closed.
+     */
+    abstract void abort();
+
+    /**
+     * Called once when the handler of the exchange has returned (or the exchange could not be passed to a handler).
+     */
+    void handled() {
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.github.luka5w.http.HttpStatusCode;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An exchange of a request received with HTTP/1.x.
+ *
+ * <p>
+ *     A response with a length of 0 is sent with the chunked transfer coding (or delimited by closing the connection for HTTP/1.0 clients).
+ *     After the response is complete, the connection is passed on to the next request unless it is closed (see {@link Connection}).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class NioHttpExchange extends NioExchange {
+
+    private static final String[] STATUS_LINES = new String[600];
+
+    static {
+        for (HttpStatusCode status : HttpStatusCode.values()) {
+            if (status.getCode() < STATUS_LINES.length) STATUS_LINES[status.getCode()] = "HTTP/1.1 " + status.getCode() + " " + status.getDescription() + "\r\n";
+        }
+    }
+
+    private final ResponseOutput output;
+    private boolean keepAlive;
+
+    /**
+     * Creates a new exchange.
+     *
+     * @param connection The connection the request was received on.
+     * @param context The context handling the request.
+     * @param method The method of the request.
+     * @param uri The target of the request.
+     * @param protocol The protocol of the request.
+     * @param requestHeaders The headers of the request.
+     * @param body The body of the request.
+     */
+    NioHttpExchange(Connection connection, HttpContext context, String method, URI uri, String protocol, Headers requestHeaders, byte[] body) {
+        super(connection, context, method, uri, protocol, requestHeaders, body);
+        this.output = new ResponseOutput(connection, this);
+        this.setStreams(null, this.output);
+        String connectionHeader = requestHeaders.getFirst("Connection");
+        this.keepAlive = (protocol.equals("HTTP/1.1") ? !hasToken(connectionHeader, "close") : hasToken(connectionHeader, "keep-alive"));
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        this.startResponse(rCode);
+        Headers responseHeaders = this.getResponseHeaders();
+        boolean noContent = (rCode < 200 || rCode == 204 || rCode == 304);
+        boolean head = this.getRequestMethod().equals("HEAD");
+        boolean chunked = false;
+        long length = 0;
+        responseHeaders.remove("Content-Length");
+        responseHeaders.remove("Transfer-Encoding");
+        if (hasToken(responseHeaders.getFirst("Connection"), "close")) this.keepAlive = false;
+        if (noContent || head || responseLength == -1) {
+            if (head && responseLength > 0) responseHeaders.set("Content-Length", Long.toString(responseLength));
+            else if (!noContent && !head) responseHeaders.set("Content-Length", "0");
+        }
+        else if (responseLength > 0) {
+            responseHeaders.set("Content-Length", Long.toString(responseLength));
+            length = responseLength;
+        }
+        else if (this.getProtocol().equals("HTTP/1.1")) {
+            responseHeaders.set("Transfer-Encoding", "chunked");
+            chunked = true;
+            length = -1;
+        }
+        else {
+            // HTTP/1.0 has no chunked transfer coding, the end of the body is marked by closing the connection.
+            this.keepAlive = false;
+            length = -1;
+        }
+        if (!this.keepAlive) responseHeaders.set("Connection", "close");
+        else if (!this.getProtocol().equals("HTTP/1.1")) responseHeaders.set("Connection", "keep-alive");
+        if (!responseHeaders.containsKey("Date")) responseHeaders.set("Date", this.getConnection().getServer().getDate());
+        this.output.start(this.formatHead(rCode), chunked, length);
+        if (length == 0) this.output.close();
+    }
+
+    /**
+     * Marks the response as complete and passes the connection on to the next request (or closes it).
+     */
+    void complete() {
+        if (this.finish()) this.getConnection().complete(this.keepAlive);
+    }
+
+    @Override
+    void fail() {
+        this.getConnection().close();
+    }
+
+    @Override
+    void abort() {
+        // The buffer of the response is left to the thread writing it, which fails since the connection is closed.
+        this.finish();
+    }
+
+    /**
+     * Formats the status line and the headers of the response.
+     *
+     * @param rCode The status code.
+     * @return The bytes of the head (ending with an empty line).
+     */
+    private byte[] formatHead(int rCode) {
+        StringBuilder sb = new StringBuilder(256).append(statusLine(rCode));
+        for (Map.Entry<String, List<String>> header : this.getResponseHeaders().entrySet()) {
+            for (String value : header.getValue()) sb.append(header.getKey()).append(": ").append(value).append("\r\n");
+        }
+        return sb.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the status line of a response.
+     *
+     * @param rCode The status code (100 - 599).
+     * @return The status line (ending with CRLF).
+     */
+    static String statusLine(int rCode) {
+        String statusLine = STATUS_LINES[rCode];
+        return (statusLine == null ? "HTTP/1.1 " + rCode + " \r\n" : statusLine);
+    }
+
+    /**
+     * Returns whether a header contains a token (e.g. <code>Connection: keep-alive, Upgrade</code>).
+     *
+     * @param header The value of the header or null.
+     * @param token The token.
+     * @return true when the header contains the token (case-insensitive).
+     */
+    static boolean hasToken(String header, String token) {
+        if (header == null) return false;
+        for (String value : header.split(",")) {
+            if (value.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+}
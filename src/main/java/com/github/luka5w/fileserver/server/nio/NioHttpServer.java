@@ -0,0 +1,426 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.github.luka5w.fileserver.Main;
+import com.github.luka5w.fileserver.logging.Log;
+import com.github.luka5w.fileserver.metrics.Counter;
+import com.github.luka5w.fileserver.metrics.Metrics;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link HttpServer} built on NIO selectors, an alternative to the HttpServer of the JDK which serves the same contexts, filters and handlers.
+ *
+ * <p>
+ *     An acceptor thread accepts the connections and distributes them round-robin over several event loops (see {@link EventLoop}),
+ *     which read the requests and write the pending parts of the responses without blocking.
+ *     Complete requests are passed to the executor (like the JDK does), so the handlers may block.
+ *     <br>
+ *     The connections support HTTP/1.1 keep-alive and pipelining (see {@link Connection}). Idle connections only occupy a selection key,
+ *     the buffers are taken from a pool of direct buffers while data is received or sent, so many thousands of (mostly idle) connections are cheap.
+ *     The amount of connections and the time a connection may be idle or may take to send a request are limited (see {@link NioConfig}).
+ * </p>
+ * <p>
+ *     Besides HTTP/1.x, the connections support HTTP/2 (see {@link Http2Session}).
+ *     Like the HttpsServer of the JDK, the connections use TLS when an {@link HttpsConfigurator} is set,
+ *     HTTP/2 is negotiated with ALPN then (see {@link NioHttpsParameters}). Without TLS, HTTP/2 is used with prior knowledge (h2c).
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class NioHttpServer extends HttpsServer {
+
+    private static final Log LOGGER = Main.getLogger("NIO");
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private final NioConfig config;
+    private final List<NioHttpContext> contexts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger exchanges = new AtomicInteger();
+    private final Counter rejected;
+    private final Metrics metrics = Metrics.getInstance();
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private Thread acceptor;
+    private Executor executor;
+    private volatile HttpsConfigurator configurator;
+    private volatile BufferPool pool;
+    private volatile String date;
+    private volatile long dateSecond = -1;
+
+    /**
+     * Creates a new server.
+     *
+     * @param address The address to bind to or null to bind later (see {@link #bind(InetSocketAddress, int)}).
+     * @param backlog The maximal amount of connections waiting to be accepted.
+     * @param config The configuration.
+     *
+     * @throws IOException When the server can't be bound to the address.
+     *
+     * @since 1.0.0
+     */
+    public NioHttpServer(InetSocketAddress address, int backlog, NioConfig config) throws IOException {
+        this.config = config;
+        this.rejected = this.metrics.counter("fileserver_nio_connections_rejected_total", "The connections closed since the maximal amount of connections was reached.");
+        this.metrics.gauge("fileserver_nio_connections", "The open connections of the NIO engine.", this.connections::get);
+        this.metrics.gauge("fileserver_nio_buffers_pooled", "The direct buffers kept for reuse by the NIO engine.", () -> {
+            BufferPool pool = this.pool;
+            return (pool == null ? 0 : pool.getPooled());
+        });
+        if (address != null) this.bind(address, backlog);
+    }
+
+    @Override
+    public void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (this.serverChannel != null) throw new BindException("HttpServer already bound");
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(addr, backlog);
+        }
+        catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        this.serverChannel = serverChannel;
+    }
+
+    @Override
+    public void start() {
+        if (this.serverChannel == null) throw new IllegalStateException("Server not bound");
+        if (this.acceptor != null) throw new IllegalStateException("Server already started");
+        int bufferSize = this.config.getBufferSize();
+        // A complete frame of HTTP/2 must fit into the input buffer.
+        if (this.config.isHttp2()) bufferSize = Math.max(bufferSize, Http2Session.FRAME_HEADER + Http2Session.MAX_FRAME_SIZE);
+        HttpsConfigurator configurator = this.configurator;
+        if (configurator != null) {
+            // The input buffer must hold a decrypted record besides an incomplete request (or frame), an output buffer must hold an encrypted record.
+            SSLSession session = configurator.getSSLContext().createSSLEngine().getSession();
+            bufferSize = Math.max(bufferSize + session.getApplicationBufferSize(), session.getPacketBufferSize());
+        }
+        this.pool = new BufferPool(bufferSize, MAX_POOLED_BUFFERS);
+        this.loops = new EventLoop[this.config.getEventLoops()];
+        try {
+            for (int i = 0; i < this.loops.length; i++) this.loops[i] = new EventLoop(this, "NIO-EventLoop-" + (i + 1));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Can't open selector", e);
+        }
+        for (EventLoop loop : this.loops) loop.start();
+        // Like the dispatcher thread of the JDK, the acceptor keeps the JVM running until the server is stopped.
+        this.acceptor = new Thread(this::accept, "NIO-Acceptor");
+        this.acceptor.start();
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if (this.acceptor != null) throw new IllegalStateException("Server already started");
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Enables TLS for the connections accepted afterwards.
+     * <p>
+     *     The configurator should be set before the server is started, since the size of the buffers depends on TLS.
+     * </p>
+     *
+     * @param config The configurator.
+     */
+    @Override
+    public void setHttpsConfigurator(HttpsConfigurator config) {
+        if (config == null) throw new NullPointerException("null HttpsConfigurator");
+        this.configurator = config;
+    }
+
+    @Override
+    public HttpsConfigurator getHttpsConfigurator() {
+        return this.configurator;
+    }
+
+    /**
+     * Stops accepting connections, waits until the requests being handled are complete (at most the delay)
+     * and closes all connections.
+     *
+     * @param delay The maximal time to wait in seconds.
+     */
+    @Override
+    public void stop(int delay) {
+        if (delay < 0) throw new IllegalArgumentException("negative delay parameter");
+        try {
+            this.serverChannel.close();
+        }
+        catch (IOException e) {
+            LOGGER.exception("Failed to close server socket: ", e);
+        }
+        if (this.acceptor == null) return;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+        try {
+            while (this.exchanges.get() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+            this.acceptor.join();
+            for (EventLoop loop : this.loops) loop.shutdown();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if (path == null || !path.startsWith("/")) throw new IllegalArgumentException("Illegal value for path");
+        synchronized (this.contexts) {
+            for (NioHttpContext context : this.contexts) {
+                if (context.getPath().equals(path)) throw new IllegalArgumentException("cannot add context to list");
+            }
+            NioHttpContext context = new NioHttpContext(path, handler, this);
+            this.contexts.add(context);
+            return context;
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return this.createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        synchronized (this.contexts) {
+            for (NioHttpContext context : this.contexts) {
+                if (context.getPath().equals(path)) {
+                    this.contexts.remove(context);
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("cannot remove element from list");
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if (!this.contexts.remove(context)) throw new IllegalArgumentException("cannot remove element from list");
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) this.serverChannel.getLocalAddress();
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the configuration of the server.
+     *
+     * @return The configuration.
+     */
+    NioConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * Returns the pool of the buffers of the connections.
+     *
+     * @return The pool.
+     */
+    BufferPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Creates the engine of a new connection with the parameters of the configurator.
+     *
+     * @param clientAddress The address of the client.
+     * @return The engine or null when TLS is not enabled.
+     */
+    SSLEngine createEngine(InetSocketAddress clientAddress) {
+        HttpsConfigurator configurator = this.configurator;
+        if (configurator == null) return null;
+        SSLEngine engine = configurator.getSSLContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        NioHttpsParameters params = new NioHttpsParameters(configurator, clientAddress);
+        configurator.configure(params);
+        params.apply(engine, this.config.isHttp2());
+        return engine;
+    }
+
+    /**
+     * Returns the current date formatted for the <code>Date</code> header (RFC 7231 7.1.1.1), the value is updated once per second.
+     *
+     * @return The date.
+     */
+    String getDate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != this.dateSecond) {
+            this.date = HTTP_DATE.format(ZonedDateTime.now(ZoneOffset.UTC));
+            this.dateSecond = second;
+        }
+        return this.date;
+    }
+
+    /**
+     * Returns the context handling a request path (the context with the longest path the request path starts with, like the JDK).
+     *
+     * @param path The request path.
+     * @return The context or null when no context matches.
+     */
+    NioHttpContext findContext(String path) {
+        NioHttpContext match = null;
+        for (NioHttpContext context : this.contexts) {
+            if (path.startsWith(context.getPath()) && (match == null || context.getPath().length() > match.getPath().length())) match = context;
+        }
+        return match;
+    }
+
+    /**
+     * Passes a request to the filters and the handler of its context on the executor.
+     * <p>
+     *     Like the JDK, the connection (or the HTTP/2 stream) is closed when the handler throws an exception.
+     * </p>
+     *
+     * @param exchange The exchange of the request.
+     */
+    void dispatch(NioExchange exchange) {
+        this.exchanges.incrementAndGet();
+        HttpContext context = exchange.getHttpContext();
+        Runnable task = () -> {
+            try {
+                if (context == null || context.getHandler() == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.debug(() -> "Failed to handle request: " + e);
+                exchange.fail();
+            }
+            finally {
+                exchange.handled();
+            }
+        };
+        if (this.executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            this.executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            exchange.fail();
+            exchange.handled();
+        }
+    }
+
+    /**
+     * Counts a connection which was closed.
+     */
+    void connectionClosed() {
+        this.connections.decrementAndGet();
+    }
+
+    /**
+     * Counts a request which is complete (or whose connection was closed).
+     */
+    void exchangeFinished() {
+        this.exchanges.decrementAndGet();
+    }
+
+    /**
+     * Counts a connection which was closed due to a timeout.
+     *
+     * @param reason The expired timeout (<code>idle</code>, <code>request</code> or <code>write</code>).
+     */
+    void countTimeout(String reason) {
+        this.metrics.counter("fileserver_nio_timeouts_total", "The connections closed due to a timeout.", "reason", reason).increment();
+    }
+
+    /**
+     * Accepts the connections and passes them to the event loops (the loop of the acceptor thread).
+     */
+    private void accept() {
+        int next = 0;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = this.serverChannel.accept();
+            }
+            catch (ClosedChannelException e) {
+                return;
+            }
+            catch (IOException e) {
+                // E.g. too many open files, accepting again immediately would fail again.
+                LOGGER.exception("Failed to accept connection: ", e);
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            if (this.connections.incrementAndGet() > this.config.getMaxConnections()) {
+                this.connections.decrementAndGet();
+                this.rejected.increment();
+                this.closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            catch (IOException e) {
+                this.connections.decrementAndGet();
+                this.closeQuietly(channel);
+                continue;
+            }
+            this.loops[next].register(channel);
+            next = (next + 1) % this.loops.length;
+        }
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     *
+     * @param channel The channel.
+     */
+    private void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+            // The connection is gone anyway.
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.net.InetSocketAddress;
+
+/**
+ * The parameters passed to the {@link HttpsConfigurator} of a {@link NioHttpServer} for a new connection.
+ *
+ * <p>
+ *     Like the JDK, the SSLParameters replace the cipher suites, protocols and client authentication set separately.
+ *     Unless the configurator selects application protocols, <code>h2</code> (when HTTP/2 is enabled) and <code>http/1.1</code> are offered with ALPN.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class NioHttpsParameters extends HttpsParameters {
+
+    private final HttpsConfigurator configurator;
+    private final InetSocketAddress clientAddress;
+    private SSLParameters sslParameters;
+
+    /**
+     * Creates new parameters.
+     *
+     * @param configurator The configurator.
+     * @param clientAddress The address of the client.
+     */
+    NioHttpsParameters(HttpsConfigurator configurator, InetSocketAddress clientAddress) {
+        this.configurator = configurator;
+        this.clientAddress = clientAddress;
+    }
+
+    @Override
+    public HttpsConfigurator getHttpsConfigurator() {
+        return this.configurator;
+    }
+
+    @Override
+    public InetSocketAddress getClientAddress() {
+        return this.clientAddress;
+    }
+
+    @Override
+    public void setSSLParameters(SSLParameters params) {
+        this.sslParameters = params;
+    }
+
+    /**
+     * Applies the parameters to the engine of the connection.
+     *
+     * @param engine The engine (in server mode).
+     * @param http2 Whether HTTP/2 is offered.
+     */
+    void apply(SSLEngine engine, boolean http2) {
+        if (this.sslParameters != null) {
+            engine.setSSLParameters(this.sslParameters);
+        }
+        else {
+            if (this.getCipherSuites() != null) engine.setEnabledCipherSuites(this.getCipherSuites());
+            if (this.getProtocols() != null) engine.setEnabledProtocols(this.getProtocols());
+            if (this.getNeedClientAuth()) engine.setNeedClientAuth(true);
+            else if (this.getWantClientAuth()) engine.setWantClientAuth(true);
+        }
+        SSLParameters params = engine.getSSLParameters();
+        if (params.getApplicationProtocols().length == 0) {
+            params.setApplicationProtocols(http2 ? new String[] {"h2", "http/1.1"} : new String[] {"http/1.1"});
+            engine.setSSLParameters(params);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import com.sun.net.httpserver.Headers;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses HTTP/1.x requests (RFC 7230) incrementally from the bytes received on a connection.
+ *
+ * <p>
+ *     The request line and the headers are parsed when they are received completely, the body (with a <code>Content-Length</code>
+ *     or <code>chunked</code> transfer coding) is collected into an array, so the handler never waits for the client.
+ *     <br>
+ *     After a request is complete, the parser is reset for the next (pipelined) request on the connection.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class RequestParser {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int HEAD = 0;
+    private static final int BODY = 1;
+    private static final int CHUNK_SIZE = 2;
+    private static final int CHUNK_DATA = 3;
+    private static final int CHUNK_END = 4;
+    private static final int TRAILER = 5;
+    private static final int DONE = 6;
+    private static final int MAX_LINE = 1024;
+
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+    private final StringBuilder line = new StringBuilder();
+    private int state = HEAD;
+    private String method;
+    private URI uri;
+    private String protocol;
+    private Headers headers;
+    private byte[] body;
+    private int bodyLength;
+    private long remaining;
+    private int trailerSize;
+    private boolean expectContinue;
+
+    /**
+     * Creates a new parser.
+     *
+     * @param maxHeaderSize The maximal size of the request line and the headers in bytes.
+     * @param maxBodySize The maximal size of the body in bytes.
+     */
+    RequestParser(int maxHeaderSize, int maxBodySize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Consumes the received bytes of a request.
+     * <p>
+     *     Bytes of the request line and the headers are only consumed when the headers are complete,
+     *     bytes following the request are never consumed.
+     * </p>
+     *
+     * @param in The received bytes (in read mode).
+     * @return true when the request is complete.
+     *
+     * @throws BadRequestException When the request is invalid or too large.
+     */
+    boolean parse(ByteBuffer in) throws BadRequestException {
+        String line;
+        while (true) {
+            switch (this.state) {
+                case HEAD:
+                    if (!this.parseHead(in)) return false;
+                    break;
+                case BODY:
+                    this.readBody(in);
+                    if (this.remaining > 0) return false;
+                    this.state = DONE;
+                    break;
+                case CHUNK_SIZE:
+                    if ((line = this.readLine(in)) == null) return false;
+                    this.parseChunkSize(line);
+                    break;
+                case CHUNK_DATA:
+                    this.readBody(in);
+                    if (this.remaining > 0) return false;
+                    this.state = CHUNK_END;
+                    break;
+                case CHUNK_END:
+                    if ((line = this.readLine(in)) == null) return false;
+                    if (!line.isEmpty()) throw new BadRequestException(400);
+                    this.state = CHUNK_SIZE;
+                    break;
+                case TRAILER:
+                    // Trailer fields are not passed to the handler.
+                    if ((line = this.readLine(in)) == null) return false;
+                    this.trailerSize += line.length();
+                    if (this.trailerSize > this.maxHeaderSize) throw new BadRequestException(431);
+                    if (line.isEmpty()) this.state = DONE;
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Returns whether parts of a request have been consumed.
+     *
+     * @return true when the parser waits for the rest of a request.
+     */
+    boolean isStarted() {
+        return this.state != HEAD;
+    }
+
+    /**
+     * Returns (once) whether the client waits for a <code>100 (Continue)</code> response before sending the body.
+     *
+     * @return true when the interim response must be sent.
+     */
+    boolean takeExpectContinue() {
+        boolean expectContinue = this.expectContinue;
+        this.expectContinue = false;
+        return expectContinue;
+    }
+
+    /**
+     * Returns the method of the complete request.
+     *
+     * @return The method.
+     */
+    String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the target of the complete request.
+     *
+     * @return The URI.
+     */
+    URI getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Returns the protocol of the complete request.
+     *
+     * @return The protocol (<code>HTTP/1.0</code> or <code>HTTP/1.1</code>).
+     */
+    String getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * Returns the headers of the complete request.
+     *
+     * @return The headers.
+     */
+    Headers getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Returns the body of the complete request.
+     *
+     * @return The body (empty when the request has no body).
+     */
+    byte[] getBody() {
+        return (this.bodyLength == this.body.length ? this.body : Arrays.copyOf(this.body, this.bodyLength));
+    }
+
+    /**
+     * Prepares the parser for the next request.
+     */
+    void reset() {
+        this.state = HEAD;
+        this.method = null;
+        this.uri = null;
+        this.protocol = null;
+        this.headers = null;
+        this.body = null;
+        this.bodyLength = 0;
+        this.remaining = 0;
+        this.trailerSize = 0;
+        this.expectContinue = false;
+        this.line.setLength(0);
+    }
+
+    /**
+     * Parses the request line and the headers when they are received completely.
+     *
+     * @param in The received bytes.
+     * @return true when the headers are complete.
+     *
+     * @throws BadRequestException When the request line or a header is invalid or the headers are too large.
+     */
+    private boolean parseHead(ByteBuffer in) throws BadRequestException {
+        // Empty lines preceding the request line are ignored (RFC 7230 3.5).
+        while (in.hasRemaining() && (in.get(in.position()) == '\r' || in.get(in.position()) == '\n')) in.get();
+        int start = in.position();
+        int end = -1;
+        for (int i = start + 1; i < in.limit(); i++) {
+            if (in.get(i) == '\n' && (in.get(i - 1) == '\n' || (in.get(i - 1) == '\r' && i - 2 >= start && in.get(i - 2) == '\n'))) {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.remaining() >= this.maxHeaderSize) throw new BadRequestException(431);
+            return false;
+        }
+        if (end - start > this.maxHeaderSize) throw new BadRequestException(431);
+        byte[] head = new byte[end - start];
+        in.get(head);
+        String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r?\n");
+        this.parseRequestLine(lines[0]);
+        this.headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            String header = lines[i];
+            int colon = header.indexOf(':');
+            // Obsolete line folding and whitespace before the colon are rejected (RFC 7230 3.2.4).
+            if (colon <= 0 || header.charAt(0) == ' ' || header.charAt(0) == '\t' || header.charAt(colon - 1) == ' ') throw new BadRequestException(400);
+            this.headers.add(header.substring(0, colon), header.substring(colon + 1).trim());
+        }
+        this.parseFraming();
+        return true;
+    }
+
+    /**
+     * Parses the request line.
+     *
+     * @param requestLine The request line.
+     *
+     * @throws BadRequestException When the request line is invalid or the protocol is not supported.
+     */
+    private void parseRequestLine(String requestLine) throws BadRequestException {
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || parts[0].isEmpty() || parts[1].isEmpty()) throw new BadRequestException(400);
+        if (!parts[2].equals("HTTP/1.1") && !parts[2].equals("HTTP/1.0")) throw new BadRequestException(505);
+        this.method = parts[0];
+        this.protocol = parts[2];
+        try {
+            this.uri = new URI(parts[1]);
+        }
+        catch (URISyntaxException e) {
+            throw new BadRequestException(400);
+        }
+    }
+
+    /**
+     * Determines the length of the body (RFC 7230 3.3.3).
+     *
+     * @throws BadRequestException When the length is invalid or too large or the transfer coding is not supported.
+     */
+    private void parseFraming() throws BadRequestException {
+        String transferEncoding = this.headers.getFirst("Transfer-Encoding");
+        List<String> contentLengths = this.headers.get("Content-Length");
+        this.body = EMPTY;
+        if (transferEncoding != null) {
+            // A request with both is rejected, since intermediaries may disagree about its length (request smuggling).
+            if (contentLengths != null || this.headers.get("Transfer-Encoding").size() > 1) throw new BadRequestException(400);
+            if (!transferEncoding.equalsIgnoreCase("chunked")) throw new BadRequestException(501);
+            this.body = new byte[Math.min(this.maxBodySize, 4096)];
+            this.state = CHUNK_SIZE;
+        }
+        else if (contentLengths != null) {
+            long length;
+            try {
+                length = Long.parseLong(contentLengths.get(0));
+            }
+            catch (NumberFormatException e) {
+                throw new BadRequestException(400);
+            }
+            for (String contentLength : contentLengths) {
+                if (!contentLength.equals(contentLengths.get(0))) throw new BadRequestException(400);
+            }
+            if (length < 0) throw new BadRequestException(400);
+            if (length > this.maxBodySize) throw new BadRequestException(413);
+            this.body = new byte[(int) length];
+            this.remaining = length;
+            this.state = (length > 0 ? BODY : DONE);
+        }
+        else {
+            this.state = DONE;
+        }
+        this.expectContinue = (this.state != DONE && this.protocol.equals("HTTP/1.1") && "100-continue".equalsIgnoreCase(this.headers.getFirst("Expect")));
+    }
+
+    /**
+     * Copies received bytes of the body (or of a chunk).
+     *
+     * @param in The received bytes.
+     */
+    private void readBody(ByteBuffer in) {
+        int length = (int) Math.min(this.remaining, in.remaining());
+        if (this.bodyLength + length > this.body.length) this.body = Arrays.copyOf(this.body, Math.max(this.bodyLength + length, Math.min(this.maxBodySize, this.body.length * 2)));
+        in.get(this.body, this.bodyLength, length);
+        this.bodyLength += length;
+        this.remaining -= length;
+    }
+
+    /**
+     * Reads a line of the chunked transfer coding, a partial line is kept until the rest is received.
+     *
+     * @param in The received bytes.
+     * @return The complete line (without the line break) or null when the line is incomplete.
+     *
+     * @throws BadRequestException When the line is too long.
+     */
+    private String readLine(ByteBuffer in) throws BadRequestException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xFF);
+            if (c == '\n') {
+                int length = this.line.length();
+                if (length > 0 && this.line.charAt(length - 1) == '\r') length--;
+                String line = this.line.substring(0, length);
+                this.line.setLength(0);
+                return line;
+            }
+            if (this.line.length() >= MAX_LINE) throw new BadRequestException(400);
+            this.line.append(c);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the size line of a chunk.
+     *
+     * @param line The size line.
+     *
+     * @throws BadRequestException When the size is invalid or the body is too large.
+     */
+    private void parseChunkSize(String line) throws BadRequestException {
+        String size = line;
+        int extension = size.indexOf(';');
+        if (extension >= 0) size = size.substring(0, extension);
+        long length;
+        try {
+            length = Long.parseLong(size.trim(), 16);
+        }
+        catch (NumberFormatException e) {
+            throw new BadRequestException(400);
+        }
+        if (length < 0) throw new BadRequestException(400);
+        if (this.bodyLength + length > this.maxBodySize) throw new BadRequestException(413);
+        this.remaining = length;
+        this.state = (length == 0 ? TRAILER : CHUNK_DATA);
+    }
+
+    /**
+     * A request which can't be parsed and is answered with an error status.
+     *
+     * @author Lukas // https://github.com/luka5w
+     * @version 1.0.0
+     */
+    static final class BadRequestException extends Exception {
+
+        private final int status;
+
+        /**
+         * Creates a new exception.
+         *
+         * @param status The status of the response.
+         */
+        BadRequestException(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+
+        /**
+         * Returns the status of the response.
+         *
+         * @return The HTTP status code.
+         */
+        int getStatus() {
+            return this.status;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The stream of a response body which is written into pooled buffers and passed to the connection when a buffer is full or flushed.
+ *
+ * <p>
+ *     The status line and the headers are written into the first buffer, so a small response is sent with a single write.
+ *     <br>
+ *     With the chunked transfer coding, the size line of a chunk is reserved in front of the data and filled in when the buffer is sent
+ *     (the size is padded with zeros to a fixed length, which is allowed by RFC 7230 4.1), so the data is never copied again.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class ResponseOutput extends OutputStream {
+
+    private static final int SIZE_LINE = 8;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Connection connection;
+    private final NioHttpExchange exchange;
+    private ByteBuffer buffer;
+    private boolean started = false;
+    private boolean chunked;
+    private boolean fixedLength;
+    private long remaining;
+    private int chunkStart;
+    private boolean closed = false;
+
+    /**
+     * Creates a new stream, which accepts data after {@link #start(byte[], boolean, long)} was called.
+     *
+     * @param connection The connection.
+     * @param exchange The exchange which is completed when the stream is closed.
+     */
+    ResponseOutput(Connection connection, NioHttpExchange exchange) {
+        this.connection = connection;
+        this.exchange = exchange;
+    }
+
+    /**
+     * Starts the response.
+     *
+     * @param head The status line and the headers.
+     * @param chunked Whether the body is sent with the chunked transfer coding.
+     * @param length The length of the body or -1 when the body is chunked or delimited by closing the connection.
+     *
+     * @throws IOException When the connection is closed.
+     */
+    void start(byte[] head, boolean chunked, long length) throws IOException {
+        this.started = true;
+        this.chunked = chunked;
+        this.fixedLength = (length >= 0);
+        this.remaining = (this.fixedLength ? length : Long.MAX_VALUE);
+        this.buffer = this.connection.getPool().acquire();
+        if (head.length + SIZE_LINE + CRLF.length + LAST_CHUNK.length >= this.buffer.capacity()) {
+            this.connection.write(ByteBuffer.wrap(head));
+        }
+        else {
+            this.buffer.put(head);
+        }
+        this.chunkStart = this.buffer.position();
+        if (this.chunked) this.buffer.position(this.chunkStart + SIZE_LINE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!this.started) throw new IOException("Response headers not sent yet");
+        if (this.closed) throw new IOException("Stream is closed");
+        if (len > this.remaining) throw new IOException("Too many bytes to write to stream");
+        this.remaining -= len;
+        while (len > 0) {
+            if (this.buffer == null) this.nextBuffer();
+            int length = Math.min(len, this.space());
+            this.buffer.put(b, off, length);
+            off += length;
+            len -= length;
+            if (this.space() == 0) this.send(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.closed || this.buffer == null) return;
+        if (this.buffer.position() > this.chunkStart + (this.chunked ? SIZE_LINE : 0)) this.send(false);
+    }
+
+    /**
+     * Closes the stream and completes the exchange, the connection is closed when fewer bytes than announced were written.
+     *
+     * @throws IOException When the response is incomplete or the connection is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed || !this.started) return;
+        this.closed = true;
+        if (this.fixedLength && this.remaining > 0) {
+            this.release();
+            this.connection.close();
+            throw new IOException("Insufficient bytes written to stream");
+        }
+        try {
+            if (this.buffer == null && this.chunked) this.nextBuffer();
+            if (this.buffer != null) this.send(true);
+        }
+        finally {
+            this.exchange.complete();
+        }
+    }
+
+    /**
+     * Returns whether the stream is closed.
+     *
+     * @return true when the response is complete.
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Releases the current buffer without sending it.
+     */
+    private void release() {
+        if (this.buffer == null) return;
+        this.connection.getPool().release(this.buffer);
+        this.buffer = null;
+    }
+
+    /**
+     * Acquires an empty buffer for the next part of the body.
+     */
+    private void nextBuffer() {
+        this.buffer = this.connection.getPool().acquire();
+        this.chunkStart = 0;
+        if (this.chunked) this.buffer.position(SIZE_LINE);
+    }
+
+    /**
+     * Returns the space left for data in the current buffer.
+     *
+     * @return The amount of bytes (the end of a chunk and the last chunk are reserved with the chunked transfer coding).
+     */
+    private int space() {
+        return this.buffer.remaining() - (this.chunked ? CRLF.length + LAST_CHUNK.length : 0);
+    }
+
+    /**
+     * Passes the current buffer to the connection.
+     *
+     * @param last Whether the buffer contains the end of the body.
+     *
+     * @throws IOException When the connection is closed.
+     */
+    private void send(boolean last) throws IOException {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        if (this.chunked) {
+            int size = buffer.position() - this.chunkStart - SIZE_LINE;
+            if (size == 0) {
+                buffer.position(this.chunkStart);
+            }
+            else {
+                for (int i = 5; i >= 0; i--, size >>>= 4) buffer.put(this.chunkStart + i, HEX[size & 0xF]);
+                buffer.put(this.chunkStart + 6, CRLF[0]);
+                buffer.put(this.chunkStart + 7, CRLF[1]);
+                buffer.put(CRLF);
+            }
+            if (last) buffer.put(LAST_CHUNK);
+        }
+        buffer.flip();
+        if (buffer.hasRemaining()) this.connection.write(buffer);
+        else this.connection.getPool().release(buffer);
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.luka5w.json;
+
+import org.json.JSONObject;
+
+/**
+ * JSON Merge Patch (RFC 7396).
+ *
+ * <p>
+ *     source: https://tools.ietf.org/html/rfc7396
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class JSONMergePatch {
+
+    public static final String CONTENT_TYPE = "application/merge-patch+json";
+
+    private JSONMergePatch() {
+    }
+
+    /**
+     * Applies a merge patch to a target.
+     * <p>
+     *     Objects are merged recursively, members with a null value ({@link JSONObject#NULL}) are removed,
+     *     all other values (including arrays) replace the value of the target.
+     *     <br>
+     *     The target is modified in place when it is an object.
+     * </p>
+     *
+     * @param target The target value (may be null when the member does not exist).
+     * @param patch The patch.
+     * @return The patched value.
+     *
+     * @since 1.0.0
+     */
+    public static Object apply(Object target, Object patch) {
+        if (!(patch instanceof JSONObject)) return patch;
+        JSONObject patchObject = (JSONObject) patch;
+        JSONObject targetObject = (target instanceof JSONObject ? (JSONObject) target : new JSONObject());
+        for (String key : patchObject.keySet()) {
+            Object value = patchObject.get(key);
+            if (JSONObject.NULL.equals(value)) targetObject.remove(key);
+            else targetObject.put(key, apply(targetObject.opt(key), value));
+        }
+        return targetObject;
+    }
+}
@@ -0,0 +1,265 @@
+package com.github.luka5w.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON Patch (RFC 6902) using JSON Pointers (RFC 6901).
+ *
+ * <p>
+ *     source: https://tools.ietf.org/html/rfc6902
+ *     <br>
+ *     Supported operations: add, remove, replace, move, copy, test
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public final class JSONPatch {
+
+    public static final String CONTENT_TYPE = "application/json-patch+json";
+
+    private JSONPatch() {
+    }
+
+    /**
+     * Applies a patch (i.e. an array of operations) to a document.
+     * <p>
+     *     The document is modified in place. When an operation fails, the document may be partially modified,
+     *     so the caller should apply the patch to a copy or discard the document.
+     * </p>
+     *
+     * @param document The document.
+     * @param patch The patch.
+     * @return The patched document (which differs from the passed document when the root is replaced).
+     *
+     * @throws JSONException When an operation is malformed or fails (e.g. a test operation or a missing path).
+     *
+     * @since 1.0.0
+     */
+    public static Object apply(Object document, JSONArray patch) throws JSONException {
+        for (int i = 0; i < patch.length(); i++) {
+            JSONObject op = patch.optJSONObject(i);
+            if (op == null) throw new JSONException("Operation " + i + " is not an object");
+            String path = op.optString("path", null);
+            if (path == null) throw new JSONException("Operation " + i + " has no path");
+            switch (op.optString("op")) {
+                case "add":
+                    document = add(document, path, value(op, i));
+                    break;
+                case "remove":
+                    remove(document, path);
+                    break;
+                case "replace":
+                    // The root always exists, so it is replaced without removing it.
+                    if (!path.isEmpty()) remove(document, path);
+                    document = add(document, path, value(op, i));
+                    break;
+                case "move": {
+                    String from = from(op, i);
+                    if (path.startsWith(from + "/")) throw new JSONException("Operation " + i + " moves a value into itself");
+                    Object value = remove(document, from);
+                    document = add(document, path, value);
+                    break;
+                }
+                case "copy":
+                    document = add(document, path, copy(get(document, from(op, i))));
+                    break;
+                case "test":
+                    if (!equal(get(document, path), value(op, i))) throw new JSONException("Test of operation " + i + " failed");
+                    break;
+                default:
+                    throw new JSONException("Operation " + i + " has an unknown type");
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Returns the value referenced by a JSON Pointer.
+     *
+     * @param document The document.
+     * @param pointer The JSON Pointer.
+     * @return The value.
+     *
+     * @throws JSONException When the value does not exist.
+     *
+     * @since 1.0.0
+     */
+    public static Object get(Object document, String pointer) throws JSONException {
+        Object current = document;
+        for (String token : parse(pointer)) {
+            if (current instanceof JSONObject) {
+                if (!((JSONObject) current).has(token)) throw new JSONException("Path does not exist: " + pointer);
+                current = ((JSONObject) current).get(token);
+            }
+            else if (current instanceof JSONArray) {
+                current = ((JSONArray) current).get(index((JSONArray) current, token, false));
+            }
+            else {
+                throw new JSONException("Path does not exist: " + pointer);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Adds a value at the location of a JSON Pointer (an existing member is replaced, array elements are inserted).
+     *
+     * @param document The document.
+     * @param pointer The JSON Pointer.
+     * @param value The value.
+     * @return The document, or the value when the pointer references the root.
+     *
+     * @throws JSONException When the parent of the location does not exist.
+     */
+    private static Object add(Object document, String pointer, Object value) throws JSONException {
+        List<String> tokens = parse(pointer);
+        if (tokens.isEmpty()) return value;
+        Object parent = get(document, parentOf(pointer));
+        String last = tokens.get(tokens.size() - 1);
+        if (parent instanceof JSONObject) {
+            ((JSONObject) parent).put(last, value);
+        }
+        else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            int index = index(array, last, true);
+            // JSONArray can't insert, the following elements are shifted manually.
+            for (int i = array.length(); i > index; i--) array.put(i, array.get(i - 1));
+            array.put(index, value);
+        }
+        else {
+            throw new JSONException("Path does not exist: " + pointer);
+        }
+        return document;
+    }
+
+    /**
+     * Removes the value at the location of a JSON Pointer.
+     *
+     * @param document The document.
+     * @param pointer The JSON Pointer.
+     * @return The removed value.
+     *
+     * @throws JSONException When the value does not exist or the pointer references the root.
+     */
+    private static Object remove(Object document, String pointer) throws JSONException {
+        List<String> tokens = parse(pointer);
+        if (tokens.isEmpty()) throw new JSONException("The root can't be removed");
+        Object parent = get(document, parentOf(pointer));
+        String last = tokens.get(tokens.size() - 1);
+        if (parent instanceof JSONObject) {
+            if (!((JSONObject) parent).has(last)) throw new JSONException("Path does not exist: " + pointer);
+            return ((JSONObject) parent).remove(last);
+        }
+        if (parent instanceof JSONArray) {
+            return ((JSONArray) parent).remove(index((JSONArray) parent, last, false));
+        }
+        throw new JSONException("Path does not exist: " + pointer);
+    }
+
+    /**
+     * Splits a JSON Pointer into its (unescaped) reference tokens.
+     *
+     * @param pointer The JSON Pointer.
+     * @return The tokens, an empty list for the root.
+     *
+     * @throws JSONException When the pointer is malformed.
+     */
+    private static List<String> parse(String pointer) throws JSONException {
+        List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) return tokens;
+        if (pointer.charAt(0) != '/') throw new JSONException("Invalid JSON Pointer: " + pointer);
+        for (String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the JSON Pointer of the parent of a location.
+     *
+     * @param pointer The JSON Pointer (must not be the root).
+     * @return The JSON Pointer of the parent.
+     */
+    private static String parentOf(String pointer) {
+        return pointer.substring(0, pointer.lastIndexOf('/'));
+    }
+
+    /**
+     * Parses an array index.
+     *
+     * @param array The array.
+     * @param token The reference token.
+     * @param add Whether the index is used to add a value ('-' and the length of the array are allowed).
+     * @return The index.
+     *
+     * @throws JSONException When the token is no valid index for the array.
+     */
+    private static int index(JSONArray array, String token, boolean add) throws JSONException {
+        if (add && token.equals("-")) return array.length();
+        if (!token.matches("0|[1-9][0-9]{0,8}")) throw new JSONException("Invalid array index: " + token);
+        int index = Integer.parseInt(token);
+        if (index > array.length() || (!add && index == array.length())) throw new JSONException("Array index out of bounds: " + token);
+        return index;
+    }
+
+    /**
+     * Returns the value of an operation.
+     *
+     * @param op The operation.
+     * @param i The index of the operation.
+     * @return The value.
+     *
+     * @throws JSONException When the operation has no value.
+     */
+    private static Object value(JSONObject op, int i) throws JSONException {
+        if (!op.has("value")) throw new JSONException("Operation " + i + " has no value");
+        return op.get("value");
+    }
+
+    /**
+     * Returns the 'from' JSON Pointer of an operation.
+     *
+     * @param op The operation.
+     * @param i The index of the operation.
+     * @return The JSON Pointer.
+     *
+     * @throws JSONException When the operation has no 'from' member.
+     */
+    private static String from(JSONObject op, int i) throws JSONException {
+        String from = op.optString("from", null);
+        if (from == null) throw new JSONException("Operation " + i + " has no from");
+        return from;
+    }
+
+    /**
+     * Returns a deep copy of a value.
+     *
+     * @param value The value.
+     * @return The copy.
+     */
+    private static Object copy(Object value) {
+        if (value instanceof JSONObject) return new JSONObject(value.toString());
+        if (value instanceof JSONArray) return new JSONArray(value.toString());
+        return value;
+    }
+
+    /**
+     * Compares two values as defined for the test operation.
+     *
+     * @param a The first value.
+     * @param b The second value.
+     * @return true when the values are equal.
+     */
+    private static boolean equal(Object a, Object b) {
+        if (a instanceof JSONObject) return ((JSONObject) a).similar(b);
+        if (a instanceof JSONArray) return ((JSONArray) a).similar(b);
+        if (a instanceof Number && b instanceof Number) return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.luka5w.fileserver.data.storage;
+
+import com.github.luka5w.fileserver.data.datatypes.FileMetadata;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the replay (torn and corrupt records) and the compaction of the {@link SegmentStorageEngine}.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class SegmentStorageEngineTest {
+
+    private static final String OWNER = "alice";
+    // Ten documents of this size fill a segment of 1 MiB.
+    private static final int LARGE = 110 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void truncatesTornRecord() throws IOException {
+        SegmentStorageEngine engine = this.open();
+        engine.put(meta(1), content("a", 100));
+        engine.put(meta(2), content("b", 100));
+        Path segment = this.segment(1);
+        long size = Files.size(segment);
+        // A record header announcing more bytes than were written before the crash.
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(8 + 10);
+            torn.putInt(1000).putInt(0x12345678);
+            torn.rewind();
+            channel.write(torn);
+        }
+        engine = this.open();
+        assertEquals(size, Files.size(segment));
+        assertContent(engine, 1, "a", 100);
+        assertContent(engine, 2, "b", 100);
+        assertEquals(2, engine.list(OWNER).size());
+        // The next record is appended where the torn record started.
+        engine.put(meta(3), content("c", 100));
+        engine = this.open();
+        assertContent(engine, 3, "c", 100);
+        assertEquals(3, engine.list(OWNER).size());
+    }
+
+    @Test
+    public void truncatesRecordWithChecksumMismatch() throws IOException {
+        SegmentStorageEngine engine = this.open();
+        engine.put(meta(1), content("a", 100));
+        Path segment = this.segment(1);
+        long size = Files.size(segment);
+        engine.put(meta(2), content("b", 100));
+        // Corrupts the content of the second record.
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'x'}), Files.size(segment) - 10);
+        }
+        engine = this.open();
+        assertEquals(size, Files.size(segment));
+        assertContent(engine, 1, "a", 100);
+        assertNull(engine.getMeta(OWNER, 2));
+        assertEquals(1, engine.list(OWNER).size());
+    }
+
+    @Test
+    public void compactsHalfDeadSegment() throws IOException {
+        SegmentStorageEngine engine = this.open();
+        // Segment 1: documents 1 to 10.
+        for (long id = 1; id <= 10; id++) engine.put(meta(id), content("v1-" + id, LARGE));
+        // Segment 2: documents 11 to 19, the tombstone of document 1 (stored in segment 1) and document 20.
+        for (long id = 11; id <= 19; id++) engine.put(meta(id), content("v1-" + id, LARGE));
+        engine.delete(OWNER, 1);
+        engine.put(meta(20), content("v1-20", LARGE));
+        // Segment 3 (active): new versions of documents 11 to 16, so less than half of segment 2 is live.
+        for (long id = 11; id <= 16; id++) engine.put(meta(id), content("v2-" + id, LARGE));
+        assertTrue(Files.exists(this.segment(3)));
+        engine.compact();
+        // Segment 1 is mostly live and stays, segment 2 is moved to the active segment (with the tombstone of document 1).
+        assertTrue(Files.exists(this.segment(1)));
+        assertFalse(Files.exists(this.segment(2)));
+        assertDocuments(engine);
+        engine = this.open();
+        assertDocuments(engine);
+        // Deleting most of segment 1 compacts it as well, the tombstones are dropped since no older segment is left.
+        for (long id = 2; id <= 9; id++) engine.delete(OWNER, id);
+        engine.compact();
+        assertFalse(Files.exists(this.segment(1)));
+        engine = this.open();
+        for (long id = 1; id <= 9; id++) assertNull(engine.getMeta(OWNER, id));
+        assertContent(engine, 10, "v1-10", LARGE);
+        assertContent(engine, 11, "v2-11", LARGE);
+        assertContent(engine, 20, "v1-20", LARGE);
+        assertEquals(11, engine.list(OWNER).size());
+    }
+
+    @Test
+    public void readsDuringCompaction() throws Exception {
+        SegmentStorageEngine engine = this.open();
+        for (long id = 1; id <= 10; id++) engine.put(meta(id), content("v1-" + id, LARGE));
+        for (long id = 1; id <= 9; id++) engine.put(meta(id), content("v2-" + id, LARGE));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean compacted = new AtomicBoolean();
+        SegmentStorageEngine reading = engine;
+        Thread reader = new Thread(() -> {
+            try {
+                // Document 10 is moved while it is read, a read of the closed segment is retried at the new location.
+                while (!compacted.get()) assertEquals("v1-10", reading.get(OWNER, 10).getString("value"));
+            }
+            catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        engine.compact();
+        compacted.set(true);
+        reader.join();
+        if (failure.get() != null) throw new AssertionError("Read failed during compaction", failure.get());
+        assertFalse(Files.exists(this.segment(1)));
+        assertContent(engine, 10, "v1-10", LARGE);
+    }
+
+    /**
+     * Asserts the documents of {@link #compactsHalfDeadSegment()} after segment 2 was compacted.
+     *
+     * @param engine The engine.
+     *
+     * @throws IOException When a document can't be read.
+     */
+    private static void assertDocuments(SegmentStorageEngine engine) throws IOException {
+        assertNull(engine.getMeta(OWNER, 1));
+        try {
+            engine.get(OWNER, 1);
+            fail("Deleted document was read");
+        }
+        catch (NoSuchFileException e) {
+            // Deleted.
+        }
+        for (long id = 2; id <= 10; id++) assertContent(engine, id, "v1-" + id, LARGE);
+        for (long id = 11; id <= 16; id++) assertContent(engine, id, "v2-" + id, LARGE);
+        for (long id = 17; id <= 20; id++) assertContent(engine, id, "v1-" + id, LARGE);
+        assertEquals(19, engine.list(OWNER).size());
+    }
+
+    /**
+     * Opens an engine on the folder of the test (the background compaction is disabled).
+     *
+     * @return The engine.
+     *
+     * @throws IOException When the segments can't be read.
+     */
+    private SegmentStorageEngine open() throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("segment-size", "1");
+        options.put("compaction-interval", "0");
+        return new SegmentStorageEngine(this.folder.getRoot().getPath(), options);
+    }
+
+    /**
+     * Returns the path of a segment.
+     *
+     * @param number The number of the segment.
+     * @return The path.
+     */
+    private Path segment(long number) {
+        return this.folder.getRoot().toPath().resolve("segment-" + String.format("%016d", number) + ".log");
+    }
+
+    /**
+     * Creates the metadata of a document of the owner of the tests.
+     *
+     * @param id The ID.
+     * @return The metadata.
+     */
+    private static FileMetadata meta(long id) {
+        return new FileMetadata(OWNER, id, id, new ArrayList<>());
+    }
+
+    /**
+     * Creates a content with a value and padding.
+     *
+     * @param value The value.
+     * @param size The length of the padding.
+     * @return The content.
+     */
+    private static JSONObject content(String value, int size) {
+        char[] padding = new char[size];
+        Arrays.fill(padding, 'x');
+        return new JSONObject().put("value", value).put("padding", new String(padding));
+    }
+
+    /**
+     * Asserts the content of a document.
+     *
+     * @param engine The engine.
+     * @param id The ID of the document.
+     * @param value The expected value.
+     * @param size The expected length of the padding.
+     *
+     * @throws IOException When the document can't be read.
+     */
+    private static void assertContent(SegmentStorageEngine engine, long id, String value, int size) throws IOException {
+        JSONObject content = engine.get(OWNER, id);
+        assertEquals(value, content.getString("value"));
+        assertEquals(size, content.getString("padding").length());
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.luka5w.fileserver.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the combination of CRC-32s and the precompressed data of gzip streams of {@link Compression}.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class CompressionTest {
+
+    @Test
+    public void combinesCrcOfKnownValue() {
+        // The check value of CRC-32.
+        byte[] data = "123456789".getBytes();
+        assertEquals(0xcbf43926L, Compression.combineCrc(crc(data, 0, 4), crc(data, 4, 9), 5));
+    }
+
+    @Test
+    public void combinesCrcOfAllSplits() {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        long expected = crc(data, 0, data.length);
+        for (int split = 0; split <= data.length; split++) {
+            assertEquals("split at " + split, expected, Compression.combineCrc(crc(data, 0, split), crc(data, split, data.length), data.length - split));
+        }
+    }
+
+    @Test
+    public void combinesCrcOfLargeBlocks() {
+        // Zero bytes keep the second block cheap while its length uses the high bits of len2.
+        byte[] first = "prefix".getBytes();
+        byte[] second = new byte[5 * 1024 * 1024 + 3];
+        CRC32 whole = new CRC32();
+        whole.update(first);
+        whole.update(second);
+        assertEquals(whole.getValue(), Compression.combineCrc(crc(first, 0, first.length), crc(second, 0, second.length), second.length));
+    }
+
+    @Test
+    public void combinesCrcWithEmptyBlock() {
+        byte[] data = "data".getBytes();
+        assertEquals(crc(data, 0, data.length), Compression.combineCrc(crc(data, 0, data.length), 0, 0));
+    }
+
+    @Test
+    public void writesPrecompressedDataIntoGzipStream() throws IOException {
+        Random random = new Random(7);
+        byte[] before = text(random, 3000);
+        byte[] precompressed = text(random, 20000);
+        byte[] after = text(random, 5000);
+        byte[] deflated = deflate(precompressed);
+        Compression compression = new Compression(0, Deflater.DEFAULT_COMPRESSION, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compression.compress(bytes, Compression.GZIP)) {
+            out.write(before);
+            assertTrue(compression.writeDeflated(out, deflated, precompressed.length, (int) crc(precompressed, 0, precompressed.length)));
+            out.write(after);
+        }
+        // GZIPInputStream verifies the CRC-32 and the length in the trailer.
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(before);
+        expected.write(precompressed);
+        expected.write(after);
+        assertArrayEquals(expected.toByteArray(), gunzip(bytes.toByteArray()));
+    }
+
+    @Test
+    public void doesNotWritePrecompressedDataIntoDeflateStream() throws IOException {
+        Compression compression = new Compression(0, Deflater.DEFAULT_COMPRESSION, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compression.compress(bytes, Compression.DEFLATE)) {
+            byte[] data = "data".getBytes();
+            assertFalse(compression.writeDeflated(out, deflate(data), data.length, (int) crc(data, 0, data.length)));
+        }
+    }
+
+    /**
+     * Computes the CRC-32 of a range of data.
+     *
+     * @param data The data.
+     * @param from The start of the range.
+     * @param to The end of the range (exclusive).
+     * @return The CRC-32.
+     */
+    private static long crc(byte[] data, int from, int to) {
+        CRC32 crc = new CRC32();
+        crc.update(data, from, to - from);
+        return crc.getValue();
+    }
+
+    /**
+     * Creates compressible data.
+     *
+     * @param random The source of the words.
+     * @param length The length in bytes.
+     * @return The data.
+     */
+    private static byte[] text(Random random, int length) {
+        String[] words = {"file ", "server ", "lorem ", "ipsum ", "dolor ", "sit ", "amet\n"};
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) sb.append(words[random.nextInt(words.length)]);
+        return sb.substring(0, length).getBytes();
+    }
+
+    /**
+     * Compresses data with raw deflate ending with a sync flush, like the precompressed contents of the storage.
+     *
+     * @param data The data.
+     * @return The compressed data.
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        do {
+            len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, len);
+        } while (len == buffer.length);
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses gzip data.
+     *
+     * @param data The compressed data.
+     * @return The data.
+     *
+     * @throws IOException When the data or its trailer is invalid.
+     */
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) != -1) out.write(buffer, 0, len);
+            return out.toByteArray();
+        }
+    }
+}
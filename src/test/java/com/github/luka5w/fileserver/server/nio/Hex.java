@@ -0,0 +1,29 @@
+package com.github.luka5w.fileserver.server.nio;
+
+/**
+ * Converts the hex dumps of the examples of RFC 7541 to bytes.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+final class Hex {
+
+    /**
+     * Not instantiable.
+     */
+    private Hex() {
+    }
+
+    /**
+     * Decodes a hex dump.
+     *
+     * @param hex The hex digits (spaces are ignored).
+     * @return The bytes.
+     */
+    static byte[] decode(String hex) {
+        hex = hex.replace(" ", "");
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return data;
+    }
+}
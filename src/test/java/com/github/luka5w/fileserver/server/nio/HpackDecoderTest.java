@@ -0,0 +1,146 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link HpackDecoder} with the examples of RFC 7541 (Appendix C).
+ * <p>
+ *     The blocks of an example are decoded in order by the same decoder, so the later blocks test the dynamic table.
+ * </p>
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class HpackDecoderTest {
+
+    private static final String DATE_1 = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String DATE_2 = "Mon, 21 Oct 2013 20:13:22 GMT";
+    private static final String LOCATION = "https://www.example.com";
+    private static final String COOKIE = "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+
+    @Test
+    public void decodesIntegers() throws Http2Exception {
+        // C.1.1 to C.1.3
+        assertEquals(10, HpackDecoder.decodeInt(ByteBuffer.wrap(Hex.decode("0a")), 5));
+        assertEquals(1337, HpackDecoder.decodeInt(ByteBuffer.wrap(Hex.decode("1f9a0a")), 5));
+        assertEquals(42, HpackDecoder.decodeInt(ByteBuffer.wrap(Hex.decode("2a")), 8));
+    }
+
+    @Test
+    public void decodesRequestsWithoutHuffman() throws Http2Exception {
+        // C.3
+        HpackDecoder decoder = new HpackDecoder();
+        assertFields(decode(decoder, "828684410f7777772e6578616d706c652e636f6d"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertFields(decode(decoder, "828684be58086e6f2d6361636865"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+        assertFields(decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+    }
+
+    @Test
+    public void decodesRequestsWithHuffman() throws Http2Exception {
+        // C.4
+        HpackDecoder decoder = new HpackDecoder();
+        assertFields(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertFields(decode(decoder, "828684be5886a8eb10649cbf"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+        assertFields(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+    }
+
+    @Test
+    public void decodesResponsesWithEviction() throws Http2Exception {
+        // C.6, the table size of 256 bytes of the example is set with a size update (3fe101) in front of the first block.
+        HpackDecoder decoder = new HpackDecoder();
+        assertFields(decode(decoder, "3fe101" + "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3"),
+                ":status", "302", "cache-control", "private", "date", DATE_1, "location", LOCATION);
+        // ":status: 307" evicts ":status: 302".
+        assertFields(decode(decoder, "4883640effc1c0bf"),
+                ":status", "307", "cache-control", "private", "date", DATE_1, "location", LOCATION);
+        assertFields(decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"),
+                ":status", "200", "cache-control", "private", "date", DATE_2, "location", LOCATION, "content-encoding", "gzip", "set-cookie", COOKIE);
+    }
+
+    @Test
+    public void rejectsEvictedIndex() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        decode(decoder, "3fe101" + "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3");
+        decode(decoder, "4883640effc1c0bf");
+        // The table holds four fields (62 to 65) after ":status: 302" was evicted.
+        assertInvalid(decoder, "c2");
+    }
+
+    @Test
+    public void rejectsInvalidBlocks() {
+        // Index 0.
+        assertInvalid(new HpackDecoder(), "80");
+        // Size update after a field.
+        assertInvalid(new HpackDecoder(), "823fe101");
+        // Size update above the size allowed by the server.
+        assertInvalid(new HpackDecoder(), "3fe21f");
+        // Truncated string.
+        assertInvalid(new HpackDecoder(), "410f7777");
+    }
+
+    @Test
+    public void limitsHeaderListSize() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        // ":authority: www.example.com" is 42 bytes with the overhead.
+        assertNull(decoder.decode(ByteBuffer.wrap(Hex.decode("828684410f7777772e6578616d706c652e636f6d")), 150));
+        // The oversized block was decoded anyway, so the field was added to the dynamic table.
+        assertFields(decode(decoder, "be"), ":authority", "www.example.com");
+    }
+
+    /**
+     * Decodes a block without a limit of the header list size.
+     *
+     * @param decoder The decoder.
+     * @param block The block (hex).
+     * @return The fields.
+     *
+     * @throws Http2Exception When the block is invalid.
+     */
+    private static List<String[]> decode(HpackDecoder decoder, String block) throws Http2Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Hex.decode(block));
+        List<String[]> fields = decoder.decode(buffer, Integer.MAX_VALUE);
+        assertEquals(0, buffer.remaining());
+        return fields;
+    }
+
+    /**
+     * Asserts the names and values of decoded fields.
+     *
+     * @param fields The fields.
+     * @param expected The names and values alternating.
+     */
+    private static void assertFields(List<String[]> fields, String... expected) {
+        assertEquals(expected.length / 2, fields.size());
+        for (int i = 0; i < fields.size(); i++) assertArrayEquals(new String[] {expected[2 * i], expected[2 * i + 1]}, fields.get(i));
+    }
+
+    /**
+     * Asserts that a block is rejected with a compression error.
+     *
+     * @param decoder The decoder.
+     * @param block The block (hex).
+     */
+    private static void assertInvalid(HpackDecoder decoder, String block) {
+        try {
+            decode(decoder, block);
+            fail("Decoded invalid block " + block);
+        }
+        catch (Http2Exception e) {
+            assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link HpackEncoder} with the request examples of RFC 7541 (Appendix C.4) and with the {@link HpackDecoder}.
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class HpackEncoderTest {
+
+    @Test
+    public void encodesRequestExamples() {
+        // The fields of the examples are indexed incrementally and every string is shorter with Huffman, so the blocks match C.4.
+        HpackEncoder encoder = new HpackEncoder();
+        assertEncoded(encoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertEncoded(encoder, "828684be5886a8eb10649cbf",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+        assertEncoded(encoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+    }
+
+    @Test
+    public void doesNotIndexVolatileOrSensitiveFields() {
+        HpackEncoder encoder = new HpackEncoder();
+        // "date" (33) without indexing, "set-cookie" (55) never indexed.
+        byte[] first = encode(encoder, fields("date", "Mon, 21 Oct 2013 20:13:21 GMT", "set-cookie", "a=b"));
+        assertEquals(0x0f, first[0] & 0xFF);
+        assertEquals(0x12, first[1] & 0xFF);
+        byte[] second = encode(encoder, fields("date", "Mon, 21 Oct 2013 20:13:21 GMT", "set-cookie", "a=b"));
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void signalsTableSizeUpdates() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        roundTrip(encoder, decoder, fields(":status", "200", "x-custom", "value"));
+        // The smallest size and the final size are signaled, so both tables evict the field.
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(256);
+        byte[] block = encode(encoder, fields("x-other", "value"));
+        assertEquals("20", String.format("%02x", block[0] & 0xFF));
+        assertEquals("3fe101", String.format("%02x%02x%02x", block[1] & 0xFF, block[2] & 0xFF, block[3] & 0xFF));
+        decoder.decode(ByteBuffer.wrap(block), Integer.MAX_VALUE);
+        roundTrip(encoder, decoder, fields("x-custom", "value", "x-other", "value"));
+    }
+
+    @Test
+    public void roundTripsThroughDecoder() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        List<String[]> response = fields(":status", "200", "content-type", "application/json", "content-length", "1234",
+                "etag", "W/\"1569400000000-1569400000000\"", "authorization", "Basic dXNlcjpwYXNz", "x-empty", "");
+        roundTrip(encoder, decoder, response);
+        // Indexed fields are repeated as one byte, the others as literals.
+        byte[] repeated = roundTrip(encoder, decoder, fields(":status", "200", "content-type", "application/json"));
+        assertEquals(2, repeated.length);
+        roundTrip(encoder, decoder, response);
+        // More fields than fit into the dynamic table (evictions on both sides).
+        List<String[]> many = new ArrayList<>();
+        for (int i = 0; i < 200; i++) many.add(new String[] {"x-field-" + i, "value-" + i});
+        roundTrip(encoder, decoder, many);
+        roundTrip(encoder, decoder, many);
+    }
+
+    /**
+     * Encodes a header list and decodes it.
+     *
+     * @param encoder The encoder.
+     * @param decoder The decoder (in sync with the encoder).
+     * @param fields The fields.
+     * @return The block.
+     *
+     * @throws Http2Exception When the decoder rejects the block.
+     */
+    private static byte[] roundTrip(HpackEncoder encoder, HpackDecoder decoder, List<String[]> fields) throws Http2Exception {
+        byte[] block = encode(encoder, fields);
+        List<String[]> decoded = decoder.decode(ByteBuffer.wrap(block), Integer.MAX_VALUE);
+        assertEquals(fields.size(), decoded.size());
+        for (int i = 0; i < fields.size(); i++) assertArrayEquals(fields.get(i), decoded.get(i));
+        return block;
+    }
+
+    /**
+     * Encodes a header list.
+     *
+     * @param encoder The encoder.
+     * @param fields The fields.
+     * @return The block.
+     */
+    private static byte[] encode(HpackEncoder encoder, List<String[]> fields) {
+        ByteBuffer buffer = ByteBuffer.allocate(HpackEncoder.maxEncodedLength(fields));
+        encoder.encode(fields, buffer);
+        assertTrue(buffer.position() > 0);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Asserts that a header list is encoded to a block.
+     *
+     * @param encoder The encoder.
+     * @param expected The block (hex).
+     * @param fields The names and values alternating.
+     */
+    private static void assertEncoded(HpackEncoder encoder, String expected, String... fields) {
+        assertArrayEquals(Hex.decode(expected), encode(encoder, fields(fields)));
+    }
+
+    /**
+     * Creates a header list.
+     *
+     * @param fields The names and values alternating.
+     * @return The fields.
+     */
+    private static List<String[]> fields(String... fields) {
+        List<String[]> list = new ArrayList<>();
+        for (int i = 0; i < fields.length; i += 2) list.add(new String[] {fields[i], fields[i + 1]});
+        return list;
+    }
+}
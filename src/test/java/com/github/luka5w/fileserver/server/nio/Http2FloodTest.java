@@ -0,0 +1,135 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Floods an HTTP/2 connection of a {@link NioHttpServer} with frames the server answers, without reading the answers (CVE-2019-9512).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class Http2FloodTest {
+
+    private static final int PINGS_PER_WRITE = 1000;
+    private static final long MAX_BYTES = 256L * 1024 * 1024;
+
+    private NioHttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        // The timeouts exceed the test, so only the flood protection can close the connection.
+        this.server = new NioHttpServer(new InetSocketAddress("127.0.0.1", 0), 0, new NioConfig(1, 10, 120, 120, 16384, 8192, 1024 * 1024, true, 100));
+        this.server.start();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test(timeout = 60000)
+    public void stopsReadingConnectionFloodedWithPings() throws Exception {
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(this.server.getAddress());
+            AtomicLong sent = new AtomicLong();
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread writer = new Thread(() -> flood(socket, sent, stop), "Flood");
+            writer.setDaemon(true);
+            writer.start();
+            // The server stops reading when its answers are not read, so the writer gets stuck long before it sent everything.
+            long last = -1;
+            while (sent.get() != last && writer.isAlive()) {
+                last = sent.get();
+                Thread.sleep(1000);
+            }
+            assertTrue("The server read " + sent.get() + " bytes of pings without their answers being read", sent.get() < MAX_BYTES);
+            // Reads the answers, the server answers at most the pings sent and disconnects a client which did not read too many answers.
+            stop.set(true);
+            socket.setSoTimeout(2000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            long acks = 0;
+            try {
+                while (true) {
+                    int length = (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                    int type = in.readUnsignedByte();
+                    in.readUnsignedByte();
+                    in.readInt();
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    if (type == 0x6) acks++;
+                    if (type == 0x7) {
+                        assertEquals(Http2Exception.ENHANCE_YOUR_CALM, ByteBuffer.wrap(payload).getInt(4));
+                        break;
+                    }
+                }
+            }
+            catch (EOFException | SocketException | SocketTimeoutException e) {
+                // Closed by the server or all answers read.
+            }
+            writer.join(10000);
+            assertFalse(writer.isAlive());
+            assertTrue(acks <= sent.get() / (Http2Session.FRAME_HEADER + 8));
+        }
+    }
+
+    /**
+     * Sends the preface and pings until the connection is closed, the flood is stopped or the maximal amount of bytes is sent.
+     *
+     * @param socket The socket.
+     * @param sent Counts the bytes sent.
+     * @param stop Stops the flood.
+     */
+    private static void flood(Socket socket, AtomicLong sent, AtomicBoolean stop) {
+        ByteBuffer pings = ByteBuffer.allocate(PINGS_PER_WRITE * (Http2Session.FRAME_HEADER + 8));
+        for (int i = 0; i < PINGS_PER_WRITE; i++) {
+            putHeader(pings, 8, 0x6, 0);
+            pings.putLong(i);
+        }
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Session.PREFACE);
+            ByteBuffer settings = ByteBuffer.allocate(Http2Session.FRAME_HEADER);
+            putHeader(settings, 0, 0x4, 0);
+            out.write(settings.array());
+            while (sent.get() < MAX_BYTES && !stop.get()) {
+                out.write(pings.array());
+                sent.addAndGet(pings.capacity());
+            }
+        }
+        catch (IOException e) {
+            // Closed by the server.
+        }
+    }
+
+    /**
+     * Writes the header of a frame on the connection (stream 0).
+     *
+     * @param frame The buffer.
+     * @param length The length of the payload.
+     * @param type The type.
+     * @param flags The flags.
+     */
+    private static void putHeader(ByteBuffer frame, int length, int type, int flags) {
+        frame.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length).put((byte) type).put((byte) flags).putInt(0);
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.luka5w.fileserver.server.nio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link Huffman} code with the strings of the examples of RFC 7541 (Appendix C.4 and C.6).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class HuffmanTest {
+
+    @Test
+    public void encodesExamples() {
+        assertEncoded("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertEncoded("no-cache", "a8eb10649cbf");
+        assertEncoded("custom-key", "25a849e95ba97d7f");
+        assertEncoded("custom-value", "25a849e95bb8e8b4bf");
+        assertEncoded("302", "6402");
+        assertEncoded("private", "aec3771a4b");
+        assertEncoded("Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff");
+        assertEncoded("https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3");
+    }
+
+    @Test
+    public void decodesExamples() throws Http2Exception {
+        assertEquals("www.example.com", decode("f1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals("no-cache", decode("a8eb10649cbf"));
+        assertEquals("custom-value", decode("25a849e95bb8e8b4bf"));
+        assertEquals("https://www.example.com", decode("9d29ad171863c78f0b97c8e9ae82ae43d3"));
+    }
+
+    @Test
+    public void roundTripsAllOctets() throws Http2Exception {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        ByteBuffer buffer = ByteBuffer.allocate(Huffman.encodedLength(data));
+        Huffman.encode(data, buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        assertArrayEquals(data, Huffman.decode(buffer, buffer.remaining()));
+    }
+
+    @Test
+    public void rejectsPaddingOtherThanEos() {
+        // '0' (00000) followed by three zero bits instead of the most significant bits of EOS.
+        assertInvalid("00");
+        // A full byte of padding is longer than 7 bits.
+        assertInvalid("f1e3c2e5f23a6ba0ab90f4ffff");
+    }
+
+    /**
+     * Asserts that a string is encoded to a code.
+     *
+     * @param value The string.
+     * @param expected The code (hex).
+     */
+    private static void assertEncoded(String value, String expected) {
+        byte[] data = value.getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(expected.length() / 2, Huffman.encodedLength(data));
+        ByteBuffer buffer = ByteBuffer.allocate(Huffman.encodedLength(data));
+        Huffman.encode(data, buffer);
+        assertArrayEquals(Hex.decode(expected), buffer.array());
+    }
+
+    /**
+     * Decodes a code.
+     *
+     * @param code The code (hex).
+     * @return The string.
+     *
+     * @throws Http2Exception When the code is invalid.
+     */
+    private static String decode(String code) throws Http2Exception {
+        byte[] data = Hex.decode(code);
+        return new String(Huffman.decode(ByteBuffer.wrap(data), data.length), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Asserts that a code is rejected with a compression error.
+     *
+     * @param code The code (hex).
+     */
+    private static void assertInvalid(String code) {
+        try {
+            decode(code);
+            fail("Decoded invalid code " + code);
+        }
+        catch (Http2Exception e) {
+            assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+        }
+    }
+}
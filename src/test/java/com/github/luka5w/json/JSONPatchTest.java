@@ -0,0 +1,160 @@
+package com.github.luka5w.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link JSONPatch} with the examples of RFC 6902 (Appendix A).
+ *
+ * @author Lukas // https://github.com/luka5w
+ * @version 1.0.0
+ */
+public class JSONPatchTest {
+
+    @Test
+    public void addsObjectMember() {
+        // A.1
+        assertPatched("{\"foo\":\"bar\"}", "[{\"op\":\"add\",\"path\":\"/baz\",\"value\":\"qux\"}]", "{\"baz\":\"qux\",\"foo\":\"bar\"}");
+    }
+
+    @Test
+    public void addsArrayElement() {
+        // A.2
+        assertPatched("{\"foo\":[\"bar\",\"baz\"]}", "[{\"op\":\"add\",\"path\":\"/foo/1\",\"value\":\"qux\"}]", "{\"foo\":[\"bar\",\"qux\",\"baz\"]}");
+    }
+
+    @Test
+    public void removesObjectMember() {
+        // A.3
+        assertPatched("{\"baz\":\"qux\",\"foo\":\"bar\"}", "[{\"op\":\"remove\",\"path\":\"/baz\"}]", "{\"foo\":\"bar\"}");
+    }
+
+    @Test
+    public void removesArrayElement() {
+        // A.4
+        assertPatched("{\"foo\":[\"bar\",\"qux\",\"baz\"]}", "[{\"op\":\"remove\",\"path\":\"/foo/1\"}]", "{\"foo\":[\"bar\",\"baz\"]}");
+    }
+
+    @Test
+    public void replacesValue() {
+        // A.5
+        assertPatched("{\"baz\":\"qux\",\"foo\":\"bar\"}", "[{\"op\":\"replace\",\"path\":\"/baz\",\"value\":\"boo\"}]", "{\"baz\":\"boo\",\"foo\":\"bar\"}");
+    }
+
+    @Test
+    public void movesValue() {
+        // A.6
+        assertPatched("{\"foo\":{\"bar\":\"baz\",\"waldo\":\"fred\"},\"qux\":{\"corge\":\"grault\"}}",
+                "[{\"op\":\"move\",\"from\":\"/foo/waldo\",\"path\":\"/qux/thud\"}]",
+                "{\"foo\":{\"bar\":\"baz\"},\"qux\":{\"corge\":\"grault\",\"thud\":\"fred\"}}");
+    }
+
+    @Test
+    public void movesArrayElement() {
+        // A.7
+        assertPatched("{\"foo\":[\"all\",\"grass\",\"cows\",\"eat\"]}", "[{\"op\":\"move\",\"from\":\"/foo/1\",\"path\":\"/foo/3\"}]",
+                "{\"foo\":[\"all\",\"cows\",\"eat\",\"grass\"]}");
+    }
+
+    @Test
+    public void testsValues() {
+        // A.8
+        assertPatched("{\"baz\":\"qux\",\"foo\":[\"a\",2,\"c\"]}",
+                "[{\"op\":\"test\",\"path\":\"/baz\",\"value\":\"qux\"},{\"op\":\"test\",\"path\":\"/foo/1\",\"value\":2}]",
+                "{\"baz\":\"qux\",\"foo\":[\"a\",2,\"c\"]}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void failsTest() {
+        // A.9
+        apply("{\"baz\":\"qux\"}", "[{\"op\":\"test\",\"path\":\"/baz\",\"value\":\"bar\"}]");
+    }
+
+    @Test
+    public void addsNestedMember() {
+        // A.10
+        assertPatched("{\"foo\":\"bar\"}", "[{\"op\":\"add\",\"path\":\"/child\",\"value\":{\"grandchild\":{}}}]",
+                "{\"foo\":\"bar\",\"child\":{\"grandchild\":{}}}");
+    }
+
+    @Test
+    public void ignoresUnrecognizedMembers() {
+        // A.11
+        assertPatched("{\"foo\":\"bar\"}", "[{\"op\":\"add\",\"path\":\"/baz\",\"value\":\"qux\",\"xyz\":123}]", "{\"foo\":\"bar\",\"baz\":\"qux\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void failsToAddToNonexistentTarget() {
+        // A.12
+        apply("{\"foo\":\"bar\"}", "[{\"op\":\"add\",\"path\":\"/baz/bat\",\"value\":\"qux\"}]");
+    }
+
+    @Test
+    public void unescapesTildeAfterSlash() {
+        // A.14
+        assertPatched("{\"/\":9,\"~1\":10}", "[{\"op\":\"test\",\"path\":\"/~01\",\"value\":10}]", "{\"/\":9,\"~1\":10}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void distinguishesStringsAndNumbers() {
+        // A.15
+        apply("{\"/\":9,\"~1\":10}", "[{\"op\":\"test\",\"path\":\"/~01\",\"value\":\"10\"}]");
+    }
+
+    @Test
+    public void addsArrayValue() {
+        // A.16
+        assertPatched("{\"foo\":[\"bar\"]}", "[{\"op\":\"add\",\"path\":\"/foo/-\",\"value\":[\"abc\",\"def\"]}]", "{\"foo\":[\"bar\",[\"abc\",\"def\"]]}");
+    }
+
+    @Test
+    public void replacesRoot() {
+        Object patched = JSONPatch.apply(new JSONObject("{\"foo\":\"bar\"}"), new JSONArray("[{\"op\":\"replace\",\"path\":\"\",\"value\":[1]}]"));
+        assertTrue(new JSONArray("[1]").similar(patched));
+    }
+
+    @Test
+    public void copiesDeeply() {
+        JSONObject document = apply("{\"foo\":{\"bar\":1}}", "[{\"op\":\"copy\",\"from\":\"/foo\",\"path\":\"/baz\"},{\"op\":\"replace\",\"path\":\"/baz/bar\",\"value\":2}]");
+        assertEquals(1, JSONPatch.get(document, "/foo/bar"));
+        assertEquals(2, JSONPatch.get(document, "/baz/bar"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void failsToMoveIntoItself() {
+        apply("{\"foo\":{\"bar\":1}}", "[{\"op\":\"move\",\"from\":\"/foo\",\"path\":\"/foo/bar/baz\"}]");
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsLeadingZeroIndex() {
+        apply("{\"foo\":[1,2]}", "[{\"op\":\"remove\",\"path\":\"/foo/01\"}]");
+    }
+
+    /**
+     * Applies a patch to a document.
+     *
+     * @param document The document (JSON).
+     * @param patch The patch (JSON).
+     * @return The patched document.
+     */
+    private static JSONObject apply(String document, String patch) {
+        return (JSONObject) JSONPatch.apply(new JSONObject(document), new JSONArray(patch));
+    }
+
+    /**
+     * Asserts that a patch turns a document into the expected document.
+     *
+     * @param document The document (JSON).
+     * @param patch The patch (JSON).
+     * @param expected The expected document (JSON).
+     */
+    private static void assertPatched(String document, String patch, String expected) {
+        JSONObject patched = apply(document, patch);
+        assertTrue("Expected " + expected + " but was " + patched, new JSONObject(expected).similar(patched));
+    }
+}